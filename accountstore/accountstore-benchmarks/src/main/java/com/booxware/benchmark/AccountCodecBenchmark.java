@@ -0,0 +1,103 @@
+package com.booxware.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.booxware.dto.Account;
+import com.booxware.dto.AccountCodec;
+
+/**
+ * Encoding and decoding of one Account with AccountCodec compared to java
+ * serialization. Run with -prof gc to compare the allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AccountCodecBenchmark {
+
+	private Account account;
+
+	private ByteBuffer heapBuffer;
+
+	private ByteBuffer directBuffer;
+
+	private ByteBuffer encoded;
+
+	private byte[] serialized;
+
+	@Setup
+	public void setUp() throws IOException {
+		account = new Account("alex.miller", new byte[32],
+				"alex.miller@example.com", new Date());
+		account.setId(123456789L);
+		heapBuffer = ByteBuffer.allocate(256);
+		directBuffer = ByteBuffer.allocateDirect(256);
+		encoded = ByteBuffer.allocate(256);
+		AccountCodec.encode(account, encoded);
+		encoded.flip();
+		serialized = serialize();
+	}
+
+	@Benchmark
+	public ByteBuffer codecEncodeHeap() {
+		heapBuffer.clear();
+		AccountCodec.encode(account, heapBuffer);
+		return heapBuffer;
+	}
+
+	@Benchmark
+	public ByteBuffer codecEncodeDirect() {
+		directBuffer.clear();
+		AccountCodec.encode(account, directBuffer);
+		return directBuffer;
+	}
+
+	@Benchmark
+	public Account codecDecode() {
+		encoded.rewind();
+		return AccountCodec.decode(encoded);
+	}
+
+	@Benchmark
+	public byte[] serializationEncode() throws IOException {
+		return serialize();
+	}
+
+	@Benchmark
+	public Object serializationDecode() throws IOException,
+			ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+
+	private byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(account);
+		}
+		return bytes.toByteArray();
+	}
+
+}
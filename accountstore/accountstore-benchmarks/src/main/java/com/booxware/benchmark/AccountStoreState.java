@@ -0,0 +1,118 @@
+package com.booxware.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.beans.DirectFieldAccessor;
+
+import com.booxware.common.AccountStoreException;
+import com.booxware.controller.AccountStoreController;
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dao.wal.SyncPolicy;
+import com.booxware.dto.Account;
+import com.booxware.metrics.OperationMetrics;
+import com.booxware.service.AccountStoreServiceImpl;
+import com.booxware.service.LoginIndex;
+import com.booxware.service.PasswordHasher;
+import com.booxware.service.UserNameFilter;
+
+/**
+ * Populated store with the service and the controller on top, wired like
+ * ApplicationConfig does, for the service and controller benchmarks. All
+ * accounts have the password PASSWORD.
+ */
+@State(Scope.Benchmark)
+public class AccountStoreState {
+
+	static final String PASSWORD = "secretpass";
+
+	@Param({ "concurrent" })
+	public String dao;
+
+	@Param({ "1000", "1000000" })
+	public int accounts;
+
+	//distribution of the user name lengths: short, mixed or long
+	@Param({ "mixed" })
+	public String userNames;
+
+	//PBKDF2 iterations, far below the 310000 of production so that the
+	//hash does not hide the rest of the request
+	@Param({ "1000" })
+	public int iterations;
+
+	//whether the service records OperationMetrics, to measure their overhead
+	@Param({ "true", "false" })
+	public boolean metrics;
+
+	AccountStoreServiceImpl service;
+
+	AccountStoreController controller;
+
+	String[] names;
+
+	private File directory;
+
+	private AccountStoreDao store;
+
+	private PasswordHasher passwordHasher;
+
+	@Setup(Level.Trial)
+	public void populate() throws IOException, AccountStoreException {
+		directory = Files.createTempDirectory("accountstore-service").toFile();
+		store = Benchmarks.createDao(dao, accounts, directory, SyncPolicy.ASYNC);
+		passwordHasher = new PasswordHasher(iterations, Runtime.getRuntime()
+				.availableProcessors(), 256, 5000);
+		// one hash for all accounts, as hashing millions would take hours
+		byte[] password = passwordHasher.hash(PASSWORD);
+		names = new String[accounts];
+		Date now = new Date();
+		for (int i = 0; i < accounts; i++) {
+			names[i] = Benchmarks.userName(i, userNames);
+			store.save(new Account(names[i], password, names[i]
+					+ "@example.com", now));
+		}
+		service = new AccountStoreServiceImpl();
+		// the fields are injected by Spring in the application
+		DirectFieldAccessor fields = new DirectFieldAccessor(service);
+		fields.setPropertyValue("accountStoreDao", store);
+		fields.setPropertyValue("passwordHasher", passwordHasher);
+		fields.setPropertyValue("userNameFilter", UserNameFilter.load(store,
+				Math.max(accounts, 1000), 0.01));
+		fields.setPropertyValue("loginIndex",
+				LoginIndex.load(store, LoginIndex.DEFAULT_BUCKET_MILLIS));
+		if (metrics) {
+			fields.setPropertyValue("operationMetrics", new OperationMetrics());
+		}
+		controller = new AccountStoreController();
+		new DirectFieldAccessor(controller).setPropertyValue(
+				"acctStoreService", service);
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		passwordHasher.close();
+		if (store instanceof Closeable) {
+			((Closeable) store).close();
+		}
+		Benchmarks.deleteRecursively(directory);
+	}
+
+	/**
+	 * @return String - user name of a random stored account
+	 */
+	String randomName() {
+		return names[ThreadLocalRandom.current().nextInt(names.length)];
+	}
+
+}
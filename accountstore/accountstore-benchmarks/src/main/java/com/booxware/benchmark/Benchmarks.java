@@ -0,0 +1,167 @@
+package com.booxware.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dao.AccountStoreDaoImpl;
+import com.booxware.dao.BlockAccountIdGenerator;
+import com.booxware.dao.CachingAccountStoreDao;
+import com.booxware.dao.ConcurrentAccountStoreDaoImpl;
+import com.booxware.dao.MappedAccountStoreDaoImpl;
+import com.booxware.dao.OffHeapAccountStoreDaoImpl;
+import com.booxware.dao.WalAccountStoreDaoImpl;
+import com.booxware.dao.wal.SyncPolicy;
+
+/**
+ * Helpers shared by the benchmarks
+ *
+ */
+final class Benchmarks {
+
+	private Benchmarks() {
+	}
+
+	/**
+	 * Deletes a directory created for a benchmark with all its files
+	 */
+	static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Creates the AccountStoreDao of a benchmark, by the names of the
+	 * accountstore.dao property plus "cached" for a cache in front of the
+	 * mapped store
+	 *
+	 * @param type
+	 *            - concurrent, treemap, offheap, mapped, wal or cached
+	 * @param capacity
+	 *            - expected number of accounts
+	 * @param directory
+	 *            - directory of the durable stores
+	 * @param syncPolicy
+	 *            - sync policy of the wal store
+	 */
+	static AccountStoreDao createDao(String type, int capacity,
+			File directory, SyncPolicy syncPolicy) throws IOException {
+		BlockAccountIdGenerator ids = new BlockAccountIdGenerator(1000);
+		if ("concurrent".equals(type)) {
+			return new ConcurrentAccountStoreDaoImpl(capacity, ids);
+		}
+		if ("treemap".equals(type)) {
+			return new AccountStoreDaoImpl(ids);
+		}
+		if ("offheap".equals(type)) {
+			return new OffHeapAccountStoreDaoImpl(capacity, ids);
+		}
+		if ("mapped".equals(type)) {
+			return new MappedAccountStoreDaoImpl(directory,
+					MappedAccountStoreDaoImpl.DEFAULT_REGION_SIZE, false, ids);
+		}
+		if ("wal".equals(type)) {
+			return new WalAccountStoreDaoImpl(directory, syncPolicy, 1000, 0,
+					ids);
+		}
+		if ("cached".equals(type)) {
+			return new CachingAccountStoreDao(new MappedAccountStoreDaoImpl(
+					directory, MappedAccountStoreDaoImpl.DEFAULT_REGION_SIZE,
+					false, ids), Math.max(1, capacity / 10), 1000);
+		}
+		throw new IllegalArgumentException("Unknown dao: " + type);
+	}
+
+	/**
+	 * User name of the i-th account of a benchmark, unique per i and with a
+	 * length drawn from a distribution
+	 *
+	 * @param i
+	 *            - number of the account
+	 * @param lengths
+	 *            - short: 5 to 10 characters, long: 64, mixed: 4 to 64 with
+	 *            most names short, like real user names
+	 */
+	static String userName(int i, String lengths) {
+		String base = "u" + Integer.toString(i, 36);
+		int length;
+		if ("short".equals(lengths)) {
+			length = base.length();
+		} else if ("long".equals(lengths)) {
+			length = 64;
+		} else if ("mixed".equals(lengths)) {
+			// a fixed hash of i, so that every run has the same names
+			int hash = (i * 0x9E3779B9) >>> 24;
+			length = hash < 192 ? 4 + hash % 12 : 16 + hash % 49;
+		} else {
+			throw new IllegalArgumentException("Unknown lengths: " + lengths);
+		}
+		if (base.length() >= length) {
+			return base;
+		}
+		StringBuilder name = new StringBuilder(length).append(base);
+		while (name.length() < length) {
+			name.append('x');
+		}
+		return name.toString();
+	}
+
+	/**
+	 * Response that discards what is written to it, for the streaming
+	 * endpoints of the controller. Only the writing methods do anything.
+	 */
+	static HttpServletResponse discardingResponse() {
+		final ServletOutputStream out = new ServletOutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+		final PrintWriter writer = new PrintWriter(new Writer() {
+			public void write(char[] cbuf, int off, int len) {
+			}
+
+			public void flush() {
+			}
+
+			public void close() {
+			}
+		});
+		return (HttpServletResponse) Proxy.newProxyInstance(
+				Benchmarks.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if ("getOutputStream".equals(method.getName())) {
+							return out;
+						}
+						if ("getWriter".equals(method.getName())) {
+							return writer;
+						}
+						if (boolean.class == method.getReturnType()) {
+							return false;
+						}
+						if (int.class == method.getReturnType()) {
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.booxware.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResult.DeferredResultHandler;
+
+/**
+ * Requests to AccountStoreController, called directly without the servlet
+ * container and Spring MVC, so that the cost of building the responses is
+ * measured on top of ServiceBenchmark. The benchmark thread waits for the
+ * DeferredResult of a request, as the container would. Streamed responses
+ * are written to a response that discards them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g",
+		"-Dlog4j.configuration=benchmark-log4j.properties" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ControllerBenchmark {
+
+	private static final HttpServletResponse RESPONSE = Benchmarks
+			.discardingResponse();
+
+	@Benchmark
+	public Object updateAccount(AccountStoreState state)
+			throws InterruptedException {
+		return await(state.controller.updateAccount(state.randomName(),
+				AccountStoreState.PASSWORD));
+	}
+
+	@Benchmark
+	public Object hasLoggedInSince(AccountStoreState state)
+			throws InterruptedException {
+		return await(state.controller.hasLoggedInSince(state.randomName(),
+				new Date(0)));
+	}
+
+	/**
+	 * A page of 100 accounts from the start of a random user name
+	 */
+	@Benchmark
+	public void listAccounts(AccountStoreState state) throws IOException {
+		state.controller.listAccounts(state.randomName().substring(0, 2), 100,
+				null, RESPONSE);
+	}
+
+	/**
+	 * Waits for the result of a request, as the container would
+	 */
+	private static Object await(DeferredResult<ResponseEntity<String>> result)
+			throws InterruptedException {
+		if (!result.hasResult()) {
+			final CountDownLatch done = new CountDownLatch(1);
+			result.setResultHandler(new DeferredResultHandler() {
+				public void handleResult(Object value) {
+					done.countDown();
+				}
+			});
+			done.await();
+		}
+		return result.getResult();
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.booxware.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dao.wal.SyncPolicy;
+import com.booxware.dto.Account;
+
+/**
+ * Lookups and logins on each AccountStoreDao implementation, by the size of
+ * the store, the share of reads and the length of the user names. A read is
+ * a findByName of a random account, a write a login of one, i.e.
+ * updateLastLogin, so that the store keeps its size.
+ *
+ * The defaults run quickly on a laptop. Larger stores need a larger heap,
+ * about 1 GB per million accounts for the heap stores, e.g.
+ * -p accounts=50000000 -jvmArgsAppend -Xmx64g, and the thread count is set
+ * with -t, e.g. -t 1, -t 8 and -t 32. Allocations per operation are
+ * reported with -prof gc.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g",
+		"-Dlog4j.configuration=benchmark-log4j.properties" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DaoBenchmark {
+
+	@Param({ "concurrent", "treemap", "offheap", "mapped", "wal", "cached" })
+	public String dao;
+
+	@Param({ "1000", "1000000" })
+	public int accounts;
+
+	//percentage of the operations that are lookups, the others are logins
+	@Param({ "100", "90", "50" })
+	public int readPercent;
+
+	//distribution of the user name lengths: short, mixed or long
+	@Param({ "mixed" })
+	public String userNames;
+
+	//sync policy of the wal store, GROUP_COMMIT to include the fsyncs
+	@Param({ "ASYNC" })
+	public String walSync;
+
+	private File directory;
+
+	private AccountStoreDao store;
+
+	private Account[] saved;
+
+	private String[] names;
+
+	@Setup(Level.Trial)
+	public void populate() throws IOException {
+		directory = Files.createTempDirectory("accountstore-dao").toFile();
+		store = Benchmarks.createDao(dao, accounts, directory,
+				SyncPolicy.valueOf(walSync));
+		saved = new Account[accounts];
+		names = new String[accounts];
+		byte[] password = new byte[32];
+		Date now = new Date();
+		for (int i = 0; i < accounts; i++) {
+			names[i] = Benchmarks.userName(i, userNames);
+			saved[i] = store.save(new Account(names[i], password, names[i]
+					+ "@example.com", now));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		if (store instanceof Closeable) {
+			((Closeable) store).close();
+		}
+		Benchmarks.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	public Object readOrLogin() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int i = random.nextInt(accounts);
+		if (random.nextInt(100) < readPercent) {
+			return store.findByName(names[i]);
+		}
+		store.updateLastLogin(saved[i], System.currentTimeMillis());
+		return saved[i];
+	}
+
+}
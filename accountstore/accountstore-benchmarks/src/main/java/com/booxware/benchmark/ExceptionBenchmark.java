@@ -0,0 +1,71 @@
+package com.booxware.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.booxware.common.AccountStoreException;
+
+/**
+ * Cost of an expected failure, like a login with an unknown user name,
+ * signalled with a new AccountStoreException compared to a preallocated
+ * stackless one. The exception is thrown below depth frames, as a servlet
+ * container, Spring MVC and the controller sit between the thread and the
+ * service, and caught and formatted like the controller does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExceptionBenchmark {
+
+	private static final String MESSAGE = "UserName is invalid";
+
+	private static final AccountStoreException STACKLESS = AccountStoreException
+			.stackless(MESSAGE);
+
+	//frames between the catch and the throw
+	@Param({ "10", "100" })
+	public int depth;
+
+	@Benchmark
+	public String newException() {
+		try {
+			throwAt(depth, false);
+			return null;
+		} catch (AccountStoreException e) {
+			return e.toString();
+		}
+	}
+
+	@Benchmark
+	public String stacklessException() {
+		try {
+			throwAt(depth, true);
+			return null;
+		} catch (AccountStoreException e) {
+			return e.toString();
+		}
+	}
+
+	private static int throwAt(int depth, boolean stackless)
+			throws AccountStoreException {
+		if (depth > 0) {
+			// not a tail call, so that every level keeps its frame
+			return throwAt(depth - 1, stackless) + 1;
+		}
+		throw stackless ? STACKLESS : new AccountStoreException(MESSAGE);
+	}
+
+}
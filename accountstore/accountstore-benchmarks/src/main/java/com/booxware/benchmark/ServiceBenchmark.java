@@ -0,0 +1,95 @@
+package com.booxware.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.booxware.common.AccountStoreException;
+import com.booxware.dto.Account;
+
+/**
+ * Requests to AccountStoreServiceImpl with the user name filter and the
+ * login index enabled, on the store and parameters of AccountStoreState.
+ * Run with -prof gc for the allocations per request and with -t for other
+ * thread counts.
+ * The metrics parameter compares the requests with and without
+ * OperationMetrics recording them, and the *Async methods the cost of the
+ * CompletableFuture API over the synchronous one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g",
+		"-Dlog4j.configuration=benchmark-log4j.properties" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ServiceBenchmark {
+
+	//numbers of the accounts created by createAndDeleteAccount
+	private static final AtomicInteger created = new AtomicInteger();
+
+	@Benchmark
+	public Account updateAccount(AccountStoreState state)
+			throws AccountStoreException {
+		return state.service.updateAccount(state.randomName(),
+				AccountStoreState.PASSWORD);
+	}
+
+	@Benchmark
+	public boolean hasLoggedInSince(AccountStoreState state)
+			throws AccountStoreException {
+		return state.service.hasLoggedInSince(state.randomName(), new Date(0));
+	}
+
+	/**
+	 * updateAccount through the asynchronous API, waiting for its future
+	 */
+	@Benchmark
+	public Account updateAccountAsync(AccountStoreState state) {
+		return state.service.updateAccountAsync(state.randomName(),
+				AccountStoreState.PASSWORD).join();
+	}
+
+	/**
+	 * hasLoggedInSince through the asynchronous API, waiting for its future
+	 */
+	@Benchmark
+	public boolean hasLoggedInSinceAsync(AccountStoreState state) {
+		return state.service.hasLoggedInSinceAsync(state.randomName(),
+				new Date(0)).join();
+	}
+
+	@Benchmark
+	public String hasLoggedInSinceUnknown(AccountStoreState state) {
+		try {
+			state.service.hasLoggedInSince(state.randomName() + "?", new Date(0));
+			return null;
+		} catch (AccountStoreException e) {
+			return e.getMessage();
+		}
+	}
+
+	/**
+	 * Creates a new account and deletes it again, so that the store keeps
+	 * its size
+	 */
+	@Benchmark
+	public Account createAndDeleteAccount(AccountStoreState state)
+			throws AccountStoreException {
+		String userName = "new" + created.incrementAndGet();
+		Account account = state.service.createAccount(userName, userName
+				+ "@example.com", AccountStoreState.PASSWORD);
+		state.service.deleteAccount(userName);
+		return account;
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.booxware.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.booxware.dao.BlockAccountIdGenerator;
+import com.booxware.dao.WalAccountStoreDaoImpl;
+import com.booxware.dao.wal.SyncPolicy;
+import com.booxware.dto.Account;
+
+/**
+ * Startup time of WalAccountStoreDaoImpl, either from a snapshot plus a log
+ * tail or from the full log. The default of 10M accounts needs a heap of about
+ * 12 GB, smaller stores can be measured with e.g. -p accounts=1000000.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xms12g", "-Xmx12g",
+		"-Dlog4j.configuration=benchmark-log4j.properties" })
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class StartupBenchmark {
+
+	@Param({ "10000000" })
+	public int accounts;
+
+	//snapshot: snapshot plus log tail, log: full log only
+	@Param({ "snapshot", "log" })
+	public String startup;
+
+	//percentage of the accounts that log in after the snapshot
+	@Param({ "1" })
+	public int tailPercent;
+
+	private File directory;
+
+	private WalAccountStoreDaoImpl dao;
+
+	@Setup(Level.Trial)
+	public void populate() throws IOException {
+		directory = Files.createTempDirectory("accountstore-startup").toFile();
+		WalAccountStoreDaoImpl populated = open(SyncPolicy.ASYNC);
+		Account[] created = new Account[accounts];
+		byte[] password = new byte[32];
+		for (int i = 0; i < accounts; i++) {
+			created[i] = populated.save(new Account("user" + i, password,
+					"user" + i + "@example.com", new Date()));
+		}
+		if ("snapshot".equals(startup)) {
+			populated.snapshot();
+		}
+		// later than the saves, so that every login is logged
+		long login = System.currentTimeMillis() + 1000;
+		int tail = (int) ((long) accounts * tailPercent / 100);
+		for (int i = 0; i < tail; i++) {
+			populated.updateLastLogin(created[i], login);
+		}
+		populated.close();
+	}
+
+	@Benchmark
+	public WalAccountStoreDaoImpl start() throws IOException {
+		dao = open(SyncPolicy.GROUP_COMMIT);
+		return dao;
+	}
+
+	@TearDown(Level.Invocation)
+	public void close() throws IOException {
+		dao.close();
+		dao = null;
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() {
+		Benchmarks.deleteRecursively(directory);
+	}
+
+	private WalAccountStoreDaoImpl open(SyncPolicy syncPolicy)
+			throws IOException {
+		return new WalAccountStoreDaoImpl(directory, syncPolicy, 1000, 0,
+				new BlockAccountIdGenerator(1000));
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.booxware.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.filter.DelegatingFilterProxy;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import com.booxware.config.ApplicationConfig;
+
+/**
+ * The application in an embedded Jetty, wired like ApplicationInitializer
+ * does in a servlet container: the ApplicationConfig root context, and one
+ * asynchronous DispatcherServlet on "/" behind the RequestExecutorFilter.
+ * The accountstore properties can be overridden with system properties, e.g.
+ * -Daccountstore.dao=wal or -Daccountstore.web.execution=virtual.
+ */
+final class EmbeddedServer implements Closeable {
+
+	private final Server server;
+
+	/**
+	 * Starts the server
+	 *
+	 * @param port
+	 *            - port to listen on, 0 for a free port
+	 */
+	EmbeddedServer(int port) throws Exception {
+		AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+		context.register(ApplicationConfig.class);
+		ServletContextHandler handler = new ServletContextHandler();
+		// closes the context when the server stops
+		handler.addEventListener(new ContextLoaderListener(context));
+		ServletHolder dispatcher = new ServletHolder(new DispatcherServlet(
+				new AnnotationConfigWebApplicationContext()));
+		dispatcher.setAsyncSupported(true);
+		handler.addServlet(dispatcher, "/");
+		FilterHolder filter = new FilterHolder(new DelegatingFilterProxy(
+				"requestExecutorFilter"));
+		filter.setAsyncSupported(true);
+		handler.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST,
+				DispatcherType.ASYNC));
+		server = new Server(port);
+		server.setHandler(handler);
+		server.start();
+	}
+
+	/**
+	 * @return String - base URL of the application
+	 */
+	String getUrl() {
+		return "http://localhost:"
+				+ ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+	}
+
+	public void close() throws IOException {
+		try {
+			server.stop();
+		} catch (Exception e) {
+			throw new IOException("Unable to stop the server", e);
+		}
+	}
+
+}
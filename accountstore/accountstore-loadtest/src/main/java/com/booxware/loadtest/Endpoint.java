@@ -0,0 +1,208 @@
+package com.booxware.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * The endpoints of AccountStoreController that the load generator calls,
+ * each with the request of one operation of a user
+ */
+enum Endpoint {
+
+	/**
+	 * Registers a new user, who is then available to the other endpoints
+	 */
+	CREATE("create") {
+		Outcome call(String url, UserPool users, Random random) {
+			String userName = users.newUserName();
+			Outcome outcome = send("GET", url + "/create/" + userName + "/"
+					+ PASSWORD + "/" + userName + "@example.com");
+			if (Outcome.OK == outcome) {
+				users.add(userName);
+			}
+			return outcome;
+		}
+	},
+
+	/**
+	 * Logs in a random user
+	 */
+	LOGIN("login") {
+		Outcome call(String url, UserPool users, Random random) {
+			return send("PUT", url + "/update/" + userName(users, random) + "/"
+					+ PASSWORD);
+		}
+	},
+
+	/**
+	 * Checks whether a random user has logged in since a date
+	 */
+	LOGINDETAILS("logindetails") {
+		Outcome call(String url, UserPool users, Random random) {
+			return send("GET", url + "/logindetails/" + userName(users, random)
+					+ "/2016-01-01");
+		}
+	},
+
+	/**
+	 * Deletes a random user
+	 */
+	DELETE("delete") {
+		Outcome call(String url, UserPool users, Random random) {
+			String userName = users.removeRandom(random);
+			return send("DELETE", url + "/delete/"
+					+ (null == userName ? UNKNOWN_USER : userName));
+		}
+	};
+
+	/**
+	 * Result of a request
+	 */
+	enum Outcome {
+
+		/**
+		 * The operation succeeded
+		 */
+		OK,
+
+		/**
+		 * The application rejected the operation, e.g. for an unknown user
+		 */
+		FAILED,
+
+		/**
+		 * The request failed, or the response was not 200 OK
+		 */
+		ERROR
+
+	}
+
+	//password of all accounts of the load
+	static final String PASSWORD = "secretpass";
+
+	//user name for requests while the pool is empty
+	private static final String UNKNOWN_USER = "unknown";
+
+	private final String id;
+
+	private Endpoint(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return String - name of the endpoint in the options and the report
+	 */
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * Sends the request of the endpoint for a user and reads the response
+	 *
+	 * @param url
+	 *            - base URL of the application
+	 * @param users
+	 *            - user names of the existing accounts
+	 * @param random
+	 *            - random of the calling thread
+	 * @return Outcome - result of the request
+	 */
+	abstract Outcome call(String url, UserPool users, Random random);
+
+	/**
+	 * @return Endpoint - the endpoint of an id, or null if there is none
+	 */
+	static Endpoint of(String id) {
+		for (Endpoint endpoint : values()) {
+			if (endpoint.id.equals(id)) {
+				return endpoint;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sends a request with a JSON body, for the set up of the load
+	 *
+	 * @return Outcome - ERROR unless the response is 200 OK
+	 */
+	static Outcome post(String url, byte[] json) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			OutputStream out = connection.getOutputStream();
+			out.write(json);
+			out.close();
+			return 200 == connection.getResponseCode() ? Outcome.OK
+					: Outcome.ERROR;
+		} catch (IOException e) {
+			return Outcome.ERROR;
+		} finally {
+			if (null != connection) {
+				drain(connection);
+			}
+		}
+	}
+
+	private static String userName(UserPool users, Random random) {
+		String userName = users.random(random);
+		return null == userName ? UNKNOWN_USER : userName;
+	}
+
+	/**
+	 * Sends a request and reads the whole response, so that the connection
+	 * is kept alive for the next request
+	 */
+	private static Outcome send(String method, String url) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setRequestMethod(method);
+			if (200 != connection.getResponseCode()) {
+				return Outcome.ERROR;
+			}
+			// the controller answers failures with 200 and the exception
+			return drain(connection).contains("AccountStoreException") ? Outcome.FAILED
+					: Outcome.OK;
+		} catch (IOException e) {
+			return Outcome.ERROR;
+		} finally {
+			if (null != connection) {
+				drain(connection);
+			}
+		}
+	}
+
+	/**
+	 * @return String - the body of the response, empty once it has been read
+	 */
+	private static String drain(HttpURLConnection connection) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try {
+			InputStream in = connection.getResponseCode() < 400 ? connection
+					.getInputStream() : connection.getErrorStream();
+			if (null == in) {
+				return "";
+			}
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				body.write(buffer, 0, read);
+			}
+			in.close();
+		} catch (IOException e) {
+			connection.disconnect();
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.booxware.loadtest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Latencies and outcomes of the requests to one endpoint in the measured
+ * interval. Latencies are kept in microseconds with three significant
+ * digits and are measured from the time the request was scheduled, not from
+ * the time it was sent, unless the load follows the closed model.
+ */
+final class EndpointStats {
+
+	//auto-resizing, so that no latency is out of range
+	private final Histogram latencies = new ConcurrentHistogram(3);
+
+	private final LongAdder failed = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+
+	void record(Endpoint.Outcome outcome, long latencyNanos) {
+		latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+		if (Endpoint.Outcome.FAILED == outcome) {
+			failed.increment();
+		} else if (Endpoint.Outcome.ERROR == outcome) {
+			errors.increment();
+		}
+	}
+
+	long getCount() {
+		return latencies.getTotalCount();
+	}
+
+	/**
+	 * Writes the stats as the fields of a JSON object, latencies in
+	 * milliseconds
+	 *
+	 * @param seconds
+	 *            - length of the measured interval
+	 */
+	void write(JsonGenerator json, double seconds) throws IOException {
+		json.writeNumberField("count", getCount());
+		json.writeNumberField("failed", failed.sum());
+		json.writeNumberField("errors", errors.sum());
+		json.writeNumberField("throughput", getCount() / seconds);
+		json.writeNumberField("mean", latencies.getMean() / 1000);
+		json.writeNumberField("p50", percentile(50));
+		json.writeNumberField("p90", percentile(90));
+		json.writeNumberField("p99", percentile(99));
+		json.writeNumberField("p999", percentile(99.9));
+		json.writeNumberField("max", latencies.getMaxValue() / 1000.0);
+	}
+
+	/**
+	 * @return String - one line of the summary table
+	 */
+	String summary(String endpoint, double seconds) {
+		return String.format("%-14s %9d %7d %7d %10.1f %9.3f %9.3f %9.3f %9.3f",
+				endpoint, getCount(), failed.sum(), errors.sum(), getCount()
+						/ seconds, percentile(50), percentile(99),
+				percentile(99.9), latencies.getMaxValue() / 1000.0);
+	}
+
+	private double percentile(double percentile) {
+		return latencies.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+}
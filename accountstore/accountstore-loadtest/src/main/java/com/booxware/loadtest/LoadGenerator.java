@@ -0,0 +1,342 @@
+package com.booxware.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Load generator for the REST endpoints of the account store. It starts the
+ * application in an embedded Jetty, or targets a running one, registers a
+ * number of accounts and then sends a mix of create, login, logindetails and
+ * delete requests at a fixed rate.
+ *
+ * The load follows an open model: requests are scheduled at fixed intervals
+ * whether or not earlier ones have completed, each runs on its own thread,
+ * and its latency is measured from its scheduled time. A server that stalls
+ * therefore shows the stall in the latencies of all requests scheduled
+ * meanwhile, instead of delaying them unmeasured (coordinated omission).
+ * Requests run on virtual threads where the JDK has them, and on a cached
+ * pool of platform threads otherwise.
+ *
+ * With connections=N the load follows a closed model instead: N connections
+ * each send their next request as soon as the previous one completes, and
+ * latencies are measured from the time a request is sent. This shows how
+ * the server copes with many concurrent connections, e.g. with
+ * -Daccountstore.web.execution=servlet, platform or virtual.
+ *
+ * Options are given as key=value:
+ * <ul>
+ * <li>url - base URL of a running application, embedded if not given</li>
+ * <li>port - port of the embedded application, 0 (default) for a free one</li>
+ * <li>rate - requests per second, default 1000</li>
+ * <li>connections - concurrent connections of a closed model, default 0 for
+ * the open model at the rate</li>
+ * <li>warmup - seconds before the measurement, default 10</li>
+ * <li>duration - seconds of the measurement, default 30</li>
+ * <li>accounts - accounts registered before the load, default 1000</li>
+ * <li>mix - percentages of the endpoints, default
+ * create:5,login:40,logindetails:50,delete:5</li>
+ * <li>report - JSON report file, default load-report.json</li>
+ * <li>label - label of the run in the report, e.g. the commit</li>
+ * </ul>
+ * The embedded application reads the accountstore properties, which can be
+ * overridden with system properties, e.g.
+ * -Daccountstore.password.iterations=10000.
+ */
+public final class LoadGenerator {
+
+	//accounts registered with one bulk request
+	private static final int SETUP_BATCH_SIZE = 500;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final String url;
+
+	private final double rate;
+
+	private final int connections;
+
+	private final long warmupNanos;
+
+	private final long durationNanos;
+
+	//endpoint of each percent of the requests
+	private final Endpoint[] mix = new Endpoint[100];
+
+	private final UserPool users = new UserPool();
+
+	private final Map<Endpoint, EndpointStats> stats = new EnumMap<Endpoint, EndpointStats>(
+			Endpoint.class);
+
+	private LoadGenerator(String url, double rate, int connections,
+			long warmupSeconds, long durationSeconds, String mix) {
+		this.url = url;
+		this.rate = rate;
+		this.connections = connections;
+		this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+		this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+		int percent = 0;
+		for (String part : mix.split(",")) {
+			String[] share = part.split(":");
+			Endpoint endpoint = Endpoint.of(share[0].trim());
+			if (null == endpoint || share.length != 2) {
+				throw new IllegalArgumentException("Invalid mix: " + mix);
+			}
+			int end = percent + Integer.parseInt(share[1].trim());
+			if (end > 100) {
+				throw new IllegalArgumentException("Mix exceeds 100%: " + mix);
+			}
+			while (percent < end) {
+				this.mix[percent++] = endpoint;
+			}
+		}
+		if (percent != 100) {
+			throw new IllegalArgumentException("Mix must add up to 100%: "
+					+ mix);
+		}
+		for (Endpoint endpoint : Endpoint.values()) {
+			stats.put(endpoint, new EndpointStats());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Expected key=value: " + arg);
+			}
+			options.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+		if (null == System.getProperty("log4j.configuration")) {
+			System.setProperty("log4j.configuration",
+					"loadtest-log4j.properties");
+		}
+		int connections = Integer.parseInt(option(options, "connections", "0"));
+		// keep a connection per concurrent request alive, not only 5
+		if (null == System.getProperty("http.maxConnections")) {
+			System.setProperty("http.maxConnections",
+					Integer.toString(Math.max(1000, connections)));
+		}
+		EmbeddedServer server = null;
+		String url = options.get("url");
+		if (null == url) {
+			server = new EmbeddedServer(Integer.parseInt(option(options,
+					"port", "0")));
+			url = server.getUrl();
+		}
+		try {
+			LoadGenerator generator = new LoadGenerator(url,
+					Double.parseDouble(option(options, "rate", "1000")),
+					connections, Long.parseLong(option(options, "warmup", "10")),
+					Long.parseLong(option(options, "duration", "30")), option(
+							options, "mix",
+							"create:5,login:40,logindetails:50,delete:5"));
+			generator.register(Integer.parseInt(option(options, "accounts",
+					"1000")));
+			String executor = generator.run();
+			generator.report(new File(option(options, "report",
+					"load-report.json")), option(options, "label", ""),
+					executor, options);
+		} finally {
+			if (null != server) {
+				server.close();
+			}
+		}
+	}
+
+	private static String option(Map<String, String> options, String key,
+			String defaultValue) {
+		String value = options.get(key);
+		return null == value ? defaultValue : value;
+	}
+
+	/**
+	 * Registers the accounts the load starts with through the bulk endpoint
+	 */
+	private void register(int accounts) throws IOException {
+		for (int first = 0; first < accounts; first += SETUP_BATCH_SIZE) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			JsonGenerator json = JSON_FACTORY.createGenerator(body,
+					JsonEncoding.UTF8);
+			json.writeStartObject();
+			json.writeArrayFieldStart("create");
+			String[] userNames = new String[Math.min(SETUP_BATCH_SIZE,
+					accounts - first)];
+			for (int i = 0; i < userNames.length; i++) {
+				userNames[i] = users.newUserName();
+				json.writeStartObject();
+				json.writeStringField("userName", userNames[i]);
+				json.writeStringField("email", userNames[i] + "@example.com");
+				json.writeStringField("password", Endpoint.PASSWORD);
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+			json.close();
+			if (Endpoint.Outcome.OK != Endpoint.post(url + "/batch",
+					body.toByteArray())) {
+				throw new IOException("Unable to register accounts at " + url);
+			}
+			for (String userName : userNames) {
+				users.add(userName);
+			}
+		}
+	}
+
+	/**
+	 * Sends the requests of the warmup and the measurement and waits for them
+	 * to complete
+	 *
+	 * @return String - kind of threads the requests ran on
+	 */
+	private String run() throws InterruptedException {
+		String executorKind = "virtual";
+		ExecutorService executor = newVirtualThreadExecutor();
+		if (null == executor) {
+			executorKind = "platform";
+			executor = Executors.newCachedThreadPool();
+		}
+		if (connections > 0) {
+			runClosed(executor);
+		} else {
+			runOpen(executor);
+		}
+		executor.shutdown();
+		if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+			System.err.println("Requests still running after a minute");
+		}
+		return executorKind;
+	}
+
+	/**
+	 * Sends the requests at the rate, each on its own thread
+	 */
+	private void runOpen(ExecutorService executor) {
+		Random random = new Random();
+		double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		final long start = System.nanoTime();
+		final long measureFrom = start + warmupNanos;
+		long end = measureFrom + durationNanos;
+		for (long i = 0;; i++) {
+			final long scheduled = start + (long) (i * intervalNanos);
+			if (scheduled >= end) {
+				break;
+			}
+			long delay = scheduled - System.nanoTime();
+			if (delay > 0) {
+				LockSupport.parkNanos(delay);
+			}
+			final Endpoint endpoint = mix[random.nextInt(100)];
+			executor.execute(new Runnable() {
+				public void run() {
+					Endpoint.Outcome outcome = endpoint.call(url, users,
+							ThreadLocalRandom.current());
+					if (scheduled >= measureFrom) {
+						stats.get(endpoint).record(outcome,
+								System.nanoTime() - scheduled);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Sends the requests of the connections, each connection on its own
+	 * thread and one request after the other
+	 */
+	private void runClosed(ExecutorService executor) {
+		final long start = System.nanoTime();
+		final long measureFrom = start + warmupNanos;
+		final long end = measureFrom + durationNanos;
+		for (int i = 0; i < connections; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					Random random = ThreadLocalRandom.current();
+					long sent;
+					while ((sent = System.nanoTime()) < end) {
+						Endpoint endpoint = mix[random.nextInt(100)];
+						Endpoint.Outcome outcome = endpoint.call(url, users,
+								random);
+						if (sent >= measureFrom) {
+							stats.get(endpoint).record(outcome,
+									System.nanoTime() - sent);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return ExecutorService - an executor that starts a virtual thread per
+	 *         task, or null if the JDK has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Prints a summary and writes the JSON report
+	 */
+	private void report(File file, String label, String executor,
+			Map<String, String> options) throws IOException {
+		double seconds = (double) durationNanos / TimeUnit.SECONDS.toNanos(1);
+		long total = 0;
+		System.out.println(String.format(
+				"%-14s %9s %7s %7s %10s %9s %9s %9s %9s", "endpoint", "count",
+				"failed", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms",
+				"max ms"));
+		for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+			System.out.println(entry.getValue().summary(entry.getKey().getId(),
+					seconds));
+			total += entry.getValue().getCount();
+		}
+		JsonGenerator json = JSON_FACTORY.createGenerator(file,
+				JsonEncoding.UTF8);
+		json.useDefaultPrettyPrinter();
+		json.writeStartObject();
+		json.writeStringField("label", label);
+		json.writeNumberField("timestamp", System.currentTimeMillis());
+		json.writeStringField("executor", executor);
+		json.writeObjectFieldStart("options");
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			json.writeStringField(option.getKey(), option.getValue());
+		}
+		json.writeEndObject();
+		json.writeNumberField("rate", rate);
+		json.writeNumberField("connections", connections);
+		json.writeNumberField("seconds", seconds);
+		json.writeNumberField("throughput", total / seconds);
+		json.writeObjectFieldStart("endpoints");
+		for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+			json.writeObjectFieldStart(entry.getKey().getId());
+			entry.getValue().write(json, seconds);
+			json.writeEndObject();
+		}
+		json.writeEndObject();
+		json.writeEndObject();
+		json.close();
+		System.out.println("Report written to " + file.getAbsolutePath());
+	}
+
+}
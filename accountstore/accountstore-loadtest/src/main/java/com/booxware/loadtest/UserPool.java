@@ -0,0 +1,59 @@
+package com.booxware.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User names of the accounts that exist while the load runs. Created
+ * accounts are added, deleted ones removed, and logins pick a random one.
+ */
+final class UserPool {
+
+	private final List<String> userNames = new ArrayList<String>();
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @return String - a user name that has not been handed out before
+	 */
+	String newUserName() {
+		return "load" + next.getAndIncrement();
+	}
+
+	synchronized void add(String userName) {
+		userNames.add(userName);
+	}
+
+	synchronized int size() {
+		return userNames.size();
+	}
+
+	/**
+	 * @return String - a random user name, or null if there is none
+	 */
+	synchronized String random(Random random) {
+		if (userNames.isEmpty()) {
+			return null;
+		}
+		return userNames.get(random.nextInt(userNames.size()));
+	}
+
+	/**
+	 * @return String - a random user name that is removed from the pool, or
+	 *         null if there is none
+	 */
+	synchronized String removeRandom(Random random) {
+		if (userNames.isEmpty()) {
+			return null;
+		}
+		int index = random.nextInt(userNames.size());
+		String userName = userNames.get(index);
+		// the last one takes its place, so that the removal is O(1)
+		userNames.set(index, userNames.get(userNames.size() - 1));
+		userNames.remove(userNames.size() - 1);
+		return userName;
+	}
+
+}
@@ -1,7 +1,16 @@
 package com.booxware.common;
 
+import java.util.concurrent.CompletionException;
+
 /**
- * Exception class used by AccountStore
+ * Exception class used by AccountStore.
+ *
+ * Expected failures, like an unknown user name or a wrong password, are
+ * thrown often and by anyone who sends requests, so they use preallocated
+ * instances from stackless(String) instead of capturing a stack trace each
+ * time. A CompletableFuture wraps them into a CompletionException with a
+ * stack trace as soon as a stage passes them on, unless they already come
+ * wrapped by completion().
  *
  */
 public class AccountStoreException extends Exception {
@@ -14,6 +23,61 @@ public class AccountStoreException extends Exception {
 	public AccountStoreException(String message) {
 		super(message);
 	}
+
+	/**
+	 * @param message
+	 *            - description of the failure
+	 * @param writableStackTrace
+	 *            - false for an exception without stack trace
+	 */
+	protected AccountStoreException(String message, boolean writableStackTrace) {
+		super(message, null, false, writableStackTrace);
+	}
+
+	/**
+	 * Creates an exception without stack trace, cause and suppressed
+	 * exceptions. It cannot be changed, so one instance can be thrown by
+	 * all threads for every occurrence of the failure.
+	 * 
+	 * @param message
+	 *            - description of the failure
+	 * @return AccountStoreException
+	 *            - the exception to keep in a constant
+	 */
+	public static AccountStoreException stackless(String message) {
+		return new AccountStoreException(message, false);
+	}
+
+	/**
+	 * Wraps the exception to fail a CompletableFuture or a stage with it. The
+	 * wrapper has no stack trace, and the later stages pass it on as it is.
+	 * 
+	 * @return CompletionException
+	 *            - a new CompletionException without stack trace that has
+	 *            this exception as its cause
+	 */
+	public CompletionException completion() {
+		return new StacklessCompletionException(this);
+	}
+
+	/**
+	 * CompletionException that does not capture a stack trace
+	 */
+	private static final class StacklessCompletionException extends
+			CompletionException {
+
+		private static final long serialVersionUID = -3186283916380624133L;
+
+		StacklessCompletionException(AccountStoreException cause) {
+			super(cause.toString(), cause);
+		}
+
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
 	
+
 }
 
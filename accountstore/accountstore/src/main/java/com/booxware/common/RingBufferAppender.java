@@ -0,0 +1,319 @@
+package com.booxware.common;
+
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * log4j appender that hands events to its attached appenders on a thread of
+ * its own, so that requests do not wait for formatting and file I/O.
+ *
+ * Events are passed through a fixed ring buffer: a logging thread claims a
+ * sequence with a compare-and-set and publishes the event into its slot, the
+ * dispatcher thread takes the events in sequence order. Logging never blocks;
+ * an event that finds the buffer full is dropped and counted, and the number
+ * of dropped events is logged as a warning once there is space again.
+ *
+ * The thread name and the message are captured by the logging thread. The
+ * location, NDC and MDC are not, so the layouts of the attached appenders
+ * must not use %L, %F, %M, %x or %X.
+ *
+ * Credentials in messages, like the password segment of the create and
+ * update request paths, are masked by the dispatcher before the event
+ * reaches an attached appender, unless RedactCredentials is false.
+ */
+public class RingBufferAppender extends AppenderSkeleton implements
+		AppenderAttachable {
+
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	//password segment of /create/{userName}/{password}/... and /update/{userName}/{password}
+	private static final Pattern PATH_PASSWORD = Pattern
+			.compile("(/(?:create|update)/[^/\\s]+/)[^/\\s\\]?]+");
+
+	private static final Pattern PASSWORD_PARAMETER = Pattern.compile(
+			"(password=)[^&\\s,]+", Pattern.CASE_INSENSITIVE);
+
+	private static final String MASK = "****";
+
+	private final AppenderAttachableImpl appenders = new AppenderAttachableImpl();
+
+	//next sequence to be claimed by a logging thread
+	private final AtomicLong tail = new AtomicLong();
+
+	//next sequence to be dispatched, only written by the dispatcher
+	private volatile long head;
+
+	private final LongAdder droppedCount = new LongAdder();
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	private boolean redactCredentials = true;
+
+	private AtomicReferenceArray<LoggingEvent> slots;
+
+	private int mask;
+
+	private volatile boolean running;
+
+	private Thread dispatcher;
+
+	/**
+	 * @param bufferSize
+	 *            - number of events the buffer holds, rounded up to a power
+	 *            of two
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @return int
+	 *            - number of events the buffer holds
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @param redactCredentials
+	 *            - false to pass messages on unchanged
+	 */
+	public void setRedactCredentials(boolean redactCredentials) {
+		this.redactCredentials = redactCredentials;
+	}
+
+	/**
+	 * @return boolean
+	 *            - true if credentials in messages are masked
+	 */
+	public boolean getRedactCredentials() {
+		return redactCredentials;
+	}
+
+	/**
+	 * Allocates the buffer and starts the dispatcher thread
+	 */
+	public void activateOptions() {
+		int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+		slots = new AtomicReferenceArray<LoggingEvent>(capacity);
+		mask = capacity - 1;
+		running = true;
+		dispatcher = new Thread(new Runnable() {
+			public void run() {
+				dispatch();
+			}
+		}, "log-dispatcher-" + getName());
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Same as AppenderSkeleton.doAppend, but without its lock, so that
+	 * logging threads only meet at the compare-and-set of the sequence
+	 */
+	public void doAppend(LoggingEvent event) {
+		if (closed || !isAsSevereAsThreshold(event.getLevel())) {
+			return;
+		}
+		for (Filter filter = getFirstFilter(); null != filter; filter = filter
+				.getNext()) {
+			int decision = filter.decide(event);
+			if (decision == Filter.DENY) {
+				return;
+			}
+			if (decision == Filter.ACCEPT) {
+				break;
+			}
+		}
+		append(event);
+	}
+
+	/**
+	 * Publishes the event to the buffer, or drops it if the buffer is full
+	 */
+	protected void append(LoggingEvent event) {
+		if (null == slots) {
+			activateOptions();
+		}
+		// read lazily by log4j, so they must be taken on the logging thread
+		event.getThreadName();
+		event.getRenderedMessage();
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head >= slots.length()) {
+				droppedCount.increment();
+				return;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+		slots.lazySet((int) sequence & mask, event);
+	}
+
+	/**
+	 * @return long
+	 *            - number of events dropped because the buffer was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * Dispatches the buffered events, then closes the attached appenders
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		running = false;
+		if (null != dispatcher) {
+			LockSupport.unpark(dispatcher);
+			try {
+				dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (appenders) {
+			Enumeration<?> attached = appenders.getAllAppenders();
+			while (null != attached && attached.hasMoreElements()) {
+				((Appender) attached.nextElement()).close();
+			}
+		}
+	}
+
+	public boolean requiresLayout() {
+		return false;
+	}
+
+	public void addAppender(Appender appender) {
+		synchronized (appenders) {
+			appenders.addAppender(appender);
+		}
+	}
+
+	public Enumeration<?> getAllAppenders() {
+		synchronized (appenders) {
+			return appenders.getAllAppenders();
+		}
+	}
+
+	public Appender getAppender(String name) {
+		synchronized (appenders) {
+			return appenders.getAppender(name);
+		}
+	}
+
+	public boolean isAttached(Appender appender) {
+		synchronized (appenders) {
+			return appenders.isAttached(appender);
+		}
+	}
+
+	public void removeAllAppenders() {
+		synchronized (appenders) {
+			appenders.removeAllAppenders();
+		}
+	}
+
+	public void removeAppender(Appender appender) {
+		synchronized (appenders) {
+			appenders.removeAppender(appender);
+		}
+	}
+
+	public void removeAppender(String name) {
+		synchronized (appenders) {
+			appenders.removeAppender(name);
+		}
+	}
+
+	/**
+	 * Masks the credentials in a message
+	 *
+	 * @param message
+	 *            - rendered message of an event
+	 * @return String
+	 *            - the message with masked credentials
+	 */
+	static String redact(String message) {
+		if (null == message) {
+			return null;
+		}
+		Matcher matcher = PATH_PASSWORD.matcher(message);
+		if (matcher.find()) {
+			message = matcher.replaceAll("$1" + MASK);
+		}
+		matcher = PASSWORD_PARAMETER.matcher(message);
+		if (matcher.find()) {
+			message = matcher.replaceAll("$1" + MASK);
+		}
+		return message;
+	}
+
+	/**
+	 * Takes the events in sequence order until the appender is closed and
+	 * the buffer is empty
+	 */
+	private void dispatch() {
+		long reportedDrops = 0;
+		long sequence = head;
+		while (running || sequence < tail.get()) {
+			int slot = (int) sequence & mask;
+			LoggingEvent event = slots.get(slot);
+			if (null == event) {
+				if (sequence < tail.get()) {
+					// claimed, but not published yet
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+				}
+				continue;
+			}
+			slots.lazySet(slot, null);
+			head = ++sequence;
+			forward(event);
+			long drops = droppedCount.sum();
+			if (drops > reportedDrops) {
+				forward(new LoggingEvent(Logger.class.getName(),
+						Logger.getLogger(RingBufferAppender.class.getName()),
+						Level.WARN, (drops - reportedDrops)
+								+ " log events dropped, buffer size " + slots.length(),
+						null));
+				reportedDrops = drops;
+			}
+		}
+	}
+
+	private void forward(LoggingEvent event) {
+		if (redactCredentials) {
+			String message = event.getRenderedMessage();
+			String redacted = redact(message);
+			if (redacted != message) {
+				event = new LoggingEvent(event.getFQNOfLoggerClass(),
+						event.getLogger(), event.getTimeStamp(),
+						event.getLevel(), redacted, event.getThreadName(),
+						event.getThrowableInformation(), null, null, null);
+			}
+		}
+		synchronized (appenders) {
+			appenders.appendLoopOnAppenders(event);
+		}
+	}
+
+}
@@ -1,12 +1,226 @@
 package com.booxware.config;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
+import com.booxware.dao.AccountIdGenerator;
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dao.AccountStoreDaoImpl;
+import com.booxware.dao.AsyncAccountStoreDao;
+import com.booxware.dao.CachingAccountStoreDao;
+import com.booxware.dao.BlockAccountIdGenerator;
+import com.booxware.dao.ConcurrentAccountStoreDaoImpl;
+import com.booxware.dao.MappedAccountStoreDaoImpl;
+import com.booxware.dao.OffHeapAccountStoreDaoImpl;
+import com.booxware.dao.WalAccountStoreDaoImpl;
+import com.booxware.dao.wal.SyncPolicy;
+import com.booxware.metrics.OperationMetrics;
+import com.booxware.metrics.OperationMetricsJmx;
+import com.booxware.service.LoginIndex;
+import com.booxware.service.PasswordHasher;
+import com.booxware.service.UserNameFilter;
+
 @Configuration
 @EnableWebMvc
 @ComponentScan(basePackages="com.booxware")
+@PropertySource("classpath:accountstore.properties")
 public class ApplicationConfig {
 
+	@Autowired
+	private Environment env;
+
+	/**
+	 * AccountStoreDao implementation selected by the accountstore.dao property,
+	 * behind a cache of accountstore.cache.maximumSize accounts if that is set
+	 */
+	@Bean
+	public AccountStoreDao accountStoreDao() throws IOException {
+		AccountStoreDao accountStoreDao = createAccountStoreDao();
+		int cacheSize = env.getProperty("accountstore.cache.maximumSize",
+				Integer.class, 0);
+		if (cacheSize > 0) {
+			return new CachingAccountStoreDao(accountStoreDao, cacheSize,
+					env.getProperty("accountstore.cache.loginFlushMillis",
+							Long.class, 1000L));
+		}
+		return accountStoreDao;
+	}
+
+	/**
+	 * AccountStoreDao implementation selected by the accountstore.dao property:
+	 * "concurrent" (default), "treemap", "offheap", "mapped" or "wal"
+	 */
+	private AccountStoreDao createAccountStoreDao() throws IOException {
+		String daoType = env.getProperty("accountstore.dao", "concurrent");
+		if ("concurrent".equals(daoType)) {
+			return new ConcurrentAccountStoreDaoImpl(env.getProperty(
+					"accountstore.dao.initialCapacity", Integer.class, 1024),
+					accountIdGenerator());
+		}
+		if ("treemap".equals(daoType)) {
+			return new AccountStoreDaoImpl(accountIdGenerator());
+		}
+		if ("offheap".equals(daoType)) {
+			return new OffHeapAccountStoreDaoImpl(env.getProperty(
+					"accountstore.dao.initialCapacity", Integer.class, 1024),
+					accountIdGenerator());
+		}
+		if ("mapped".equals(daoType)) {
+			return new MappedAccountStoreDaoImpl(new File(
+					env.getRequiredProperty("accountstore.data.dir")),
+					MappedAccountStoreDaoImpl.DEFAULT_REGION_SIZE, env.getProperty(
+							"accountstore.mapped.syncOnWrite", Boolean.class,
+							false), env.getProperty("accountstore.email.unique",
+							Boolean.class, false), accountIdGenerator());
+		}
+		if ("wal".equals(daoType)) {
+			return new WalAccountStoreDaoImpl(new File(
+					env.getRequiredProperty("accountstore.data.dir")),
+					SyncPolicy.valueOf(env.getProperty("accountstore.wal.sync",
+							"GROUP_COMMIT")), env.getProperty(
+							"accountstore.wal.syncIntervalMicros", Long.class,
+							1000L), env.getProperty(
+							"accountstore.snapshot.intervalSeconds", Long.class,
+							3600L), accountIdGenerator());
+		}
+		throw new IllegalStateException("Unknown accountstore.dao: " + daoType);
+	}
+
+	/**
+	 * PasswordHasher with the PBKDF2 iterations and thread pool configured by
+	 * the accountstore.password properties
+	 */
+	@Bean
+	public PasswordHasher passwordHasher() {
+		return new PasswordHasher(env.getProperty(
+				"accountstore.password.iterations", Integer.class, 310000),
+				env.getProperty("accountstore.password.threads", Integer.class,
+						Runtime.getRuntime().availableProcessors()),
+				env.getProperty("accountstore.password.queueCapacity",
+						Integer.class, 256), env.getProperty(
+						"accountstore.password.timeoutMillis", Long.class, 5000L));
+	}
+
+	/**
+	 * UserNameFilter of the stored accounts, sized by the accountstore.filter
+	 * properties
+	 */
+	@Bean
+	public UserNameFilter userNameFilter() throws IOException {
+		return UserNameFilter.load(accountStoreDao(), env.getProperty(
+				"accountstore.filter.expectedUserNames", Long.class, 1000000L),
+				env.getProperty("accountstore.filter.falsePositiveRate",
+						Double.class, 0.01));
+	}
+
+	/**
+	 * LoginIndex of the last logins of the stored accounts, in buckets of
+	 * accountstore.loginIndex.bucketMinutes, unless
+	 * accountstore.loginIndex.enabled is false
+	 */
+	@Bean
+	@Conditional(LoginIndexEnabled.class)
+	public LoginIndex loginIndex() throws IOException {
+		return LoginIndex.load(accountStoreDao(), TimeUnit.MINUTES.toMillis(env
+				.getProperty("accountstore.loginIndex.bucketMinutes",
+						Long.class, 60L)));
+	}
+
+	/**
+	 * AccountIdGenerator that keeps its reservations in accountstore.id.file,
+	 * or in memory only if no file is configured
+	 */
+	@Bean
+	public AccountIdGenerator accountIdGenerator() {
+		String file = env.getProperty("accountstore.id.file", "");
+		return new BlockAccountIdGenerator(env.getProperty(
+				"accountstore.id.initial", Long.class, 1000L),
+				env.getProperty("accountstore.id.blockSize", Integer.class, 64),
+				file.isEmpty() ? null : new File(file));
+	}
+
+	/**
+	 * AccountStoreDao of the asynchronous service API, calling the
+	 * accountStoreDao on accountstore.dao.asyncThreads threads, or on the
+	 * calling thread if there are none
+	 */
+	@Bean
+	public AsyncAccountStoreDao asyncAccountStoreDao() throws IOException {
+		return new AsyncAccountStoreDao(accountStoreDao(), env.getProperty(
+				"accountstore.dao.asyncThreads", Integer.class, 0));
+	}
+
+	/**
+	 * OperationMetrics the service records its operations to, read through
+	 * JMX and the /metrics endpoint, timing one in
+	 * accountstore.metrics.sampleRate of the operations without a hash and
+	 * reading the statistics of the cache, if one is configured
+	 */
+	@Bean
+	public OperationMetrics operationMetrics() throws IOException {
+		OperationMetrics metrics = new OperationMetrics(env.getProperty(
+				"accountstore.metrics.sampleRate", Integer.class,
+				OperationMetrics.DEFAULT_SAMPLE_RATE));
+		AccountStoreDao accountStoreDao = accountStoreDao();
+		if (accountStoreDao instanceof CachingAccountStoreDao) {
+			metrics.setCache((CachingAccountStoreDao) accountStoreDao);
+		}
+		return metrics;
+	}
+
+	/**
+	 * MBean of the OperationMetrics, registered with the platform MBean
+	 * server if accountstore.metrics.jmx is true and unregistered when the
+	 * context closes
+	 */
+	@Bean
+	public OperationMetricsJmx operationMetricsJmx() throws IOException {
+		OperationMetricsJmx jmx = new OperationMetricsJmx(operationMetrics());
+		if (env.getProperty("accountstore.metrics.jmx", Boolean.class, true)) {
+			jmx.register();
+		}
+		return jmx;
+	}
+
+	/**
+	 * Filter that runs the requests on the threads selected by the
+	 * accountstore.web.execution property: "servlet" (default), "platform"
+	 * or "virtual"
+	 */
+	@Bean
+	public RequestExecutorFilter requestExecutorFilter() {
+		return new RequestExecutorFilter(ExecutionMode.of(env.getProperty(
+				"accountstore.web.execution", "servlet")), env.getProperty(
+				"accountstore.web.threads", Integer.class, 200),
+				env.getProperty("accountstore.web.queueCapacity",
+						Integer.class, 10000), env.getProperty(
+						"accountstore.web.timeoutMillis", Long.class, 30000L));
+	}
+
+	/**
+	 * Condition of the loginIndex bean, the accountstore.loginIndex.enabled
+	 * property
+	 */
+	static class LoginIndexEnabled implements Condition {
+
+		public boolean matches(ConditionContext context,
+				AnnotatedTypeMetadata metadata) {
+			return context.getEnvironment().getProperty(
+					"accountstore.loginIndex.enabled", Boolean.class, true);
+		}
+	}
+
 }
@@ -1,5 +1,13 @@
 package com.booxware.config;
 
+import javax.servlet.Filter;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
+
+import org.apache.log4j.LogManager;
+import org.springframework.web.filter.DelegatingFilterProxy;
 import org.springframework.web.servlet.support.AbstractAnnotationConfigDispatcherServletInitializer;
 
 /**
@@ -8,6 +16,25 @@ import org.springframework.web.servlet.support.AbstractAnnotationConfigDispatche
  */
 public class ApplicationInitializer extends AbstractAnnotationConfigDispatcherServletInitializer {
 
+	/**
+	 * Registers a listener that closes the log appenders when the application
+	 * stops, so that buffered log events are written. It is registered before
+	 * the Spring context and therefore notified after it is closed.
+	 */
+	@Override
+	public void onStartup(ServletContext servletContext)
+			throws ServletException {
+		servletContext.addListener(new ServletContextListener() {
+			public void contextInitialized(ServletContextEvent event) {
+			}
+
+			public void contextDestroyed(ServletContextEvent event) {
+				LogManager.shutdown();
+			}
+		});
+		super.onStartup(servletContext);
+	}
+
 	@Override
 	protected Class<?>[] getRootConfigClasses() {
 		return new Class[] {ApplicationConfig.class};
@@ -23,4 +50,13 @@ public class ApplicationInitializer extends AbstractAnnotationConfigDispatcherSe
 		return new String[]{"/"};
 	}
 
+	/**
+	 * The RequestExecutorFilter of the root context, in front of the
+	 * DispatcherServlet and asynchronous like it
+	 */
+	@Override
+	protected Filter[] getServletFilters() {
+		return new Filter[] {new DelegatingFilterProxy("requestExecutorFilter")};
+	}
+
 }
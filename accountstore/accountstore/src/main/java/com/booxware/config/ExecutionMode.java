@@ -0,0 +1,32 @@
+package com.booxware.config;
+
+/**
+ * Threads the requests to the controllers run on, selected by the
+ * accountstore.web.execution property
+ *
+ */
+public enum ExecutionMode {
+
+	//the servlet container's threads, which cap the concurrent requests
+	SERVLET,
+
+	//a bounded pool of platform threads, freeing the container's threads
+	PLATFORM,
+
+	//a virtual thread per request (Java 21), so that a request blocked on
+	//I/O or a password hash holds no platform thread
+	VIRTUAL;
+
+	/**
+	 * @return ExecutionMode - the mode of a property value, ignoring case
+	 */
+	public static ExecutionMode of(String name) {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("Unknown accountstore.web.execution: "
+					+ name);
+		}
+	}
+
+}
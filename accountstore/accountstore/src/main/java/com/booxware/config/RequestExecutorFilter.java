@@ -0,0 +1,427 @@
+package com.booxware.config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the requests on the threads of an ExecutionMode. Unless the mode is
+ * SERVLET, a request is put into asynchronous mode and the rest of the
+ * filter chain, with the DispatcherServlet and the controller, runs on an
+ * executor, so that the container's thread returns to its pool right away.
+ * A request the executor cannot take is answered with 503 Service
+ * Unavailable.
+ *
+ * The container resets the paths of the request once the filter returns,
+ * so the chain gets a wrapper that keeps them as they were when the request
+ * came in. A controller that returns a DeferredResult starts asynchronous
+ * processing through the wrapper, which hands it the AsyncContext of the
+ * filter; the request then completes when the result is dispatched. As the
+ * container does for its own dispatches, a dispatch or completion the chain
+ * asks for takes effect once the chain has returned.
+ *
+ * The filter is the bean "requestExecutorFilter", which
+ * ApplicationInitializer maps in front of the DispatcherServlet.
+ */
+public class RequestExecutorFilter implements Filter, Closeable {
+
+	private static final Logger logger = Logger
+			.getLogger(RequestExecutorFilter.class);
+
+	private final ExecutionMode mode;
+
+	private final long timeoutMillis;
+
+	//null if the requests run on the container's threads
+	private final ExecutorService executor;
+
+	/**
+	 * @param mode
+	 *            - threads the requests run on
+	 * @param threads
+	 *            - number of platform threads for PLATFORM
+	 * @param queueCapacity
+	 *            - requests that may wait for a platform thread
+	 * @param timeoutMillis
+	 *            - time after which the container ends an asynchronous
+	 *            request, 0 for none
+	 * @throws IllegalStateException
+	 *             - if the mode is VIRTUAL and the JDK has no virtual threads
+	 */
+	public RequestExecutorFilter(ExecutionMode mode, int threads,
+			int queueCapacity, long timeoutMillis) {
+		this.mode = mode;
+		this.timeoutMillis = timeoutMillis;
+		switch (mode) {
+		case PLATFORM:
+			executor = new ThreadPoolExecutor(threads, threads, 0,
+					TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+							queueCapacity), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "request-"
+									+ count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			break;
+		case VIRTUAL:
+			executor = newVirtualThreadExecutor();
+			break;
+		default:
+			executor = null;
+			break;
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Requests run on " + mode + " threads");
+		}
+	}
+
+	/**
+	 * Creates the executor through reflection, as the application is built
+	 * for older JDKs than the one that introduced virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(
+					"Virtual threads need Java 21 or later, running on "
+							+ System.getProperty("java.version"), e);
+		}
+	}
+
+	/**
+	 * @return ExecutionMode - threads the requests run on
+	 */
+	public ExecutionMode getMode() {
+		return mode;
+	}
+
+	public void init(FilterConfig filterConfig) {
+	}
+
+	public void doFilter(final ServletRequest request,
+			final ServletResponse response, final FilterChain chain)
+			throws IOException, ServletException {
+		if (null == executor || DispatcherType.REQUEST != request.getDispatcherType()
+				|| !request.isAsyncSupported()) {
+			chain.doFilter(request, response);
+			return;
+		}
+		final AsyncContext async = request.startAsync(request, response);
+		async.setTimeout(timeoutMillis);
+		final ScopedRequest scoped = new ScopedRequest(
+				(HttpServletRequest) request, async);
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						chain.doFilter(scoped, response);
+					} catch (IOException | ServletException | RuntimeException e) {
+						logger.error("Request failed", e);
+						if (null == scoped.getHandedOver()) {
+							sendError(response,
+									HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+						}
+					}
+					// once handed over, the chain completes or dispatches it
+					HandedOverContext handedOver = scoped.getHandedOver();
+					if (null == handedOver) {
+						async.complete();
+					} else {
+						handedOver.chainReturned();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Request rejected, the " + mode
+						+ " threads are busy");
+			}
+			sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			async.complete();
+		}
+	}
+
+	private static void sendError(ServletResponse response, int status) {
+		if (!response.isCommitted()) {
+			try {
+				((HttpServletResponse) response).sendError(status);
+			} catch (IOException e) {
+				logger.warn("Unable to send the error " + status, e);
+			}
+		}
+	}
+
+	public void destroy() {
+	}
+
+	/**
+	 * Stops the executor, waiting briefly for the running requests
+	 */
+	public void close() {
+		if (null == executor) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Request with the paths and the servlet context of the dispatch that
+	 * started it, whose asynchronous processing is the one the filter started
+	 */
+	private static final class ScopedRequest extends HttpServletRequestWrapper {
+
+		private final ServletContext servletContext;
+
+		private final String contextPath;
+
+		private final String servletPath;
+
+		private final String pathInfo;
+
+		private final String requestURI;
+
+		private final String queryString;
+
+		private final AsyncContext async;
+
+		//set once the chain takes over the asynchronous processing
+		private volatile HandedOverContext handedOver;
+
+		ScopedRequest(HttpServletRequest request, AsyncContext async) {
+			super(request);
+			this.async = async;
+			servletContext = request.getServletContext();
+			contextPath = request.getContextPath();
+			servletPath = request.getServletPath();
+			pathInfo = request.getPathInfo();
+			requestURI = request.getRequestURI();
+			queryString = request.getQueryString();
+		}
+
+		@Override
+		public ServletContext getServletContext() {
+			return servletContext;
+		}
+
+		@Override
+		public String getContextPath() {
+			return contextPath;
+		}
+
+		@Override
+		public String getServletPath() {
+			return servletPath;
+		}
+
+		@Override
+		public String getPathInfo() {
+			return pathInfo;
+		}
+
+		@Override
+		public String getRequestURI() {
+			return requestURI;
+		}
+
+		@Override
+		public String getQueryString() {
+			return queryString;
+		}
+
+		/**
+		 * Started while the chain runs once it is handed over, even if the
+		 * chain has already asked for a dispatch
+		 */
+		@Override
+		public boolean isAsyncStarted() {
+			HandedOverContext context = handedOver;
+			return (null != context && context.isInChain())
+					|| super.isAsyncStarted();
+		}
+
+		@Override
+		public AsyncContext startAsync() {
+			if (null == handedOver) {
+				handedOver = new HandedOverContext(async);
+			}
+			return handedOver;
+		}
+
+		@Override
+		public AsyncContext startAsync(ServletRequest servletRequest,
+				ServletResponse servletResponse) {
+			return startAsync();
+		}
+
+		@Override
+		public AsyncContext getAsyncContext() {
+			return null != handedOver ? handedOver : super.getAsyncContext();
+		}
+
+		/**
+		 * @return HandedOverContext - the AsyncContext the chain took over,
+		 *         null if it did not
+		 */
+		HandedOverContext getHandedOver() {
+			return handedOver;
+		}
+
+	}
+
+	/**
+	 * AsyncContext of the filter as the chain sees it, which holds back a
+	 * dispatch or completion until the chain has returned
+	 */
+	private static final class HandedOverContext implements AsyncContext {
+
+		private final AsyncContext async;
+
+		//guarded by this
+		private boolean inChain = true;
+
+		//dispatch or completion held back, guarded by this
+		private Runnable pending;
+
+		HandedOverContext(AsyncContext async) {
+			this.async = async;
+		}
+
+		synchronized boolean isInChain() {
+			return inChain;
+		}
+
+		/**
+		 * Carries out what the chain asked for while it ran
+		 */
+		void chainReturned() {
+			Runnable action;
+			synchronized (this) {
+				inChain = false;
+				action = pending;
+				pending = null;
+			}
+			if (null != action) {
+				action.run();
+			}
+		}
+
+		private void afterChain(Runnable action) {
+			synchronized (this) {
+				if (inChain) {
+					pending = action;
+					return;
+				}
+			}
+			action.run();
+		}
+
+		public ServletRequest getRequest() {
+			return async.getRequest();
+		}
+
+		public ServletResponse getResponse() {
+			return async.getResponse();
+		}
+
+		public boolean hasOriginalRequestAndResponse() {
+			return async.hasOriginalRequestAndResponse();
+		}
+
+		public void dispatch() {
+			afterChain(new Runnable() {
+				public void run() {
+					async.dispatch();
+				}
+			});
+		}
+
+		public void dispatch(final String path) {
+			afterChain(new Runnable() {
+				public void run() {
+					async.dispatch(path);
+				}
+			});
+		}
+
+		public void dispatch(final ServletContext context, final String path) {
+			afterChain(new Runnable() {
+				public void run() {
+					async.dispatch(context, path);
+				}
+			});
+		}
+
+		public void complete() {
+			afterChain(new Runnable() {
+				public void run() {
+					async.complete();
+				}
+			});
+		}
+
+		public void start(Runnable run) {
+			async.start(run);
+		}
+
+		public void addListener(AsyncListener listener) {
+			async.addListener(listener);
+		}
+
+		public void addListener(AsyncListener listener,
+				ServletRequest servletRequest, ServletResponse servletResponse) {
+			async.addListener(listener, servletRequest, servletResponse);
+		}
+
+		public <T extends AsyncListener> T createListener(Class<T> clazz)
+				throws ServletException {
+			return async.createListener(clazz);
+		}
+
+		public void setTimeout(long timeout) {
+			async.setTimeout(timeout);
+		}
+
+		public long getTimeout() {
+			return async.getTimeout();
+		}
+
+	}
+
+}
@@ -1,24 +1,51 @@
 package com.booxware.controller;
 
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import com.booxware.common.AccountStoreException;
 import com.booxware.dto.Account;
+import com.booxware.dto.BatchRequest;
+import com.booxware.dto.BatchResponse;
+import com.booxware.dto.ImportResult;
+import com.booxware.metrics.OperationMetrics;
+import com.booxware.service.AccountFormat;
 import com.booxware.service.AccountStoreService;
+import com.booxware.service.AccountTransfer;
 
 /**
- * Controller for Account Store service 
+ * Controller for Account Store service. The account operations return a
+ * DeferredResult, so that no request thread waits while a password is hashed
+ * or an account is stored.
  */
 @RestController
 public class AccountStoreController {
@@ -26,9 +53,26 @@ public class AccountStoreController {
 	private static final Logger logger = Logger
 			.getLogger(AccountStoreController.class.getName());
 
+	//largest page of the account listing
+	static final int MAX_LIST_LIMIT = 10000;
+
+	//accounts read from the service and written to the response at once
+	static final int LIST_BATCH_SIZE = 256;
+
+	//largest number of items of a bulk request, over all its lists
+	static final int MAX_BATCH_SIZE = 10000;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
 	@Autowired
 	AccountStoreService acctStoreService;
 
+	@Autowired
+	AccountTransfer accountTransfer;
+
+	@Autowired(required = false)
+	OperationMetrics operationMetrics;
+
 	/**
 	 * Method to create an account
 	 * 
@@ -38,35 +82,45 @@ public class AccountStoreController {
 	 *            -Password of the user
 	 * @param email
 	 *            -email of the user
-	 * @return ResponseEntity 
+	 * @return DeferredResult 
 	 *            -returns account id in case of successful account
 	 *             creation, else returns the error message.
 	 * 
 	 */
 	@GetMapping("/create/{userName}/{password}/{email}")
-	public ResponseEntity<String> createAccount(
-			@PathVariable("userName") String userName,
+	public DeferredResult<ResponseEntity<String>> createAccount(
+			@PathVariable("userName") final String userName,
 			@PathVariable("password") String password,
 			@PathVariable("email") String email) {
 		if (StringUtils.isEmpty(userName) || StringUtils.isEmpty(password)
 				|| StringUtils.isEmpty(email)) {
 			logger.info("Username, email and password fields are mandatory to create an account");
-			return new ResponseEntity<String>(
-					"Username, email and password fields are mandatory to create an account",
-					HttpStatus.OK);
+			return respond("Username, email and password fields are mandatory to create an account");
 		}
-		Account acct = null;
-		try {
-			acct = acctStoreService.createAccount(userName, email, password);
-		} catch (AccountStoreException e) {
-			logger.error("Exception occured while creating an account: "
-					+ e.getMessage());
-			return new ResponseEntity<String>(e.toString(), HttpStatus.OK);
-		}
-		logger.info("Account created successfully for User:" + userName
-				+ ", Account ID:" + acct.getId());
-		return new ResponseEntity<String>("Account ID:"
-				+ String.valueOf(acct.getId()), HttpStatus.OK);
+		final DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>();
+		acctStoreService.createAccountAsync(userName, email, password)
+				.whenComplete(new BiConsumer<Account, Throwable>() {
+					public void accept(Account acct, Throwable failure) {
+						AccountStoreException e = accountStoreException(failure);
+						if (null != e) {
+							logger.error("Exception occured while creating an account: "
+									+ e.getMessage());
+							result.setResult(new ResponseEntity<String>(e
+									.toString(), HttpStatus.OK));
+						} else if (null != failure) {
+							result.setErrorResult(cause(failure));
+						} else {
+							if (logger.isInfoEnabled()) {
+								logger.info("Account created successfully for User:"
+										+ userName + ", Account ID:" + acct.getId());
+							}
+							result.setResult(new ResponseEntity<String>(
+									"Account ID:" + String.valueOf(acct.getId()),
+									HttpStatus.OK));
+						}
+					}
+				});
+		return result;
 	}
 
 	/**
@@ -76,32 +130,43 @@ public class AccountStoreController {
 	 *            -Name of the user
 	 * @param password
 	 *            -Password of the user
-	 * @return ResponseEntity 
+	 * @return DeferredResult 
 	 *            - returns the account updated time in case of
 	 *            successful update, else returns the error message.
 	 */
 	@PutMapping("/update/{userName}/{password}")
-	public ResponseEntity<String> updateAccount(
-			@PathVariable("userName") String userName,
+	public DeferredResult<ResponseEntity<String>> updateAccount(
+			@PathVariable("userName") final String userName,
 			@PathVariable("password") String password) {
 		if (StringUtils.isEmpty(userName) || StringUtils.isEmpty(password)) {
 			logger.info("Username and password are mandatory to update an account");
-			return new ResponseEntity<String>(
-					"Username and password are mandatory to update an account",
-					HttpStatus.OK);
-		}
-		Account acct;
-		try {
-			acct = acctStoreService.updateAccount(userName, password);
-		} catch (AccountStoreException e) {
-			logger.error("Exception occured while updating an account: "
-					+ e.getMessage());
-			return new ResponseEntity<String>(e.toString(), HttpStatus.OK);
+			return respond("Username and password are mandatory to update an account");
 		}
-		logger.info("Account updated successfully for User:" + userName
-				+ ", Account updated time is:" + acct.getLastLogin());
-		return new ResponseEntity<String>("Account updated time:"
-				+ acct.getLastLogin(), HttpStatus.OK);
+		final DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>();
+		acctStoreService.updateAccountAsync(userName, password).whenComplete(
+				new BiConsumer<Account, Throwable>() {
+					public void accept(Account acct, Throwable failure) {
+						AccountStoreException e = accountStoreException(failure);
+						if (null != e) {
+							logger.error("Exception occured while updating an account: "
+									+ e.getMessage());
+							result.setResult(new ResponseEntity<String>(e
+									.toString(), HttpStatus.OK));
+						} else if (null != failure) {
+							result.setErrorResult(cause(failure));
+						} else {
+							if (logger.isInfoEnabled()) {
+								logger.info("Account updated successfully for User:"
+										+ userName + ", Account updated time is:"
+										+ acct.getLastLogin());
+							}
+							result.setResult(new ResponseEntity<String>(
+									"Account updated time:" + acct.getLastLogin(),
+									HttpStatus.OK));
+						}
+					}
+				});
+		return result;
 	}
 
 	/**
@@ -109,27 +174,40 @@ public class AccountStoreController {
 	 * 
 	 * @param userName
 	 *            - Name of the user
-	 * @return ResponseEntity 
+	 * @return DeferredResult 
 	 *            - returns the success message in case of
 	 *            successful delete, else returns the error message
 	 */
 	@DeleteMapping("/delete/{userName}")
-	public ResponseEntity<String> deleteAccount(String userName) {
+	public DeferredResult<ResponseEntity<String>> deleteAccount(
+			@PathVariable("userName") final String userName) {
 		if (StringUtils.isEmpty(userName)) {
 			logger.info("Username is mandatory to delete an account");
-			return new ResponseEntity<String>(
-					"Username is mandatory to delete an account", HttpStatus.OK);
+			return respond("Username is mandatory to delete an account");
 		}
-		try {
-			acctStoreService.deleteAccount(userName);
-		} catch (AccountStoreException e) {
-			logger.error("Exception occured while deleting an account: "
-					+ e.getMessage());
-			return new ResponseEntity<String>(e.toString(), HttpStatus.OK);
-		}
-		logger.info("Account deleted Successfully for User:" + userName);
-		return new ResponseEntity<String>("Account deleted Successfully",
-				HttpStatus.OK);
+		final DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>();
+		acctStoreService.deleteAccountAsync(userName).whenComplete(
+				new BiConsumer<Void, Throwable>() {
+					public void accept(Void deleted, Throwable failure) {
+						AccountStoreException e = accountStoreException(failure);
+						if (null != e) {
+							logger.error("Exception occured while deleting an account: "
+									+ e.getMessage());
+							result.setResult(new ResponseEntity<String>(e
+									.toString(), HttpStatus.OK));
+						} else if (null != failure) {
+							result.setErrorResult(cause(failure));
+						} else {
+							if (logger.isInfoEnabled()) {
+								logger.info("Account deleted Successfully for User:"
+										+ userName);
+							}
+							result.setResult(new ResponseEntity<String>(
+									"Account deleted Successfully", HttpStatus.OK));
+						}
+					}
+				});
+		return result;
 	}
 
 	/**
@@ -138,32 +216,356 @@ public class AccountStoreController {
 	 * @param userName
 	 *            - Name of the user
 	 * @param date
-	 *            - Date input given by user
-	 * @return ResponseEntity 
+	 *            - Date input given by user, as yyyy-MM-dd
+	 * @return DeferredResult 
 	 *            - returns the user message with true if the user
 	 *            has logged in , else returns false. if the mandatory fields are
 	 *            not provided, returns the validation message
 	 */
 	@GetMapping("/logindetails/{userName}/{date}")
-	public ResponseEntity<String> hasLoggedInSince(String userName, Date date) {
+	public DeferredResult<ResponseEntity<String>> hasLoggedInSince(
+			@PathVariable("userName") final String userName,
+			@PathVariable("date") @DateTimeFormat(iso = ISO.DATE) final Date date) {
 		if (StringUtils.isEmpty(userName) || null == date) {
 			logger.info("Username and Date is mandatory to verify the last login");
-			return new ResponseEntity<String>(
-					"Username and Date is mandatory to verify the last login",
-					HttpStatus.OK);
+			return respond("Username and Date is mandatory to verify the last login");
+		}
+		final DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>();
+		acctStoreService.hasLoggedInSinceAsync(userName, date).whenComplete(
+				new BiConsumer<Boolean, Throwable>() {
+					public void accept(Boolean hasLoggedIn, Throwable failure) {
+						AccountStoreException e = accountStoreException(failure);
+						if (null != e) {
+							logger.error("Exception occured while verifying the login since: "
+									+ e.getMessage());
+							result.setResult(new ResponseEntity<String>(e
+									.toString(), HttpStatus.OK));
+						} else if (null != failure) {
+							result.setErrorResult(cause(failure));
+						} else {
+							if (logger.isInfoEnabled()) {
+								logger.info("User login status since" + date + ":"
+										+ hasLoggedIn + "for user:" + userName);
+							}
+							result.setResult(new ResponseEntity<String>(
+									"User login status since" + date + ":"
+											+ hasLoggedIn, HttpStatus.OK));
+						}
+					}
+				});
+		return result;
+	}
+
+	/**
+	 * @return DeferredResult - a result that is already set to the message
+	 */
+	private static DeferredResult<ResponseEntity<String>> respond(String message) {
+		DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>();
+		result.setResult(new ResponseEntity<String>(message, HttpStatus.OK));
+		return result;
+	}
+
+	/**
+	 * @return Throwable - the failure of an asynchronous operation, without
+	 *         the CompletionException that wraps it
+	 */
+	private static Throwable cause(Throwable failure) {
+		return failure instanceof CompletionException
+				&& null != failure.getCause() ? failure.getCause() : failure;
+	}
+
+	/**
+	 * @return AccountStoreException - the failure of an asynchronous
+	 *         operation if it is one, else null
+	 */
+	private static AccountStoreException accountStoreException(Throwable failure) {
+		Throwable cause = null == failure ? null : cause(failure);
+		return cause instanceof AccountStoreException ? (AccountStoreException) cause
+				: null;
+	}
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix. The
+	 * page is written to the response in batches while it is read, as
+	 * 
+	 * <pre>
+	 * {"accounts":[{"id":1000,"userName":"Alex","email":"alex@gmail.com","lastLogin":1466000000000}],
+	 *  "nextCursor":"Alex"}
+	 * </pre>
+	 * 
+	 * where nextCursor is the cursor of the next page, or null on the last
+	 * page.
+	 * 
+	 * @param prefix
+	 *            - start of the user names, all accounts if not given
+	 * @param limit
+	 *            - maximum number of accounts of the page
+	 * @param cursor
+	 *            - nextCursor of the previous page, not given for the first
+	 * @param response
+	 *            - response the page is streamed to
+	 */
+	@GetMapping("/accounts")
+	public void listAccounts(
+			@RequestParam(value = "prefix", defaultValue = "") String prefix,
+			@RequestParam(value = "limit", defaultValue = "100") int limit,
+			@RequestParam(value = "cursor", required = false) String cursor,
+			HttpServletResponse response) throws IOException {
+		if (limit < 1 || limit > MAX_LIST_LIMIT) {
+			writeMessage("Limit must be between 1 and " + MAX_LIST_LIMIT,
+					response);
+			return;
 		}
-		Boolean hasLoggedIn;
+		response.setContentType("application/json;charset=UTF-8");
+		JsonGenerator json = JSON_FACTORY.createGenerator(
+				response.getOutputStream(), JsonEncoding.UTF8);
+		json.writeStartObject();
+		json.writeArrayFieldStart("accounts");
+		String next = cursor;
+		int remaining = limit;
+		while (remaining > 0) {
+			int asked = Math.min(remaining, LIST_BATCH_SIZE);
+			List<Account> batch;
+			try {
+				batch = acctStoreService.findByPrefix(prefix, asked, next);
+			} catch (AccountStoreException e) {
+				throw new IllegalStateException(e);
+			}
+			for (Account account : batch) {
+				json.writeStartObject();
+				json.writeNumberField("id", account.getId());
+				json.writeStringField("userName", account.getUserName());
+				json.writeStringField("email", account.getEmail());
+				if (account.getLastLoginTime() == Account.NO_LAST_LOGIN) {
+					json.writeNullField("lastLogin");
+				} else {
+					json.writeNumberField("lastLogin", account.getLastLoginTime());
+				}
+				json.writeEndObject();
+			}
+			remaining -= batch.size();
+			if (batch.size() < asked) {
+				// the listing ended before the page was full
+				next = null;
+				break;
+			}
+			next = batch.get(batch.size() - 1).getUserName();
+			// send what is written so far, rather than buffer the page
+			json.flush();
+		}
+		json.writeEndArray();
+		json.writeStringField("nextCursor", next);
+		json.writeEndObject();
+		json.close();
+	}
+
+	/**
+	 * Method to count and list the accounts that have logged in after a
+	 * time, as
+	 * 
+	 * <pre>
+	 * {"since":1466000000000,"count":2,"userNames":["Alex","Bob"]}
+	 * </pre>
+	 * 
+	 * The user names are written while they are read from the login index,
+	 * the most recent logins first.
+	 * 
+	 * @param since
+	 *            - epoch milliseconds
+	 * @param limit
+	 *            - maximum number of user names to list, 0 to only count
+	 * @param response
+	 *            - response the result is streamed to
+	 */
+	@GetMapping("/logins/active")
+	public void listActiveAccounts(@RequestParam("since") long since,
+			@RequestParam(value = "limit", defaultValue = "100") int limit,
+			HttpServletResponse response) throws IOException {
+		listLogins(since, limit, true, response);
+	}
+
+	/**
+	 * Method to count and list the accounts that have not logged in after a
+	 * time, e.g. 180 days ago, in the format of listActiveAccounts. The
+	 * longest dormant accounts are listed first.
+	 * 
+	 * @param since
+	 *            - epoch milliseconds
+	 * @param limit
+	 *            - maximum number of user names to list, 0 to only count
+	 * @param response
+	 *            - response the result is streamed to
+	 */
+	@GetMapping("/logins/dormant")
+	public void listDormantAccounts(@RequestParam("since") long since,
+			@RequestParam(value = "limit", defaultValue = "100") int limit,
+			HttpServletResponse response) throws IOException {
+		listLogins(since, limit, false, response);
+	}
+
+	private void listLogins(long since, int limit, boolean active,
+			HttpServletResponse response) throws IOException {
+		if (limit < 0 || limit > MAX_LIST_LIMIT) {
+			writeMessage("Limit must be between 0 and " + MAX_LIST_LIMIT,
+					response);
+			return;
+		}
+		Date date = new Date(since);
+		long count;
+		Iterable<String> userNames;
 		try {
-			hasLoggedIn = acctStoreService.hasLoggedInSince(userName, date);
+			count = active ? acctStoreService.countActiveSince(date)
+					: acctStoreService.countDormantSince(date);
+			userNames = active ? acctStoreService.findActiveSince(date)
+					: acctStoreService.findDormantSince(date);
 		} catch (AccountStoreException e) {
-			logger.error("Exception occured while verifying the login since: "
+			logger.error("Exception occured while listing the logins since: "
 					+ e.getMessage());
-			return new ResponseEntity<String>(e.toString(), HttpStatus.OK);
+			writeMessage(e.toString(), response);
+			return;
+		}
+		response.setContentType("application/json;charset=UTF-8");
+		JsonGenerator json = JSON_FACTORY.createGenerator(
+				response.getOutputStream(), JsonEncoding.UTF8);
+		json.writeStartObject();
+		json.writeNumberField("since", since);
+		json.writeNumberField("count", count);
+		json.writeArrayFieldStart("userNames");
+		int written = 0;
+		for (Iterator<String> it = userNames.iterator(); written < limit
+				&& it.hasNext();) {
+			json.writeString(it.next());
+			if (++written % LIST_BATCH_SIZE == 0) {
+				json.flush();
+			}
+		}
+		json.writeEndArray();
+		json.writeEndObject();
+		json.close();
+	}
+
+	private static void writeMessage(String message,
+			HttpServletResponse response) throws IOException {
+		logger.info(message);
+		response.setContentType("text/plain;charset=UTF-8");
+		PrintWriter writer = response.getWriter();
+		writer.write(message);
+		writer.flush();
+	}
+
+	/**
+	 * Method to create, delete and check the logins of several accounts in
+	 * one request, e.g. for a migration. Each list of the request is handed
+	 * to the service as one batch and every item gets its own result, so a
+	 * failed item does not fail the others.
+	 * 
+	 * @param request
+	 *            - accounts to create, userNames to delete and userNames
+	 *            whose login since the given time is checked
+	 * @return ResponseEntity
+	 *            - results per item in the order of the request, or the
+	 *            message why the request is rejected
+	 */
+	@PostMapping("/batch")
+	public ResponseEntity<BatchResponse> batch(@RequestBody BatchRequest request) {
+		BatchResponse response = new BatchResponse();
+		int size = sizeOf(request.getCreate()) + sizeOf(request.getDelete())
+				+ sizeOf(request.getLoginCheck());
+		if (size > MAX_BATCH_SIZE) {
+			response.setMessage("Batch must not have more than "
+					+ MAX_BATCH_SIZE + " items");
+			return new ResponseEntity<BatchResponse>(response, HttpStatus.OK);
+		}
+		if (null != request.getLoginCheck() && null == request.getSince()) {
+			response.setMessage("Since is mandatory to check logins");
+			return new ResponseEntity<BatchResponse>(response, HttpStatus.OK);
+		}
+		if (null != request.getCreate()) {
+			response.setCreated(acctStoreService.createAccounts(request
+					.getCreate()));
+		}
+		if (null != request.getDelete()) {
+			response.setDeleted(acctStoreService.deleteAccounts(request
+					.getDelete()));
+		}
+		if (null != request.getLoginCheck()) {
+			response.setLoginChecked(acctStoreService.hasLoggedInSince(
+					request.getLoginCheck(), new Date(request.getSince())));
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Batch processed with items:" + size);
+		}
+		return new ResponseEntity<BatchResponse>(response, HttpStatus.OK);
+	}
+
+	private static int sizeOf(List<?> items) {
+		return null == items ? 0 : items.size();
+	}
+
+	/**
+	 * Method to create accounts from the records of the request body, e.g.
+	 * to seed or migrate the store. The body is read while the accounts are
+	 * created, so it may be larger than the memory of the server.
+	 * 
+	 * @param format
+	 *            - ndjson (default) or csv
+	 * @param request
+	 *            - request whose body holds the records
+	 * @return ResponseEntity
+	 *            - number of records read, created and failed with the first
+	 *            failures, or the message why the import is rejected
+	 */
+	@PostMapping("/import")
+	public ResponseEntity<ImportResult> importAccounts(
+			@RequestParam(value = "format", defaultValue = "ndjson") String format,
+			HttpServletRequest request) throws IOException {
+		AccountFormat accountFormat = AccountFormat.of(format);
+		if (null == accountFormat) {
+			ImportResult result = new ImportResult();
+			result.setMessage("Format must be ndjson or csv");
+			return new ResponseEntity<ImportResult>(result, HttpStatus.OK);
+		}
+		return new ResponseEntity<ImportResult>(accountTransfer.importAccounts(
+				request.getInputStream(), accountFormat), HttpStatus.OK);
+	}
+
+	/**
+	 * Method to stream all accounts, without passwords, as one record per
+	 * line
+	 * 
+	 * @param format
+	 *            - ndjson (default) or csv
+	 * @param response
+	 *            - response the accounts are streamed to
+	 */
+	@GetMapping("/export")
+	public void exportAccounts(
+			@RequestParam(value = "format", defaultValue = "ndjson") String format,
+			HttpServletResponse response) throws IOException {
+		AccountFormat accountFormat = AccountFormat.of(format);
+		if (null == accountFormat) {
+			writeMessage("Format must be ndjson or csv", response);
+			return;
+		}
+		response.setContentType(accountFormat.getContentType());
+		accountTransfer.exportAccounts(response.getOutputStream(), accountFormat);
+	}
+
+	/**
+	 * Method to read the counts and latencies of the operations by outcome
+	 * in the Prometheus text format
+	 * 
+	 * @param response
+	 *            - response the metrics are written to
+	 */
+	@GetMapping("/metrics")
+	public void metrics(HttpServletResponse response) throws IOException {
+		if (null == operationMetrics) {
+			writeMessage("Metrics are not enabled", response);
+			return;
 		}
-		logger.info("User login status since" + date + ":" + hasLoggedIn
-				+ "for user:" + userName);
-		return new ResponseEntity<String>("User login status since" + date
-				+ ":" + hasLoggedIn, HttpStatus.OK);
+		response.setContentType(OperationMetrics.PROMETHEUS_CONTENT_TYPE);
+		operationMetrics.writePrometheus(response.getWriter());
 	}
 
 }
@@ -0,0 +1,26 @@
+package com.booxware.dao;
+
+/**
+ * Interface to generate unique account ids
+ *
+ */
+public interface AccountIdGenerator {
+
+	/**
+	 * Method to generate the next account id
+	 * 
+	 * @return long
+	 *            - account id that has not been handed out before
+	 */
+	public long nextId();
+
+	/**
+	 * Method to make sure that ids generated from now on are greater than the
+	 * given id, e.g. after accounts are reloaded from storage
+	 * 
+	 * @param id
+	 *            - highest account id already in use
+	 */
+	public void advanceTo(long id);
+
+}
@@ -1,5 +1,7 @@
 package com.booxware.dao;
 
+import java.util.List;
+
 import com.booxware.dto.Account;
 
 /**
@@ -18,6 +20,57 @@ public interface AccountStoreDao {
 	 */
 	public Account save(Account account);
 
+	/**
+	 * Method to save an account, if no account exists yet for its user name.
+	 * The lookup and the insert happen as one atomic operation.
+	 * 
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name already exists
+	 */
+	public Account saveIfAbsent(Account account);
+
+	/**
+	 * Method to save an account, if neither its user name nor its email is in
+	 * use. Emails are compared trimmed and ignoring case. The email is
+	 * claimed before the user name, so of two concurrent saves with the same
+	 * email at most one succeeds.
+	 * 
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name or the email already exists
+	 */
+	public Account saveIfUnique(Account account);
+
+	/**
+	 * Method to save several accounts like saveIfAbsent, in one pass over the
+	 * repository. Each account is saved on its own, so one account that
+	 * exists does not stop the others.
+	 * 
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account, in order, the saved account or null if
+	 *            the user name already exists
+	 */
+	public List<Account> saveAllIfAbsent(List<Account> accounts);
+
+	/**
+	 * Method to save several accounts like saveIfUnique, in one pass over the
+	 * repository
+	 * 
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account, in order, the saved account or null if
+	 *            the user name or the email already exists
+	 */
+	public List<Account> saveAllIfUnique(List<Account> accounts);
+
 	/**
 	 * Method to find an account by username
 	 * 
@@ -27,13 +80,89 @@ public interface AccountStoreDao {
 	 *            - Account that is saved for that user
 	 */
 	public Account findByName(String name);
+
+	/**
+	 * Method to find an account by email, compared trimmed and ignoring case
+	 * 
+	 * @param email
+	 *            - email of the account
+	 * @return Account
+	 *            - Account that is saved with that email, or null if there is
+	 *            none
+	 */
+	public Account findByEmail(String email);
+
+	/**
+	 * Method to move the last login of an account forward. An earlier login
+	 * than the recorded one is ignored, so concurrent logins need no lock.
+	 * 
+	 * @param Account
+	 *            - Account that has logged in
+	 * @param lastLogin
+	 *            - epoch milliseconds of the login
+	 */
+	public void updateLastLogin(Account account, long lastLogin);
 	
 	/**
-	 * Method to delete an account
+	 * Method to replace the stored password of an account, e.g. with a hash
+	 * of stronger parameters. Nothing is changed if the account has been
+	 * deleted or registered again in the meantime.
+	 * 
+	 * @param Account
+	 *            - Account whose password is replaced
+	 * @param encryptedPassword
+	 *            - the new stored form of the password
+	 */
+	public void updatePassword(Account account, byte[] encryptedPassword);
+
+	/**
+	 * Method to delete an account. Nothing is deleted if the account has
+	 * been deleted or registered again in the meantime.
 	 * 
 	 * @param Account
 	 *            - Account to be deleted
+	 * @return boolean
+	 *            - true if the account was deleted by this call
+	 */
+	public boolean delete(Account account);
+
+	/**
+	 * Method to delete several accounts like delete, in one pass over the
+	 * repository
+	 * 
+	 * @param accounts
+	 *            - Accounts to be deleted
+	 * @return boolean[]
+	 *            - for each account, in order, true if it was deleted by this
+	 *            call
+	 */
+	public boolean[] deleteAll(List<Account> accounts);
+
+	/**
+	 * Method to list all accounts. The accounts are read while iterating,
+	 * without blocking writers; accounts saved or deleted meanwhile may or
+	 * may not be returned.
+	 * 
+	 * @return Iterable
+	 *            - the accounts that are saved in repository
+	 */
+	public Iterable<Account> findAll();
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix, in
+	 * the order of the user names and one page at a time. The next page
+	 * starts behind the last user name of the previous one.
+	 * 
+	 * @param prefix
+	 *            - start of the user names, empty for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return, none if it is not
+	 *            positive
+	 * @param cursor
+	 *            - last user name of the previous page, null for the first
+	 * @return List
+	 *            - up to limit accounts, fewer only on the last page
 	 */
-	public void delete(Account account);
+	public List<Account> findByPrefix(String prefix, int limit, String cursor);
 
 }
\ No newline at end of file
@@ -1,25 +1,43 @@
 package com.booxware.dao;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
-import org.springframework.stereotype.Repository;
 
 import com.booxware.dto.Account;
 
 /**
- * Implementation class for AccountStoreDao that performs CRUD functions
+ * Implementation class for AccountStoreDao that performs CRUD functions. The
+ * repository is not thread safe, see ConcurrentAccountStoreDaoImpl for
+ * concurrent access.
  */
-@Repository("accountStoreDao")
 public class AccountStoreDaoImpl implements AccountStoreDao {
-	//Account Id that is generated for each account
-	private static long accountId = 1000;
+	//generates the Account Id for each account
+	private final AccountIdGenerator accountIdGenerator;
 
 	//repository to store the accounts
 	protected static final TreeMap<String, Account> accountRepository = new TreeMap<String, Account>();
+
+	//user names of the repository, keyed by email
+	private static final EmailIndex emails = new EmailIndex();
 	
 	private static final Logger logger = Logger
 			.getLogger(AccountStoreDaoImpl.class.getName());
+
+	public AccountStoreDaoImpl() {
+		this(new BlockAccountIdGenerator(1000));
+	}
+
+	/**
+	 * @param accountIdGenerator
+	 *            - generator for the ids of saved accounts
+	 */
+	public AccountStoreDaoImpl(AccountIdGenerator accountIdGenerator) {
+		this.accountIdGenerator = accountIdGenerator;
+	}
 	
 	/**
 	 * Method to save an account
@@ -31,12 +49,81 @@ public class AccountStoreDaoImpl implements AccountStoreDao {
 	 */
 	public Account save(Account account) {
 		account.setId(generateAccountId());
+		emails.add(account);
 		accountRepository.put(account.getUserName(), account);
-		logger.info("Account created successfully for user :"
-				+ account.getUserName());
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
 		return account;
 	}
 
+	/**
+	 * Method to save an account, if no account exists yet for its user name
+	 * 
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name already exists
+	 */
+	public Account saveIfAbsent(Account account) {
+		if (accountRepository.containsKey(account.getUserName())) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Account already exist for user :"
+						+ account.getUserName());
+			}
+			return null;
+		}
+		return save(account);
+	}
+
+	/**
+	 * Method to save an account, if neither its user name nor its email is in
+	 * use
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name or the email already exists
+	 */
+	public Account saveIfUnique(Account account) {
+		return emails.saveIfUnique(account, this);
+	}
+
+	/**
+	 * Method to save several accounts, if no account exists yet for their
+	 * user names
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name already exists
+	 */
+	public List<Account> saveAllIfAbsent(List<Account> accounts) {
+		List<Account> saved = new ArrayList<Account>(accounts.size());
+		for (Account account : accounts) {
+			saved.add(saveIfAbsent(account));
+		}
+		return saved;
+	}
+
+	/**
+	 * Method to save several accounts, if neither their user names nor their
+	 * emails are in use
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name or the email already exists
+	 */
+	public List<Account> saveAllIfUnique(List<Account> accounts) {
+		return emails.saveAllIfUnique(accounts, this);
+	}
+
 	/**
 	 * Method to find an account by username
 	 * 
@@ -47,19 +134,133 @@ public class AccountStoreDaoImpl implements AccountStoreDao {
 	 */
 	public Account findByName(String name) {
 		Account account = accountRepository.get(name);
-		logger.info("Account found successfully for user :" + name);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account found successfully for user :" + name);
+		}
 		return account;
 	}
 
 	/**
-	 * Method to delete an account
+	 * Method to find an account by email
+	 *
+	 * @param email
+	 *            - email of the account
+	 * @return Account
+	 *            - Account that is saved with that email
+	 */
+	public Account findByEmail(String email) {
+		return emails.find(email, this);
+	}
+
+	/**
+	 * Method to move the last login of an account forward
+	 * 
+	 * @param Account
+	 *            - Account that has logged in
+	 * @param lastLogin
+	 *            - epoch milliseconds of the login
+	 */
+	public void updateLastLogin(Account account, long lastLogin) {
+		account.advanceLastLogin(lastLogin);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Last login updated successfully for user :"
+					+ account.getUserName());
+		}
+	}
+
+	/**
+	 * Method to replace the stored password of an account, while the user
+	 * name is still mapped to the given instance
+	 *
+	 * @param Account
+	 *            - Account whose password is replaced
+	 * @param encryptedPassword
+	 *            - the new stored form of the password
+	 */
+	public void updatePassword(Account account, byte[] encryptedPassword) {
+		if (accountRepository.get(account.getUserName()) == account) {
+			account.setEncryptedPassword(encryptedPassword);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Password updated successfully for user :"
+						+ account.getUserName());
+			}
+		}
+	}
+
+	/**
+	 * Method to delete an account, while the user name is still mapped to the
+	 * given instance
 	 * 
 	 * @param Account
 	 *            - Account to be deleted
+	 * @return boolean
+	 *            - true if the account was deleted
 	 */
-	public void delete(Account account) {
+	public boolean delete(Account account) {
+		if (accountRepository.get(account.getUserName()) != account) {
+			return false;
+		}
 		accountRepository.remove(account.getUserName());
-		logger.info("Account deleted successfully for user :" + account.getUserName());
+		emails.remove(account, this);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account deleted successfully for user :" + account.getUserName());
+		}
+		return true;
+	}
+
+	/**
+	 * Method to delete several accounts
+	 *
+	 * @param accounts
+	 *            - Accounts to be deleted
+	 * @return boolean[]
+	 *            - for each account, true if it was deleted
+	 */
+	public boolean[] deleteAll(List<Account> accounts) {
+		boolean[] deleted = new boolean[accounts.size()];
+		for (int i = 0; i < deleted.length; i++) {
+			deleted[i] = delete(accounts.get(i));
+		}
+		return deleted;
+	}
+
+	/**
+	 * Method to list all accounts in the order of their user names
+	 *
+	 * @return Iterable
+	 *            - the accounts that are saved in repository
+	 */
+	public Iterable<Account> findAll() {
+		return Collections.unmodifiableCollection(accountRepository.values());
+	}
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix, read
+	 * from the sorted repository
+	 *
+	 * @param prefix
+	 *            - start of the user names, empty for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return
+	 * @param cursor
+	 *            - last user name of the previous page, null for the first
+	 * @return List
+	 *            - up to limit accounts ordered by user name
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor) {
+		if (limit <= 0) {
+			return new ArrayList<Account>();
+		}
+		List<Account> page = new ArrayList<Account>(Math.min(limit, 1024));
+		for (Account account : accountRepository.tailMap(
+				PrefixQuery.start(prefix, cursor),
+				PrefixQuery.includesStart(prefix, cursor)).values()) {
+			if (page.size() == limit || !account.getUserName().startsWith(prefix)) {
+				break;
+			}
+			page.add(account);
+		}
+		return page;
 	}
 
 	/**
@@ -69,8 +270,7 @@ public class AccountStoreDaoImpl implements AccountStoreDao {
 	 *            - The generated Account Id
 	 */
 	private long generateAccountId() {
-		return accountId++;
-		
+		return accountIdGenerator.nextId();
 	}
 
 
@@ -0,0 +1,158 @@
+package com.booxware.dao;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.booxware.dto.Account;
+
+/**
+ * The calls of the asynchronous service to an AccountStoreDao, returning
+ * CompletableFutures. With threads, the calls run on a pool of its own, so
+ * that no request thread waits while a durable store writes or syncs its
+ * log. Without threads, the calls run on the calling thread and return
+ * completed futures, which suits the in-memory stores that never wait.
+ *
+ * A call that fails completes its future exceptionally with the exception
+ * of the store.
+ */
+public class AsyncAccountStoreDao implements Closeable {
+
+	private final AccountStoreDao delegate;
+
+	//null if the calls run on the calling thread
+	private final ExecutorService executor;
+
+	/**
+	 * @param delegate
+	 *            - the store that is called
+	 * @param threads
+	 *            - number of threads that call it, 0 for the calling thread
+	 */
+	public AsyncAccountStoreDao(AccountStoreDao delegate, int threads) {
+		this.delegate = delegate;
+		this.executor = threads <= 0 ? null : Executors.newFixedThreadPool(
+				threads, new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "account-store-io-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * @return AccountStoreDao - the store that is called
+	 */
+	public AccountStoreDao getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @see AccountStoreDao#findByName(String)
+	 */
+	public CompletableFuture<Account> findByName(final String name) {
+		return call(new Call<Account>() {
+			public Account call() {
+				return delegate.findByName(name);
+			}
+		});
+	}
+
+	/**
+	 * @see AccountStoreDao#saveIfAbsent(Account)
+	 */
+	public CompletableFuture<Account> saveIfAbsent(final Account account) {
+		return call(new Call<Account>() {
+			public Account call() {
+				return delegate.saveIfAbsent(account);
+			}
+		});
+	}
+
+	/**
+	 * @see AccountStoreDao#saveIfUnique(Account)
+	 */
+	public CompletableFuture<Account> saveIfUnique(final Account account) {
+		return call(new Call<Account>() {
+			public Account call() {
+				return delegate.saveIfUnique(account);
+			}
+		});
+	}
+
+	/**
+	 * @see AccountStoreDao#updateLastLogin(Account, long)
+	 */
+	public CompletableFuture<Void> updateLastLogin(final Account account,
+			final long lastLogin) {
+		return call(new Call<Void>() {
+			public Void call() {
+				delegate.updateLastLogin(account, lastLogin);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @see AccountStoreDao#delete(Account)
+	 */
+	public CompletableFuture<Boolean> delete(final Account account) {
+		return call(new Call<Boolean>() {
+			public Boolean call() {
+				return delegate.delete(account);
+			}
+		});
+	}
+
+	/**
+	 * Stops the threads, if there are any
+	 */
+	public void close() {
+		if (null != executor) {
+			executor.shutdown();
+		}
+	}
+
+	private <T> CompletableFuture<T> call(final Call<T> call) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		if (null == executor) {
+			complete(call, future);
+			return future;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					complete(call, future);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private static <T> void complete(Call<T> call, CompletableFuture<T> future) {
+		try {
+			future.complete(call.call());
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * A call to the store
+	 */
+	private interface Call<T> {
+
+		T call();
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.booxware.dao;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * AccountIdGenerator that leases blocks of ids to each thread from a shared
+ * counter. Generating an id only touches the thread's own block, the shared
+ * counter is advanced once per block.
+ *
+ * If a reservation file is given, the upper bound of the leased ids is written
+ * to it before any id of a new block is handed out, and the counter resumes
+ * from that bound after a restart. Ids of partly used blocks are skipped, so
+ * account ids are unique but not gapless.
+ */
+public class BlockAccountIdGenerator implements AccountIdGenerator {
+
+	private static final int DEFAULT_BLOCK_SIZE = 64;
+
+	//number of blocks reserved in the file with each write
+	private static final int BLOCKS_PER_RESERVATION = 1024;
+
+	//next id that has not been leased to any thread
+	private final AtomicLong nextUnleasedId;
+
+	private final int blockSize;
+
+	//file that holds the reserved upper bound, null for in-memory ids
+	private final File reservationFile;
+
+	//ids below this bound are covered by the reservation file
+	private volatile long reservedUpTo;
+
+	//ids up to this value must not be handed out any more
+	private volatile long floor;
+
+	//current block of the thread as {next id, end of block}
+	private final ThreadLocal<long[]> block = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
+
+	private static final Logger logger = Logger
+			.getLogger(BlockAccountIdGenerator.class.getName());
+
+	/**
+	 * Creates an in-memory generator
+	 *
+	 * @param initialId
+	 *            - first account id to hand out
+	 */
+	public BlockAccountIdGenerator(long initialId) {
+		this(initialId, DEFAULT_BLOCK_SIZE, null);
+	}
+
+	/**
+	 * @param initialId
+	 *            - first account id to hand out, if there is no reservation yet
+	 * @param blockSize
+	 *            - number of ids leased to a thread at once
+	 * @param reservationFile
+	 *            - file that keeps reserved ids across restarts, or null
+	 */
+	public BlockAccountIdGenerator(long initialId, int blockSize,
+			File reservationFile) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be positive");
+		}
+		this.blockSize = blockSize;
+		this.reservationFile = reservationFile;
+		long start = Math.max(initialId, readReservation());
+		this.nextUnleasedId = new AtomicLong(start);
+		this.reservedUpTo = reservationFile == null ? Long.MAX_VALUE : start;
+		this.floor = start - 1;
+	}
+
+	/**
+	 * Method to generate the next account id
+	 *
+	 * @return long
+	 *            - account id that has not been handed out before
+	 */
+	public long nextId() {
+		long[] current = block.get();
+		if (current[0] == current[1] || current[0] <= floor) {
+			lease(current);
+		}
+		return current[0]++;
+	}
+
+	/**
+	 * Method to make sure that ids generated from now on are greater than the
+	 * given id
+	 *
+	 * @param id
+	 *            - highest account id already in use
+	 */
+	public void advanceTo(long id) {
+		long next = nextUnleasedId.get();
+		while (next <= id && !nextUnleasedId.compareAndSet(next, id + 1)) {
+			next = nextUnleasedId.get();
+		}
+		synchronized (this) {
+			if (id > floor) {
+				floor = id;
+			}
+		}
+	}
+
+	/**
+	 * Leases the next block from the shared counter into the given thread
+	 * block, reserving it in the file first if needed
+	 */
+	private void lease(long[] current) {
+		long start;
+		do {
+			start = nextUnleasedId.getAndAdd(blockSize);
+		} while (start + blockSize - 1 <= floor);
+		long end = start + blockSize;
+		if (end > reservedUpTo) {
+			reserve(end);
+		}
+		current[0] = Math.max(start, floor + 1);
+		current[1] = end;
+	}
+
+	/**
+	 * Extends the reservation in the file so that it covers the given id
+	 */
+	private synchronized void reserve(long end) {
+		if (end <= reservedUpTo) {
+			return;
+		}
+		long newReservation = end + (long) blockSize * BLOCKS_PER_RESERVATION;
+		try {
+			writeReservation(newReservation);
+		} catch (IOException e) {
+			throw new IllegalStateException(
+					"Unable to reserve account ids in " + reservationFile, e);
+		}
+		reservedUpTo = newReservation;
+		logger.info("Account ids reserved up to :" + newReservation);
+	}
+
+	/**
+	 * Reads the reserved upper bound from the file
+	 *
+	 * @return long
+	 *            - the first id that was not reserved, 0 if there is no file
+	 */
+	private long readReservation() {
+		if (reservationFile == null || !reservationFile.exists()) {
+			return 0;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(
+				reservationFile))) {
+			return in.readLong();
+		} catch (IOException e) {
+			throw new IllegalStateException(
+					"Unable to read account id reservation from "
+							+ reservationFile, e);
+		}
+	}
+
+	/**
+	 * Writes the reserved upper bound to a temporary file, syncs it and moves
+	 * it over the reservation file
+	 */
+	private void writeReservation(long value) throws IOException {
+		File tmp = new File(reservationFile.getPath() + ".tmp");
+		try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+			out.setLength(0);
+			out.writeLong(value);
+			out.getChannel().force(true);
+		}
+		Files.move(tmp.toPath(), reservationFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
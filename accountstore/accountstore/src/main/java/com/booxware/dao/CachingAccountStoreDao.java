@@ -0,0 +1,572 @@
+package com.booxware.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dto.Account;
+
+/**
+ * AccountStoreDao that caches the accounts of another AccountStoreDao.
+ *
+ * The cache holds at most maximumSize accounts in shards of segmented LRU
+ * lists: an account enters the probation segment and is promoted to the
+ * protected segment when it is read again, so a scan of accounts that are
+ * read once evicts only other accounts that were read once. Concurrent misses
+ * for the same user name wait for a single load from the store.
+ *
+ * Logins update the cached account right away and are written to the store
+ * in the background every flush interval, one write per account however
+ * often it logged in. Logins of that interval are lost if the process dies.
+ * With a flush interval of 0 logins are written through.
+ */
+public class CachingAccountStoreDao implements AccountStoreDao, Closeable {
+
+	private final AccountStoreDao delegate;
+
+	private final Shard[] shards;
+
+	//loads in progress, so that concurrent misses share one
+	private final ConcurrentHashMap<String, FutureTask<Account>> loading = new ConcurrentHashMap<String, FutureTask<Account>>();
+
+	//accounts whose last login has not been written to the store yet
+	private final ConcurrentHashMap<String, Account> pendingLogins = new ConcurrentHashMap<String, Account>();
+
+	private final ScheduledExecutorService flusher;
+
+	private final LongAdder hitCount = new LongAdder();
+
+	private final LongAdder missCount = new LongAdder();
+
+	private final LongAdder coalescedCount = new LongAdder();
+
+	private final LongAdder evictionCount = new LongAdder();
+
+	private final LongAdder loginWriteCount = new LongAdder();
+
+	private static final Logger logger = Logger
+			.getLogger(CachingAccountStoreDao.class.getName());
+
+	/**
+	 * @param delegate
+	 *            - AccountStoreDao that holds the accounts
+	 * @param maximumSize
+	 *            - maximum number of cached accounts
+	 * @param loginFlushMillis
+	 *            - interval in which logins are written to the store, 0 to
+	 *            write them through
+	 */
+	public CachingAccountStoreDao(AccountStoreDao delegate, int maximumSize,
+			long loginFlushMillis) {
+		this.delegate = delegate;
+		int processors = Runtime.getRuntime().availableProcessors();
+		int count = Integer.highestOneBit(Math.max(1,
+				Math.min(processors * 4, maximumSize / 64)));
+		this.shards = new Shard[count];
+		for (int i = 0; i < count; i++) {
+			shards[i] = new Shard(Math.max(1, maximumSize / count));
+		}
+		if (loginFlushMillis > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "account-cache-flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					flushLogins();
+				}
+			}, loginFlushMillis, loginFlushMillis, TimeUnit.MILLISECONDS);
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * Method to save an account
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account id
+	 */
+	public Account save(Account account) {
+		Account saved = delegate.save(account);
+		cache(saved.getUserName(), saved);
+		return saved;
+	}
+
+	/**
+	 * Method to save an account, if no account exists yet for its user name
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name already exists
+	 */
+	public Account saveIfAbsent(Account account) {
+		Account saved = delegate.saveIfAbsent(account);
+		if (null != saved) {
+			cache(saved.getUserName(), saved);
+		}
+		return saved;
+	}
+
+	/**
+	 * Method to save an account, if neither its user name nor its email is in
+	 * use
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name or the email already exists
+	 */
+	public Account saveIfUnique(Account account) {
+		Account saved = delegate.saveIfUnique(account);
+		if (null != saved) {
+			cache(saved.getUserName(), saved);
+		}
+		return saved;
+	}
+
+	/**
+	 * Method to save several accounts, if no account exists yet for their
+	 * user names
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name already exists
+	 */
+	public List<Account> saveAllIfAbsent(List<Account> accounts) {
+		return cacheAll(delegate.saveAllIfAbsent(accounts));
+	}
+
+	/**
+	 * Method to save several accounts, if neither their user names nor their
+	 * emails are in use
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name or the email already exists
+	 */
+	public List<Account> saveAllIfUnique(List<Account> accounts) {
+		return cacheAll(delegate.saveAllIfUnique(accounts));
+	}
+
+	/**
+	 * Method to find an account by username, from the cache or else from the
+	 * store
+	 *
+	 * @param name
+	 *            - user name of the account
+	 * @return Account
+	 *            - Account that is saved for that user
+	 */
+	public Account findByName(String name) {
+		Account account = shardFor(name).get(name);
+		if (null != account) {
+			hitCount.increment();
+			return account;
+		}
+		missCount.increment();
+		return load(name);
+	}
+
+	/**
+	 * Method to find an account by email in the index of the store. The
+	 * cached instance is returned if the account is cached, so that its
+	 * pending login is included.
+	 *
+	 * @param email
+	 *            - email of the account
+	 * @return Account
+	 *            - Account that is saved with that email
+	 */
+	public Account findByEmail(String email) {
+		Account found = delegate.findByEmail(email);
+		if (null == found) {
+			return null;
+		}
+		Account cached = findByName(found.getUserName());
+		return null != cached && cached.getId() == found.getId() ? cached
+				: found;
+	}
+
+	/**
+	 * Method to move the last login of an account forward. The cached account
+	 * is updated at once, the store at the next flush.
+	 *
+	 * @param Account
+	 *            - Account that has logged in
+	 * @param lastLogin
+	 *            - epoch milliseconds of the login
+	 */
+	public void updateLastLogin(Account account, long lastLogin) {
+		if (null == flusher) {
+			delegate.updateLastLogin(account, lastLogin);
+			loginWriteCount.increment();
+			return;
+		}
+		if (account.advanceLastLogin(lastLogin)) {
+			pendingLogins.put(account.getUserName(), account);
+		}
+	}
+
+	/**
+	 * Method to replace the stored password of an account
+	 *
+	 * @param Account
+	 *            - Account whose password is replaced
+	 * @param encryptedPassword
+	 *            - the new stored form of the password
+	 */
+	public void updatePassword(Account account, byte[] encryptedPassword) {
+		delegate.updatePassword(account, encryptedPassword);
+		invalidate(account.getUserName());
+	}
+
+	/**
+	 * Method to delete an account
+	 *
+	 * @param Account
+	 *            - Account to be deleted
+	 * @return boolean
+	 *            - true if the account was deleted
+	 */
+	public boolean delete(Account account) {
+		boolean deleted = delegate.delete(account);
+		invalidate(account.getUserName());
+		return deleted;
+	}
+
+	/**
+	 * Method to delete several accounts
+	 *
+	 * @param accounts
+	 *            - Accounts to be deleted
+	 * @return boolean[]
+	 *            - for each account, true if it was deleted
+	 */
+	public boolean[] deleteAll(List<Account> accounts) {
+		boolean[] deleted = delegate.deleteAll(accounts);
+		for (Account account : accounts) {
+			invalidate(account.getUserName());
+		}
+		return deleted;
+	}
+
+	/**
+	 * Method to list all accounts of the store, bypassing the cache. Logins
+	 * that are not written to the store yet are not included.
+	 *
+	 * @return Iterable
+	 *            - the accounts that are saved in repository
+	 */
+	public Iterable<Account> findAll() {
+		return delegate.findAll();
+	}
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix,
+	 * read from the store
+	 *
+	 * @param prefix
+	 *            - start of the user names, empty for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return
+	 * @param cursor
+	 *            - last user name of the previous page, null for the first
+	 * @return List
+	 *            - up to limit accounts ordered by user name
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor) {
+		return delegate.findByPrefix(prefix, limit, cursor);
+	}
+
+	/**
+	 * Writes the pending logins to the store
+	 */
+	public void flushLogins() {
+		for (String userName : pendingLogins.keySet()) {
+			Account account = pendingLogins.remove(userName);
+			if (null == account) {
+				continue;
+			}
+			try {
+				delegate.updateLastLogin(account, account.getLastLoginTime());
+				loginWriteCount.increment();
+			} catch (RuntimeException e) {
+				logger.error("Unable to write last login of user :" + userName, e);
+			}
+		}
+	}
+
+	/**
+	 * @return double
+	 *            - share of the lookups answered from the cache
+	 */
+	public double getHitRate() {
+		long hits = hitCount.sum();
+		long lookups = hits + missCount.sum();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * @return long
+	 *            - number of lookups answered from the cache
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - number of lookups that went to the store
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - number of misses that waited for the load of another one
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - number of accounts evicted from the cache
+	 */
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - number of logins written to the store
+	 */
+	public long getLoginWriteCount() {
+		return loginWriteCount.sum();
+	}
+
+	/**
+	 * @return int
+	 *            - number of logins not written to the store yet
+	 */
+	public int getPendingLoginCount() {
+		return pendingLogins.size();
+	}
+
+	/**
+	 * @return long
+	 *            - number of cached accounts
+	 */
+	public long size() {
+		long size = 0;
+		for (Shard shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the pending logins and closes the store, if it is closeable
+	 */
+	public void close() throws IOException {
+		if (null != flusher) {
+			flusher.shutdown();
+			try {
+				flusher.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flushLogins();
+		if (delegate instanceof Closeable) {
+			((Closeable) delegate).close();
+		}
+	}
+
+	/**
+	 * Loads an account from the store, or waits for the load that is already
+	 * in progress. The account is only cached if no write invalidated the
+	 * user name while it was loaded. The load ends and its account is cached
+	 * under the monitor of the shard, which writes take to invalidate, so a
+	 * write comes either before or after both.
+	 */
+	private Account load(final String name) {
+		FutureTask<Account> task = new FutureTask<Account>(
+				new Callable<Account>() {
+					public Account call() {
+						return delegate.findByName(name);
+					}
+				});
+		FutureTask<Account> existing = loading.putIfAbsent(name, task);
+		if (null != existing) {
+			coalescedCount.increment();
+			return await(name, existing);
+		}
+		task.run();
+		Account account;
+		try {
+			account = await(name, task);
+		} catch (RuntimeException e) {
+			loading.remove(name, task);
+			throw e;
+		}
+		Shard shard = shardFor(name);
+		synchronized (shard) {
+			if (loading.remove(name, task) && null != account) {
+				// a login of the account may still wait to be written
+				Account pending = pendingLogins.get(name);
+				if (null != pending && pending.getId() == account.getId()) {
+					account.advanceLastLogin(pending.getLastLoginTime());
+				}
+				shard.put(name, account);
+			}
+		}
+		return account;
+	}
+
+	private static Account await(String name, FutureTask<Account> task) {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Unable to load account " + name,
+					e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while loading account " + name, e);
+		}
+	}
+
+	private void cache(String name, Account account) {
+		Shard shard = shardFor(name);
+		synchronized (shard) {
+			loading.remove(name);
+			shard.put(name, account);
+		}
+	}
+
+	private List<Account> cacheAll(List<Account> saved) {
+		for (Account account : saved) {
+			if (null != account) {
+				cache(account.getUserName(), account);
+			}
+		}
+		return saved;
+	}
+
+	private void invalidate(String name) {
+		Shard shard = shardFor(name);
+		synchronized (shard) {
+			loading.remove(name);
+			shard.remove(name);
+		}
+	}
+
+	private Shard shardFor(String name) {
+		int hash = name.hashCode();
+		return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+	}
+
+	/**
+	 * Segmented LRU cache of one shard, guarded by its own monitor
+	 */
+	private final class Shard {
+
+		private final int capacity;
+
+		private final int protectedCapacity;
+
+		//both segments iterate from the least to the most recently used
+		private final LinkedHashMap<String, Account> probation = new LinkedHashMap<String, Account>(
+				16, 0.75f, true);
+
+		private final LinkedHashMap<String, Account> protectedSegment = new LinkedHashMap<String, Account>(
+				16, 0.75f, true);
+
+		Shard(int capacity) {
+			this.capacity = capacity;
+			this.protectedCapacity = capacity * 4 / 5;
+		}
+
+		synchronized Account get(String name) {
+			Account account = protectedSegment.get(name);
+			if (null != account) {
+				return account;
+			}
+			account = probation.remove(name);
+			if (null == account) {
+				return null;
+			}
+			// a second read promotes the account
+			protectedSegment.put(name, account);
+			if (protectedSegment.size() > protectedCapacity) {
+				Map.Entry<String, Account> demoted = removeEldest(protectedSegment);
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+			return account;
+		}
+
+		synchronized void put(String name, Account account) {
+			if (protectedSegment.containsKey(name)) {
+				protectedSegment.put(name, account);
+				return;
+			}
+			probation.put(name, account);
+			while (probation.size() + protectedSegment.size() > capacity) {
+				removeEldest(probation.isEmpty() ? protectedSegment : probation);
+				evictionCount.increment();
+			}
+		}
+
+		synchronized void remove(String name) {
+			if (null == probation.remove(name)) {
+				protectedSegment.remove(name);
+			}
+		}
+
+		synchronized int size() {
+			return probation.size() + protectedSegment.size();
+		}
+
+		private Map.Entry<String, Account> removeEldest(
+				LinkedHashMap<String, Account> segment) {
+			Iterator<Map.Entry<String, Account>> eldest = segment.entrySet()
+					.iterator();
+			Map.Entry<String, Account> entry = eldest.next();
+			eldest.remove();
+			return entry;
+		}
+	}
+
+}
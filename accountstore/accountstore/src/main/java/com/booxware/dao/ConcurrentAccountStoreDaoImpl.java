@@ -0,0 +1,324 @@
+package com.booxware.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dto.Account;
+
+/**
+ * Implementation class for AccountStoreDao backed by a ConcurrentHashMap.
+ * Lookups are lock-free and updates only contend on the hash bin of the user
+ * name, so concurrent requests do not serialize through a single monitor.
+ *
+ * The user names are also kept in a ConcurrentSkipListSet for ordered
+ * listings. It is updated after the map without a lock: a save adds the name
+ * after the put, a delete removes it and adds it again if a save put the
+ * name back meanwhile. A saved name is therefore never missing from the set,
+ * while a name whose save raced with its delete may stay in it until a
+ * listing finds it without an account. The emails are indexed the same way,
+ * see EmailIndex.
+ */
+public class ConcurrentAccountStoreDaoImpl implements AccountStoreDao {
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+	//generates the Account Id for each account
+	private final AccountIdGenerator accountIdGenerator;
+
+	//repository to store the accounts, keyed by user name
+	protected final ConcurrentHashMap<String, Account> accountRepository;
+
+	//user names of the repository in order, for listings
+	private final ConcurrentSkipListSet<String> userNames = new ConcurrentSkipListSet<String>();
+
+	//user names of the repository, keyed by email
+	private final EmailIndex emails = new EmailIndex();
+
+	private static final Logger logger = Logger
+			.getLogger(ConcurrentAccountStoreDaoImpl.class.getName());
+
+	public ConcurrentAccountStoreDaoImpl() {
+		this(DEFAULT_INITIAL_CAPACITY, new BlockAccountIdGenerator(1000));
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            - expected number of accounts, used to presize the repository
+	 * @param accountIdGenerator
+	 *            - generator for the ids of saved accounts
+	 */
+	public ConcurrentAccountStoreDaoImpl(int initialCapacity,
+			AccountIdGenerator accountIdGenerator) {
+		this.accountIdGenerator = accountIdGenerator;
+		this.accountRepository = new ConcurrentHashMap<String, Account>(
+				initialCapacity, 0.75f, Runtime.getRuntime()
+						.availableProcessors());
+	}
+
+	/**
+	 * Method to save an account
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account id
+	 */
+	public Account save(Account account) {
+		account.setId(generateAccountId());
+		emails.add(account);
+		accountRepository.put(account.getUserName(), account);
+		userNames.add(account.getUserName());
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if no account exists yet for its user name
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name already exists
+	 */
+	public Account saveIfAbsent(Account account) {
+		account.setId(generateAccountId());
+		if (null != accountRepository.putIfAbsent(account.getUserName(), account)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Account already exist for user :"
+						+ account.getUserName());
+			}
+			return null;
+		}
+		userNames.add(account.getUserName());
+		emails.add(account);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if neither its user name nor its email is in
+	 * use
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name or the email already exists
+	 */
+	public Account saveIfUnique(Account account) {
+		return emails.saveIfUnique(account, this);
+	}
+
+	/**
+	 * Method to save several accounts, if no account exists yet for their
+	 * user names
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name already exists
+	 */
+	public List<Account> saveAllIfAbsent(List<Account> accounts) {
+		List<Account> saved = new ArrayList<Account>(accounts.size());
+		for (Account account : accounts) {
+			saved.add(saveIfAbsent(account));
+		}
+		return saved;
+	}
+
+	/**
+	 * Method to save several accounts, if neither their user names nor their
+	 * emails are in use
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name or the email already exists
+	 */
+	public List<Account> saveAllIfUnique(List<Account> accounts) {
+		return emails.saveAllIfUnique(accounts, this);
+	}
+
+	/**
+	 * Method to find an account by username
+	 *
+	 * @param name
+	 *            - user name of the account
+	 * @return Account
+	 *            - Account that is saved for that user
+	 */
+	public Account findByName(String name) {
+		Account account = accountRepository.get(name);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account found successfully for user :" + name);
+		}
+		return account;
+	}
+
+	/**
+	 * Method to find an account by email
+	 *
+	 * @param email
+	 *            - email of the account
+	 * @return Account
+	 *            - Account that is saved with that email
+	 */
+	public Account findByEmail(String email) {
+		return emails.find(email, this);
+	}
+
+	/**
+	 * Method to move the last login of an account forward
+	 *
+	 * @param Account
+	 *            - Account that has logged in
+	 * @param lastLogin
+	 *            - epoch milliseconds of the login
+	 */
+	public void updateLastLogin(Account account, long lastLogin) {
+		account.advanceLastLogin(lastLogin);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Last login updated successfully for user :"
+					+ account.getUserName());
+		}
+	}
+
+	/**
+	 * Method to replace the stored password of an account, while the user
+	 * name is still mapped to the given instance
+	 *
+	 * @param Account
+	 *            - Account whose password is replaced
+	 * @param encryptedPassword
+	 *            - the new stored form of the password
+	 */
+	public void updatePassword(Account account, byte[] encryptedPassword) {
+		if (accountRepository.get(account.getUserName()) == account) {
+			account.setEncryptedPassword(encryptedPassword);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Password updated successfully for user :"
+						+ account.getUserName());
+			}
+		}
+	}
+
+	/**
+	 * Method to delete an account. The account is only removed while the user
+	 * name is still mapped to the given instance, so an account registered
+	 * again in the meantime is left untouched.
+	 *
+	 * @param Account
+	 *            - Account to be deleted
+	 * @return boolean
+	 *            - true if the account was deleted
+	 */
+	public boolean delete(Account account) {
+		if (!accountRepository.remove(account.getUserName(), account)) {
+			return false;
+		}
+		removeUserName(account.getUserName());
+		emails.remove(account, this);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account deleted successfully for user :" + account.getUserName());
+		}
+		return true;
+	}
+
+	/**
+	 * Method to delete several accounts
+	 *
+	 * @param accounts
+	 *            - Accounts to be deleted
+	 * @return boolean[]
+	 *            - for each account, true if it was deleted
+	 */
+	public boolean[] deleteAll(List<Account> accounts) {
+		boolean[] deleted = new boolean[accounts.size()];
+		for (int i = 0; i < deleted.length; i++) {
+			deleted[i] = delete(accounts.get(i));
+		}
+		return deleted;
+	}
+
+	/**
+	 * Method to list all accounts. The iteration is weakly consistent and
+	 * never throws ConcurrentModificationException.
+	 *
+	 * @return Iterable
+	 *            - the accounts that are saved in repository
+	 */
+	public Iterable<Account> findAll() {
+		return Collections.unmodifiableCollection(accountRepository.values());
+	}
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix, by
+	 * walking the ordered index of user names
+	 *
+	 * @param prefix
+	 *            - start of the user names, empty for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return
+	 * @param cursor
+	 *            - last user name of the previous page, null for the first
+	 * @return List
+	 *            - up to limit accounts ordered by user name
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor) {
+		if (limit <= 0) {
+			return new ArrayList<Account>();
+		}
+		List<Account> page = new ArrayList<Account>(Math.min(limit, 1024));
+		for (String userName : userNames.tailSet(
+				PrefixQuery.start(prefix, cursor),
+				PrefixQuery.includesStart(prefix, cursor))) {
+			if (page.size() == limit || !userName.startsWith(prefix)) {
+				break;
+			}
+			Account account = accountRepository.get(userName);
+			if (null != account) {
+				page.add(account);
+			} else {
+				// left behind by a save that raced with a delete
+				removeUserName(userName);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Removes a user name from the ordered index, unless it has been saved
+	 * again in the meantime
+	 */
+	private void removeUserName(String userName) {
+		userNames.remove(userName);
+		if (accountRepository.containsKey(userName)) {
+			userNames.add(userName);
+		}
+	}
+
+	/**
+	 * Method to generate account Id for an account
+	 *
+	 * @return long
+	 *            - The generated Account Id
+	 */
+	private long generateAccountId() {
+		return accountIdGenerator.nextId();
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.booxware.dao;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.booxware.dto.Account;
+
+/**
+ * Secondary index of the accounts by email for the AccountStoreDao
+ * implementations. It maps the normalized email to the user name of the
+ * account, so that it also serves stores that return copies of their
+ * accounts, and an entry is only trusted once the account of that user name
+ * has been read and still has the email.
+ *
+ * The stores update the entry together with the account: save puts it
+ * before the account, saveIfAbsent once the user name is taken and delete
+ * removes it after the account. If several accounts share an email, the one
+ * saved last is found while it exists. Entries that outlive their account, e.g. when the
+ * user name is saved again with another email, are ignored by lookups and
+ * replaced by the next claim.
+ */
+final class EmailIndex {
+
+	//user names of the accounts, keyed by normalized email
+	private final ConcurrentHashMap<String, String> userNames = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @return String
+	 *            - the email trimmed and in lower case, or null if it is null
+	 *            or blank
+	 */
+	static String normalize(String email) {
+		if (null == email) {
+			return null;
+		}
+		String normalized = email.trim().toLowerCase(Locale.ROOT);
+		return normalized.isEmpty() ? null : normalized;
+	}
+
+	/**
+	 * Points the email of an account to its user name
+	 */
+	void add(Account account) {
+		String key = normalize(account.getEmail());
+		if (null != key) {
+			userNames.put(key, account.getUserName());
+		}
+	}
+
+	/**
+	 * Removes the email of an account after it has been deleted. The entry is
+	 * put back if the user name has been saved again with the same email.
+	 */
+	void remove(Account account, AccountStoreDao store) {
+		String key = normalize(account.getEmail());
+		if (null == key || !userNames.remove(key, account.getUserName())) {
+			return;
+		}
+		if (holds(store.findByName(account.getUserName()), key)) {
+			userNames.putIfAbsent(key, account.getUserName());
+		}
+	}
+
+	/**
+	 * Finds the account of an email
+	 *
+	 * @return Account
+	 *            - the account read from the store, or null if no account
+	 *            has the email
+	 */
+	Account find(String email, AccountStoreDao store) {
+		String key = normalize(email);
+		if (null == key) {
+			return null;
+		}
+		String userName = userNames.get(key);
+		if (null == userName) {
+			return null;
+		}
+		Account account = store.findByName(userName);
+		return holds(account, key) ? account : null;
+	}
+
+	/**
+	 * Saves an account with store.saveIfAbsent after claiming its email. The
+	 * claim is released again if the user name is taken.
+	 *
+	 * @return Account
+	 *            - the saved account, or null if the user name or the email
+	 *            is in use
+	 */
+	Account saveIfUnique(Account account, AccountStoreDao store) {
+		if (!claim(account, store)) {
+			return null;
+		}
+		Account saved = store.saveIfAbsent(account);
+		if (null == saved) {
+			remove(account, store);
+		}
+		return saved;
+	}
+
+	/**
+	 * Saves several accounts with store.saveAllIfAbsent after claiming their
+	 * emails, like saveIfUnique
+	 *
+	 * @return List
+	 *            - for each account, the saved account or null if the user
+	 *            name or the email is in use
+	 */
+	List<Account> saveAllIfUnique(List<Account> accounts, AccountStoreDao store) {
+		boolean[] claimed = new boolean[accounts.size()];
+		List<Account> unique = new ArrayList<Account>(accounts.size());
+		for (int i = 0; i < claimed.length; i++) {
+			claimed[i] = claim(accounts.get(i), store);
+			if (claimed[i]) {
+				unique.add(accounts.get(i));
+			}
+		}
+		Iterator<Account> saved = store.saveAllIfAbsent(unique).iterator();
+		List<Account> result = new ArrayList<Account>(accounts.size());
+		for (int i = 0; i < claimed.length; i++) {
+			Account account = claimed[i] ? saved.next() : null;
+			if (claimed[i] && null == account) {
+				remove(accounts.get(i), store);
+			}
+			result.add(account);
+		}
+		return result;
+	}
+
+	/**
+	 * Claims the email of an account with a putIfAbsent on its entry, so
+	 * only one of two concurrent claims of an email succeeds
+	 *
+	 * @return boolean
+	 *            - true if the account has no email or now owns its email
+	 */
+	private boolean claim(Account account, AccountStoreDao store) {
+		String key = normalize(account.getEmail());
+		if (null == key) {
+			return true;
+		}
+		String userName = account.getUserName();
+		while (true) {
+			String owner = userNames.putIfAbsent(key, userName);
+			if (null == owner) {
+				return true;
+			}
+			Account current = store.findByName(owner);
+			/* an owner without an account may be a claim that is still
+			  being saved, so only an owner with another email is stale */
+			if (null == current || holds(current, key)) {
+				return false;
+			}
+			if (userNames.replace(key, owner, userName)) {
+				return true;
+			}
+		}
+	}
+
+	private static boolean holds(Account account, String key) {
+		return null != account && key.equals(normalize(account.getEmail()));
+	}
+
+}
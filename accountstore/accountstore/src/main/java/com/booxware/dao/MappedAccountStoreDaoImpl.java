@@ -0,0 +1,1044 @@
+package com.booxware.dao;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dto.Account;
+
+/**
+ * Implementation class for AccountStoreDao whose records and hash index live
+ * in memory-mapped files, so that reads are served by the page cache and the
+ * accounts neither have to fit into the heap nor be read at startup.
+ *
+ * The records file is an append-only sequence of records in regions that are
+ * mapped one by one. A record is laid out as
+ *
+ * <pre>
+ * int     length of the record, written last, negative for padding
+ * int     CRC32 of the record from the id on
+ * long    last login, updated in place
+ * int     state, LIVE or DELETED, updated in place
+ * int     unused
+ * long    id
+ * int     lengths of user name, password and email, -1 for null
+ * bytes   user name, password and email
+ * </pre>
+ *
+ * The index file holds an open-addressing table from the hash of the user
+ * name to the record offset. A save writes the new record and only then marks
+ * a replaced record as deleted and updates the index, a delete marks the
+ * record before it is removed from the index. The index is only trusted
+ * after a clean close; otherwise it is rebuilt from the records, where a
+ * record with a wrong CRC ends the file and the later of two live records
+ * for a user name wins. With syncOnWrite the records are forced to disk
+ * before their length is written, which keeps this order on power loss too.
+ *
+ * The space of deleted and replaced records is not reused.
+ */
+public class MappedAccountStoreDaoImpl implements AccountStoreDao, Closeable {
+
+	private static final int MAGIC = 0x4143534D;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 64;
+
+	//records file header
+	private static final int REGION_SIZE = 8;
+
+	//index file header
+	private static final int CAPACITY = 8;
+
+	private static final int CLEAN = 12;
+
+	private static final int RECORDS_END = 16;
+
+	private static final int SIZE = 24;
+
+	private static final int MAX_ID = 32;
+
+	private static final int ENTRY_SIZE = 16;
+
+	//record layout
+	private static final int CRC = 4;
+
+	private static final int LAST_LOGIN = 8;
+
+	private static final int STATE = 16;
+
+	private static final int ID = 24;
+
+	private static final int USER_NAME_LENGTH = 32;
+
+	private static final int PASSWORD_LENGTH = 36;
+
+	private static final int EMAIL_LENGTH = 40;
+
+	private static final int RECORD_HEADER_SIZE = 44;
+
+	private static final int LIVE = 1;
+
+	private static final int DELETED = 2;
+
+	public static final int DEFAULT_REGION_SIZE = 64 << 20;
+
+	private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+	private final File indexFile;
+
+	private final FileChannel recordsChannel;
+
+	private final int regionSize;
+
+	private final boolean syncOnWrite;
+
+	//generates the Account Id for each account
+	private final AccountIdGenerator accountIdGenerator;
+
+	private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private MappedByteBuffer index;
+
+	private int indexMask;
+
+	private long recordsEnd;
+
+	private int size;
+
+	private long maxId;
+
+	//user names of the records, keyed by email, rebuilt when the store is
+	//opened, or null if the store is opened without it
+	private final EmailIndex emails;
+
+	private static final Logger logger = Logger
+			.getLogger(MappedAccountStoreDaoImpl.class.getName());
+
+	/**
+	 * Opens the account store in the directory, creating it if needed, with
+	 * an email index
+	 *
+	 * @param directory
+	 *            - directory that holds the records and index files
+	 * @param regionSize
+	 *            - size of the mapped regions of a new records file, the
+	 *            limit for the size of one record
+	 * @param syncOnWrite
+	 *            - whether every change is forced to disk before it returns
+	 * @param accountIdGenerator
+	 *            - generator for the ids of saved accounts
+	 * @throws IOException
+	 *             - if the files cannot be opened or are not account stores
+	 */
+	public MappedAccountStoreDaoImpl(File directory, int regionSize,
+			boolean syncOnWrite, AccountIdGenerator accountIdGenerator)
+			throws IOException {
+		this(directory, regionSize, syncOnWrite, true, accountIdGenerator);
+	}
+
+	/**
+	 * Opens the account store in the directory, creating it if needed. The
+	 * email index lives on the heap and is rebuilt from all records when the
+	 * store is opened, so a store without it opens without reading the
+	 * records, finds accounts by email with a scan and cannot save accounts
+	 * with unique emails.
+	 *
+	 * @param directory
+	 *            - directory that holds the records and index files
+	 * @param regionSize
+	 *            - size of the mapped regions of a new records file, the
+	 *            limit for the size of one record
+	 * @param syncOnWrite
+	 *            - whether every change is forced to disk before it returns
+	 * @param emailIndex
+	 *            - whether the accounts are indexed by email, as
+	 *            saveIfUnique needs
+	 * @param accountIdGenerator
+	 *            - generator for the ids of saved accounts
+	 * @throws IOException
+	 *             - if the files cannot be opened or are not account stores
+	 */
+	public MappedAccountStoreDaoImpl(File directory, int regionSize,
+			boolean syncOnWrite, boolean emailIndex,
+			AccountIdGenerator accountIdGenerator) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create account store directory "
+					+ directory);
+		}
+		this.indexFile = new File(directory, "index.dat");
+		this.syncOnWrite = syncOnWrite;
+		this.accountIdGenerator = accountIdGenerator;
+		this.recordsChannel = FileChannel.open(
+				new File(directory, "records.dat").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (recordsChannel.size() == 0) {
+				this.regionSize = regionSize;
+				MappedByteBuffer first = mapRegion(0);
+				first.putInt(0, MAGIC).putInt(4, VERSION)
+						.putInt(REGION_SIZE, regionSize);
+				first.force();
+			} else {
+				MappedByteBuffer header = recordsChannel.map(
+						FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+				if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+					throw new IOException("Invalid account store file in "
+							+ directory);
+				}
+				this.regionSize = header.getInt(REGION_SIZE);
+				for (long start = 0; start < recordsChannel.size(); start += this.regionSize) {
+					mapRegion(regions.size());
+				}
+			}
+			if (!openIndex()) {
+				rebuildIndex();
+			}
+			index.putInt(CLEAN, 0);
+			index.force();
+		} catch (IOException e) {
+			recordsChannel.close();
+			throw e;
+		}
+		accountIdGenerator.advanceTo(maxId);
+		this.emails = emailIndex ? new EmailIndex() : null;
+		if (null != emails) {
+			for (Account account : findAll()) {
+				emails.add(account);
+			}
+		}
+		logger.info("Opened account store with " + size + " accounts in "
+				+ directory);
+	}
+
+	/**
+	 * Method to save an account
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account id
+	 */
+	public Account save(Account account) {
+		account.setId(generateAccountId());
+		if (null != emails) {
+			emails.add(account);
+		}
+		put(account, true);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if no account exists yet for its user name
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name already exists
+	 */
+	public Account saveIfAbsent(Account account) {
+		account.setId(generateAccountId());
+		if (!put(account, false)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Account already exist for user :"
+						+ account.getUserName());
+			}
+			return null;
+		}
+		if (null != emails) {
+			emails.add(account);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if neither its user name nor its email is in
+	 * use
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name or the email already exists
+	 * @throws IllegalStateException
+	 *             - if the store is opened without an email index
+	 */
+	public Account saveIfUnique(Account account) {
+		return emails().saveIfUnique(account, this);
+	}
+
+	/**
+	 * Method to save several accounts, if no account exists yet for their
+	 * user names, under one write lock
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name already exists
+	 */
+	public List<Account> saveAllIfAbsent(List<Account> accounts) {
+		lock.writeLock().lock();
+		try {
+			List<Account> saved = new ArrayList<Account>(accounts.size());
+			for (Account account : accounts) {
+				saved.add(saveIfAbsent(account));
+			}
+			return saved;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to save several accounts, if neither their user names nor their
+	 * emails are in use
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name or the email already exists
+	 * @throws IllegalStateException
+	 *             - if the store is opened without an email index
+	 */
+	public List<Account> saveAllIfUnique(List<Account> accounts) {
+		return emails().saveAllIfUnique(accounts, this);
+	}
+
+	private EmailIndex emails() {
+		if (null == emails) {
+			throw new IllegalStateException(
+					"Unique emails need the email index of the account store");
+		}
+		return emails;
+	}
+
+	/**
+	 * Method to find an account by username
+	 *
+	 * @param name
+	 *            - user name of the account
+	 * @return Account
+	 *            - copy of the account that is saved for that user
+	 */
+	public Account findByName(String name) {
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(name);
+		Account account = null;
+		lock.readLock().lock();
+		try {
+			int entry = find(key, hash);
+			if (entry >= 0) {
+				account = readAccount(recordOffset(entry));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account found successfully for user :" + name);
+		}
+		return account;
+	}
+
+	/**
+	 * Method to find an account by email, with a scan of all records if the
+	 * store is opened without an email index
+	 *
+	 * @param email
+	 *            - email of the account
+	 * @return Account
+	 *            - Account that is saved with that email
+	 */
+	public Account findByEmail(String email) {
+		if (null != emails) {
+			return emails.find(email, this);
+		}
+		String key = EmailIndex.normalize(email);
+		if (null == key) {
+			return null;
+		}
+		for (Account account : findAll()) {
+			if (key.equals(EmailIndex.normalize(account.getEmail()))) {
+				return account;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Method to move the last login of an account forward in place. The
+	 * mapped record cannot be updated with a compare-and-set, so the login is
+	 * written under the write lock.
+	 *
+	 * @param Account
+	 *            - Account that has logged in
+	 * @param lastLogin
+	 *            - epoch milliseconds of the login
+	 */
+	public void updateLastLogin(Account account, long lastLogin) {
+		account.advanceLastLogin(lastLogin);
+		byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+		int hash = hash(account.getUserName());
+		lock.writeLock().lock();
+		try {
+			int entry = find(key, hash);
+			if (entry >= 0) {
+				long offset = recordOffset(entry);
+				MappedByteBuffer region = region(offset);
+				int position = position(offset);
+				if (region.getLong(position + ID) == account.getId()
+						&& region.getLong(position + LAST_LOGIN) < lastLogin) {
+					region.putLong(position + LAST_LOGIN, lastLogin);
+					sync(region);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Last login updated successfully for user :"
+					+ account.getUserName());
+		}
+	}
+
+	/**
+	 * Method to replace the stored password of an account. A new record is
+	 * written while the stored one still has the id of the given account.
+	 *
+	 * @param Account
+	 *            - Account whose password is replaced
+	 * @param encryptedPassword
+	 *            - the new stored form of the password
+	 */
+	public void updatePassword(Account account, byte[] encryptedPassword) {
+		account.setEncryptedPassword(encryptedPassword);
+		byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+		int hash = hash(account.getUserName());
+		lock.writeLock().lock();
+		try {
+			int entry = find(key, hash);
+			if (entry >= 0) {
+				long offset = recordOffset(entry);
+				Account stored = readAccount(offset);
+				if (stored.getId() == account.getId()) {
+					stored.setEncryptedPassword(encryptedPassword);
+					long replacement = appendRecord(stored, key);
+					markDeleted(offset);
+					index.putLong(entryPosition(entry), replacement + 1);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to update password of "
+					+ account.getUserName(), e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Password updated successfully for user :"
+					+ account.getUserName());
+		}
+	}
+
+	/**
+	 * Method to delete an account. The record is only removed while it still
+	 * has the id of the given account.
+	 *
+	 * @param Account
+	 *            - Account to be deleted
+	 * @return boolean
+	 *            - true if the account was deleted
+	 */
+	public boolean delete(Account account) {
+		byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+		int hash = hash(account.getUserName());
+		lock.writeLock().lock();
+		try {
+			int entry = find(key, hash);
+			if (entry < 0) {
+				return false;
+			}
+			long offset = recordOffset(entry);
+			MappedByteBuffer region = region(offset);
+			if (region.getLong(position(offset) + ID) != account.getId()) {
+				return false;
+			}
+			markDeleted(offset);
+			deleteEntry(entry);
+			size--;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (null != emails) {
+			emails.remove(account, this);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account deleted successfully for user :" + account.getUserName());
+		}
+		return true;
+	}
+
+	/**
+	 * Method to delete several accounts, under one write lock
+	 *
+	 * @param accounts
+	 *            - Accounts to be deleted
+	 * @return boolean[]
+	 *            - for each account, true if it was deleted
+	 */
+	public boolean[] deleteAll(List<Account> accounts) {
+		boolean[] deleted = new boolean[accounts.size()];
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < deleted.length; i++) {
+				deleted[i] = delete(accounts.get(i));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return deleted;
+	}
+
+	/**
+	 * Method to list all accounts by scanning the live records in the order
+	 * they were written. Records are read one at a time under the read lock.
+	 * A replaced account may be returned twice, if the scan reads its old
+	 * record before the replacement marks it deleted.
+	 *
+	 * @return Iterable
+	 *            - copies of the accounts that are saved in repository
+	 */
+	public Iterable<Account> findAll() {
+		return new Iterable<Account>() {
+			public Iterator<Account> iterator() {
+				return new Iterator<Account>() {
+					private long offset = HEADER_SIZE;
+
+					private Account next;
+
+					public boolean hasNext() {
+						if (null == next) {
+							lock.readLock().lock();
+							try {
+								next = readLive();
+							} finally {
+								lock.readLock().unlock();
+							}
+						}
+						return null != next;
+					}
+
+					public Account next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Account account = next;
+						next = null;
+						return account;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+					private Account readLive() {
+						while (offset < recordsEnd) {
+							long record = offset;
+							int length = region(record).getInt(position(record));
+							if (length < 0) {
+								offset -= length;
+								continue;
+							}
+							offset += length;
+							if (region(record).getInt(position(record) + STATE) == LIVE) {
+								return readAccount(record);
+							}
+						}
+						return null;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix. The
+	 * index is not ordered, so every query scans all accounts and is meant
+	 * for occasional listings rather than for request traffic.
+	 *
+	 * @param prefix
+	 *            - start of the user names, empty for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return
+	 * @param cursor
+	 *            - last user name of the previous page, null for the first
+	 * @return List
+	 *            - up to limit copies of accounts ordered by user name
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor) {
+		return PrefixQuery.scan(findAll(), prefix, limit, cursor);
+	}
+
+	/**
+	 * Method to count the stored accounts
+	 *
+	 * @return long
+	 *            - number of accounts
+	 */
+	public long size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Forces all changes of the records and the index to disk
+	 */
+	public void flush() {
+		lock.writeLock().lock();
+		try {
+			for (MappedByteBuffer region : regions) {
+				region.force();
+			}
+			index.force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Forces all changes to disk and marks the index as clean, so that the
+	 * next start uses it without reading the records
+	 */
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			for (MappedByteBuffer region : regions) {
+				region.force();
+			}
+			index.putLong(RECORDS_END, recordsEnd).putLong(SIZE, size)
+					.putLong(MAX_ID, maxId).putInt(CLEAN, 1);
+			index.force();
+			recordsChannel.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to generate account Id for an account
+	 *
+	 * @return long
+	 *            - The generated Account Id
+	 */
+	private long generateAccountId() {
+		return accountIdGenerator.nextId();
+	}
+
+	/**
+	 * Writes the account, replacing an existing one only if requested
+	 *
+	 * @return true if the account is written
+	 */
+	private boolean put(Account account, boolean replace) {
+		byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+		int hash = hash(account.getUserName());
+		lock.writeLock().lock();
+		try {
+			int entry = find(key, hash);
+			if (entry >= 0 && !replace) {
+				return false;
+			}
+			long offset = appendRecord(account, key);
+			maxId = Math.max(maxId, account.getId());
+			if (entry >= 0) {
+				markDeleted(recordOffset(entry));
+				index.putLong(entryPosition(entry), offset + 1);
+			} else {
+				insert(hash, offset);
+				size++;
+				if (size > (indexMask + 1) / 2) {
+					resizeIndex();
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to save account "
+					+ account.getUserName(), e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes a record behind the last one. The length is written last, so
+	 * that a record is only part of the file once it is complete.
+	 *
+	 * @return long
+	 *            - offset of the record in the records file
+	 */
+	private long appendRecord(Account account, byte[] userName)
+			throws IOException {
+		byte[] password = account.getEncryptedPassword();
+		byte[] email = null == account.getEmail() ? null : account.getEmail()
+				.getBytes(StandardCharsets.UTF_8);
+		int length = align(RECORD_HEADER_SIZE + userName.length
+				+ (null == password ? 0 : password.length)
+				+ (null == email ? 0 : email.length));
+		if (length > regionSize - HEADER_SIZE) {
+			throw new IllegalArgumentException("Account too large: "
+					+ account.getUserName());
+		}
+		int position = position(recordsEnd);
+		if (position + length > regionSize) {
+			// records do not cross regions, the rest of the region is padding
+			region(recordsEnd).putInt(position, position - regionSize);
+			recordsEnd += regionSize - position;
+			position = 0;
+		}
+		while (regions.size() <= recordsEnd / regionSize) {
+			mapRegion(regions.size());
+		}
+		long offset = recordsEnd;
+		ByteBuffer record = region(offset).duplicate();
+		record.position(position + LAST_LOGIN);
+		record.putLong(account.getLastLoginTime())
+				.putInt(LIVE).putInt(0).putLong(account.getId())
+				.putInt(userName.length)
+				.putInt(null == password ? -1 : password.length)
+				.putInt(null == email ? -1 : email.length).put(userName);
+		if (null != password) {
+			record.put(password);
+		}
+		if (null != email) {
+			record.put(email);
+		}
+		record.putInt(position + CRC, checksum(record, position, length));
+		sync(region(offset));
+		record.putInt(position, length);
+		sync(region(offset));
+		recordsEnd += length;
+		return offset;
+	}
+
+	private void markDeleted(long offset) {
+		MappedByteBuffer region = region(offset);
+		region.putInt(position(offset) + STATE, DELETED);
+		sync(region);
+	}
+
+	private Account readAccount(long offset) {
+		ByteBuffer record = region(offset).duplicate();
+		int position = position(offset);
+		record.position(position + RECORD_HEADER_SIZE);
+		String userName = readString(record,
+				record.getInt(position + USER_NAME_LENGTH));
+		byte[] password = null;
+		int passwordLength = record.getInt(position + PASSWORD_LENGTH);
+		if (passwordLength >= 0) {
+			password = new byte[passwordLength];
+			record.get(password);
+		}
+		String email = readString(record, record.getInt(position + EMAIL_LENGTH));
+		Account account = new Account(userName, password, email, null);
+		account.setId(record.getLong(position + ID));
+		account.advanceLastLogin(record.getLong(position + LAST_LOGIN));
+		return account;
+	}
+
+	private static String readString(ByteBuffer record, int length) {
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Opens the index, if it was closed cleanly
+	 *
+	 * @return true if the index can be used
+	 */
+	private boolean openIndex() throws IOException {
+		if (!indexFile.isFile()) {
+			return false;
+		}
+		MappedByteBuffer existing = mapIndex(indexFile, -1);
+		if (existing.getInt(0) != MAGIC || existing.getInt(4) != VERSION
+				|| existing.getInt(CLEAN) != 1) {
+			logger.warn("Account store was not closed cleanly, rebuilding index");
+			return false;
+		}
+		index = existing;
+		indexMask = existing.getInt(CAPACITY) - 1;
+		recordsEnd = existing.getLong(RECORDS_END);
+		size = (int) existing.getLong(SIZE);
+		maxId = existing.getLong(MAX_ID);
+		return true;
+	}
+
+	/**
+	 * Rebuilds the index from the records. The records file ends at the
+	 * first record that is not complete, everything behind it is cleared.
+	 */
+	private void rebuildIndex() throws IOException {
+		index = mapIndex(indexFile, INITIAL_INDEX_CAPACITY);
+		indexMask = INITIAL_INDEX_CAPACITY - 1;
+		size = 0;
+		maxId = 0;
+		long offset = HEADER_SIZE;
+		long end = (long) regions.size() * regionSize;
+		while (offset < end) {
+			MappedByteBuffer region = region(offset);
+			int position = position(offset);
+			int length = region.getInt(position);
+			if (length < 0) {
+				offset -= length;
+				continue;
+			}
+			if (length < RECORD_HEADER_SIZE || position + length > regionSize
+					|| region.getInt(position + CRC) != checksum(region, position, length)) {
+				break;
+			}
+			if (region.getInt(position + STATE) == LIVE) {
+				indexRecord(offset);
+			}
+			offset += length;
+		}
+		recordsEnd = offset;
+		for (long clear = offset; clear < end; clear += 8) {
+			// only written where needed, so that holes of the file stay holes
+			if (region(clear).getLong(position(clear)) != 0) {
+				region(clear).putLong(position(clear), 0);
+			}
+		}
+		for (MappedByteBuffer region : regions) {
+			region.force();
+		}
+		logger.info("Rebuilt index of " + size + " accounts");
+	}
+
+	private void indexRecord(long offset) throws IOException {
+		ByteBuffer record = region(offset).duplicate();
+		int position = position(offset);
+		byte[] key = new byte[record.getInt(position + USER_NAME_LENGTH)];
+		record.position(position + RECORD_HEADER_SIZE);
+		record.get(key);
+		int hash = hash(new String(key, StandardCharsets.UTF_8));
+		int entry = find(key, hash);
+		if (entry >= 0) {
+			// a save that replaced the account did not complete
+			markDeleted(recordOffset(entry));
+			index.putLong(entryPosition(entry), offset + 1);
+		} else {
+			insert(hash, offset);
+			size++;
+			if (size > (indexMask + 1) / 2) {
+				resizeIndex();
+			}
+		}
+		maxId = Math.max(maxId, record.getLong(position + ID));
+	}
+
+	/**
+	 * Probes the index for the user name
+	 *
+	 * @return int
+	 *            - number of the index entry, or -1 if not found
+	 */
+	private int find(byte[] key, int hash) {
+		for (int i = hash & indexMask;; i = (i + 1) & indexMask) {
+			long offset = index.getLong(entryPosition(i));
+			if (offset == 0) {
+				return -1;
+			}
+			if (index.getInt(entryPosition(i) + 8) == hash
+					&& keyEquals(offset - 1, key)) {
+				return i;
+			}
+		}
+	}
+
+	private void insert(int hash, long offset) {
+		int i = hash & indexMask;
+		while (index.getLong(entryPosition(i)) != 0) {
+			i = (i + 1) & indexMask;
+		}
+		index.putInt(entryPosition(i) + 8, hash);
+		index.putLong(entryPosition(i), offset + 1);
+	}
+
+	/**
+	 * Removes an index entry and shifts the following entries of its probe
+	 * sequence back, so that lookups need no tombstones
+	 */
+	private void deleteEntry(int entry) {
+		int hole = entry;
+		for (int i = (hole + 1) & indexMask;; i = (i + 1) & indexMask) {
+			long offset = index.getLong(entryPosition(i));
+			if (offset == 0) {
+				break;
+			}
+			int hash = index.getInt(entryPosition(i) + 8);
+			int home = hash & indexMask;
+			// move the entry if the hole lies between its home and itself
+			if (((i - home) & indexMask) >= ((i - hole) & indexMask)) {
+				index.putInt(entryPosition(hole) + 8, hash);
+				index.putLong(entryPosition(hole), offset);
+				hole = i;
+			}
+		}
+		index.putLong(entryPosition(hole), 0);
+	}
+
+	/**
+	 * Writes the index with twice the capacity to a new file, which then
+	 * replaces the current one
+	 */
+	private void resizeIndex() throws IOException {
+		MappedByteBuffer old = index;
+		int oldCapacity = indexMask + 1;
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		index = mapIndex(tmp, oldCapacity * 2);
+		indexMask = oldCapacity * 2 - 1;
+		for (int i = 0; i < oldCapacity; i++) {
+			long offset = old.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+			if (offset != 0) {
+				insert(old.getInt(HEADER_SIZE + i * ENTRY_SIZE + 8), offset - 1);
+			}
+		}
+		index.force();
+		Files.move(tmp.toPath(), indexFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Maps an index file, a new one if a capacity is given
+	 */
+	private static MappedByteBuffer mapIndex(File file, int capacity)
+			throws IOException {
+		if (capacity > 0) {
+			Files.deleteIfExists(file.toPath());
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			if (capacity < 0) {
+				if (channel.size() < HEADER_SIZE) {
+					return channel.map(FileChannel.MapMode.READ_WRITE, 0,
+							HEADER_SIZE);
+				}
+				return channel.map(FileChannel.MapMode.READ_WRITE, 0,
+						channel.size());
+			}
+			MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE,
+					0, HEADER_SIZE + (long) capacity * ENTRY_SIZE);
+			index.putInt(0, MAGIC).putInt(4, VERSION).putInt(CAPACITY, capacity);
+			return index;
+		}
+	}
+
+	private MappedByteBuffer mapRegion(int number) throws IOException {
+		MappedByteBuffer region = recordsChannel.map(
+				FileChannel.MapMode.READ_WRITE, (long) number * regionSize,
+				regionSize);
+		regions.add(region);
+		return region;
+	}
+
+	private boolean keyEquals(long offset, byte[] key) {
+		MappedByteBuffer region = region(offset);
+		int position = position(offset);
+		if (region.getInt(position + USER_NAME_LENGTH) != key.length) {
+			return false;
+		}
+		int start = position + RECORD_HEADER_SIZE;
+		for (int i = 0; i < key.length; i++) {
+			if (region.get(start + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * CRC32 of the record from the id on, the fields that are updated in
+	 * place are not part of it
+	 */
+	private static int checksum(ByteBuffer region, int position, int length) {
+		ByteBuffer range = region.duplicate();
+		range.limit(position + length).position(position + ID);
+		CRC32 crc = new CRC32();
+		crc.update(range);
+		return (int) crc.getValue();
+	}
+
+	private void sync(MappedByteBuffer region) {
+		if (syncOnWrite) {
+			region.force();
+		}
+	}
+
+	private long recordOffset(int entry) {
+		return index.getLong(entryPosition(entry)) - 1;
+	}
+
+	private static int entryPosition(int entry) {
+		return HEADER_SIZE + entry * ENTRY_SIZE;
+	}
+
+	private MappedByteBuffer region(long offset) {
+		return regions.get((int) (offset / regionSize));
+	}
+
+	private int position(long offset) {
+		return (int) (offset % regionSize);
+	}
+
+	private static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	/**
+	 * String.hashCode is specified, so the hashes stored in the index stay
+	 * valid across restarts
+	 */
+	private static int hash(String userName) {
+		int hash = userName.hashCode();
+		return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+	}
+
+}
@@ -0,0 +1,789 @@
+package com.booxware.dao;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dto.Account;
+
+/**
+ * Implementation class for AccountStoreDao that keeps the accounts outside of
+ * the java heap. Records are written to direct memory chunks and found through
+ * an open-addressing hash index, also in direct memory, from the user name to
+ * the slot of the record. The heap only holds two longs per account in
+ * primitive arrays, the record address and the last login, so the number of
+ * accounts hardly affects GC pauses.
+ *
+ * Account objects are only created when an account is returned by findByName,
+ * and changes to a returned Account are not stored back. updateLastLogin and
+ * delete therefore match the stored record by user name and account id
+ * instead of by instance.
+ *
+ * The store is split into segments by the hash of the user name, each guarded
+ * by its own read-write lock. Logins only take the read lock and advance the
+ * last login of the slot with a compare-and-set.
+ */
+public class OffHeapAccountStoreDaoImpl implements AccountStoreDao {
+
+	//size of the direct memory chunks records are written to
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	//record layout: id, lengths of user name, password and email
+	private static final int ID = 0;
+
+	private static final int USER_NAME_LENGTH = 8;
+
+	private static final int PASSWORD_LENGTH = 12;
+
+	private static final int EMAIL_LENGTH = 16;
+
+	private static final int RECORD_HEADER_SIZE = 20;
+
+	//generates the Account Id for each account
+	private final AccountIdGenerator accountIdGenerator;
+
+	private final Segment[] segments;
+
+	private final int segmentShift;
+
+	//user names of the segments, keyed by email
+	private final EmailIndex emails = new EmailIndex();
+
+	private static final Logger logger = Logger
+			.getLogger(OffHeapAccountStoreDaoImpl.class.getName());
+
+	/**
+	 * @param initialCapacity
+	 *            - expected number of accounts, used to presize the index
+	 * @param accountIdGenerator
+	 *            - generator for the ids of saved accounts
+	 */
+	public OffHeapAccountStoreDaoImpl(int initialCapacity,
+			AccountIdGenerator accountIdGenerator) {
+		this.accountIdGenerator = accountIdGenerator;
+		int processors = Runtime.getRuntime().availableProcessors();
+		this.segments = new Segment[Integer.highestOneBit(processors * 4 - 1) << 1];
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segments.length);
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(initialCapacity / segments.length);
+		}
+	}
+
+	/**
+	 * Method to save an account
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account id
+	 */
+	public Account save(Account account) {
+		account.setId(generateAccountId());
+		emails.add(account);
+		segmentFor(account.getUserName()).put(account, true);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if no account exists yet for its user name
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name already exists
+	 */
+	public Account saveIfAbsent(Account account) {
+		account.setId(generateAccountId());
+		if (!segmentFor(account.getUserName()).put(account, false)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Account already exist for user :"
+						+ account.getUserName());
+			}
+			return null;
+		}
+		emails.add(account);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if neither its user name nor its email is in
+	 * use
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name or the email already exists
+	 */
+	public Account saveIfUnique(Account account) {
+		return emails.saveIfUnique(account, this);
+	}
+
+	/**
+	 * Method to save several accounts, if no account exists yet for their
+	 * user names
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name already exists
+	 */
+	public List<Account> saveAllIfAbsent(List<Account> accounts) {
+		List<Account> saved = new ArrayList<Account>(accounts.size());
+		for (Account account : accounts) {
+			saved.add(saveIfAbsent(account));
+		}
+		return saved;
+	}
+
+	/**
+	 * Method to save several accounts, if neither their user names nor their
+	 * emails are in use
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name or the email already exists
+	 */
+	public List<Account> saveAllIfUnique(List<Account> accounts) {
+		return emails.saveAllIfUnique(accounts, this);
+	}
+
+	/**
+	 * Method to find an account by username
+	 *
+	 * @param name
+	 *            - user name of the account
+	 * @return Account
+	 *            - copy of the account that is saved for that user
+	 */
+	public Account findByName(String name) {
+		Account account = segmentFor(name).get(name);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account found successfully for user :" + name);
+		}
+		return account;
+	}
+
+	/**
+	 * Method to find an account by email
+	 *
+	 * @param email
+	 *            - email of the account
+	 * @return Account
+	 *            - Account that is saved with that email
+	 */
+	public Account findByEmail(String email) {
+		return emails.find(email, this);
+	}
+
+	/**
+	 * Method to move the last login of an account forward
+	 *
+	 * @param Account
+	 *            - Account that has logged in
+	 * @param lastLogin
+	 *            - epoch milliseconds of the login
+	 */
+	public void updateLastLogin(Account account, long lastLogin) {
+		account.advanceLastLogin(lastLogin);
+		segmentFor(account.getUserName()).updateLastLogin(account, lastLogin);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Last login updated successfully for user :"
+					+ account.getUserName());
+		}
+	}
+
+	/**
+	 * Method to replace the stored password of an account. The record is
+	 * only rewritten while it still has the id of the given account.
+	 *
+	 * @param Account
+	 *            - Account whose password is replaced
+	 * @param encryptedPassword
+	 *            - the new stored form of the password
+	 */
+	public void updatePassword(Account account, byte[] encryptedPassword) {
+		account.setEncryptedPassword(encryptedPassword);
+		segmentFor(account.getUserName()).updatePassword(account,
+				encryptedPassword);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Password updated successfully for user :"
+					+ account.getUserName());
+		}
+	}
+
+	/**
+	 * Method to delete an account. The record is only removed while it still
+	 * has the id of the given account.
+	 *
+	 * @param Account
+	 *            - Account to be deleted
+	 * @return boolean
+	 *            - true if the account was deleted
+	 */
+	public boolean delete(Account account) {
+		if (!segmentFor(account.getUserName()).remove(account)) {
+			return false;
+		}
+		emails.remove(account, this);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account deleted successfully for user :" + account.getUserName());
+		}
+		return true;
+	}
+
+	/**
+	 * Method to delete several accounts
+	 *
+	 * @param accounts
+	 *            - Accounts to be deleted
+	 * @return boolean[]
+	 *            - for each account, true if it was deleted
+	 */
+	public boolean[] deleteAll(List<Account> accounts) {
+		boolean[] deleted = new boolean[accounts.size()];
+		for (int i = 0; i < deleted.length; i++) {
+			deleted[i] = delete(accounts.get(i));
+		}
+		return deleted;
+	}
+
+	/**
+	 * Method to list all accounts. The slots of each segment are read one at
+	 * a time under its read lock, so writers wait for one record at most.
+	 *
+	 * @return Iterable
+	 *            - copies of the accounts that are saved in repository
+	 */
+	public Iterable<Account> findAll() {
+		return new Iterable<Account>() {
+			public Iterator<Account> iterator() {
+				return new Iterator<Account>() {
+					private int segment;
+
+					private int slot;
+
+					private Account next;
+
+					public boolean hasNext() {
+						while (null == next && segment < segments.length) {
+							if (slot < segments[segment].slotCount()) {
+								next = segments[segment].read(slot++);
+							} else {
+								segment++;
+								slot = 0;
+							}
+						}
+						return null != next;
+					}
+
+					public Account next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Account account = next;
+						next = null;
+						return account;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix. The
+	 * index is not ordered, so every query scans all accounts and is meant
+	 * for occasional listings rather than for request traffic.
+	 *
+	 * @param prefix
+	 *            - start of the user names, empty for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return
+	 * @param cursor
+	 *            - last user name of the previous page, null for the first
+	 * @return List
+	 *            - up to limit copies of accounts ordered by user name
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor) {
+		return PrefixQuery.scan(findAll(), prefix, limit, cursor);
+	}
+
+	/**
+	 * Method to count the stored accounts
+	 *
+	 * @return long
+	 *            - number of accounts
+	 */
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Method to generate account Id for an account
+	 *
+	 * @return long
+	 *            - The generated Account Id
+	 */
+	private long generateAccountId() {
+		return accountIdGenerator.nextId();
+	}
+
+	private Segment segmentFor(String userName) {
+		int hash = spread(userName.hashCode());
+		// the top bits select the segment, the low bits the index entry
+		return segments[hash >>> segmentShift];
+	}
+
+	private static int spread(int hash) {
+		return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+	}
+
+	/**
+	 * Part of the store with its own index, records and lock. The index holds
+	 * one long per entry: the hash of the user name in the upper and the slot
+	 * plus one in the lower half, 0 for a free entry. Each slot holds the
+	 * address of a record as chunk index and offset.
+	 */
+	private static final class Segment {
+
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		private ByteBuffer index;
+
+		private int indexMask;
+
+		private long[] addresses;
+
+		private AtomicLongArray lastLogins;
+
+		//slots of deleted accounts that can be reused
+		private int[] freeSlots = new int[16];
+
+		private int freeSlotCount;
+
+		private int slotCount;
+
+		private int size;
+
+		private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+		//bytes of the records that are still referenced and of the replaced ones
+		private long liveBytes;
+
+		private long garbageBytes;
+
+		Segment(int initialCapacity) {
+			int capacity = Math.max(16,
+					Integer.highestOneBit(Math.max(1, initialCapacity * 2) - 1) << 1);
+			index = ByteBuffer.allocateDirect(capacity * 8);
+			indexMask = capacity - 1;
+			addresses = new long[Math.max(16, initialCapacity)];
+			lastLogins = new AtomicLongArray(addresses.length);
+		}
+
+		Account get(String userName) {
+			byte[] key = userName.getBytes(StandardCharsets.UTF_8);
+			int hash = spread(userName.hashCode());
+			lock.readLock().lock();
+			try {
+				int entry = find(key, hash);
+				return entry < 0 ? null : readAccount(slotOf(entry));
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Writes the account, replacing an existing one only if requested
+		 *
+		 * @return true if the account is written
+		 */
+		boolean put(Account account, boolean replace) {
+			byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+			int hash = spread(account.getUserName().hashCode());
+			lock.writeLock().lock();
+			try {
+				int entry = find(key, hash);
+				if (entry >= 0) {
+					if (!replace) {
+						return false;
+					}
+					int slot = slotOf(entry);
+					release(addresses[slot]);
+					addresses[slot] = writeRecord(account, key);
+					lastLogins.set(slot, account.getLastLoginTime());
+					compactIfNeeded();
+					return true;
+				}
+				int slot = allocateSlot();
+				addresses[slot] = writeRecord(account, key);
+				lastLogins.set(slot, account.getLastLoginTime());
+				insert(hash, slot);
+				size++;
+				if (size > (indexMask + 1) * 3 / 4) {
+					resizeIndex();
+				}
+				return true;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void updateLastLogin(Account account, long lastLogin) {
+			byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+			int hash = spread(account.getUserName().hashCode());
+			lock.readLock().lock();
+			try {
+				int entry = find(key, hash);
+				if (entry < 0) {
+					return;
+				}
+				int slot = slotOf(entry);
+				long address = addresses[slot];
+				if (chunks.get(chunkOf(address)).getLong(offsetOf(address) + ID) != account
+						.getId()) {
+					return;
+				}
+				long current;
+				do {
+					current = lastLogins.get(slot);
+				} while (current < lastLogin
+						&& !lastLogins.compareAndSet(slot, current, lastLogin));
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		void updatePassword(Account account, byte[] encryptedPassword) {
+			byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+			int hash = spread(account.getUserName().hashCode());
+			lock.writeLock().lock();
+			try {
+				int entry = find(key, hash);
+				if (entry < 0) {
+					return;
+				}
+				int slot = slotOf(entry);
+				long address = addresses[slot];
+				Account stored = readAccount(slot);
+				if (stored.getId() != account.getId()) {
+					return;
+				}
+				stored.setEncryptedPassword(encryptedPassword);
+				release(address);
+				addresses[slot] = writeRecord(stored, key);
+				compactIfNeeded();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		boolean remove(Account account) {
+			byte[] key = account.getUserName().getBytes(StandardCharsets.UTF_8);
+			int hash = spread(account.getUserName().hashCode());
+			lock.writeLock().lock();
+			try {
+				int entry = find(key, hash);
+				if (entry < 0) {
+					return false;
+				}
+				int slot = slotOf(entry);
+				long address = addresses[slot];
+				if (chunks.get(chunkOf(address)).getLong(offsetOf(address) + ID) != account
+						.getId()) {
+					return false;
+				}
+				release(address);
+				deleteEntry(entry);
+				freeSlot(slot);
+				size--;
+				compactIfNeeded();
+				return true;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		int size() {
+			lock.readLock().lock();
+			try {
+				return size;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		int slotCount() {
+			lock.readLock().lock();
+			try {
+				return slotCount;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * @return Account
+		 *            - copy of the account in the slot, or null if it is free
+		 */
+		Account read(int slot) {
+			lock.readLock().lock();
+			try {
+				return slot >= slotCount || addresses[slot] < 0 ? null
+						: readAccount(slot);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Probes the index for the user name
+		 *
+		 * @return int
+		 *            - position of the index entry, or -1 if not found
+		 */
+		private int find(byte[] key, int hash) {
+			for (int i = hash & indexMask;; i = (i + 1) & indexMask) {
+				long entry = index.getLong(i * 8);
+				if (entry == 0) {
+					return -1;
+				}
+				if ((int) (entry >>> 32) == hash
+						&& keyEquals(addresses[(int) entry - 1], key)) {
+					return i;
+				}
+			}
+		}
+
+		private void insert(int hash, int slot) {
+			int i = hash & indexMask;
+			while (index.getLong(i * 8) != 0) {
+				i = (i + 1) & indexMask;
+			}
+			index.putLong(i * 8, ((long) hash << 32) | (slot + 1L));
+		}
+
+		/**
+		 * Removes an index entry and shifts the following entries of its
+		 * probe sequence back, so that lookups need no tombstones
+		 */
+		private void deleteEntry(int position) {
+			int hole = position;
+			for (int i = (hole + 1) & indexMask;; i = (i + 1) & indexMask) {
+				long entry = index.getLong(i * 8);
+				if (entry == 0) {
+					break;
+				}
+				int home = (int) (entry >>> 32) & indexMask;
+				// move the entry if the hole lies between its home and itself
+				if (((i - home) & indexMask) >= ((i - hole) & indexMask)) {
+					index.putLong(hole * 8, entry);
+					hole = i;
+				}
+			}
+			index.putLong(hole * 8, 0);
+		}
+
+		private void resizeIndex() {
+			ByteBuffer old = index;
+			int oldCapacity = indexMask + 1;
+			index = ByteBuffer.allocateDirect(oldCapacity * 2 * 8);
+			indexMask = oldCapacity * 2 - 1;
+			for (int i = 0; i < oldCapacity; i++) {
+				long entry = old.getLong(i * 8);
+				if (entry != 0) {
+					insert((int) (entry >>> 32), (int) entry - 1);
+				}
+			}
+		}
+
+		private int slotOf(int entryPosition) {
+			return (int) index.getLong(entryPosition * 8) - 1;
+		}
+
+		private int allocateSlot() {
+			if (freeSlotCount > 0) {
+				return freeSlots[--freeSlotCount];
+			}
+			if (slotCount == addresses.length) {
+				addresses = Arrays.copyOf(addresses, addresses.length * 2);
+				AtomicLongArray grown = new AtomicLongArray(addresses.length);
+				for (int i = 0; i < slotCount; i++) {
+					grown.set(i, lastLogins.get(i));
+				}
+				lastLogins = grown;
+			}
+			return slotCount++;
+		}
+
+		private void freeSlot(int slot) {
+			if (freeSlotCount == freeSlots.length) {
+				freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+			}
+			freeSlots[freeSlotCount++] = slot;
+			addresses[slot] = -1;
+			lastLogins.set(slot, Account.NO_LAST_LOGIN);
+		}
+
+		private boolean keyEquals(long address, byte[] key) {
+			ByteBuffer chunk = chunks.get(chunkOf(address));
+			int offset = offsetOf(address);
+			if (chunk.getInt(offset + USER_NAME_LENGTH) != key.length) {
+				return false;
+			}
+			int start = offset + RECORD_HEADER_SIZE;
+			for (int i = 0; i < key.length; i++) {
+				if (chunk.get(start + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Appends a record to the last chunk, or to a new one if it is full
+		 *
+		 * @return long
+		 *            - address of the record
+		 */
+		private long writeRecord(Account account, byte[] userName) {
+			byte[] password = account.getEncryptedPassword();
+			byte[] email = null == account.getEmail() ? null : account
+					.getEmail().getBytes(StandardCharsets.UTF_8);
+			int length = RECORD_HEADER_SIZE + userName.length
+					+ (null == password ? 0 : password.length)
+					+ (null == email ? 0 : email.length);
+			ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks
+					.size() - 1);
+			if (null == chunk || chunk.remaining() < length) {
+				chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+				chunks.add(chunk);
+			}
+			int offset = chunk.position();
+			chunk.putLong(account.getId()).putInt(userName.length)
+					.putInt(null == password ? -1 : password.length)
+					.putInt(null == email ? -1 : email.length).put(userName);
+			if (null != password) {
+				chunk.put(password);
+			}
+			if (null != email) {
+				chunk.put(email);
+			}
+			liveBytes += length;
+			return ((long) (chunks.size() - 1) << 32) | offset;
+		}
+
+		private Account readAccount(int slot) {
+			long address = addresses[slot];
+			ByteBuffer chunk = chunks.get(chunkOf(address)).duplicate();
+			int offset = offsetOf(address);
+			chunk.position(offset + RECORD_HEADER_SIZE);
+			String userName = readString(chunk,
+					chunk.getInt(offset + USER_NAME_LENGTH));
+			byte[] password = null;
+			int passwordLength = chunk.getInt(offset + PASSWORD_LENGTH);
+			if (passwordLength >= 0) {
+				password = new byte[passwordLength];
+				chunk.get(password);
+			}
+			String email = readString(chunk, chunk.getInt(offset + EMAIL_LENGTH));
+			Account account = new Account(userName, password, email, null);
+			account.setId(chunk.getLong(offset + ID));
+			account.advanceLastLogin(lastLogins.get(slot));
+			return account;
+		}
+
+		private static String readString(ByteBuffer chunk, int length) {
+			if (length < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			chunk.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private void release(long address) {
+			int length = recordLength(chunks.get(chunkOf(address)),
+					offsetOf(address));
+			liveBytes -= length;
+			garbageBytes += length;
+		}
+
+		private void compactIfNeeded() {
+			if (garbageBytes > liveBytes && garbageBytes > CHUNK_SIZE) {
+				compact();
+			}
+		}
+
+		/**
+		 * Copies the live records into new chunks, so that the chunks holding
+		 * deleted and replaced records can be freed
+		 */
+		private void compact() {
+			List<ByteBuffer> oldChunks = new ArrayList<ByteBuffer>(chunks);
+			chunks.clear();
+			ByteBuffer chunk = null;
+			for (int slot = 0; slot < slotCount; slot++) {
+				long address = addresses[slot];
+				if (address < 0) {
+					continue;
+				}
+				ByteBuffer record = oldChunks.get(chunkOf(address)).duplicate();
+				int offset = offsetOf(address);
+				int length = recordLength(record, offset);
+				record.limit(offset + length).position(offset);
+				if (null == chunk || chunk.remaining() < length) {
+					chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+					chunks.add(chunk);
+				}
+				addresses[slot] = ((long) (chunks.size() - 1) << 32)
+						| chunk.position();
+				chunk.put(record);
+			}
+			garbageBytes = 0;
+		}
+
+		private static int recordLength(ByteBuffer chunk, int offset) {
+			return RECORD_HEADER_SIZE + chunk.getInt(offset + USER_NAME_LENGTH)
+					+ Math.max(0, chunk.getInt(offset + PASSWORD_LENGTH))
+					+ Math.max(0, chunk.getInt(offset + EMAIL_LENGTH));
+		}
+
+		private static int chunkOf(long address) {
+			return (int) (address >>> 32);
+		}
+
+		private static int offsetOf(long address) {
+			return (int) address;
+		}
+	}
+
+}
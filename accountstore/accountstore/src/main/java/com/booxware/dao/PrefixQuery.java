@@ -0,0 +1,68 @@
+package com.booxware.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.booxware.dto.Account;
+
+/**
+ * Helpers for the findByPrefix implementations. A query returns the user
+ * names that start with the prefix and sort after the cursor, the last user
+ * name of the previous page, in the order of String.compareTo.
+ */
+final class PrefixQuery {
+
+	private PrefixQuery() {
+	}
+
+	/**
+	 * @return String
+	 *            - the user name an ordered scan starts at
+	 */
+	static String start(String prefix, String cursor) {
+		return null != cursor && cursor.compareTo(prefix) >= 0 ? cursor
+				: prefix;
+	}
+
+	/**
+	 * @return boolean
+	 *            - true if the start itself may be returned, false if it is
+	 *            the cursor
+	 */
+	static boolean includesStart(String prefix, String cursor) {
+		return null == cursor || cursor.compareTo(prefix) < 0;
+	}
+
+	/**
+	 * Answers a query over accounts in no particular order by keeping the
+	 * limit smallest matching user names
+	 *
+	 * @return List
+	 *            - up to limit accounts ordered by user name
+	 */
+	static List<Account> scan(Iterable<Account> accounts, String prefix,
+			int limit, String cursor) {
+		if (limit <= 0) {
+			return new ArrayList<Account>();
+		}
+		TreeMap<String, Account> page = new TreeMap<String, Account>();
+		for (Account account : accounts) {
+			String userName = account.getUserName();
+			if (!userName.startsWith(prefix)
+					|| (null != cursor && userName.compareTo(cursor) <= 0)) {
+				continue;
+			}
+			if (page.size() == limit
+					&& userName.compareTo(page.lastKey()) >= 0) {
+				continue;
+			}
+			page.put(userName, account);
+			if (page.size() > limit) {
+				page.pollLastEntry();
+			}
+		}
+		return new ArrayList<Account>(page.values());
+	}
+
+}
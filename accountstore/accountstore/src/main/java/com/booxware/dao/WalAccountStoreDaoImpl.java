@@ -0,0 +1,582 @@
+package com.booxware.dao;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dao.wal.LogRecordHandler;
+import com.booxware.dao.wal.SnapshotStore;
+import com.booxware.dao.wal.SyncPolicy;
+import com.booxware.dao.wal.WriteAheadLog;
+import com.booxware.dto.Account;
+
+/**
+ * Durable implementation class for AccountStoreDao. Accounts are served from a
+ * ConcurrentHashMap and every mutation is appended to a WriteAheadLog. On
+ * startup the latest snapshot is loaded and the log is replayed from the
+ * snapshot on.
+ *
+ * Mutations of the same user name are serialized by a striped lock, so the log
+ * records of a user are in the same order as the changes to the map. The lock
+ * is released before waiting for the log to be synced, so concurrent writers
+ * share a group commit.
+ *
+ * Snapshots roll the log to a new segment and then write the map while writers
+ * continue. Every change before the roll is in the map at that point, and
+ * changes during the write are replayed from the new segment, so older segments
+ * are removed once the snapshot is written.
+ */
+public class WalAccountStoreDaoImpl implements AccountStoreDao, Closeable {
+
+	//generates the Account Id for each account
+	private final AccountIdGenerator accountIdGenerator;
+
+	//repository to store the accounts, keyed by user name
+	protected final ConcurrentHashMap<String, Account> accountRepository;
+
+	//user names of the repository in order, changed under the same stripe
+	private final ConcurrentSkipListSet<String> userNames = new ConcurrentSkipListSet<String>();
+
+	//user names of the repository, keyed by email
+	private final EmailIndex emails = new EmailIndex();
+
+	//locks that serialize the mutations of the user names hashed to them
+	private final Object[] stripes;
+
+	private final WriteAheadLog writeAheadLog;
+
+	private final SnapshotStore snapshotStore;
+
+	//serializes snapshots
+	private final Object snapshotLock = new Object();
+
+	private ScheduledExecutorService snapshotScheduler;
+
+	private static final Logger logger = Logger
+			.getLogger(WalAccountStoreDaoImpl.class.getName());
+
+	/**
+	 * Opens the store, loads its latest snapshot and replays its log
+	 *
+	 * @param directory
+	 *            - directory that holds the log and the snapshots
+	 * @param syncPolicy
+	 *            - how mutations are made durable
+	 * @param syncIntervalMicros
+	 *            - group commit window, or interval of the ASYNC sync
+	 * @param snapshotIntervalSeconds
+	 *            - interval of the background snapshots, 0 to disable them
+	 * @param accountIdGenerator
+	 *            - generator for the ids of saved accounts
+	 * @throws IOException
+	 *             - if the snapshot or the log cannot be read
+	 */
+	public WalAccountStoreDaoImpl(File directory, SyncPolicy syncPolicy,
+			long syncIntervalMicros, long snapshotIntervalSeconds,
+			AccountIdGenerator accountIdGenerator) throws IOException {
+		this.accountIdGenerator = accountIdGenerator;
+		this.accountRepository = new ConcurrentHashMap<String, Account>();
+		int processors = Runtime.getRuntime().availableProcessors();
+		this.stripes = new Object[Integer.highestOneBit(processors * 16 - 1) << 1];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Object();
+		}
+		this.writeAheadLog = new WriteAheadLog(new File(directory, "wal"),
+				syncPolicy, syncIntervalMicros);
+		this.snapshotStore = new SnapshotStore(new File(directory, "snapshot"));
+		final long[] maxId = { 0 };
+		LogRecordHandler handler = new LogRecordHandler() {
+			public void onSave(Account account) {
+				emails.add(account);
+				accountRepository.put(account.getUserName(), account);
+				userNames.add(account.getUserName());
+				maxId[0] = Math.max(maxId[0], account.getId());
+			}
+
+			public void onDelete(String userName) {
+				Account account = accountRepository.remove(userName);
+				userNames.remove(userName);
+				if (null != account) {
+					emails.remove(account, WalAccountStoreDaoImpl.this);
+				}
+			}
+
+			public void onLogin(String userName, long lastLogin) {
+				Account account = accountRepository.get(userName);
+				if (null != account) {
+					account.advanceLastLogin(lastLogin);
+				}
+			}
+		};
+		long startTime = System.nanoTime();
+		writeAheadLog.recover(snapshotStore.loadLatest(handler), handler);
+		accountIdGenerator.advanceTo(maxId[0]);
+		logger.info("Account store opened with " + accountRepository.size()
+				+ " accounts from " + directory + " in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+				+ " ms");
+		if (snapshotIntervalSeconds > 0) {
+			startSnapshotScheduler(snapshotIntervalSeconds);
+		}
+	}
+
+	/**
+	 * Method to save an account
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account id
+	 */
+	public Account save(Account account) {
+		account.setId(generateAccountId());
+		String userName = account.getUserName();
+		long lsn;
+		synchronized (stripe(userName)) {
+			emails.add(account);
+			Account previous = accountRepository.put(userName, account);
+			userNames.add(userName);
+			try {
+				lsn = writeAheadLog.appendSave(account);
+			} catch (IOException e) {
+				restore(userName, previous);
+				throw new UncheckedIOException(e);
+			}
+		}
+		awaitDurable(lsn);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :" + userName);
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if no account exists yet for its user name
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name already exists
+	 */
+	public Account saveIfAbsent(Account account) {
+		long lsn = appendIfAbsent(account);
+		if (lsn < 0) {
+			return null;
+		}
+		awaitDurable(lsn);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account created successfully for user :"
+					+ account.getUserName());
+		}
+		return account;
+	}
+
+	/**
+	 * Method to save an account, if neither its user name nor its email is in
+	 * use
+	 *
+	 * @param Account
+	 *            - Account to be saved in repository
+	 * @return Account
+	 *            - Account that is saved in repository with generated account
+	 *            id, or null if the user name or the email already exists
+	 */
+	public Account saveIfUnique(Account account) {
+		return emails.saveIfUnique(account, this);
+	}
+
+	/**
+	 * Method to save several accounts, if no account exists yet for their
+	 * user names. The records are appended one by one and the batch waits
+	 * once for the last of them to be durable.
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name already exists
+	 */
+	public List<Account> saveAllIfAbsent(List<Account> accounts) {
+		List<Account> saved = new ArrayList<Account>(accounts.size());
+		long lastLsn = -1;
+		for (Account account : accounts) {
+			long lsn = appendIfAbsent(account);
+			saved.add(lsn < 0 ? null : account);
+			lastLsn = Math.max(lastLsn, lsn);
+		}
+		if (lastLsn >= 0) {
+			awaitDurable(lastLsn);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug(accounts.size() + " accounts saved in a batch");
+		}
+		return saved;
+	}
+
+	/**
+	 * Method to save several accounts, if neither their user names nor their
+	 * emails are in use
+	 *
+	 * @param accounts
+	 *            - Accounts to be saved in repository
+	 * @return List
+	 *            - for each account the saved account, or null if the user
+	 *            name or the email already exists
+	 */
+	public List<Account> saveAllIfUnique(List<Account> accounts) {
+		return emails.saveAllIfUnique(accounts, this);
+	}
+
+	/**
+	 * Method to find an account by username
+	 *
+	 * @param name
+	 *            - user name of the account
+	 * @return Account
+	 *            - Account that is saved for that user
+	 */
+	public Account findByName(String name) {
+		Account account = accountRepository.get(name);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account found successfully for user :" + name);
+		}
+		return account;
+	}
+
+	/**
+	 * Method to find an account by email
+	 *
+	 * @param email
+	 *            - email of the account
+	 * @return Account
+	 *            - Account that is saved with that email
+	 */
+	public Account findByEmail(String email) {
+		return emails.find(email, this);
+	}
+
+	/**
+	 * Method to move the last login of an account forward. Login records are
+	 * replayed the same way, so they may reach the log in any order. The login
+	 * is logged even if the account already shows it, as a cache in front of
+	 * the store moves the shared instance forward before it writes the login.
+	 *
+	 * @param Account
+	 *            - Account that has logged in
+	 * @param lastLogin
+	 *            - epoch milliseconds of the login
+	 */
+	public void updateLastLogin(Account account, long lastLogin) {
+		String userName = account.getUserName();
+		account.advanceLastLogin(lastLogin);
+		// an earlier login than the recorded one changes nothing to log
+		if (account.getLastLoginTime() > lastLogin) {
+			return;
+		}
+		long lsn;
+		synchronized (stripe(userName)) {
+			if (accountRepository.get(userName) != account) {
+				return;
+			}
+			try {
+				lsn = writeAheadLog.appendLogin(userName, lastLogin);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		awaitDurable(lsn);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Last login updated successfully for user :" + userName);
+		}
+	}
+
+	/**
+	 * Method to replace the stored password of an account, while the user
+	 * name is still mapped to the given instance. The record is logged from a
+	 * copy, so that the account only shows the new password once it is in
+	 * the log.
+	 *
+	 * @param Account
+	 *            - Account whose password is replaced
+	 * @param encryptedPassword
+	 *            - the new stored form of the password
+	 */
+	public void updatePassword(Account account, byte[] encryptedPassword) {
+		String userName = account.getUserName();
+		long lsn;
+		synchronized (stripe(userName)) {
+			if (accountRepository.get(userName) != account) {
+				return;
+			}
+			Account rehashed = new Account(userName, encryptedPassword,
+					account.getEmail(), account.getLastLogin());
+			rehashed.setId(account.getId());
+			try {
+				lsn = writeAheadLog.appendSave(rehashed);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			account.setEncryptedPassword(encryptedPassword);
+		}
+		awaitDurable(lsn);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Password updated successfully for user :" + userName);
+		}
+	}
+
+	/**
+	 * Method to delete an account. The account is only removed while the user
+	 * name is still mapped to the given instance.
+	 *
+	 * @param Account
+	 *            - Account to be deleted
+	 * @return boolean
+	 *            - true if the account was deleted
+	 */
+	public boolean delete(Account account) {
+		long lsn = appendDelete(account);
+		if (lsn < 0) {
+			return false;
+		}
+		awaitDurable(lsn);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Account deleted successfully for user :"
+					+ account.getUserName());
+		}
+		return true;
+	}
+
+	/**
+	 * Method to delete several accounts. The records are appended one by one
+	 * and the batch waits once for the last of them to be durable.
+	 *
+	 * @param accounts
+	 *            - Accounts to be deleted
+	 * @return boolean[]
+	 *            - for each account, true if it was deleted
+	 */
+	public boolean[] deleteAll(List<Account> accounts) {
+		boolean[] deleted = new boolean[accounts.size()];
+		long lastLsn = -1;
+		for (int i = 0; i < deleted.length; i++) {
+			long lsn = appendDelete(accounts.get(i));
+			deleted[i] = lsn >= 0;
+			lastLsn = Math.max(lastLsn, lsn);
+		}
+		if (lastLsn >= 0) {
+			awaitDurable(lastLsn);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug(accounts.size() + " accounts deleted in a batch");
+		}
+		return deleted;
+	}
+
+	/**
+	 * Method to list all accounts. The iteration is weakly consistent and
+	 * never throws ConcurrentModificationException.
+	 *
+	 * @return Iterable
+	 *            - the accounts that are saved in repository
+	 */
+	public Iterable<Account> findAll() {
+		return Collections.unmodifiableCollection(accountRepository.values());
+	}
+
+	/**
+	 * Method to list the accounts whose user names start with a prefix, by
+	 * walking the ordered index of user names
+	 *
+	 * @param prefix
+	 *            - start of the user names, empty for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return
+	 * @param cursor
+	 *            - last user name of the previous page, null for the first
+	 * @return List
+	 *            - up to limit accounts ordered by user name
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor) {
+		if (limit <= 0) {
+			return new ArrayList<Account>();
+		}
+		List<Account> page = new ArrayList<Account>(Math.min(limit, 1024));
+		for (String userName : userNames.tailSet(
+				PrefixQuery.start(prefix, cursor),
+				PrefixQuery.includesStart(prefix, cursor))) {
+			if (page.size() == limit || !userName.startsWith(prefix)) {
+				break;
+			}
+			// null if deleted since the name was read
+			Account account = accountRepository.get(userName);
+			if (null != account) {
+				page.add(account);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Writes a snapshot of all accounts without blocking writers and removes
+	 * the log segments it covers
+	 *
+	 * @return long
+	 *            - LSN from which the log is replayed over the snapshot
+	 * @throws IOException
+	 *             - if the snapshot cannot be written
+	 */
+	public long snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			long startTime = System.nanoTime();
+			long lsn = writeAheadLog.roll();
+			long count = snapshotStore.write(lsn, accountRepository.values());
+			writeAheadLog.truncateBefore(lsn);
+			logger.info("Snapshot of " + count + " accounts written at "
+					+ lsn + " in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+					+ " ms");
+			return lsn;
+		}
+	}
+
+	/**
+	 * Stops the background snapshots, syncs and closes the log
+	 */
+	public void close() throws IOException {
+		if (null != snapshotScheduler) {
+			snapshotScheduler.shutdownNow();
+		}
+		synchronized (snapshotLock) {
+			writeAheadLog.close();
+		}
+		logger.info("Account store closed");
+	}
+
+	/**
+	 * Method to generate account Id for an account
+	 *
+	 * @return long
+	 *            - The generated Account Id
+	 */
+	private long generateAccountId() {
+		return accountIdGenerator.nextId();
+	}
+
+	private void startSnapshotScheduler(long intervalSeconds) {
+		snapshotScheduler = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "account-snapshot");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		snapshotScheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					snapshot();
+				} catch (IOException e) {
+					logger.error("Snapshot of the account store failed: "
+							+ e.getMessage());
+				} catch (RuntimeException e) {
+					// thrown on, it would cancel the snapshots that follow
+					logger.error("Snapshot of the account store failed", e);
+				}
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Puts an account and appends it to the log, if its user name is free
+	 *
+	 * @return long
+	 *            - LSN of the record, or -1 if the user name exists
+	 */
+	private long appendIfAbsent(Account account) {
+		account.setId(generateAccountId());
+		String userName = account.getUserName();
+		synchronized (stripe(userName)) {
+			if (null != accountRepository.putIfAbsent(userName, account)) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Account already exist for user :" + userName);
+				}
+				return -1;
+			}
+			userNames.add(userName);
+			emails.add(account);
+			try {
+				return writeAheadLog.appendSave(account);
+			} catch (IOException e) {
+				restore(userName, null);
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Removes an account and appends the deletion to the log, if the user
+	 * name is still mapped to the account
+	 *
+	 * @return long
+	 *            - LSN of the record, or -1 if nothing was deleted
+	 */
+	private long appendDelete(Account account) {
+		String userName = account.getUserName();
+		long lsn;
+		synchronized (stripe(userName)) {
+			if (!accountRepository.remove(userName, account)) {
+				return -1;
+			}
+			userNames.remove(userName);
+			try {
+				lsn = writeAheadLog.appendDelete(userName);
+			} catch (IOException e) {
+				restore(userName, account);
+				throw new UncheckedIOException(e);
+			}
+		}
+		emails.remove(account, this);
+		return lsn;
+	}
+
+	private Object stripe(String userName) {
+		int hash = userName.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+
+	/**
+	 * Undoes a put or remove that could not be logged
+	 */
+	private void restore(String userName, Account previous) {
+		if (null == previous) {
+			accountRepository.remove(userName);
+			userNames.remove(userName);
+		} else {
+			emails.add(previous);
+			accountRepository.put(userName, previous);
+			userNames.add(userName);
+		}
+	}
+
+	private void awaitDurable(long lsn) {
+		try {
+			writeAheadLog.awaitDurable(lsn);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
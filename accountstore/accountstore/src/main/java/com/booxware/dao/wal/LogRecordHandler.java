@@ -0,0 +1,37 @@
+package com.booxware.dao.wal;
+
+import com.booxware.dto.Account;
+
+/**
+ * Callback for the records read while replaying the write-ahead log
+ *
+ */
+public interface LogRecordHandler {
+
+	/**
+	 * Method called for a saved account
+	 * 
+	 * @param account
+	 *            - Account as it was saved
+	 */
+	public void onSave(Account account);
+
+	/**
+	 * Method called for a deleted account
+	 * 
+	 * @param userName
+	 *            - user name of the deleted account
+	 */
+	public void onDelete(String userName);
+
+	/**
+	 * Method called for an updated last login date
+	 * 
+	 * @param userName
+	 *            - user name of the account
+	 * @param lastLogin
+	 *            - last login date in milliseconds since the epoch
+	 */
+	public void onLogin(String userName, long lastLogin);
+
+}
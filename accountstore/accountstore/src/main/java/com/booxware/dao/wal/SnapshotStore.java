@@ -0,0 +1,323 @@
+package com.booxware.dao.wal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dto.Account;
+import com.booxware.dto.AccountCodec;
+
+/**
+ * Point-in-time snapshots of the account map. A snapshot is named after the
+ * LSN of the log segment that follows it, so startup loads the latest snapshot
+ * and replays the log from that LSN.
+ *
+ * A snapshot holds a header (magic, version, LSN), the length prefixed
+ * account records in AccountCodec format and a footer (end marker, number of
+ * records, CRC32 of everything before the footer). It is written to a
+ * temporary file, synced and renamed, so a crash leaves either the old or the
+ * new snapshot. Snapshots are read through memory-mapped windows of the file.
+ */
+public class SnapshotStore {
+
+	private static final int MAGIC = 0x41435353;
+
+	private static final int VERSION = 2;
+
+	private static final int END_OF_RECORDS = -1;
+
+	private static final int FOOTER_SIZE = 4 + 8 + 4;
+
+	//size of the memory-mapped window while reading a snapshot
+	private static final int WINDOW_SIZE = 64 << 20;
+
+	//size of the buffer the records are encoded into while writing
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+
+	private final File directory;
+
+	private static final Logger logger = Logger.getLogger(SnapshotStore.class
+			.getName());
+
+	/**
+	 * @param directory
+	 *            - directory that holds the snapshots
+	 */
+	public SnapshotStore(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Writes a snapshot of the given accounts and removes the older snapshots
+	 *
+	 * @param lsn
+	 *            - LSN from which the log has to be replayed over the snapshot
+	 * @param accounts
+	 *            - accounts to write, may change while they are written
+	 * @return long
+	 *            - number of accounts written
+	 * @throws IOException
+	 *             - if the snapshot cannot be written
+	 */
+	public long write(long lsn, Iterable<Account> accounts) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create snapshot directory "
+					+ directory);
+		}
+		File snapshot = snapshotFile(lsn);
+		File tmp = new File(directory, snapshot.getName() + ".tmp");
+		long count = 0;
+		try (FileChannel channel = FileChannel.open(tmp.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+			CRC32 crc = new CRC32();
+			buffer.putInt(MAGIC).putInt(VERSION).putLong(lsn);
+			for (Account account : accounts) {
+				int start = buffer.position();
+				try {
+					putRecord(account, buffer);
+				} catch (BufferOverflowException e) {
+					// the record goes to the start of the next buffer
+					buffer.position(start);
+					flush(channel, buffer, crc);
+					try {
+						putRecord(account, buffer);
+					} catch (BufferOverflowException tooLarge) {
+						throw new IOException("Account too large for snapshot: "
+								+ account.getUserName());
+					}
+				}
+				count++;
+			}
+			flush(channel, buffer, crc);
+			buffer.putInt(END_OF_RECORDS).putLong(count)
+					.putInt((int) crc.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp.toPath(), snapshot.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		deleteSnapshotsBefore(lsn);
+		return count;
+	}
+
+	/**
+	 * Loads the latest snapshot into the handler
+	 *
+	 * @param handler
+	 *            - receives every account of the snapshot through onSave
+	 * @return long
+	 *            - LSN from which the log has to be replayed, 0 if there is no
+	 *            snapshot
+	 * @throws IOException
+	 *             - if the snapshot cannot be read or is corrupt
+	 */
+	public long loadLatest(LogRecordHandler handler) throws IOException {
+		long lsn = latestLsn();
+		if (lsn < 0) {
+			return 0;
+		}
+		File snapshot = snapshotFile(lsn);
+		try (FileChannel channel = FileChannel.open(snapshot.toPath(),
+				StandardOpenOption.READ)) {
+			MappedReader reader = new MappedReader(channel);
+			ByteBuffer header = reader.require(16);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION
+					|| header.getLong() != lsn) {
+				throw new IOException("Invalid snapshot header in " + snapshot);
+			}
+			long count = 0;
+			while (true) {
+				ByteBuffer buffer = reader.require(4);
+				int length = buffer.getInt();
+				if (length == END_OF_RECORDS) {
+					break;
+				}
+				if (length < 0 || length > WINDOW_SIZE) {
+					throw new IOException("Corrupt snapshot record in "
+							+ snapshot);
+				}
+				ByteBuffer record = reader.require(length);
+				int end = record.position() + length;
+				Account account;
+				try {
+					account = AccountCodec.decode(record);
+				} catch (RuntimeException e) {
+					throw new IOException("Corrupt snapshot record in "
+							+ snapshot, e);
+				}
+				if (record.position() != end) {
+					throw new IOException("Corrupt snapshot record in "
+							+ snapshot);
+				}
+				handler.onSave(account);
+				count++;
+			}
+			long crc = reader.checksum(4);
+			ByteBuffer footer = reader.require(FOOTER_SIZE - 4);
+			if (footer.getLong() != count || footer.getInt() != (int) crc) {
+				throw new IOException("Corrupt snapshot " + snapshot);
+			}
+			logger.info("Loaded " + count + " accounts from " + snapshot);
+		}
+		return lsn;
+	}
+
+	/**
+	 * Finds the LSN of the latest snapshot
+	 *
+	 * @return long
+	 *            - LSN of the latest snapshot, -1 if there is none
+	 */
+	public long latestLsn() {
+		long latest = -1;
+		String[] names = directory.list();
+		if (null != names) {
+			for (String name : names) {
+				if (name.startsWith(SNAPSHOT_PREFIX)
+						&& name.endsWith(SNAPSHOT_SUFFIX)) {
+					latest = Math.max(latest, Long.parseLong(name.substring(
+							SNAPSHOT_PREFIX.length(), name.length()
+									- SNAPSHOT_SUFFIX.length())));
+				}
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Puts the length prefixed record of an account. The length is put once
+	 * the account is encoded, as a concurrent login or rehash may change its
+	 * size between reading the size and encoding it.
+	 *
+	 * @throws BufferOverflowException
+	 *             - if the record does not fit into the buffer
+	 */
+	private static void putRecord(Account account, ByteBuffer buffer) {
+		int start = buffer.position();
+		if (buffer.remaining() < 4) {
+			throw new BufferOverflowException();
+		}
+		buffer.position(start + 4);
+		AccountCodec.encode(account, buffer);
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+
+	/**
+	 * Writes the buffered records to the channel and adds them to the CRC
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 crc)
+			throws IOException {
+		buffer.flip();
+		crc.update(buffer.duplicate());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void deleteSnapshotsBefore(long lsn) {
+		File[] files = directory.listFiles();
+		if (null == files) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(SNAPSHOT_PREFIX)
+					&& !name.equals(snapshotFile(lsn).getName())
+					&& !file.delete()) {
+				logger.warn("Unable to delete snapshot " + file);
+			}
+		}
+	}
+
+	private File snapshotFile(long lsn) {
+		return new File(directory, String.format("%s%020d%s", SNAPSHOT_PREFIX,
+				lsn, SNAPSHOT_SUFFIX));
+	}
+
+	/**
+	 * Reads a file through a memory-mapped window that is moved forward when a
+	 * read would cross its end, and keeps a CRC32 of the bytes read
+	 */
+	private static final class MappedReader {
+
+		private final FileChannel channel;
+
+		private final long size;
+
+		private final CRC32 crc = new CRC32();
+
+		private long windowStart;
+
+		private MappedByteBuffer window;
+
+		//position in the window up to which the CRC is updated
+		private int checksummed;
+
+		MappedReader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			map(0);
+		}
+
+		/**
+		 * Makes sure that the next bytes are in the window
+		 *
+		 * @return ByteBuffer
+		 *            - the window, positioned at the next byte
+		 */
+		ByteBuffer require(int bytes) throws IOException {
+			if (window.remaining() < bytes) {
+				updateChecksum(window.position());
+				map(windowStart + window.position());
+				if (window.remaining() < bytes) {
+					throw new IOException("Unexpected end of snapshot");
+				}
+			}
+			return window;
+		}
+
+		/**
+		 * @return long
+		 *            - CRC32 of the bytes read, except for the last ones
+		 */
+		long checksum(int exceptLast) {
+			updateChecksum(window.position() - exceptLast);
+			return crc.getValue();
+		}
+
+		private void updateChecksum(int upTo) {
+			ByteBuffer range = window.duplicate();
+			range.limit(upTo).position(checksummed);
+			crc.update(range);
+			checksummed = upTo;
+		}
+
+		private void map(long start) throws IOException {
+			windowStart = start;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+					Math.min(WINDOW_SIZE, size - start));
+			checksummed = 0;
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.booxware.dao.wal;
+
+/**
+ * Policies for syncing the write-ahead log to disk
+ *
+ */
+public enum SyncPolicy {
+
+	/**
+	 * Every record is synced before it is acknowledged
+	 */
+	PER_WRITE,
+
+	/**
+	 * Writers wait for a sync that is shared by all records appended within
+	 * the group commit window
+	 */
+	GROUP_COMMIT,
+
+	/**
+	 * Records are acknowledged once written and synced by a background thread
+	 * at a fixed interval, so the last interval may be lost on a crash
+	 */
+	ASYNC
+
+}
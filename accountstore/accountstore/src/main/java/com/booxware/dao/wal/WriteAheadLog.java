@@ -0,0 +1,540 @@
+package com.booxware.dao.wal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dto.Account;
+import com.booxware.dto.AccountCodec;
+
+/**
+ * Append-only log of account mutations. The log is kept in segment files named
+ * after the log sequence number (LSN) of their first byte, where the LSN is the
+ * byte offset of a record across all segments.
+ *
+ * Each record is written as its payload length, the CRC32 of the payload and
+ * the payload itself, which starts with the record type. Saved accounts are
+ * encoded with AccountCodec. A record that is cut
+ * off or does not match its checksum marks the end of the log.
+ *
+ * Appends are serialized by one lock that only covers the write to the
+ * segment. How a record is made durable is decided by the SyncPolicy, see
+ * awaitDurable.
+ */
+public class WriteAheadLog implements Closeable {
+
+	static final byte SAVE = 1;
+
+	static final byte DELETE = 2;
+
+	static final byte LOGIN = 3;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final int MAX_RECORD_SIZE = 1 << 20;
+
+	private static final String SEGMENT_PREFIX = "wal-";
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final File directory;
+
+	private final SyncPolicy syncPolicy;
+
+	//group commit window, or interval of the background sync for ASYNC
+	private final long syncIntervalNanos;
+
+	//serializes appends to the current segment
+	private final ReentrantLock appendLock = new ReentrantLock();
+
+	//segment records are appended to, guarded by appendLock
+	private FileChannel segment;
+
+	//LSN of the first byte of the current segment, guarded by appendLock
+	private long segmentStart;
+
+	//LSN following the last appended record
+	private volatile long appendedLsn;
+
+	//coordinates the writers waiting for a group commit
+	private final ReentrantLock syncLock = new ReentrantLock();
+
+	private final Condition synced = syncLock.newCondition();
+
+	//LSN up to which the log is on disk, guarded by syncLock
+	private long syncedLsn;
+
+	//true while a writer syncs on behalf of the others, guarded by syncLock
+	private boolean syncInProgress;
+
+	private ScheduledExecutorService backgroundSync;
+
+	private static final Logger logger = Logger.getLogger(WriteAheadLog.class
+			.getName());
+
+	/**
+	 * @param directory
+	 *            - directory that holds the log segments
+	 * @param syncPolicy
+	 *            - how appended records are made durable
+	 * @param syncIntervalMicros
+	 *            - group commit window for GROUP_COMMIT, interval of the
+	 *            background sync for ASYNC
+	 */
+	public WriteAheadLog(File directory, SyncPolicy syncPolicy,
+			long syncIntervalMicros) {
+		this.directory = directory;
+		this.syncPolicy = syncPolicy;
+		this.syncIntervalNanos = TimeUnit.MICROSECONDS
+				.toNanos(syncIntervalMicros);
+	}
+
+	/**
+	 * Replays the records of the log from the given LSN into the handler and
+	 * opens the log for appending. A torn record at the end of the last segment
+	 * is truncated.
+	 *
+	 * @param fromLsn
+	 *            - LSN of the first record to replay, the start of a segment
+	 * @param handler
+	 *            - receives the records in the order they were appended
+	 * @throws IOException
+	 *             - if the log cannot be read or a segment other than the last
+	 *             is corrupt
+	 */
+	public void recover(long fromLsn, LogRecordHandler handler)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create log directory " + directory);
+		}
+		List<Long> segmentStarts = listSegments();
+		while (!segmentStarts.isEmpty() && segmentStarts.get(0) < fromLsn) {
+			segmentStarts.remove(0);
+		}
+		if (segmentStarts.isEmpty()) {
+			segmentStarts.add(fromLsn);
+		}
+		long records = 0;
+		long lastStart = 0;
+		long lastLength = 0;
+		for (int i = 0; i < segmentStarts.size(); i++) {
+			lastStart = segmentStarts.get(i);
+			File file = segmentFile(lastStart);
+			long[] replayed = replaySegment(file, handler);
+			records += replayed[1];
+			lastLength = replayed[0];
+			if (lastLength < file.length()) {
+				if (i < segmentStarts.size() - 1) {
+					throw new IOException("Corrupt log segment " + file
+							+ " at offset " + lastLength);
+				}
+				logger.warn("Truncating torn log record in " + file
+						+ " at offset " + lastLength);
+			}
+		}
+		appendLock.lock();
+		try {
+			openSegment(lastStart);
+			segment.truncate(lastLength);
+			appendedLsn = lastStart + lastLength;
+		} finally {
+			appendLock.unlock();
+		}
+		syncLock.lock();
+		try {
+			syncedLsn = appendedLsn;
+		} finally {
+			syncLock.unlock();
+		}
+		if (syncPolicy == SyncPolicy.ASYNC) {
+			startBackgroundSync();
+		}
+		logger.info("Replayed " + records + " log records from " + directory);
+	}
+
+	/**
+	 * Syncs the current segment and continues the log in a new segment. Records
+	 * appended before the returned LSN are in older segments, which can be
+	 * removed by truncateBefore once they are no longer needed.
+	 *
+	 * @return long
+	 *            - LSN of the start of the new segment
+	 * @throws IOException
+	 *             - if the new segment cannot be created
+	 */
+	public long roll() throws IOException {
+		syncLock.lock();
+		try {
+			// keep group commits off the segment while it is switched
+			while (syncInProgress) {
+				synced.awaitUninterruptibly();
+			}
+			syncInProgress = true;
+		} finally {
+			syncLock.unlock();
+		}
+		long start = -1;
+		try {
+			appendLock.lock();
+			try {
+				if (appendedLsn == segmentStart) {
+					start = segmentStart;
+				} else {
+					segment.force(false);
+					segment.close();
+					openSegment(appendedLsn);
+					start = segmentStart;
+				}
+			} finally {
+				appendLock.unlock();
+			}
+		} finally {
+			syncLock.lock();
+			syncInProgress = false;
+			if (start > syncedLsn) {
+				syncedLsn = start;
+			}
+			synced.signalAll();
+			syncLock.unlock();
+		}
+		logger.info("Log rolled to segment " + start);
+		return start;
+	}
+
+	/**
+	 * Deletes the segments that only hold records before the given LSN
+	 *
+	 * @param lsn
+	 *            - LSN returned by roll
+	 */
+	public void truncateBefore(long lsn) {
+		for (long start : listSegments()) {
+			if (start >= lsn) {
+				break;
+			}
+			File file = segmentFile(start);
+			if (!file.delete()) {
+				logger.warn("Unable to delete log segment " + file);
+			}
+		}
+	}
+
+	/**
+	 * Method to append a saved account
+	 *
+	 * @param account
+	 *            - Account that is saved
+	 * @return long
+	 *            - LSN following the record, see awaitDurable
+	 * @throws IOException
+	 *             - if the record cannot be written
+	 */
+	public long appendSave(Account account) throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(1 + AccountCodec
+				.encodedSize(account));
+		payload.put(SAVE);
+		AccountCodec.encode(account, payload);
+		return append(payload);
+	}
+
+	/**
+	 * Method to append a deleted account
+	 *
+	 * @param userName
+	 *            - user name of the deleted account
+	 * @return long
+	 *            - LSN following the record, see awaitDurable
+	 * @throws IOException
+	 *             - if the record cannot be written
+	 */
+	public long appendDelete(String userName) throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(1 + AccountCodec
+				.stringSize(userName));
+		payload.put(DELETE);
+		AccountCodec.putString(payload, userName);
+		return append(payload);
+	}
+
+	/**
+	 * Method to append an updated last login date
+	 *
+	 * @param userName
+	 *            - user name of the account
+	 * @param lastLogin
+	 *            - last login date in milliseconds since the epoch
+	 * @return long
+	 *            - LSN following the record, see awaitDurable
+	 * @throws IOException
+	 *             - if the record cannot be written
+	 */
+	public long appendLogin(String userName, long lastLogin) throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(1 + AccountCodec
+				.stringSize(userName) + 8);
+		payload.put(LOGIN);
+		AccountCodec.putString(payload, userName);
+		payload.putLong(lastLogin);
+		return append(payload);
+	}
+
+	/**
+	 * Waits until the log is durable up to the given LSN, as far as the sync
+	 * policy requires. PER_WRITE records are synced while appending and ASYNC
+	 * records by the background sync, so only GROUP_COMMIT waits here.
+	 *
+	 * @param lsn
+	 *            - LSN returned by one of the append methods
+	 * @throws IOException
+	 *             - if the log cannot be synced
+	 */
+	public void awaitDurable(long lsn) throws IOException {
+		if (syncPolicy == SyncPolicy.GROUP_COMMIT) {
+			groupCommit(lsn, syncIntervalNanos);
+		}
+	}
+
+	/**
+	 * Syncs all appended records and closes the log
+	 */
+	public void close() throws IOException {
+		if (null != backgroundSync) {
+			backgroundSync.shutdown();
+		}
+		appendLock.lock();
+		try {
+			if (null != segment && segment.isOpen()) {
+				segment.force(false);
+				segment.close();
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the record for the payload to the current segment
+	 */
+	private long append(ByteBuffer payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload.array(), 0, payload.position());
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE
+				+ payload.position());
+		record.putInt(payload.position()).putInt((int) crc.getValue())
+				.put(payload.array(), 0, payload.position()).flip();
+		appendLock.lock();
+		try {
+			if (null == segment) {
+				throw new IllegalStateException("Log is not recovered yet");
+			}
+			long position = appendedLsn - segmentStart;
+			while (record.hasRemaining()) {
+				position += segment.write(record, position);
+			}
+			if (syncPolicy == SyncPolicy.PER_WRITE) {
+				segment.force(false);
+			}
+			appendedLsn = segmentStart + position;
+			return appendedLsn;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Makes the log durable up to the given LSN. The first waiting writer
+	 * waits for the window so that more writers can append, syncs the segment
+	 * once for all of them and wakes them up.
+	 */
+	private void groupCommit(long lsn, long windowNanos) throws IOException {
+		syncLock.lock();
+		try {
+			while (syncedLsn < lsn) {
+				if (syncInProgress) {
+					synced.awaitUninterruptibly();
+					continue;
+				}
+				syncInProgress = true;
+				long target = -1;
+				syncLock.unlock();
+				try {
+					if (windowNanos > 0) {
+						LockSupport.parkNanos(windowNanos);
+					}
+					target = syncSegment();
+				} finally {
+					syncLock.lock();
+					syncInProgress = false;
+					if (target > syncedLsn) {
+						syncedLsn = target;
+					}
+					synced.signalAll();
+				}
+			}
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	/**
+	 * Syncs the current segment
+	 *
+	 * @return long
+	 *            - LSN up to which the log is durable
+	 */
+	private long syncSegment() throws IOException {
+		FileChannel channel;
+		long target;
+		appendLock.lock();
+		try {
+			channel = segment;
+			target = appendedLsn;
+		} finally {
+			appendLock.unlock();
+		}
+		channel.force(false);
+		return target;
+	}
+
+	/**
+	 * Starts the background sync for the ASYNC policy
+	 */
+	private void startBackgroundSync() {
+		backgroundSync = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "wal-sync");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		backgroundSync.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					groupCommit(appendedLsn, 0);
+				} catch (IOException e) {
+					logger.error("Background sync of the log failed: "
+							+ e.getMessage());
+				}
+			}
+		}, syncIntervalNanos, syncIntervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Replays the valid records of a segment
+	 *
+	 * @return long[]
+	 *            - length of the valid records and number of records
+	 */
+	private long[] replaySegment(File file, LogRecordHandler handler)
+			throws IOException {
+		long length = 0;
+		long records = 0;
+		if (!file.exists()) {
+			return new long[] { length, records };
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 64 * 1024))) {
+			CRC32 crc = new CRC32();
+			while (true) {
+				byte[] payload;
+				try {
+					int size = in.readInt();
+					int checksum = in.readInt();
+					if (size <= 0 || size > MAX_RECORD_SIZE) {
+						break;
+					}
+					payload = new byte[size];
+					in.readFully(payload);
+					crc.reset();
+					crc.update(payload, 0, size);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				dispatch(ByteBuffer.wrap(payload), handler);
+				length += HEADER_SIZE + payload.length;
+				records++;
+			}
+		}
+		return new long[] { length, records };
+	}
+
+	/**
+	 * Decodes a record payload and passes it to the handler
+	 */
+	private static void dispatch(ByteBuffer payload, LogRecordHandler handler)
+			throws IOException {
+		byte type = payload.get();
+		switch (type) {
+		case SAVE:
+			handler.onSave(AccountCodec.decode(payload));
+			break;
+		case DELETE:
+			handler.onDelete(AccountCodec.getString(payload));
+			break;
+		case LOGIN:
+			handler.onLogin(AccountCodec.getString(payload),
+					payload.getLong());
+			break;
+		default:
+			throw new IOException("Unknown log record type " + type);
+		}
+	}
+
+	/**
+	 * Opens the segment starting at the given LSN for appending
+	 */
+	private void openSegment(long start) throws IOException {
+		segment = FileChannel.open(segmentFile(start).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		segmentStart = start;
+	}
+
+	/**
+	 * Lists the start LSN of all segments in ascending order
+	 */
+	private List<Long> listSegments() {
+		List<Long> starts = new ArrayList<Long>();
+		String[] names = directory.list();
+		if (null != names) {
+			for (String name : names) {
+				if (name.startsWith(SEGMENT_PREFIX)
+						&& name.endsWith(SEGMENT_SUFFIX)) {
+					starts.add(Long.parseLong(name.substring(
+							SEGMENT_PREFIX.length(), name.length()
+									- SEGMENT_SUFFIX.length())));
+				}
+			}
+		}
+		Collections.sort(starts);
+		return starts;
+	}
+
+	private File segmentFile(long start) {
+		return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX,
+				start, SEGMENT_SUFFIX));
+	}
+
+}
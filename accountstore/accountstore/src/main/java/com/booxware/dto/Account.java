@@ -2,30 +2,42 @@ package com.booxware.dto;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * AccountStore class used for Data transfer 
  *
+ * The last login is kept as epoch milliseconds in a volatile long, so that
+ * logins can advance it without locks or allocation while other threads read
+ * it. It only moves forward, through advanceLastLogin. The encrypted
+ * password is volatile as well, as a rehash replaces it on a hasher thread
+ * while logins and snapshots read it.
  */
 public class Account implements Serializable {
 
-	private static final long serialVersionUID = 3115698990725637364L;
+	private static final long serialVersionUID = -6390717427934180532L;
 	
 	private long id;
 
 	private String userName;
 
-	private byte[] encryptedPassword;
+	private volatile byte[] encryptedPassword;
 
 	private String email;
 
-	private Date lastLogin;
+	//epoch milliseconds of the last login, NO_LAST_LOGIN if there is none
+	private volatile long lastLoginTime;
+
+	public static final long NO_LAST_LOGIN = Long.MIN_VALUE;
+
+	private static final AtomicLongFieldUpdater<Account> LAST_LOGIN_TIME = AtomicLongFieldUpdater
+			.newUpdater(Account.class, "lastLoginTime");
 
 	public Account(String userName, byte[] encryptedPassword, String email, Date date) {
 		this.userName = userName;
 		this.encryptedPassword = encryptedPassword;
 		this.email = email;
-		this.lastLogin = date;
+		this.lastLoginTime = null == date ? NO_LAST_LOGIN : date.getTime();
 	}
 
 	public long getId() {
@@ -61,11 +73,37 @@ public class Account implements Serializable {
 	}
 
 	public Date getLastLogin() {
-		return lastLogin;
+		long time = lastLoginTime;
+		return time == NO_LAST_LOGIN ? null : new Date(time);
+	}
+
+	/**
+	 * @return long
+	 *            - epoch milliseconds of the last login, NO_LAST_LOGIN if there
+	 *            is none
+	 */
+	public long getLastLoginTime() {
+		return lastLoginTime;
 	}
 
-	public void setLastLogin(Date lastLogin) {
-		this.lastLogin = lastLogin;
+	/**
+	 * Moves the last login forward to the given time, unless a later login
+	 * is already recorded
+	 *
+	 * @param time
+	 *            - epoch milliseconds of the login
+	 * @return boolean
+	 *            - true if the last login was moved
+	 */
+	public boolean advanceLastLogin(long time) {
+		long current;
+		do {
+			current = lastLoginTime;
+			if (current >= time) {
+				return false;
+			}
+		} while (!LAST_LOGIN_TIME.compareAndSet(this, current, time));
+		return true;
 	}
 
 }
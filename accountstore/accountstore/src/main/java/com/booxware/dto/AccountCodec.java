@@ -0,0 +1,273 @@
+package com.booxware.dto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary format for Account, used instead of java serialization where
+ * accounts are stored. An encoded account is laid out as
+ *
+ * <pre>
+ * byte     format version
+ * byte     flags for the fields that are null
+ * varlong  id
+ * varint   length + UTF-8 bytes of the user name
+ * varint   length + encrypted password bytes
+ * varint   length + UTF-8 bytes of the email
+ * varlong  last login in milliseconds since the epoch
+ * </pre>
+ *
+ * Null fields are only marked in the flags. Accounts are read from and written
+ * to a ByteBuffer directly, without intermediate byte arrays for the strings.
+ */
+public final class AccountCodec {
+
+	public static final byte VERSION = 1;
+
+	private static final int NULL_USER_NAME = 1;
+
+	private static final int NULL_PASSWORD = 1 << 1;
+
+	private static final int NULL_EMAIL = 1 << 2;
+
+	private static final int NULL_LAST_LOGIN = 1 << 3;
+
+	private AccountCodec() {
+	}
+
+	/**
+	 * Method to calculate the encoded size of an account
+	 *
+	 * @param account
+	 *            - Account to be encoded
+	 * @return int
+	 *            - number of bytes written by encode
+	 */
+	public static int encodedSize(Account account) {
+		byte[] password = account.getEncryptedPassword();
+		long lastLogin = account.getLastLoginTime();
+		return 2 + varLongSize(account.getId())
+				+ stringSize(account.getUserName())
+				+ (null == password ? 0 : varLongSize(password.length)
+						+ password.length)
+				+ stringSize(account.getEmail())
+				+ (lastLogin == Account.NO_LAST_LOGIN ? 0
+						: varLongSize(lastLogin));
+	}
+
+	/**
+	 * Method to write an account at the position of the buffer
+	 *
+	 * @param account
+	 *            - Account to be encoded
+	 * @param buffer
+	 *            - buffer with at least encodedSize bytes remaining
+	 */
+	public static void encode(Account account, ByteBuffer buffer) {
+		String userName = account.getUserName();
+		byte[] password = account.getEncryptedPassword();
+		String email = account.getEmail();
+		long lastLogin = account.getLastLoginTime();
+		int flags = (null == userName ? NULL_USER_NAME : 0)
+				| (null == password ? NULL_PASSWORD : 0)
+				| (null == email ? NULL_EMAIL : 0)
+				| (lastLogin == Account.NO_LAST_LOGIN ? NULL_LAST_LOGIN : 0);
+		buffer.put(VERSION).put((byte) flags);
+		putVarLong(buffer, account.getId());
+		if (null != userName) {
+			putString(buffer, userName);
+		}
+		if (null != password) {
+			putVarLong(buffer, password.length);
+			buffer.put(password);
+		}
+		if (null != email) {
+			putString(buffer, email);
+		}
+		if (lastLogin != Account.NO_LAST_LOGIN) {
+			putVarLong(buffer, lastLogin);
+		}
+	}
+
+	/**
+	 * Method to read an account from the position of the buffer
+	 *
+	 * @param buffer
+	 *            - buffer positioned at an encoded account
+	 * @return Account
+	 *            - the decoded account
+	 * @throws IllegalArgumentException
+	 *             - if the account was written in an unknown format version
+	 *             or a length does not fit into the buffer
+	 */
+	public static Account decode(ByteBuffer buffer) {
+		byte version = buffer.get();
+		if (version != VERSION) {
+			throw new IllegalArgumentException(
+					"Unsupported account format version " + version);
+		}
+		int flags = buffer.get();
+		long id = getVarLong(buffer);
+		String userName = (flags & NULL_USER_NAME) != 0 ? null
+				: getString(buffer);
+		byte[] password = null;
+		if ((flags & NULL_PASSWORD) == 0) {
+			password = new byte[getLength(buffer)];
+			buffer.get(password);
+		}
+		String email = (flags & NULL_EMAIL) != 0 ? null : getString(buffer);
+		Account account = new Account(userName, password, email, null);
+		account.setId(id);
+		if ((flags & NULL_LAST_LOGIN) == 0) {
+			account.advanceLastLogin(getVarLong(buffer));
+		}
+		return account;
+	}
+
+	/**
+	 * Method to calculate the encoded size of a string
+	 *
+	 * @return int
+	 *            - number of bytes written by putString
+	 */
+	public static int stringSize(String value) {
+		if (null == value) {
+			return 0;
+		}
+		int length = utf8Length(value);
+		return varLongSize(length) + length;
+	}
+
+	/**
+	 * Method to write a string as varint length and UTF-8 bytes
+	 */
+	public static void putString(ByteBuffer buffer, String value) {
+		putVarLong(buffer, utf8Length(value));
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogates are replaced like String.getBytes does
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * Method to read a string written by putString
+	 *
+	 * @throws IllegalArgumentException
+	 *             - if the length of the string does not fit into the buffer
+	 */
+	public static String getString(ByteBuffer buffer) {
+		int length = getLength(buffer);
+		int position = buffer.position();
+		if (buffer.hasArray()) {
+			buffer.position(position + length);
+			return new String(buffer.array(), buffer.arrayOffset() + position,
+					length, StandardCharsets.UTF_8);
+		}
+		// ASCII only strings are copied into the characters directly
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			byte b = buffer.get(position + i);
+			if (b < 0) {
+				byte[] bytes = new byte[length];
+				buffer.get(bytes);
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+			chars[i] = (char) b;
+		}
+		buffer.position(position + length);
+		return new String(chars);
+	}
+
+	/**
+	 * Reads the varint length of a field, checked against the remaining bytes
+	 * before anything is allocated for it
+	 */
+	private static int getLength(ByteBuffer buffer) {
+		long length = getVarLong(buffer);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid field length " + length
+					+ ", " + buffer.remaining() + " bytes remaining");
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Method to write an unsigned LEB128 varint
+	 */
+	public static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Method to read an unsigned LEB128 varint
+	 */
+	public static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * Method to calculate the size of an unsigned LEB128 varint
+	 */
+	public static int varLongSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			size++;
+			value >>>= 7;
+		}
+		return size;
+	}
+
+	private static int utf8Length(String value) {
+		int length = value.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				bytes += 1;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				bytes += 2;
+				i++;
+			} else if (!Character.isSurrogate(c)) {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.booxware.dto;
+
+/**
+ * Account to register in a batch request, with the password in clear text
+ */
+public class AccountRequest {
+
+	private String userName;
+
+	private String email;
+
+	private String password;
+
+	public AccountRequest() {
+	}
+
+	public AccountRequest(String userName, String email, String password) {
+		this.userName = userName;
+		this.email = email;
+		this.password = password;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public void setUserName(String userName) {
+		this.userName = userName;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public void setEmail(String email) {
+		this.email = email;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+}
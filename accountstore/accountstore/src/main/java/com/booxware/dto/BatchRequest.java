@@ -0,0 +1,52 @@
+package com.booxware.dto;
+
+import java.util.List;
+
+/**
+ * Body of a bulk request. Each list is optional and processed in one pass,
+ * in the order create, delete, login check.
+ */
+public class BatchRequest {
+
+	private List<AccountRequest> create;
+
+	private List<String> delete;
+
+	private List<String> loginCheck;
+
+	//epoch milliseconds for the login check
+	private Long since;
+
+	public List<AccountRequest> getCreate() {
+		return create;
+	}
+
+	public void setCreate(List<AccountRequest> create) {
+		this.create = create;
+	}
+
+	public List<String> getDelete() {
+		return delete;
+	}
+
+	public void setDelete(List<String> delete) {
+		this.delete = delete;
+	}
+
+	public List<String> getLoginCheck() {
+		return loginCheck;
+	}
+
+	public void setLoginCheck(List<String> loginCheck) {
+		this.loginCheck = loginCheck;
+	}
+
+	public Long getSince() {
+		return since;
+	}
+
+	public void setSince(Long since) {
+		this.since = since;
+	}
+
+}
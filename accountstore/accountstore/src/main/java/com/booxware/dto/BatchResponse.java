@@ -0,0 +1,54 @@
+package com.booxware.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Per item results of a bulk request, in the order of the request lists, or
+ * the message why the request has been rejected as a whole
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResponse {
+
+	private List<BatchResult> created;
+
+	private List<BatchResult> deleted;
+
+	private List<BatchResult> loginChecked;
+
+	private String message;
+
+	public List<BatchResult> getCreated() {
+		return created;
+	}
+
+	public void setCreated(List<BatchResult> created) {
+		this.created = created;
+	}
+
+	public List<BatchResult> getDeleted() {
+		return deleted;
+	}
+
+	public void setDeleted(List<BatchResult> deleted) {
+		this.deleted = deleted;
+	}
+
+	public List<BatchResult> getLoginChecked() {
+		return loginChecked;
+	}
+
+	public void setLoginChecked(List<BatchResult> loginChecked) {
+		this.loginChecked = loginChecked;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.booxware.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one item of a batch operation. Fields that do not apply to the
+ * operation are null and left out of the JSON.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+
+	private final String userName;
+
+	private final boolean success;
+
+	private final String message;
+
+	private final Long accountId;
+
+	private final Boolean loggedIn;
+
+	private BatchResult(String userName, boolean success, String message,
+			Long accountId, Boolean loggedIn) {
+		this.userName = userName;
+		this.success = success;
+		this.message = message;
+		this.accountId = accountId;
+		this.loggedIn = loggedIn;
+	}
+
+	/**
+	 * @param account
+	 *            - account that has been created
+	 * @return BatchResult
+	 *            - success with the id of the account
+	 */
+	public static BatchResult created(Account account) {
+		return new BatchResult(account.getUserName(), true, null,
+				account.getId(), null);
+	}
+
+	/**
+	 * @param userName
+	 *            - Name of the user whose account has been deleted
+	 * @return BatchResult
+	 *            - success without further fields
+	 */
+	public static BatchResult deleted(String userName) {
+		return new BatchResult(userName, true, null, null, null);
+	}
+
+	/**
+	 * @param userName
+	 *            - Name of the user
+	 * @param loggedIn
+	 *            - whether the user has logged in since the given date
+	 * @return BatchResult
+	 *            - success with the result of the check
+	 */
+	public static BatchResult loggedIn(String userName, boolean loggedIn) {
+		return new BatchResult(userName, true, null, null, loggedIn);
+	}
+
+	/**
+	 * @param userName
+	 *            - Name of the user
+	 * @param message
+	 *            - reason of the failure
+	 * @return BatchResult
+	 *            - failure with the reason
+	 */
+	public static BatchResult failed(String userName, String message) {
+		return new BatchResult(userName, false, message, null, null);
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public Long getAccountId() {
+		return accountId;
+	}
+
+	public Boolean getLoggedIn() {
+		return loggedIn;
+	}
+
+}
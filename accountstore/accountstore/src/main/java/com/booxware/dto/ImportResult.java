@@ -0,0 +1,64 @@
+package com.booxware.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of a bulk import: the number of records read, created and failed,
+ * the first failures, and the message why the import stopped early if it did
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ImportResult {
+
+	private long read;
+
+	private long created;
+
+	private long failed;
+
+	private List<String> errors;
+
+	private String message;
+
+	public long getRead() {
+		return read;
+	}
+
+	public void setRead(long read) {
+		this.read = read;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public void setCreated(long created) {
+		this.created = created;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public void setFailed(long failed) {
+		this.failed = failed;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	public void setErrors(List<String> errors) {
+		this.errors = errors;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.booxware.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in power-of-two microsecond buckets: the
+ * bucket b counts the latencies below 2^b microseconds that are not counted
+ * in a lower bucket, and the last one those of more than half a minute.
+ *
+ * The counts are striped like a LongAdder, so that threads that record at
+ * the same time mostly increment different cache lines. Recording neither
+ * locks nor allocates.
+ */
+final class LatencyHistogram {
+
+	//buckets up to 2^25 microseconds (33.5s) and one for the rest
+	static final int BUCKETS = 27;
+
+	//the counts of the buckets and the sum of the latencies in nanoseconds
+	private static final int SUM = BUCKETS;
+
+	//slots of a stripe, padded to whole cache lines of 64 bytes
+	private static final int STRIPE_SIZE = (BUCKETS + 1 + 7) / 8 * 8;
+
+	private static final int STRIPES = stripes();
+
+	private final AtomicLongArray slots = new AtomicLongArray(STRIPES
+			* STRIPE_SIZE);
+
+	private static int stripes() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		// a power of two, so that a thread's stripe is a mask of its id
+		return Integer.highestOneBit(Math.max(1, processors * 2 - 1));
+	}
+
+	/**
+	 * @param latencyNanos
+	 *            - latency in nanoseconds
+	 */
+	void record(long latencyNanos) {
+		long nanos = Math.max(0, latencyNanos);
+		int offset = (int) (Thread.currentThread().getId() & (STRIPES - 1))
+				* STRIPE_SIZE;
+		slots.incrementAndGet(offset + bucket(nanos / 1000));
+		slots.addAndGet(offset + SUM, nanos);
+	}
+
+	static int bucket(long micros) {
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+
+	/**
+	 * @return long - upper bound of a bucket in microseconds, Long.MAX_VALUE
+	 *         for the last one
+	 */
+	static long upperBoundMicros(int bucket) {
+		return bucket < BUCKETS - 1 ? 1L << bucket : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return long[] - counts of the buckets, summed over the stripes
+	 */
+	long[] getCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				counts[bucket] += slots.get(stripe * STRIPE_SIZE + bucket);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return long - sum of the recorded latencies in nanoseconds
+	 */
+	long getSumNanos() {
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			sum += slots.get(stripe * STRIPE_SIZE + SUM);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.booxware.metrics;
+
+/**
+ * Operations of the AccountStoreService that are measured
+ *
+ */
+public enum Operation {
+
+	CREATE("create", true),
+
+	LOGIN("login", true),
+
+	DELETE("delete", false),
+
+	LOGIN_CHECK("login_check", false),
+
+	FIND_BY_EMAIL("find_by_email", false);
+
+	private final String label;
+
+	//whether the operation hashes a password, which dominates its latency
+	private final boolean hashing;
+
+	private Operation(String label, boolean hashing) {
+		this.label = label;
+		this.hashing = hashing;
+	}
+
+	/**
+	 * @return String - name of the operation in the metrics
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return boolean - true if the operation hashes a password, so that
+	 *         timing it costs next to nothing
+	 */
+	public boolean isHashing() {
+		return hashing;
+	}
+
+}
@@ -0,0 +1,292 @@
+package com.booxware.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.booxware.dao.CachingAccountStoreDao;
+
+/**
+ * Throughput, outcomes and latencies of the operations of the
+ * AccountStoreService. Every operation and outcome has a LongAdder counter
+ * and a LatencyHistogram, both created up front, so that recording is
+ * lock-free and does not allocate.
+ *
+ * Every operation is counted, but reading the clock costs about as much as
+ * a lookup of an account, so only one in sampleRate of the operations that
+ * do not hash a password is timed. Their histograms therefore count fewer
+ * operations than their counters, with the same distribution.
+ *
+ * The metrics are read through JMX (OperationMetricsJmx) and in the
+ * Prometheus text format (writePrometheus), together with the statistics of
+ * the CachingAccountStoreDao, if one is set.
+ */
+public class OperationMetrics {
+
+	//content type of the Prometheus text format
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final Operation[] OPERATIONS = Operation.values();
+
+	private static final Outcome[] OUTCOMES = Outcome.values();
+
+	//start time of an operation that is not timed
+	public static final long NOT_TIMED = Long.MIN_VALUE;
+
+	//operations that do not hash a password, of which one is timed
+	public static final int DEFAULT_SAMPLE_RATE = 16;
+
+	private final int sampleMask;
+
+	private final LongAdder[][] counts = new LongAdder[OPERATIONS.length][OUTCOMES.length];
+
+	private final LatencyHistogram[][] latencies = new LatencyHistogram[OPERATIONS.length][OUTCOMES.length];
+
+	//cache in front of the store, null if there is none
+	private volatile CachingAccountStoreDao cache;
+
+	public OperationMetrics() {
+		this(DEFAULT_SAMPLE_RATE);
+	}
+
+	/**
+	 * @param sampleRate
+	 *            - operations that do not hash a password of which one is
+	 *            timed, a power of two
+	 */
+	public OperationMetrics(int sampleRate) {
+		if (sampleRate < 1 || Integer.bitCount(sampleRate) != 1) {
+			throw new IllegalArgumentException(
+					"Sample rate must be a power of two: " + sampleRate);
+		}
+		sampleMask = sampleRate - 1;
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			for (int j = 0; j < OUTCOMES.length; j++) {
+				counts[i][j] = new LongAdder();
+				latencies[i][j] = new LatencyHistogram();
+			}
+		}
+	}
+
+	/**
+	 * @param cache
+	 *            - cache in front of the store, whose statistics are read
+	 *            with the metrics
+	 */
+	public void setCache(CachingAccountStoreDao cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return CachingAccountStoreDao - cache in front of the store, null if
+	 *         there is none
+	 */
+	public CachingAccountStoreDao getCache() {
+		return cache;
+	}
+
+	/**
+	 * Starts an operation
+	 *
+	 * @param operation
+	 *            - the operation
+	 * @return long - System.nanoTime() if the operation is timed, else
+	 *         NOT_TIMED
+	 */
+	public long start(Operation operation) {
+		if (operation.isHashing()
+				|| 0 == (ThreadLocalRandom.current().nextInt() & sampleMask)) {
+			return System.nanoTime();
+		}
+		return NOT_TIMED;
+	}
+
+	/**
+	 * Records a completed operation
+	 *
+	 * @param operation
+	 *            - the operation
+	 * @param outcome
+	 *            - its outcome
+	 * @param start
+	 *            - what start returned for it
+	 */
+	public void record(Operation operation, Outcome outcome, long start) {
+		counts[operation.ordinal()][outcome.ordinal()].increment();
+		if (NOT_TIMED != start) {
+			latencies[operation.ordinal()][outcome.ordinal()]
+					.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Records a completed operation of a known latency
+	 */
+	void recordLatency(Operation operation, Outcome outcome, long latencyNanos) {
+		counts[operation.ordinal()][outcome.ordinal()].increment();
+		latencies[operation.ordinal()][outcome.ordinal()].record(latencyNanos);
+	}
+
+	/**
+	 * @return long - number of the operations with the outcome
+	 */
+	public long getCount(Operation operation, Outcome outcome) {
+		return counts[operation.ordinal()][outcome.ordinal()].sum();
+	}
+
+	/**
+	 * @return double - mean latency of the operations with the outcome in
+	 *         microseconds, 0 if there is none
+	 */
+	public double getMeanMicros(Operation operation, Outcome outcome) {
+		LatencyHistogram histogram = latencies[operation.ordinal()][outcome
+				.ordinal()];
+		long count = total(histogram.getCounts());
+		return 0 == count ? 0 : histogram.getSumNanos() / 1000.0 / count;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket of the latency at a percentile,
+	 * which is at most twice the latency itself
+	 *
+	 * @param percentile
+	 *            - percentile between 0 and 100
+	 * @return long - latency at the percentile in microseconds, 0 if there is
+	 *         none, Long.MAX_VALUE if it is beyond the largest bucket
+	 */
+	public long getPercentileMicros(Operation operation, Outcome outcome,
+			double percentile) {
+		long[] buckets = latencies[operation.ordinal()][outcome.ordinal()]
+				.getCounts();
+		long count = total(buckets);
+		if (0 == count) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long cumulative = 0;
+		for (int bucket = 0; bucket < buckets.length; bucket++) {
+			cumulative += buckets[bucket];
+			if (cumulative >= rank) {
+				return LatencyHistogram.upperBoundMicros(bucket);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format: a counter of the
+	 * operations by outcome, and a histogram of the latencies in seconds of
+	 * the timed operations of every operation and outcome that occurred
+	 *
+	 * @param writer
+	 *            - writer of the response
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		writer.write("# HELP accountstore_operations_total Operations of the account store by outcome\n");
+		writer.write("# TYPE accountstore_operations_total counter\n");
+		for (Operation operation : OPERATIONS) {
+			for (Outcome outcome : OUTCOMES) {
+				writer.write("accountstore_operations_total");
+				writeLabels(writer, operation, outcome, null);
+				writer.write(Long.toString(getCount(operation, outcome)));
+				writer.write('\n');
+			}
+		}
+		writer.write("# HELP accountstore_operation_duration_seconds Latency of the timed operations of the account store\n");
+		writer.write("# TYPE accountstore_operation_duration_seconds histogram\n");
+		for (Operation operation : OPERATIONS) {
+			for (Outcome outcome : OUTCOMES) {
+				LatencyHistogram histogram = latencies[operation.ordinal()][outcome
+						.ordinal()];
+				long[] buckets = histogram.getCounts();
+				long count = total(buckets);
+				if (0 == count) {
+					continue;
+				}
+				long cumulative = 0;
+				for (int bucket = 0; bucket < buckets.length - 1; bucket++) {
+					cumulative += buckets[bucket];
+					writer.write("accountstore_operation_duration_seconds_bucket");
+					writeLabels(writer, operation, outcome, Double
+							.toString(LatencyHistogram.upperBoundMicros(bucket) / 1e6));
+					writer.write(Long.toString(cumulative));
+					writer.write('\n');
+				}
+				writer.write("accountstore_operation_duration_seconds_bucket");
+				writeLabels(writer, operation, outcome, "+Inf");
+				writer.write(Long.toString(count));
+				writer.write('\n');
+				writer.write("accountstore_operation_duration_seconds_sum");
+				writeLabels(writer, operation, outcome, null);
+				writer.write(Double.toString(histogram.getSumNanos() / 1e9));
+				writer.write('\n');
+				writer.write("accountstore_operation_duration_seconds_count");
+				writeLabels(writer, operation, outcome, null);
+				writer.write(Long.toString(count));
+				writer.write('\n');
+			}
+		}
+		CachingAccountStoreDao cache = this.cache;
+		if (null != cache) {
+			writeCache(writer, cache);
+		}
+		writer.flush();
+	}
+
+	private static void writeCache(Writer writer, CachingAccountStoreDao cache)
+			throws IOException {
+		writer.write("# HELP accountstore_cache_lookups_total Lookups of the account cache by result\n");
+		writer.write("# TYPE accountstore_cache_lookups_total counter\n");
+		writer.write("accountstore_cache_lookups_total{result=\"hit\"} "
+				+ cache.getHitCount() + "\n");
+		writer.write("accountstore_cache_lookups_total{result=\"miss\"} "
+				+ cache.getMissCount() + "\n");
+		writeCacheMetric(writer, "hit_ratio", "gauge",
+				"Share of the lookups answered from the account cache",
+				Double.toString(cache.getHitRate()));
+		writeCacheMetric(writer, "coalesced_total", "counter",
+				"Misses of the account cache that waited for another load",
+				Long.toString(cache.getCoalescedCount()));
+		writeCacheMetric(writer, "evictions_total", "counter",
+				"Accounts evicted from the account cache",
+				Long.toString(cache.getEvictionCount()));
+		writeCacheMetric(writer, "login_writes_total", "counter",
+				"Logins the account cache wrote to the store",
+				Long.toString(cache.getLoginWriteCount()));
+		writeCacheMetric(writer, "pending_logins", "gauge",
+				"Logins the account cache has not written to the store yet",
+				Integer.toString(cache.getPendingLoginCount()));
+		writeCacheMetric(writer, "size", "gauge",
+				"Accounts in the account cache", Long.toString(cache.size()));
+	}
+
+	private static void writeCacheMetric(Writer writer, String name,
+			String type, String help, String value) throws IOException {
+		writer.write("# HELP accountstore_cache_" + name + " " + help + "\n");
+		writer.write("# TYPE accountstore_cache_" + name + " " + type + "\n");
+		writer.write("accountstore_cache_" + name + " " + value + "\n");
+	}
+
+	private static void writeLabels(Writer writer, Operation operation,
+			Outcome outcome, String le) throws IOException {
+		writer.write("{operation=\"");
+		writer.write(operation.getLabel());
+		writer.write("\",outcome=\"");
+		writer.write(outcome.getLabel());
+		if (null != le) {
+			writer.write("\",le=\"");
+			writer.write(le);
+		}
+		writer.write("\"} ");
+	}
+
+	private static long total(long[] buckets) {
+		long total = 0;
+		for (long count : buckets) {
+			total += count;
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,213 @@
+package com.booxware.metrics;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.log4j.Logger;
+
+import com.booxware.dao.CachingAccountStoreDao;
+
+/**
+ * Read-only MBean of the OperationMetrics, with the attributes
+ * &lt;operation&gt;.&lt;outcome&gt;.&lt;stat&gt;, e.g. login.bad_password.count,
+ * where the stat is one of count, meanMicros, p50Micros, p99Micros and
+ * p999Micros. If the metrics have a cache, its statistics are the attributes
+ * cache.&lt;stat&gt;, e.g. cache.hitRate.
+ */
+public class OperationMetricsJmx implements DynamicMBean, Closeable {
+
+	private static final Logger logger = Logger
+			.getLogger(OperationMetricsJmx.class);
+
+	public static final String OBJECT_NAME = "com.booxware.accountstore:type=OperationMetrics";
+
+	private static final String[] STATS = { "count", "meanMicros",
+			"p50Micros", "p99Micros", "p999Micros" };
+
+	private static final String[] CACHE_STATS = { "hitRate", "hitCount",
+			"missCount", "coalescedCount", "evictionCount", "loginWriteCount",
+			"pendingLoginCount", "size" };
+
+	private final OperationMetrics metrics;
+
+	private final MBeanServer server = ManagementFactory
+			.getPlatformMBeanServer();
+
+	private ObjectName name;
+
+	/**
+	 * @param metrics
+	 *            - the metrics to expose
+	 */
+	public OperationMetricsJmx(OperationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Registers the MBean with the platform MBean server
+	 */
+	public synchronized void register() {
+		try {
+			name = server.registerMBean(this, new ObjectName(OBJECT_NAME))
+					.getObjectName();
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to register " + OBJECT_NAME,
+					e);
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Registered the MBean " + name);
+		}
+	}
+
+	/**
+	 * Unregisters the MBean, if it is registered
+	 */
+	public synchronized void close() {
+		if (null == name) {
+			return;
+		}
+		try {
+			server.unregisterMBean(name);
+		} catch (JMException e) {
+			logger.warn("Unable to unregister the MBean " + name, e);
+		}
+		name = null;
+	}
+
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		String[] parts = attribute.split("\\.");
+		CachingAccountStoreDao cache = metrics.getCache();
+		if (parts.length == 2 && "cache".equals(parts[0]) && null != cache) {
+			switch (parts[1]) {
+			case "hitRate":
+				return cache.getHitRate();
+			case "hitCount":
+				return cache.getHitCount();
+			case "missCount":
+				return cache.getMissCount();
+			case "coalescedCount":
+				return cache.getCoalescedCount();
+			case "evictionCount":
+				return cache.getEvictionCount();
+			case "loginWriteCount":
+				return cache.getLoginWriteCount();
+			case "pendingLoginCount":
+				return cache.getPendingLoginCount();
+			case "size":
+				return cache.size();
+			default:
+				break;
+			}
+		}
+		if (parts.length == 3) {
+			Operation operation = operation(parts[0]);
+			Outcome outcome = outcome(parts[1]);
+			if (null != operation && null != outcome) {
+				switch (parts[2]) {
+				case "count":
+					return metrics.getCount(operation, outcome);
+				case "meanMicros":
+					return metrics.getMeanMicros(operation, outcome);
+				case "p50Micros":
+					return metrics.getPercentileMicros(operation, outcome, 50);
+				case "p99Micros":
+					return metrics.getPercentileMicros(operation, outcome, 99);
+				case "p999Micros":
+					return metrics.getPercentileMicros(operation, outcome, 99.9);
+				default:
+					break;
+				}
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Read-only attribute "
+				+ attribute.getName());
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// left out, as the MBean server expects
+			}
+		}
+		return list;
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Operation operation : Operation.values()) {
+			for (Outcome outcome : Outcome.values()) {
+				for (String stat : STATS) {
+					attributes.add(new MBeanAttributeInfo(operation.getLabel()
+							+ "." + outcome.getLabel() + "." + stat,
+							"meanMicros".equals(stat) ? "double" : "long", stat
+									+ " of " + operation.getLabel() + " with "
+									+ outcome.getLabel(), true, false, false));
+				}
+			}
+		}
+		if (null != metrics.getCache()) {
+			for (String stat : CACHE_STATS) {
+				attributes.add(new MBeanAttributeInfo("cache." + stat,
+						"hitRate".equals(stat) ? "double"
+								: "pendingLoginCount".equals(stat) ? "int"
+										: "long", stat + " of the account cache",
+						true, false, false));
+			}
+		}
+		return new MBeanInfo(getClass().getName(),
+				"Operations of the account store by outcome",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[0], null);
+	}
+
+	private static Operation operation(String label) {
+		for (Operation operation : Operation.values()) {
+			if (operation.getLabel().equals(label)) {
+				return operation;
+			}
+		}
+		return null;
+	}
+
+	private static Outcome outcome(String label) {
+		for (Outcome outcome : Outcome.values()) {
+			if (outcome.getLabel().equals(label)) {
+				return outcome;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.booxware.metrics;
+
+/**
+ * Outcomes of the measured operations
+ *
+ */
+public enum Outcome {
+
+	SUCCESS("success"),
+
+	//no account with the given user name or email
+	UNKNOWN_USER("unknown_user"),
+
+	BAD_PASSWORD("bad_password"),
+
+	//the user name or the enforced unique email exists
+	DUPLICATE("duplicate"),
+
+	//any other failure, e.g. an overloaded password hasher
+	ERROR("error");
+
+	private final String label;
+
+	private Outcome(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * @return String - name of the outcome in the metrics
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+}
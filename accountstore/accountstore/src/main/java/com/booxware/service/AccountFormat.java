@@ -0,0 +1,48 @@
+package com.booxware.service;
+
+import java.util.Locale;
+
+/**
+ * Formats of the bulk import and export of accounts
+ *
+ */
+public enum AccountFormat {
+
+	/**
+	 * One JSON object per line, e.g.
+	 * {"userName":"Alex","email":"alex@gmail.com","password":"secretpass"}
+	 */
+	NDJSON("application/x-ndjson;charset=UTF-8"),
+
+	/**
+	 * Comma separated values with a header line that names the columns, and
+	 * fields quoted as in RFC 4180
+	 */
+	CSV("text/csv;charset=UTF-8");
+
+	private final String contentType;
+
+	private AccountFormat(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @param name
+	 *            - name of the format, ignoring case
+	 * @return AccountFormat
+	 *            - the format, or null if there is none of that name
+	 */
+	public static AccountFormat of(String name) {
+		for (AccountFormat format : values()) {
+			if (format.name().equals(name.toUpperCase(Locale.ROOT))) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+}
@@ -1,9 +1,13 @@
 package com.booxware.service;
 
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import com.booxware.common.AccountStoreException;
 import com.booxware.dto.Account;
+import com.booxware.dto.AccountRequest;
+import com.booxware.dto.BatchResult;
 
 /**
  * Service for Account Management
@@ -69,4 +73,173 @@ public interface AccountStoreService {
 	public boolean hasLoggedInSince(String userName, Date date)
 			throws AccountStoreException;
 
+	/**
+	 * Finds the Account of an email address, e.g. for a password reset.
+	 * Emails are compared trimmed and ignoring case.
+	 * 
+	 * @param email
+	 *            the email address of the user
+	 * @return the Account with that email
+	 * @throws AccountStoreException
+	 *             if no account has the email
+	 */
+	public Account findByEmail(String email) throws AccountStoreException;
+
+	/**
+	 * Counts the accounts whose last login is after a date.
+	 * 
+	 * @param date
+	 *            the date to compare the last logins with
+	 * @return the number of accounts that have logged in since the date
+	 * @throws AccountStoreException
+	 *             if the login index is not enabled
+	 */
+	public long countActiveSince(Date date) throws AccountStoreException;
+
+	/**
+	 * Counts the accounts that have not logged in after a date.
+	 * 
+	 * @param date
+	 *            the date to compare the last logins with
+	 * @return the number of accounts that have been dormant since the date
+	 * @throws AccountStoreException
+	 *             if the login index is not enabled
+	 */
+	public long countDormantSince(Date date) throws AccountStoreException;
+
+	/**
+	 * Lists the user names of the accounts whose last login is after a date.
+	 * The accounts are read while iterating.
+	 * 
+	 * @param date
+	 *            the date to compare the last logins with
+	 * @return the user names of the accounts that have logged in since the
+	 *         date
+	 * @throws AccountStoreException
+	 *             if the login index is not enabled
+	 */
+	public Iterable<String> findActiveSince(Date date)
+			throws AccountStoreException;
+
+	/**
+	 * Lists the user names of the accounts that have not logged in after a
+	 * date. The accounts are read while iterating.
+	 * 
+	 * @param date
+	 *            the date to compare the last logins with
+	 * @return the user names of the accounts that have been dormant since the
+	 *         date
+	 * @throws AccountStoreException
+	 *             if the login index is not enabled
+	 */
+	public Iterable<String> findDormantSince(Date date)
+			throws AccountStoreException;
+
+	/**
+	 * Lists the accounts whose user names start with a prefix, in the order
+	 * of the user names and one page at a time.
+	 * 
+	 * @param prefix
+	 *            the start of the user names, empty for all accounts
+	 * @param limit
+	 *            the maximum number of accounts to return
+	 * @param cursor
+	 *            the last user name of the previous page, null for the first
+	 * @return up to limit accounts, fewer only on the last page
+	 * @throws AccountStoreException
+	 *             if the limit is not positive
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor)
+			throws AccountStoreException;
+
+	/**
+	 * Registers a new Account like createAccount, without blocking the
+	 * calling thread while the password is hashed or the account stored.
+	 * 
+	 * @param username
+	 *            the User's name
+	 * @param email
+	 *            the email address of the user
+	 * @param password
+	 *            the clear text password
+	 * @return a future of the newly registered Account, failed with an
+	 *         AccountStoreException if any errors occur
+	 */
+	public CompletableFuture<Account> createAccountAsync(String username,
+			String email, String password);
+
+	/**
+	 * Logs in the user like updateAccount, without blocking the calling
+	 * thread while the password is checked or the login stored.
+	 * 
+	 * @param username
+	 *            the User's name
+	 * @param password
+	 *            the clear text password
+	 * @return a future of the logged in account, failed with an
+	 *         AccountStoreException if any errors occur
+	 */
+	public CompletableFuture<Account> updateAccountAsync(String username,
+			String password);
+
+	/**
+	 * Deletes an Account like deleteAccount, without blocking the calling
+	 * thread while it is deleted.
+	 * 
+	 * @param userName
+	 *            the User's name
+	 * @return a future that completes once the Account is deleted, failed
+	 *         with an AccountStoreException if any errors occur
+	 */
+	public CompletableFuture<Void> deleteAccountAsync(String userName);
+
+	/**
+	 * Checks like hasLoggedInSince if a user has logged in since a provided
+	 * timestamp, without blocking the calling thread.
+	 * 
+	 * @param userName
+	 *            the User's name
+	 * @param date
+	 *            the date to compare the last login with
+	 * @return a future of true if the user has logged in since the provided
+	 *         timestamp, failed with an AccountStoreException if any errors
+	 *         occur
+	 */
+	public CompletableFuture<Boolean> hasLoggedInSinceAsync(String userName,
+			Date date);
+
+	/**
+	 * Registers several Accounts in one pass over the repository. An item
+	 * fails on its own, e.g. if its username exists, without affecting the
+	 * others.
+	 * 
+	 * @param accounts
+	 *            the accounts to register, with clear text passwords
+	 * @return one result per account, in the same order, with the id of each
+	 *         created account
+	 */
+	public List<BatchResult> createAccounts(List<AccountRequest> accounts);
+
+	/**
+	 * Deletes several Accounts in one pass over the repository.
+	 * 
+	 * @param userNames
+	 *            the names of the users
+	 * @return one result per username, in the same order
+	 */
+	public List<BatchResult> deleteAccounts(List<String> userNames);
+
+	/**
+	 * Checks for several users if they have logged in since a provided
+	 * timestamp.
+	 * 
+	 * @param userNames
+	 *            the names of the users
+	 * @param date
+	 *            the date to compare the last logins with
+	 * @return one result per username, in the same order
+	 */
+	public List<BatchResult> hasLoggedInSince(List<String> userNames,
+			Date date);
+
 }
@@ -1,21 +1,38 @@
 package com.booxware.service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.Base64Utils;
 
 import com.booxware.common.AccountStoreException;
 import com.booxware.dao.AccountStoreDao;
+import com.booxware.dao.AsyncAccountStoreDao;
 import com.booxware.dto.Account;
+import com.booxware.dto.AccountRequest;
+import com.booxware.dto.BatchResult;
+import com.booxware.metrics.Operation;
+import com.booxware.metrics.OperationMetrics;
+import com.booxware.metrics.Outcome;
 
 /**
  * Implementation for AccountStoreService.This class contains business logic for the
  * following functionalities: 
  * a)create, update and delete an account.
  * b)whether the user has logged in since the given date.
+ * c)the same for several users in one pass over the repository.
+ * d)create, update and delete an account and check a login without waiting.
  *
  */
 @Service("acctStoreService")
@@ -24,13 +41,57 @@ public class AccountStoreServiceImpl implements AccountStoreService {
 	@Autowired
 	AccountStoreDao accountStoreDao;
 
+	@Autowired
+	PasswordHasher passwordHasher;
+
+	@Autowired(required = false)
+	UserNameFilter userNameFilter;
+
+	@Autowired(required = false)
+	LoginIndex loginIndex;
+
+	@Autowired(required = false)
+	OperationMetrics operationMetrics;
+
+	@Autowired(required = false)
+	AsyncAccountStoreDao asyncAccountStoreDao;
+
+	//whether createAccount rejects an email that another account has
+	@Value("${accountstore.email.unique:false}")
+	boolean uniqueEmail;
+
+	//expected failures, thrown without capturing a stack trace
+	private static final AccountStoreException USER_NAME_EXISTS = AccountStoreException
+			.stackless("UserName already exist. Please provide different UserName");
+
+	private static final AccountStoreException INVALID_PASSWORD = AccountStoreException
+			.stackless("Password is invalid");
+
+	private static final AccountStoreException INVALID_USER_NAME = AccountStoreException
+			.stackless("UserName is invalid");
+
+	private static final AccountStoreException EMAIL_EXISTS = AccountStoreException
+			.stackless("Email already exist. Please provide different Email");
+
+	private static final AccountStoreException INVALID_EMAIL = AccountStoreException
+			.stackless("Email is invalid");
+
+	private static final AccountStoreException NO_LOGIN_INDEX = AccountStoreException
+			.stackless("Login index is not enabled");
+
+	private static final AccountStoreException INVALID_LIMIT = AccountStoreException
+			.stackless("Limit must be positive");
+
+	private static final String MANDATORY_FIELDS = "UserName, email and password are mandatory";
+
 	private static final Logger logger = Logger
 			.getLogger(AccountStoreServiceImpl.class.getName());
 
 	/**
 	 * Create a new Account for an user.Validates whether the given userName is
 	 * new and then creates an account for that user.if the userName already
-	 * exist, then throws an exception.
+	 * exist, then throws an exception. if unique emails are enforced, the
+	 * same applies to the email.
 	 * 
 	 * @param userName
 	 *            - Name of the user
@@ -40,30 +101,118 @@ public class AccountStoreServiceImpl implements AccountStoreService {
 	 *            - password in clear text format
 	 * @return Account - New account that is created
 	 * @throws AccountStoreException
-	 *             - throws error if the userName already exist
+	 *             - throws error if the userName or the enforced unique email
+	 *             already exist or the password cannot be hashed
 	 */
-	public Account createAccount(String userName, String password, String email)
+	public Account createAccount(String userName, String email, String password)
+			throws AccountStoreException {
+		long start = start(Operation.CREATE);
+		Outcome outcome = Outcome.ERROR;
+		try {
+			Account result = create(userName, email, password);
+			outcome = Outcome.SUCCESS;
+			return result;
+		} catch (AccountStoreException e) {
+			outcome = outcomeOf(e);
+			throw e;
+		} finally {
+			record(Operation.CREATE, outcome, start);
+		}
+	}
+
+	/**
+	 * createAccount without the metrics
+	 */
+	private Account create(String userName, String email, String password)
+			throws AccountStoreException {
+		if (isTaken(userName)) {
+			throw userNameExists(userName);
+		}
+		Account generatedAccount = new Account(userName,
+				passwordHasher.hash(password), email, new Date());
+		/* add the userName to the filter before the account becomes visible,
+		  so that a login never misses a saved account */
+		if (null != userNameFilter) {
+			userNameFilter.add(userName);
+		}
+		Account savedAccount = null;
+		try {
+			/* create the account in one step, if given userName (and email)
+			  does not exist already */
+			savedAccount = uniqueEmail ? accountStoreDao
+					.saveIfUnique(generatedAccount) : accountStoreDao
+					.saveIfAbsent(generatedAccount);
+		} finally {
+			if (null == savedAccount && null != userNameFilter) {
+				userNameFilter.remove(userName);
+			}
+		}
+		return created(userName, email, savedAccount);
+	}
+
+	/**
+	 * Completes the creation of an account once the repository has been
+	 * asked to save it
+	 * 
+	 * @param savedAccount
+	 *            - the saved account, null if it was not saved
+	 * @return Account - the saved account
+	 * @throws AccountStoreException
+	 *             - throws error if the userName or the enforced unique email
+	 *             already exist
+	 */
+	private Account created(String userName, String email, Account savedAccount)
 			throws AccountStoreException {
-		Account acct = accountStoreDao.findByName(userName);
 		/* if userName already exist in the system, throw
 		  AccountServiceException */
-		if (null != acct) {
-			logger.info("UserName already exist:" + userName);
-			throw new AccountStoreException(
-					"UserName already exist. Please provide different UserName");
+		if (null == savedAccount) {
+			if (uniqueEmail && null == accountStoreDao.findByName(userName)) {
+				if (logger.isInfoEnabled()) {
+					logger.info("Email already exist:" + email);
+				}
+				throw EMAIL_EXISTS;
+			}
+			throw userNameExists(userName);
+		}
+		if (null != loginIndex) {
+			loginIndex.add(savedAccount);
+			// a delete that ran before the add found nothing to remove
+			Account current = accountStoreDao.findByName(userName);
+			if (null == current || current.getId() != savedAccount.getId()) {
+				loginIndex.remove(savedAccount);
+			}
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Account created Successfully for:" + userName);
 		}
-		// create the account if given userName does not exist already
-		Account generatedAccount = new Account(userName,
-				encryptPassword(password), email, new Date());
-		Account savedAccount = accountStoreDao.save(generatedAccount);
-		logger.info("Account created Successfully for:" + userName);
 		return savedAccount;
 	}
 
+	/**
+	 * Checks before the password is hashed whether the userName is taken, so
+	 * that a duplicate registration costs no hash. The save still decides a
+	 * race between two registrations of the same userName.
+	 * 
+	 * @return boolean - true if an account with the userName exists
+	 */
+	private boolean isTaken(String userName) {
+		return (null == userNameFilter || userNameFilter.mightBeTaken(userName))
+				&& null != accountStoreDao.findByName(userName);
+	}
+
+	private static AccountStoreException userNameExists(String userName) {
+		if (logger.isInfoEnabled()) {
+			logger.info("UserName already exist:" + userName);
+		}
+		return USER_NAME_EXISTS;
+	}
+
 	/**
 	 * Validates whether the given userName exist and password is correct. if
-	 * the validation is successful, updates the last login date of the user. if
-	 * the validation fails, then throws an exception.
+	 * the validation is successful, updates the last login date of the user
+	 * and hashes the password again in the background, if it is stored with
+	 * weaker parameters than the current ones. if the validation fails, then
+	 * throws an exception.
 	 * 
 	 * @param userName
 	 *            - Name of the user
@@ -77,23 +226,68 @@ public class AccountStoreServiceImpl implements AccountStoreService {
 	 */
 	public Account updateAccount(String userName, String password)
 			throws AccountStoreException {
-		Account acct = findbyUserName(userName);
+		long start = start(Operation.LOGIN);
+		Outcome outcome = Outcome.ERROR;
+		try {
+			Account result = login(userName, password);
+			outcome = Outcome.SUCCESS;
+			return result;
+		} catch (AccountStoreException e) {
+			outcome = outcomeOf(e);
+			throw e;
+		} finally {
+			record(Operation.LOGIN, outcome, start);
+		}
+	}
+
+	/**
+	 * updateAccount without the metrics
+	 */
+	private Account login(String userName, String password)
+			throws AccountStoreException {
+		final Account acct = findbyUserName(userName);
 		if (null != acct.getEncryptedPassword()) {
-			//decrypt the stored password and compare against the user given password 
-			String decryptedPassword = decryptPassword(acct.getEncryptedPassword());
-			if (decryptedPassword.equals(password)) {
+			//hash the user given password and compare against the stored hash
+			if (passwordHasher.verify(password, acct.getEncryptedPassword())) {
 				//if the password matches, update the login date of the user
-				acct.setLastLogin(new Date());
-				logger.info("Account updated successully for:"+ userName);
+				accountStoreDao.updateLastLogin(acct, System.currentTimeMillis());
+				loggedIn(acct, password);
 			} else {
-				logger.info("Account update failed due to invalid password for User:"
-						+ userName + "Password:" + password);
-				throw new AccountStoreException("Password is invalid");
+				throw invalidPassword(userName);
 			}
 		}
 		return acct;
 	}
 
+	/**
+	 * Completes a login once the last login date is updated
+	 */
+	private void loggedIn(final Account acct, String password) {
+		if (null != loginIndex) {
+			loginIndex.recordLogin(acct);
+		}
+		//upgrade a weaker stored hash without delaying the login
+		if (passwordHasher.needsRehash(acct.getEncryptedPassword())) {
+			passwordHasher.rehash(password,
+					new PasswordHasher.RehashCallback() {
+						public void onRehash(byte[] stored) {
+							accountStoreDao.updatePassword(acct, stored);
+						}
+					});
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Account updated successully for:"+ acct.getUserName());
+		}
+	}
+
+	private static AccountStoreException invalidPassword(String userName) {
+		if (logger.isInfoEnabled()) {
+			logger.info("Account update failed due to invalid password for User:"
+					+ userName);
+		}
+		return INVALID_PASSWORD;
+	}
+
 	/**
 	 * Delete the user's account. Verifies if the given userName exist and then
 	 * deletes the account.
@@ -104,10 +298,48 @@ public class AccountStoreServiceImpl implements AccountStoreService {
 	 *            - throws error if the userName does not exist
 	 */
 	public void deleteAccount(String userName) throws AccountStoreException {
+		long start = start(Operation.DELETE);
+		Outcome outcome = Outcome.ERROR;
+		try {
+			delete(userName);
+			outcome = Outcome.SUCCESS;
+		} catch (AccountStoreException e) {
+			outcome = outcomeOf(e);
+			throw e;
+		} finally {
+			record(Operation.DELETE, outcome, start);
+		}
+	}
+
+	/**
+	 * deleteAccount without the metrics
+	 */
+	private void delete(String userName) throws AccountStoreException {
 		//find the account based on userName and delete the user account
 		Account acct = findbyUserName(userName);
-		accountStoreDao.delete(acct);
-		logger.info("Account deleted successully for:" + userName);
+		deleted(userName, acct, accountStoreDao.delete(acct));
+	}
+
+	/**
+	 * Completes the deletion of an account once the repository has been
+	 * asked to delete it
+	 * 
+	 * @param deleted
+	 *            - whether this call deleted it
+	 */
+	private void deleted(String userName, Account acct, boolean deleted) {
+		// a concurrent delete of the same account removes it from the filter
+		if (deleted) {
+			if (null != userNameFilter) {
+				userNameFilter.remove(userName);
+			}
+			if (null != loginIndex) {
+				loginIndex.remove(acct);
+			}
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Account deleted successully for:" + userName);
+		}
 	}
 
 	/**
@@ -124,16 +356,555 @@ public class AccountStoreServiceImpl implements AccountStoreService {
 	 */
 	public boolean hasLoggedInSince(String userName, Date date)
 			throws AccountStoreException {
+		long start = start(Operation.LOGIN_CHECK);
+		Outcome outcome = Outcome.ERROR;
+		try {
+			boolean result = loggedInSince(userName, date);
+			outcome = Outcome.SUCCESS;
+			return result;
+		} catch (AccountStoreException e) {
+			outcome = outcomeOf(e);
+			throw e;
+		} finally {
+			record(Operation.LOGIN_CHECK, outcome, start);
+		}
+	}
+
+	/**
+	 * hasLoggedInSince without the metrics
+	 */
+	private boolean loggedInSince(String userName, Date date)
+			throws AccountStoreException {
 		Account acct = findbyUserName(userName);
 		if (null != acct) {
-			return acct.getLastLogin().after(date);
+			return acct.getLastLoginTime() > date.getTime();
 		}
 		return true;
 	}
 
+	/**
+	 * Retrieves the account of an email address
+	 * 
+	 * @param email
+	 *            - Email address of the user
+	 * @return Account - Account with that email
+	 * @throws AccountStoreException
+	 *             - throws an exception, if no account has the email
+	 */
+	public Account findByEmail(String email) throws AccountStoreException {
+		long start = start(Operation.FIND_BY_EMAIL);
+		Outcome outcome = Outcome.ERROR;
+		try {
+			Account result = findEmail(email);
+			outcome = Outcome.SUCCESS;
+			return result;
+		} catch (AccountStoreException e) {
+			outcome = outcomeOf(e);
+			throw e;
+		} finally {
+			record(Operation.FIND_BY_EMAIL, outcome, start);
+		}
+	}
+
+	/**
+	 * findByEmail without the metrics
+	 */
+	private Account findEmail(String email) throws AccountStoreException {
+		Account acct = null == email ? null : accountStoreDao.findByEmail(email);
+		if (null == acct) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Account is not found for email :" + email);
+			}
+			throw INVALID_EMAIL;
+		}
+		return acct;
+	}
+
+	/**
+	 * Creates an account like createAccount, without waiting for the password
+	 * hash or the repository
+	 * 
+	 * @param userName
+	 *            - Name of the user
+	 * @param email
+	 *            - Email address of the user
+	 * @param password
+	 *            - password in clear text format
+	 * @return CompletableFuture - completed with the new account, or with the
+	 *         AccountStoreException that createAccount would throw
+	 */
+	public CompletableFuture<Account> createAccountAsync(final String userName,
+			final String email, final String password) {
+		long start = start(Operation.CREATE);
+		CompletableFuture<Account> created = isTakenAsync(userName)
+				.thenCompose(new Function<Boolean, CompletionStage<byte[]>>() {
+					public CompletionStage<byte[]> apply(Boolean taken) {
+						if (taken) {
+							throw userNameExists(userName).completion();
+						}
+						return passwordHasher.hashAsync(password);
+					}
+				})
+				.thenCompose(new Function<byte[], CompletionStage<Account>>() {
+					public CompletionStage<Account> apply(byte[] hash) {
+						Account generatedAccount = new Account(userName, hash,
+								email, new Date());
+						if (null != userNameFilter) {
+							userNameFilter.add(userName);
+						}
+						return (uniqueEmail ? asyncDao().saveIfUnique(
+								generatedAccount) : asyncDao().saveIfAbsent(
+								generatedAccount)).handle(
+								new BiFunction<Account, Throwable, Account>() {
+									public Account apply(Account savedAccount,
+											Throwable failure) {
+										if (null == savedAccount
+												&& null != userNameFilter) {
+											userNameFilter.remove(userName);
+										}
+										if (null != failure) {
+											throw completion(failure);
+										}
+										try {
+											return created(userName, email,
+													savedAccount);
+										} catch (AccountStoreException e) {
+											throw completion(e);
+										}
+									}
+								});
+					}
+				});
+		return recorded(Operation.CREATE, start, created);
+	}
+
+	/**
+	 * Logs in like updateAccount, without waiting for the password check or
+	 * the repository
+	 * 
+	 * @param userName
+	 *            - Name of the user
+	 * @param password
+	 *            - password in clear text format
+	 * @return CompletableFuture - completed with the login account of the
+	 *         user, or with the AccountStoreException that updateAccount
+	 *         would throw
+	 */
+	public CompletableFuture<Account> updateAccountAsync(final String userName,
+			final String password) {
+		long start = start(Operation.LOGIN);
+		CompletableFuture<Account> login = findAsync(userName).thenCompose(
+				new Function<Account, CompletionStage<Account>>() {
+					public CompletionStage<Account> apply(final Account acct) {
+						if (null == acct.getEncryptedPassword()) {
+							return CompletableFuture.completedFuture(acct);
+						}
+						return passwordHasher.verifyAsync(password,
+								acct.getEncryptedPassword()).thenCompose(
+								new Function<Boolean, CompletionStage<Account>>() {
+									public CompletionStage<Account> apply(
+											Boolean matches) {
+										if (!matches) {
+											throw completion(invalidPassword(userName));
+										}
+										return asyncDao().updateLastLogin(acct,
+												System.currentTimeMillis())
+												.thenApply(
+														new Function<Void, Account>() {
+															public Account apply(
+																	Void updated) {
+																loggedIn(acct,
+																		password);
+																return acct;
+															}
+														});
+									}
+								});
+					}
+				});
+		return recorded(Operation.LOGIN, start, login);
+	}
+
+	/**
+	 * Deletes an account like deleteAccount, without waiting for the
+	 * repository
+	 * 
+	 * @param userName
+	 *            - Name of the user
+	 * @return CompletableFuture - completed once the account is deleted, or
+	 *         with the AccountStoreException that deleteAccount would throw
+	 */
+	public CompletableFuture<Void> deleteAccountAsync(final String userName) {
+		long start = start(Operation.DELETE);
+		CompletableFuture<Void> delete = findAsync(userName).thenCompose(
+				new Function<Account, CompletionStage<Void>>() {
+					public CompletionStage<Void> apply(final Account acct) {
+						return asyncDao().delete(acct).thenApply(
+								new Function<Boolean, Void>() {
+									public Void apply(Boolean deleted) {
+										deleted(userName, acct, deleted);
+										return null;
+									}
+								});
+					}
+				});
+		return recorded(Operation.DELETE, start, delete);
+	}
+
+	/**
+	 * Checks the last login like hasLoggedInSince, without waiting for the
+	 * repository
+	 * 
+	 * @param userName
+	 *            - Name of the user
+	 * @param date
+	 *            - Date input given by user
+	 * @return CompletableFuture - completed with true if the user has logged
+	 *         in since the date, or with the AccountStoreException that
+	 *         hasLoggedInSince would throw
+	 */
+	public CompletableFuture<Boolean> hasLoggedInSinceAsync(String userName,
+			final Date date) {
+		long start = start(Operation.LOGIN_CHECK);
+		CompletableFuture<Boolean> loggedIn = findAsync(userName).thenApply(
+				new Function<Account, Boolean>() {
+					public Boolean apply(Account acct) {
+						return acct.getLastLoginTime() > date.getTime();
+					}
+				});
+		return recorded(Operation.LOGIN_CHECK, start, loggedIn);
+	}
+
+	/**
+	 * Checks like isTaken whether an account exists for the userName, without
+	 * waiting for the repository
+	 */
+	private CompletableFuture<Boolean> isTakenAsync(String userName) {
+		if (null != userNameFilter && !userNameFilter.mightBeTaken(userName)) {
+			return CompletableFuture.completedFuture(false);
+		}
+		return asyncDao().findByName(userName).thenApply(
+				new Function<Account, Boolean>() {
+					public Boolean apply(Account acct) {
+						return null != acct;
+					}
+				});
+	}
+
+	/**
+	 * Retrieves the account by userName like findbyUserName, without waiting
+	 * for the repository
+	 */
+	private CompletableFuture<Account> findAsync(final String userName) {
+		if (null != userNameFilter && !userNameFilter.mightContain(userName)) {
+			CompletableFuture<Account> unknown = new CompletableFuture<Account>();
+			unknown.completeExceptionally(unknownUser(userName).completion());
+			return unknown;
+		}
+		return asyncDao().findByName(userName).thenApply(
+				new Function<Account, Account>() {
+					public Account apply(Account acct) {
+						if (null == acct) {
+							throw completion(unknownUser(userName));
+						}
+						return acct;
+					}
+				});
+	}
+
+	/**
+	 * @return AsyncAccountStoreDao - the configured one, or one that calls
+	 *         the accountStoreDao on the calling thread
+	 */
+	private AsyncAccountStoreDao asyncDao() {
+		AsyncAccountStoreDao asyncDao = asyncAccountStoreDao;
+		if (null == asyncDao) {
+			// a race creates a second one, which is just as good
+			asyncDao = new AsyncAccountStoreDao(accountStoreDao, 0);
+			asyncAccountStoreDao = asyncDao;
+		}
+		return asyncDao;
+	}
+
+	/**
+	 * Records an asynchronous operation in the OperationMetrics when it
+	 * completes, if they are enabled
+	 */
+	private <T> CompletableFuture<T> recorded(final Operation operation,
+			final long start, CompletableFuture<T> future) {
+		if (null == operationMetrics) {
+			return future;
+		}
+		return future.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T result, Throwable failure) {
+				record(operation, null == failure ? Outcome.SUCCESS
+						: outcomeOf(failure), start);
+			}
+		});
+	}
+
+	/**
+	 * @return CompletionException - the failure of a stage, to rethrow it
+	 *         from a later one, without a stack trace if it is an
+	 *         AccountStoreException
+	 */
+	private static CompletionException completion(Throwable failure) {
+		if (failure instanceof CompletionException) {
+			return (CompletionException) failure;
+		}
+		return failure instanceof AccountStoreException ? ((AccountStoreException) failure)
+				.completion() : new CompletionException(failure);
+	}
+
+	/**
+	 * Creates accounts for several users. The passwords are hashed in
+	 * parallel and the accounts saved with one call to the repository, so
+	 * that locking and durability are paid once per batch. A user whose
+	 * userName (or enforced unique email) already exists, whose fields are
+	 * missing or whose password cannot be hashed fails alone.
+	 * 
+	 * @param requests
+	 *            - userName, email and clear text password of each user
+	 * @return List - result of each request, in the order of the requests
+	 */
+	public List<BatchResult> createAccounts(List<AccountRequest> requests) {
+		int count = requests.size();
+		BatchResult[] results = new BatchResult[count];
+		List<Integer> positions = new ArrayList<Integer>(count);
+		List<String> passwords = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			AccountRequest request = requests.get(i);
+			if (isEmpty(request.getUserName()) || isEmpty(request.getEmail())
+					|| isEmpty(request.getPassword())) {
+				results[i] = BatchResult.failed(request.getUserName(),
+						MANDATORY_FIELDS);
+			} else if (isTaken(request.getUserName())) {
+				results[i] = BatchResult.failed(request.getUserName(),
+						USER_NAME_EXISTS.getMessage());
+			} else {
+				positions.add(i);
+				passwords.add(request.getPassword());
+			}
+		}
+		List<byte[]> hashes = passwordHasher.hashAll(passwords);
+		List<Account> accounts = new ArrayList<Account>(positions.size());
+		List<Integer> saving = new ArrayList<Integer>(positions.size());
+		Date now = new Date();
+		for (int i = 0; i < positions.size(); i++) {
+			AccountRequest request = requests.get(positions.get(i));
+			if (null == hashes.get(i)) {
+				results[positions.get(i)] = BatchResult.failed(
+						request.getUserName(),
+						PasswordHasher.TOO_MANY_REQUESTS.getMessage());
+				continue;
+			}
+			accounts.add(new Account(request.getUserName(), hashes.get(i),
+					request.getEmail(), now));
+			saving.add(positions.get(i));
+			// as in createAccount, known to the filter before it is visible
+			if (null != userNameFilter) {
+				userNameFilter.add(request.getUserName());
+			}
+		}
+		List<Account> saved = null;
+		try {
+			saved = uniqueEmail ? accountStoreDao.saveAllIfUnique(accounts)
+					: accountStoreDao.saveAllIfAbsent(accounts);
+		} finally {
+			if (null != userNameFilter) {
+				for (int i = 0; i < accounts.size(); i++) {
+					if (null == saved || null == saved.get(i)) {
+						userNameFilter.remove(accounts.get(i).getUserName());
+					}
+				}
+			}
+		}
+		int created = 0;
+		for (int i = 0; i < accounts.size(); i++) {
+			Account account = saved.get(i);
+			String userName = accounts.get(i).getUserName();
+			if (null == account) {
+				boolean emailExists = uniqueEmail
+						&& null == accountStoreDao.findByName(userName);
+				results[saving.get(i)] = BatchResult.failed(userName,
+						(emailExists ? EMAIL_EXISTS : USER_NAME_EXISTS)
+								.getMessage());
+				continue;
+			}
+			if (null != loginIndex) {
+				loginIndex.add(account);
+				Account current = accountStoreDao.findByName(userName);
+				if (null == current || current.getId() != account.getId()) {
+					loginIndex.remove(account);
+				}
+			}
+			results[saving.get(i)] = BatchResult.created(account);
+			created++;
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Accounts created in batch:" + created + " of " + count);
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Deletes the accounts of several users with one call to the repository.
+	 * A userName that does not exist fails alone.
+	 * 
+	 * @param userNames
+	 *            - Names of the users
+	 * @return List - result of each userName, in the order of the userNames
+	 */
+	public List<BatchResult> deleteAccounts(List<String> userNames) {
+		int count = userNames.size();
+		BatchResult[] results = new BatchResult[count];
+		List<Account> accounts = new ArrayList<Account>(count);
+		List<Integer> positions = new ArrayList<Integer>(count);
+		for (int i = 0; i < count; i++) {
+			Account acct = findIfKnown(userNames.get(i));
+			if (null == acct) {
+				results[i] = BatchResult.failed(userNames.get(i),
+						INVALID_USER_NAME.getMessage());
+			} else {
+				accounts.add(acct);
+				positions.add(i);
+			}
+		}
+		boolean[] deleted = accountStoreDao.deleteAll(accounts);
+		for (int i = 0; i < accounts.size(); i++) {
+			Account acct = accounts.get(i);
+			// as in deleteAccount, a concurrent delete cleans up after itself
+			if (deleted[i]) {
+				if (null != userNameFilter) {
+					userNameFilter.remove(acct.getUserName());
+				}
+				if (null != loginIndex) {
+					loginIndex.remove(acct);
+				}
+			}
+			results[positions.get(i)] = BatchResult.deleted(acct.getUserName());
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Accounts deleted in batch:" + accounts.size() + " of "
+					+ count);
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Validates for several users whether they have logged in since the
+	 * given date
+	 * 
+	 * @param userNames
+	 *            - Names of the users
+	 * @param date
+	 *            - Date input given by user
+	 * @return List - result of each userName, in the order of the userNames
+	 */
+	public List<BatchResult> hasLoggedInSince(List<String> userNames, Date date) {
+		long since = date.getTime();
+		List<BatchResult> results = new ArrayList<BatchResult>(userNames.size());
+		for (String userName : userNames) {
+			Account acct = findIfKnown(userName);
+			results.add(null == acct ? BatchResult.failed(userName,
+					INVALID_USER_NAME.getMessage()) : BatchResult.loggedIn(
+					userName, acct.getLastLoginTime() > since));
+		}
+		return results;
+	}
+
+	/**
+	 * Counts the accounts whose last login is after the given date, from the
+	 * login index
+	 * 
+	 * @param date
+	 *            - Date input given by user
+	 * @return long - number of accounts that have logged in since the date
+	 * @throws AccountStoreException
+	 *             - throws an exception, if the login index is not enabled
+	 */
+	public long countActiveSince(Date date) throws AccountStoreException {
+		return requireLoginIndex().countActiveSince(date.getTime());
+	}
+
+	/**
+	 * Counts the accounts that have not logged in after the given date, from
+	 * the login index
+	 * 
+	 * @param date
+	 *            - Date input given by user
+	 * @return long - number of accounts that have been dormant since the date
+	 * @throws AccountStoreException
+	 *             - throws an exception, if the login index is not enabled
+	 */
+	public long countDormantSince(Date date) throws AccountStoreException {
+		return requireLoginIndex().countDormantSince(date.getTime());
+	}
+
+	/**
+	 * Lists the userNames of the accounts whose last login is after the given
+	 * date, from the login index
+	 * 
+	 * @param date
+	 *            - Date input given by user
+	 * @return Iterable - userNames of the accounts, most recent logins first
+	 * @throws AccountStoreException
+	 *             - throws an exception, if the login index is not enabled
+	 */
+	public Iterable<String> findActiveSince(Date date)
+			throws AccountStoreException {
+		return requireLoginIndex().findActiveSince(date.getTime());
+	}
+
+	/**
+	 * Lists the userNames of the accounts that have not logged in after the
+	 * given date, from the login index
+	 * 
+	 * @param date
+	 *            - Date input given by user
+	 * @return Iterable - userNames of the accounts, oldest logins first
+	 * @throws AccountStoreException
+	 *             - throws an exception, if the login index is not enabled
+	 */
+	public Iterable<String> findDormantSince(Date date)
+			throws AccountStoreException {
+		return requireLoginIndex().findDormantSince(date.getTime());
+	}
+
+	private LoginIndex requireLoginIndex() throws AccountStoreException {
+		if (null == loginIndex) {
+			throw NO_LOGIN_INDEX;
+		}
+		return loginIndex;
+	}
+
+	/**
+	 * Lists the accounts whose userNames start with a prefix, one page at a
+	 * time
+	 * 
+	 * @param prefix
+	 *            - start of the userNames, empty or null for all accounts
+	 * @param limit
+	 *            - maximum number of accounts to return
+	 * @param cursor
+	 *            - last userName of the previous page, null for the first
+	 * @return List - up to limit accounts ordered by userName
+	 * @throws AccountStoreException
+	 *             - throws an exception, if the limit is not positive
+	 */
+	public List<Account> findByPrefix(String prefix, int limit, String cursor)
+			throws AccountStoreException {
+		if (limit <= 0) {
+			throw INVALID_LIMIT;
+		}
+		return accountStoreDao.findByPrefix(null == prefix ? "" : prefix,
+				limit, cursor);
+	}
+
 	/**
 	 * Retrieves the account by userName.This method is used internally by other
-	 * implementation methods
+	 * implementation methods. A userName that the filter does not know is
+	 * rejected without a lookup in the repository.
 	 * 
 	 * @param userName
 	 *            - Name of the user
@@ -143,39 +914,80 @@ public class AccountStoreServiceImpl implements AccountStoreService {
 	 */
 	protected Account findbyUserName(String userName)
 			throws AccountStoreException {
+		if (null != userNameFilter && !userNameFilter.mightContain(userName)) {
+			throw unknownUser(userName);
+		}
 		Account acct = accountStoreDao.findByName(userName);
 		if (null == acct) {
-			logger.info("Account is not found for :"+ userName);
-			throw new AccountStoreException("UserName is invalid");
+			throw unknownUser(userName);
 		}
 		return acct;
 	}
 
+	private static AccountStoreException unknownUser(String userName) {
+		if (logger.isInfoEnabled()) {
+			logger.info("Account is not found for :"+ userName);
+		}
+		return INVALID_USER_NAME;
+	}
+
 	/**
-	 * Encrypts the user provided password using Base64 encoder
-	 * 
-	 * @param password
-	 *            - user provided password
-	 * @return byte[] 
-	 *            - encrypted password
+	 * Starts an operation in the OperationMetrics, if they are enabled
 	 */
-	public static byte[] encryptPassword(String password) {
-		byte[] bytes = password.getBytes();
-		return Base64Utils.encode(bytes);
+	private long start(Operation operation) {
+		return null == operationMetrics ? OperationMetrics.NOT_TIMED
+				: operationMetrics.start(operation);
 	}
 
 	/**
-	 * Decrypts the stored password using Base64 decoder
-	 * 
-	 * @param password
-	 *            - encrypted password that is stored
-	 * @return String 
-	 *            - return decrypted password
-	 */
-	public static String decryptPassword(byte[] password) {
-		byte[] bytes = Base64Utils.decode(password);
-		String s = new String(bytes);
-		return s;
+	 * Records an operation in the OperationMetrics, if they are enabled
+	 */
+	private void record(Operation operation, Outcome outcome, long start) {
+		if (null != operationMetrics) {
+			operationMetrics.record(operation, outcome, start);
+		}
+	}
+
+	/**
+	 * @return Outcome - outcome of an asynchronous operation that failed
+	 */
+	private static Outcome outcomeOf(Throwable failure) {
+		Throwable cause = failure instanceof CompletionException
+				&& null != failure.getCause() ? failure.getCause() : failure;
+		return cause instanceof AccountStoreException ? outcomeOf((AccountStoreException) cause)
+				: Outcome.ERROR;
+	}
+
+	/**
+	 * @return Outcome - outcome of an operation that threw an exception
+	 */
+	private static Outcome outcomeOf(AccountStoreException e) {
+		if (INVALID_USER_NAME == e || INVALID_EMAIL == e) {
+			return Outcome.UNKNOWN_USER;
+		}
+		if (INVALID_PASSWORD == e) {
+			return Outcome.BAD_PASSWORD;
+		}
+		if (USER_NAME_EXISTS == e || EMAIL_EXISTS == e) {
+			return Outcome.DUPLICATE;
+		}
+		return Outcome.ERROR;
+	}
+
+	/**
+	 * Retrieves the account by userName like findbyUserName, but without
+	 * logging or throwing for each unknown userName of a batch
+	 */
+	private Account findIfKnown(String userName) {
+		if (isEmpty(userName) || (null != userNameFilter
+				&& !userNameFilter.mightContain(userName))) {
+			return null;
+		}
+		return accountStoreDao.findByName(userName);
+	}
+
+	private static boolean isEmpty(String value) {
+		return null == value || value.isEmpty();
 	}
 
 }
@@ -0,0 +1,431 @@
+package com.booxware.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dto.Account;
+import com.booxware.dto.AccountRequest;
+import com.booxware.dto.BatchResult;
+import com.booxware.dto.ImportResult;
+
+/**
+ * Bulk import and export of accounts as NDJSON or CSV, e.g. to seed or
+ * migrate the store.
+ *
+ * Both directions stream: the import parses one record at a time and
+ * creates the accounts in batches of accountstore.import.batchSize through
+ * AccountStoreService.createAccounts, which hashes the passwords of a batch
+ * in parallel and saves it with one call to the repository, so the memory
+ * of an import is bounded by one batch whatever the size of the input. The
+ * export writes the accounts while it reads them from the repository.
+ */
+@Service("accountTransfer")
+public class AccountTransfer {
+
+	@Autowired
+	AccountStoreService acctStoreService;
+
+	@Autowired
+	AccountStoreDao accountStoreDao;
+
+	//records created with one call to the service
+	@Value("${accountstore.import.batchSize:1000}")
+	int batchSize = 1000;
+
+	//failures that are reported by message, the others are only counted
+	static final int MAX_ERRORS = 100;
+
+	//records written before the output is flushed
+	private static final int FLUSH_INTERVAL = 256;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(
+			JsonParser.Feature.AUTO_CLOSE_SOURCE).disable(
+			JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	private static final Logger logger = Logger.getLogger(AccountTransfer.class
+			.getName());
+
+	/**
+	 * Creates an account for each record of the input. A record that cannot
+	 * be created, e.g. because its userName exists, fails alone. Malformed
+	 * input stops the import; the records before it are still created.
+	 *
+	 * @param in
+	 *            - records with userName, email and password in clear text,
+	 *            other fields are ignored. The stream is not closed.
+	 * @param format
+	 *            - format of the records
+	 * @return ImportResult - number of records read, created and failed
+	 */
+	public ImportResult importAccounts(InputStream in, AccountFormat format) {
+		ImportResult result = new ImportResult();
+		List<String> errors = new ArrayList<String>();
+		List<AccountRequest> batch = new ArrayList<AccountRequest>(batchSize);
+		long read = 0;
+		long created = 0;
+		try {
+			RecordReader reader = AccountFormat.CSV == format ? new CsvRecordReader(
+					in) : new JsonRecordReader(in);
+			AccountRequest request;
+			while (null != (request = reader.read())) {
+				read++;
+				batch.add(request);
+				if (batch.size() >= batchSize) {
+					created += create(batch, read, errors);
+					batch.clear();
+				}
+			}
+		} catch (IOException e) {
+			result.setMessage("Import stopped after record " + read + ": "
+					+ e.getMessage());
+		}
+		created += create(batch, read, errors);
+		result.setRead(read);
+		result.setCreated(created);
+		result.setFailed(read - created);
+		if (!errors.isEmpty()) {
+			result.setErrors(errors);
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Accounts imported:" + created + " of " + read
+					+ (null == result.getMessage() ? "" : ", "
+							+ result.getMessage()));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes all accounts to the output, without their passwords. The
+	 * accounts are read while they are written, without blocking writers,
+	 * so accounts saved or deleted meanwhile may or may not be exported;
+	 * each record is read once and is consistent in itself.
+	 *
+	 * @param out
+	 *            - output the records are written to. The stream is not
+	 *            closed.
+	 * @param format
+	 *            - format of the records
+	 * @return long - number of exported accounts
+	 * @throws IOException
+	 *             - if the output cannot be written
+	 */
+	public long exportAccounts(OutputStream out, AccountFormat format)
+			throws IOException {
+		RecordWriter writer = AccountFormat.CSV == format ? new CsvRecordWriter(
+				out) : new JsonRecordWriter(out);
+		long count = 0;
+		for (Account account : accountStoreDao.findAll()) {
+			writer.write(account);
+			if (++count % FLUSH_INTERVAL == 0) {
+				writer.flush();
+			}
+		}
+		writer.flush();
+		if (logger.isInfoEnabled()) {
+			logger.info("Accounts exported:" + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Creates the accounts of a batch and records the first failures
+	 *
+	 * @return int - number of created accounts
+	 */
+	private int create(List<AccountRequest> batch, long read,
+			List<String> errors) {
+		if (batch.isEmpty()) {
+			return 0;
+		}
+		List<BatchResult> results = acctStoreService.createAccounts(batch);
+		// number of the first record of the batch
+		long first = read - batch.size() + 1;
+		int created = 0;
+		for (int i = 0; i < results.size(); i++) {
+			BatchResult result = results.get(i);
+			if (result.isSuccess()) {
+				created++;
+			} else if (errors.size() < MAX_ERRORS) {
+				errors.add("Record " + (first + i) + " (" + result.getUserName()
+						+ "): " + result.getMessage());
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Import batch created:" + created + " of "
+					+ batch.size());
+		}
+		return created;
+	}
+
+	/**
+	 * Source of the records of an import
+	 */
+	private interface RecordReader {
+
+		/**
+		 * @return AccountRequest - the next record, or null at the end
+		 */
+		AccountRequest read() throws IOException;
+
+	}
+
+	/**
+	 * Target of the records of an export
+	 */
+	private interface RecordWriter {
+
+		void write(Account account) throws IOException;
+
+		void flush() throws IOException;
+
+	}
+
+	/**
+	 * Reads a sequence of JSON objects with the streaming parser, so that
+	 * only the current object is held in memory. NDJSON is such a sequence,
+	 * separated by line breaks.
+	 */
+	private static final class JsonRecordReader implements RecordReader {
+
+		private final JsonParser parser;
+
+		JsonRecordReader(InputStream in) throws IOException {
+			parser = JSON_FACTORY.createParser(in);
+		}
+
+		public AccountRequest read() throws IOException {
+			JsonToken token = parser.nextToken();
+			if (null == token) {
+				return null;
+			}
+			if (JsonToken.START_OBJECT != token) {
+				throw new JsonParseException(parser,
+						"Expected an account object");
+			}
+			AccountRequest request = new AccountRequest();
+			while (JsonToken.FIELD_NAME == parser.nextToken()) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				if ("userName".equals(field)) {
+					request.setUserName(parser.getValueAsString());
+				} else if ("email".equals(field)) {
+					request.setEmail(parser.getValueAsString());
+				} else if ("password".equals(field)) {
+					request.setPassword(parser.getValueAsString());
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return request;
+		}
+
+	}
+
+	/**
+	 * Reads CSV records one character at a time. The header names the
+	 * columns, in any order and ignoring case; unknown columns are ignored.
+	 */
+	private static final class CsvRecordReader implements RecordReader {
+
+		private final BufferedReader reader;
+
+		private final int userNameColumn;
+
+		private final int emailColumn;
+
+		private final int passwordColumn;
+
+		CsvRecordReader(InputStream in) throws IOException {
+			reader = new BufferedReader(new InputStreamReader(in,
+					StandardCharsets.UTF_8));
+			List<String> header = readRecord();
+			if (null == header) {
+				header = new ArrayList<String>();
+			}
+			userNameColumn = indexOf(header, "userName");
+			emailColumn = indexOf(header, "email");
+			passwordColumn = indexOf(header, "password");
+			if (userNameColumn < 0) {
+				throw new IOException("CSV header must name a userName column");
+			}
+		}
+
+		public AccountRequest read() throws IOException {
+			List<String> record = readRecord();
+			if (null == record) {
+				return null;
+			}
+			return new AccountRequest(field(record, userNameColumn), field(
+					record, emailColumn), field(record, passwordColumn));
+		}
+
+		/**
+		 * @return List - the fields of the next record, or null at the end.
+		 *         Blank lines are skipped.
+		 */
+		private List<String> readRecord() throws IOException {
+			int c = reader.read();
+			while ('\r' == c || '\n' == c) {
+				c = reader.read();
+			}
+			if (-1 == c) {
+				return null;
+			}
+			List<String> fields = new ArrayList<String>();
+			StringBuilder field = new StringBuilder();
+			boolean quoted = false;
+			while (true) {
+				if (quoted) {
+					if (-1 == c) {
+						throw new IOException("Unterminated quoted field");
+					}
+					if ('"' == c) {
+						c = reader.read();
+						// a doubled quote is a quote within the field
+						if ('"' != c) {
+							quoted = false;
+							continue;
+						}
+					}
+					field.append((char) c);
+				} else if ('"' == c) {
+					quoted = true;
+				} else if (',' == c) {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else if ('\r' == c || '\n' == c || -1 == c) {
+					fields.add(field.toString());
+					return fields;
+				} else {
+					field.append((char) c);
+				}
+				c = reader.read();
+			}
+		}
+
+		private static int indexOf(List<String> header, String column) {
+			for (int i = 0; i < header.size(); i++) {
+				if (column.toLowerCase(Locale.ROOT).equals(
+						header.get(i).trim().toLowerCase(Locale.ROOT))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static String field(List<String> record, int column) {
+			return column >= 0 && column < record.size() ? record.get(column)
+					: null;
+		}
+
+	}
+
+	/**
+	 * Writes one JSON object per line, in the format of the account listing
+	 */
+	private static final class JsonRecordWriter implements RecordWriter {
+
+		private final JsonGenerator json;
+
+		JsonRecordWriter(OutputStream out) throws IOException {
+			json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+			// each object ends its own line instead
+			json.setRootValueSeparator(null);
+		}
+
+		public void write(Account account) throws IOException {
+			long lastLogin = account.getLastLoginTime();
+			json.writeStartObject();
+			json.writeNumberField("id", account.getId());
+			json.writeStringField("userName", account.getUserName());
+			json.writeStringField("email", account.getEmail());
+			if (lastLogin == Account.NO_LAST_LOGIN) {
+				json.writeNullField("lastLogin");
+			} else {
+				json.writeNumberField("lastLogin", lastLogin);
+			}
+			json.writeEndObject();
+			json.writeRaw('\n');
+		}
+
+		public void flush() throws IOException {
+			json.flush();
+		}
+
+	}
+
+	/**
+	 * Writes a header line and one CSV record per account
+	 */
+	private static final class CsvRecordWriter implements RecordWriter {
+
+		private final Writer writer;
+
+		CsvRecordWriter(OutputStream out) throws IOException {
+			writer = new BufferedWriter(new OutputStreamWriter(out,
+					StandardCharsets.UTF_8));
+			writer.write("id,userName,email,lastLogin\r\n");
+		}
+
+		public void write(Account account) throws IOException {
+			long lastLogin = account.getLastLoginTime();
+			writer.write(Long.toString(account.getId()));
+			writer.write(',');
+			writeField(account.getUserName());
+			writer.write(',');
+			writeField(account.getEmail());
+			writer.write(',');
+			if (lastLogin != Account.NO_LAST_LOGIN) {
+				writer.write(Long.toString(lastLogin));
+			}
+			writer.write("\r\n");
+		}
+
+		public void flush() throws IOException {
+			writer.flush();
+		}
+
+		/**
+		 * Writes a field, quoted if it contains a separator, quote or line
+		 * break
+		 */
+		private void writeField(String value) throws IOException {
+			if (null == value) {
+				return;
+			}
+			if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+					&& value.indexOf('\r') < 0 && value.indexOf('\n') < 0) {
+				writer.write(value);
+				return;
+			}
+			writer.write('"');
+			writer.write(value.replace("\"", "\"\""));
+			writer.write('"');
+		}
+
+	}
+
+}
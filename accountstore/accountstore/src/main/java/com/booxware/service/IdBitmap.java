@@ -0,0 +1,175 @@
+package com.booxware.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compressed set of account ids, split into containers of 65536 ids by the
+ * high bits of the id. A container holds its low 16 bits as a sorted char
+ * array while it has few ids, and as a bitmap of 8 KB once the array would
+ * be larger, so that sparse and dense ranges of ids both stay compact.
+ *
+ * Not thread safe, LoginIndex locks each bitmap.
+ */
+final class IdBitmap {
+
+	private static final int ARRAY_MAX = 4096;
+
+	private static final int BITMAP_WORDS = 1024;
+
+	private final Map<Long, Container> containers = new HashMap<Long, Container>();
+
+	private int size;
+
+	/**
+	 * @return boolean
+	 *            - true if the id was not in the set
+	 */
+	boolean add(long id) {
+		Long high = id >>> 16;
+		Container container = containers.get(high);
+		if (null == container) {
+			container = new Container();
+			containers.put(high, container);
+		}
+		if (container.add((char) id)) {
+			size++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return boolean
+	 *            - true if the id was in the set
+	 */
+	boolean remove(long id) {
+		Long high = id >>> 16;
+		Container container = containers.get(high);
+		if (null == container || !container.remove((char) id)) {
+			return false;
+		}
+		if (container.size == 0) {
+			containers.remove(high);
+		}
+		size--;
+		return true;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return long[]
+	 *            - copy of the ids, ordered within each container
+	 */
+	long[] toArray() {
+		long[] ids = new long[size];
+		int count = 0;
+		for (Map.Entry<Long, Container> entry : containers.entrySet()) {
+			count = entry.getValue().copyTo(entry.getKey() << 16, ids, count);
+		}
+		return ids;
+	}
+
+	private static final class Container {
+
+		private char[] array = new char[4];
+
+		private long[] bitmap;
+
+		private int size;
+
+		boolean add(char low) {
+			if (null != bitmap) {
+				long bit = 1L << low;
+				if ((bitmap[low >>> 6] & bit) != 0) {
+					return false;
+				}
+				bitmap[low >>> 6] |= bit;
+				size++;
+				return true;
+			}
+			int index = Arrays.binarySearch(array, 0, size, low);
+			if (index >= 0) {
+				return false;
+			}
+			if (size == ARRAY_MAX) {
+				toBitmap();
+				return add(low);
+			}
+			index = -index - 1;
+			if (size == array.length) {
+				array = Arrays.copyOf(array, Math.min(ARRAY_MAX, size * 2));
+			}
+			System.arraycopy(array, index, array, index + 1, size - index);
+			array[index] = low;
+			size++;
+			return true;
+		}
+
+		boolean remove(char low) {
+			if (null != bitmap) {
+				long bit = 1L << low;
+				if ((bitmap[low >>> 6] & bit) == 0) {
+					return false;
+				}
+				bitmap[low >>> 6] &= ~bit;
+				size--;
+				// back to an array at half the limit, so that a container at
+				// the limit does not convert on every change
+				if (size == ARRAY_MAX / 2) {
+					toArray();
+				}
+				return true;
+			}
+			int index = Arrays.binarySearch(array, 0, size, low);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(array, index + 1, array, index, size - index - 1);
+			size--;
+			return true;
+		}
+
+		int copyTo(long base, long[] ids, int offset) {
+			if (null == bitmap) {
+				for (int i = 0; i < size; i++) {
+					ids[offset++] = base | array[i];
+				}
+				return offset;
+			}
+			for (int word = 0; word < BITMAP_WORDS; word++) {
+				long bits = bitmap[word];
+				while (bits != 0) {
+					ids[offset++] = base | (word << 6)
+							| Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+				}
+			}
+			return offset;
+		}
+
+		private void toBitmap() {
+			bitmap = new long[BITMAP_WORDS];
+			for (int i = 0; i < size; i++) {
+				bitmap[array[i] >>> 6] |= 1L << array[i];
+			}
+			array = null;
+		}
+
+		private void toArray() {
+			long[] ids = new long[size];
+			copyTo(0, ids, 0);
+			array = new char[size];
+			for (int i = 0; i < size; i++) {
+				array[i] = (char) ids[i];
+			}
+			bitmap = null;
+		}
+
+	}
+
+}
@@ -0,0 +1,385 @@
+package com.booxware.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dto.Account;
+
+/**
+ * Index of the accounts by the time of their last login, to count and list
+ * the accounts that have logged in since a time, or that have not.
+ *
+ * The time line is cut into buckets of a fixed length, an hour by default,
+ * and each bucket holds the ids of the accounts whose last login falls into
+ * it in an IdBitmap. A login moves the id of the account to the bucket of
+ * the new login. A query sums or walks the buckets on one side of the given
+ * time and only checks the login time of each account in the bucket that
+ * contains it, so its cost depends on the number of buckets and of matching
+ * accounts, not on the number of accounts.
+ *
+ * Each account is updated atomically with compute on its entry, and each
+ * bucket under its own lock. Queries do not lock the index as a whole, so
+ * logins that happen meanwhile may or may not be seen, and a listing may
+ * miss or repeat an account that logs in while it is read.
+ */
+public class LoginIndex {
+
+	public static final long DEFAULT_BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private final long bucketMillis;
+
+	//ids of the accounts, keyed by the bucket of their last login
+	private final ConcurrentSkipListMap<Long, Bucket> buckets = new ConcurrentSkipListMap<Long, Bucket>();
+
+	//user name and last login of the indexed accounts, keyed by id
+	private final ConcurrentHashMap<Long, Login> logins = new ConcurrentHashMap<Long, Login>();
+
+	private final Function<Long, Bucket> newBucket = new Function<Long, Bucket>() {
+		public Bucket apply(Long key) {
+			return new Bucket();
+		}
+	};
+
+	/**
+	 * @param bucketMillis
+	 *            - length of the time buckets in milliseconds
+	 */
+	public LoginIndex(long bucketMillis) {
+		if (bucketMillis <= 0) {
+			throw new IllegalArgumentException("Invalid login bucket length: "
+					+ bucketMillis);
+		}
+		this.bucketMillis = bucketMillis;
+	}
+
+	/**
+	 * Method to create an index of the last logins of all stored accounts
+	 *
+	 * @param accountStoreDao
+	 *            - repository to read the accounts from
+	 * @param bucketMillis
+	 *            - length of the time buckets in milliseconds
+	 * @return LoginIndex
+	 *            - index that contains the stored accounts
+	 */
+	public static LoginIndex load(AccountStoreDao accountStoreDao,
+			long bucketMillis) {
+		LoginIndex index = new LoginIndex(bucketMillis);
+		for (Account account : accountStoreDao.findAll()) {
+			index.add(account);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds an account with its last login, or moves its last login forward
+	 * if it is indexed already
+	 *
+	 * @param account
+	 *            - account that has been saved
+	 */
+	public void add(final Account account) {
+		logins.compute(account.getId(), new BiFunction<Long, Login, Login>() {
+			public Login apply(Long id, Login previous) {
+				return advance(id, previous, account);
+			}
+		});
+	}
+
+	/**
+	 * Moves the last login of an account forward to the one of the given
+	 * account. An account that is not indexed, e.g. because it has just been
+	 * deleted, is not added.
+	 *
+	 * @param account
+	 *            - account that has logged in
+	 */
+	public void recordLogin(final Account account) {
+		logins.computeIfPresent(account.getId(),
+				new BiFunction<Long, Login, Login>() {
+					public Login apply(Long id, Login previous) {
+						return advance(id, previous, account);
+					}
+				});
+	}
+
+	/**
+	 * Removes an account from the index
+	 *
+	 * @param account
+	 *            - account that has been deleted
+	 */
+	public void remove(Account account) {
+		logins.computeIfPresent(account.getId(),
+				new BiFunction<Long, Login, Login>() {
+					public Login apply(Long id, Login previous) {
+						removeId(previous.time, id);
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * @return long
+	 *            - number of indexed accounts
+	 */
+	public long size() {
+		return logins.size();
+	}
+
+	/**
+	 * @return int
+	 *            - number of buckets that hold accounts
+	 */
+	public int getBucketCount() {
+		return buckets.size();
+	}
+
+	/**
+	 * Method to count the accounts whose last login is after a time
+	 *
+	 * @param since
+	 *            - epoch milliseconds
+	 * @return long
+	 *            - number of accounts that have logged in after since
+	 */
+	public long countActiveSince(long since) {
+		long bucket = bucketOf(since);
+		long count = countIn(bucket, since, true);
+		for (Bucket later : buckets.tailMap(bucket, false).values()) {
+			count += later.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Method to count the accounts whose last login is not after a time,
+	 * including the accounts that have never logged in
+	 *
+	 * @param since
+	 *            - epoch milliseconds
+	 * @return long
+	 *            - number of accounts that have not logged in after since
+	 */
+	public long countDormantSince(long since) {
+		long bucket = bucketOf(since);
+		long count = countIn(bucket, since, false);
+		for (Bucket earlier : buckets.headMap(bucket, false).values()) {
+			count += earlier.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Method to list the accounts whose last login is after a time, the
+	 * latest bucket first. The buckets are read while iterating, one at a
+	 * time.
+	 *
+	 * @param since
+	 *            - epoch milliseconds
+	 * @return Iterable
+	 *            - user names of the accounts that have logged in after since
+	 */
+	public Iterable<String> findActiveSince(final long since) {
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new UserNameIterator(buckets.tailMap(bucketOf(since),
+						true).descendingMap(), since, true);
+			}
+		};
+	}
+
+	/**
+	 * Method to list the accounts whose last login is not after a time, the
+	 * earliest bucket first. The buckets are read while iterating, one at a
+	 * time.
+	 *
+	 * @param since
+	 *            - epoch milliseconds
+	 * @return Iterable
+	 *            - user names of the accounts that have not logged in after
+	 *            since
+	 */
+	public Iterable<String> findDormantSince(final long since) {
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new UserNameIterator(buckets.headMap(bucketOf(since),
+						true), since, false);
+			}
+		};
+	}
+
+	private long bucketOf(long time) {
+		return Math.floorDiv(time, bucketMillis);
+	}
+
+	/**
+	 * Moves an id from the bucket of the previous login to the one of the
+	 * account's last login, if that is later. Called within compute of the
+	 * id, so that the moves of one account do not interleave.
+	 */
+	private Login advance(Long id, Login previous, Account account) {
+		long time = account.getLastLoginTime();
+		if (null != previous && previous.time >= time) {
+			return previous;
+		}
+		if (null == previous || bucketOf(previous.time) != bucketOf(time)) {
+			addId(time, id);
+			if (null != previous) {
+				removeId(previous.time, id);
+			}
+		}
+		return new Login(account.getUserName(), time);
+	}
+
+	private void addId(long time, long id) {
+		while (true) {
+			Bucket bucket = buckets.computeIfAbsent(bucketOf(time), newBucket);
+			synchronized (bucket) {
+				if (!bucket.retired) {
+					bucket.ids.add(id);
+					return;
+				}
+			}
+			// emptied and removed meanwhile, a new bucket takes its place
+		}
+	}
+
+	private void removeId(long time, long id) {
+		Long key = bucketOf(time);
+		Bucket bucket = buckets.get(key);
+		if (null == bucket) {
+			return;
+		}
+		synchronized (bucket) {
+			if (bucket.ids.remove(id) && bucket.ids.size() == 0) {
+				bucket.retired = true;
+				buckets.remove(key, bucket);
+			}
+		}
+	}
+
+	/**
+	 * Counts the accounts of one bucket that have, or have not, logged in
+	 * after since
+	 */
+	private long countIn(long key, long since, boolean active) {
+		Bucket bucket = buckets.get(key);
+		if (null == bucket) {
+			return 0;
+		}
+		long count = 0;
+		for (long id : bucket.toArray()) {
+			Login login = logins.get(id);
+			if (null != login && bucketOf(login.time) == key
+					&& (login.time > since) == active) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static final class Login {
+
+		private final String userName;
+
+		private final long time;
+
+		Login(String userName, long time) {
+			this.userName = userName;
+			this.time = time;
+		}
+
+	}
+
+	private static final class Bucket {
+
+		private final IdBitmap ids = new IdBitmap();
+
+		//set once the bucket is empty and removed from the index
+		private boolean retired;
+
+		synchronized int size() {
+			return ids.size();
+		}
+
+		synchronized long[] toArray() {
+			return ids.toArray();
+		}
+
+	}
+
+	/**
+	 * Walks the buckets of a range and returns the user names of the
+	 * accounts that are still in the bucket and on the requested side of
+	 * since
+	 */
+	private final class UserNameIterator implements Iterator<String> {
+
+		private final Iterator<Map.Entry<Long, Bucket>> range;
+
+		private final long since;
+
+		private final boolean active;
+
+		private long key;
+
+		private long[] ids = new long[0];
+
+		private int position;
+
+		private String next;
+
+		UserNameIterator(NavigableMap<Long, Bucket> range, long since,
+				boolean active) {
+			this.range = range.entrySet().iterator();
+			this.since = since;
+			this.active = active;
+		}
+
+		public boolean hasNext() {
+			while (null == next) {
+				if (position == ids.length) {
+					if (!range.hasNext()) {
+						return false;
+					}
+					Map.Entry<Long, Bucket> bucket = range.next();
+					key = bucket.getKey();
+					ids = bucket.getValue().toArray();
+					position = 0;
+					continue;
+				}
+				Login login = logins.get(ids[position++]);
+				// skip accounts that have moved on to another bucket
+				if (null != login && bucketOf(login.time) == key
+						&& (login.time > since) == active) {
+					next = login.userName;
+				}
+			}
+			return true;
+		}
+
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String userName = next;
+			next = null;
+			return userName;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -0,0 +1,534 @@
+package com.booxware.service;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.apache.log4j.Logger;
+import org.springframework.util.Base64Utils;
+
+import com.booxware.common.AccountStoreException;
+
+/**
+ * Hashes passwords with PBKDF2 on a bounded pool of its own threads, so that
+ * a burst of logins queues here instead of occupying the servlet threads. A
+ * hash that cannot be queued is rejected right away.
+ *
+ * A stored password is laid out as
+ *
+ * <pre>
+ * byte    format version
+ * int     PBKDF2 iterations
+ * byte    salt length
+ * bytes   salt
+ * bytes   PBKDF2WithHmacSHA256 key
+ * </pre>
+ *
+ * Hashes can also be requested asynchronously, as CompletableFutures that
+ * the hashing threads complete, so that the caller does not wait at all.
+ *
+ * Passwords stored before as Base64 of the clear text are still verified.
+ * Passwords with fewer iterations than the current ones, or in the Base64
+ * form, can be hashed again in the background after a successful login.
+ */
+public class PasswordHasher implements Closeable {
+
+	private static final byte FORMAT = 1;
+
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+	private static final int SALT_LENGTH = 16;
+
+	private static final int KEY_LENGTH = 32;
+
+	private final int iterations;
+
+	private final int queueCapacity;
+
+	private final long timeoutMillis;
+
+	private final ThreadPoolExecutor executor;
+
+	private final SecureRandom random = new SecureRandom();
+
+	private final LongAdder hashCount = new LongAdder();
+
+	private final LongAdder hashNanos = new LongAdder();
+
+	private final LongAdder queueNanos = new LongAdder();
+
+	private final LongAdder rejectedCount = new LongAdder();
+
+	private final LongAdder rehashCount = new LongAdder();
+
+	//thrown for every rejected hash while the hasher is overloaded
+	static final AccountStoreException TOO_MANY_REQUESTS = AccountStoreException
+			.stackless("Too many requests. Please try again later");
+
+	private static final Logger logger = Logger.getLogger(PasswordHasher.class
+			.getName());
+
+	/**
+	 * @param iterations
+	 *            - PBKDF2 iterations of new hashes
+	 * @param threads
+	 *            - number of threads that compute hashes
+	 * @param queueCapacity
+	 *            - number of hashes that may wait for a thread
+	 * @param timeoutMillis
+	 *            - time a caller waits for its hash
+	 */
+	public PasswordHasher(int iterations, int threads, int queueCapacity,
+			long timeoutMillis) {
+		this.iterations = iterations;
+		this.queueCapacity = queueCapacity;
+		this.timeoutMillis = timeoutMillis;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						queueCapacity), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "password-hasher-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Method to hash a password with a new salt
+	 *
+	 * @param password
+	 *            - password in clear text format
+	 * @return byte[]
+	 *            - the stored form of the password
+	 * @throws AccountStoreException
+	 *             - if the hasher is overloaded or the hash times out
+	 */
+	public byte[] hash(String password) throws AccountStoreException {
+		byte[] salt = newSalt();
+		return encode(salt, compute(password, salt, iterations));
+	}
+
+	/**
+	 * Method to hash several passwords with new salts. The hashes are computed
+	 * in parallel, but only half of the queue is taken at a time, so that
+	 * single requests are still accepted while a batch is hashed.
+	 *
+	 * @param passwords
+	 *            - passwords in clear text format
+	 * @return List
+	 *            - for each password its stored form, or null if the hasher
+	 *            was overloaded or the hash timed out
+	 */
+	public List<byte[]> hashAll(List<String> passwords) {
+		int window = Math.max(1, queueCapacity / 2);
+		int count = passwords.size();
+		byte[][] salts = new byte[count][];
+		// null where the hash was rejected
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(count);
+		List<byte[]> hashes = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			if (i - hashes.size() == window) {
+				collectNext(salts, futures, hashes);
+			}
+			salts[i] = newSalt();
+			Future<byte[]> future;
+			try {
+				future = submit(passwords.get(i), salts[i], iterations);
+			} catch (AccountStoreException e) {
+				future = null;
+			}
+			futures.add(future);
+		}
+		while (hashes.size() < count) {
+			collectNext(salts, futures, hashes);
+		}
+		return hashes;
+	}
+
+
+	/**
+	 * Method to check whether a stored password is weaker than the current
+	 * hashing parameters
+	 *
+	 * @param stored
+	 *            - stored form of the password
+	 * @return boolean
+	 *            - true if the password should be hashed again
+	 */
+	public boolean needsRehash(byte[] stored) {
+		return stored.length < 5 || stored[0] != FORMAT
+				|| ByteBuffer.wrap(stored, 1, 4).getInt() < iterations;
+	}
+
+	/**
+	 * Method to hash a password with the current parameters in the
+	 * background. Rehashes only use the free half of the queue, so that they
+	 * never cause logins to be rejected.
+	 *
+	 * @param password
+	 *            - password in clear text format, already verified
+	 * @param callback
+	 *            - receives the new stored form of the password
+	 * @return boolean
+	 *            - false if the rehash is skipped because the hasher is busy
+	 */
+	public boolean rehash(final String password, final RehashCallback callback) {
+		if (executor.getQueue().remainingCapacity() <= queueCapacity / 2) {
+			return false;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						byte[] salt = newSalt();
+						callback.onRehash(encode(salt,
+								derive(password, salt, iterations)));
+						rehashCount.increment();
+					} catch (GeneralSecurityException e) {
+						logger.error("Unable to rehash password", e);
+					} catch (RuntimeException e) {
+						logger.error("Unable to store rehashed password", e);
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Method to check a password against its stored form
+	 *
+	 * @param password
+	 *            - password in clear text format
+	 * @param stored
+	 *            - stored form of the password
+	 * @return boolean
+	 *            - true if the password matches
+	 * @throws AccountStoreException
+	 *             - if the hasher is overloaded or the hash times out
+	 */
+	public boolean verify(String password, byte[] stored)
+			throws AccountStoreException {
+		if (isLegacy(stored)) {
+			return MessageDigest.isEqual(
+					Base64Utils.encode(password.getBytes()), stored);
+		}
+		StoredPassword parsed = new StoredPassword(stored);
+		return MessageDigest.isEqual(parsed.key,
+				compute(password, parsed.salt, parsed.iterations));
+	}
+
+	/**
+	 * Method to hash a password with a new salt without waiting. The caller
+	 * holds no thread meanwhile, so there is no timeout; the bounded queue
+	 * limits how long a hash can wait.
+	 *
+	 * @param password
+	 *            - password in clear text format
+	 * @return CompletableFuture
+	 *            - the stored form of the password, or failed with
+	 *            AccountStoreException if the hasher is overloaded
+	 */
+	public CompletableFuture<byte[]> hashAsync(String password) {
+		final byte[] salt = newSalt();
+		final CompletableFuture<byte[]> hash = new CompletableFuture<byte[]>();
+		computeAsync(password, salt, iterations, new KeyCallback() {
+			public void onKey(byte[] key) {
+				hash.complete(encode(salt, key));
+			}
+		}, hash);
+		return hash;
+	}
+
+	/**
+	 * Method to check a password against its stored form without waiting
+	 *
+	 * @param password
+	 *            - password in clear text format
+	 * @param stored
+	 *            - stored form of the password
+	 * @return CompletableFuture
+	 *            - true if the password matches, or failed with
+	 *            AccountStoreException if the hasher is overloaded
+	 */
+	public CompletableFuture<Boolean> verifyAsync(String password, byte[] stored) {
+		if (isLegacy(stored)) {
+			return CompletableFuture.completedFuture(MessageDigest.isEqual(
+					Base64Utils.encode(password.getBytes()), stored));
+		}
+		final StoredPassword parsed = new StoredPassword(stored);
+		final CompletableFuture<Boolean> matches = new CompletableFuture<Boolean>();
+		computeAsync(password, parsed.salt, parsed.iterations,
+				new KeyCallback() {
+					public void onKey(byte[] key) {
+						matches.complete(MessageDigest.isEqual(parsed.key, key));
+					}
+				}, matches);
+		return matches;
+	}
+
+	/**
+	 * @return long
+	 *            - number of hashes computed
+	 */
+	public long getHashCount() {
+		return hashCount.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - number of passwords hashed again with the current parameters
+	 */
+	public long getRehashCount() {
+		return rehashCount.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - total time spent computing hashes, in nanoseconds
+	 */
+	public long getHashNanos() {
+		return hashNanos.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - total time hashes waited for a thread, in nanoseconds
+	 */
+	public long getQueueNanos() {
+		return queueNanos.sum();
+	}
+
+	/**
+	 * @return long
+	 *            - number of hashes rejected because the queue was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	/**
+	 * @return int
+	 *            - number of hashes waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return int
+	 *            - number of hashes being computed
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Stops the hashing threads
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private void collectNext(byte[][] salts, List<Future<byte[]>> futures,
+			List<byte[]> hashes) {
+		int next = hashes.size();
+		Future<byte[]> future = futures.set(next, null);
+		byte[] hash = null;
+		if (null != future) {
+			try {
+				hash = encode(salts[next], await(future));
+			} catch (AccountStoreException e) {
+				// timed out, reported like a rejected hash
+			}
+		}
+		hashes.add(hash);
+	}
+
+
+	private byte[] newSalt() {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		return salt;
+	}
+
+	private byte[] encode(byte[] salt, byte[] key) {
+		ByteBuffer stored = ByteBuffer.allocate(1 + 4 + 1 + salt.length
+				+ key.length);
+		stored.put(FORMAT).putInt(iterations).put((byte) salt.length)
+				.put(salt).put(key);
+		return stored.array();
+	}
+
+	/**
+	 * Computes the PBKDF2 key on the calling thread
+	 */
+	private byte[] derive(String password, byte[] salt, int iterations)
+			throws GeneralSecurityException {
+		long started = System.nanoTime();
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt,
+				iterations, KEY_LENGTH * 8);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec)
+					.getEncoded();
+		} finally {
+			spec.clearPassword();
+			hashCount.increment();
+			hashNanos.add(System.nanoTime() - started);
+		}
+	}
+
+	/**
+	 * Computes the PBKDF2 key on the pool and waits for it
+	 */
+	private byte[] compute(String password, byte[] salt, int iterations)
+			throws AccountStoreException {
+		return await(submit(password, salt, iterations));
+	}
+
+	/**
+	 * Queues the computation of a PBKDF2 key on the pool
+	 */
+	private Future<byte[]> submit(final String password, final byte[] salt,
+			final int iterations) throws AccountStoreException {
+		final long submitted = System.nanoTime();
+		try {
+			return executor.submit(new Callable<byte[]>() {
+				public byte[] call() throws GeneralSecurityException {
+					queueNanos.add(System.nanoTime() - submitted);
+					return derive(password, salt, iterations);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw rejected();
+		}
+	}
+
+	/**
+	 * Queues the computation of a PBKDF2 key on the pool, which hands it to
+	 * the callback or fails the future
+	 */
+	private void computeAsync(final String password, final byte[] salt,
+			final int iterations, final KeyCallback callback,
+			final CompletableFuture<?> future) {
+		final long submitted = System.nanoTime();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					queueNanos.add(System.nanoTime() - submitted);
+					try {
+						callback.onKey(derive(password, salt, iterations));
+					} catch (GeneralSecurityException | RuntimeException e) {
+						future.completeExceptionally(new IllegalStateException(
+								"Unable to hash password", e));
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(rejected().completion());
+		}
+	}
+
+	/**
+	 * Counts and logs a hash that the full queue rejects
+	 *
+	 * @return AccountStoreException - the exception to report it with
+	 */
+	private AccountStoreException rejected() {
+		rejectedCount.increment();
+		logger.warn("Password hash rejected, queue depth :" + getQueueDepth());
+		return TOO_MANY_REQUESTS;
+	}
+
+	/**
+	 * Waits for a PBKDF2 key, at most for the timeout
+	 */
+	private byte[] await(Future<byte[]> future) throws AccountStoreException {
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			logger.warn("Password hash timed out after " + timeoutMillis + " ms");
+			throw TOO_MANY_REQUESTS;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new AccountStoreException("Password check interrupted");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Unable to hash password",
+					e.getCause());
+		}
+	}
+
+	private static boolean isLegacy(byte[] stored) {
+		return stored.length == 0 || stored[0] != FORMAT;
+	}
+
+	/**
+	 * Iterations, salt and key of a stored password in the current format
+	 */
+	private static final class StoredPassword {
+
+		final int iterations;
+
+		final byte[] salt;
+
+		final byte[] key;
+
+		StoredPassword(byte[] stored) {
+			ByteBuffer buffer = ByteBuffer.wrap(stored);
+			buffer.get();
+			iterations = buffer.getInt();
+			salt = new byte[buffer.get()];
+			buffer.get(salt);
+			key = new byte[buffer.remaining()];
+			buffer.get(key);
+		}
+	}
+
+	/**
+	 * Receives a PBKDF2 key on the hashing thread
+	 */
+	private interface KeyCallback {
+
+		void onKey(byte[] key);
+	}
+
+	/**
+	 * Receives the result of a rehash
+	 */
+	public interface RehashCallback {
+
+		/**
+		 * @param stored
+		 *            - the new stored form of the password
+		 */
+		void onRehash(byte[] stored);
+	}
+
+}
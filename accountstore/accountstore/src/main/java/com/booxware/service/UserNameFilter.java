@@ -0,0 +1,235 @@
+package com.booxware.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dto.Account;
+
+/**
+ * Counting Bloom filter of the registered user names, so that logins for
+ * user names that do not exist can be rejected without a lookup in the
+ * repository.
+ *
+ * Each user name increments the 4 bit counters of its hash positions and a
+ * deletion decrements them again. A counter that reached its maximum is never
+ * decremented, as it no longer knows how many names share it. The filter may
+ * therefore answer that an unknown user name might exist, but never that a
+ * registered user name does not. Counters are updated with a compare-and-set,
+ * so the filter needs no lock.
+ */
+public class UserNameFilter {
+
+	private static final int COUNTER_BITS = 4;
+
+	private static final long COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+
+	private static final int COUNTERS_PER_WORD = 64 / COUNTER_BITS;
+
+	private final AtomicLongArray counters;
+
+	private final long counterCount;
+
+	private final int hashCount;
+
+	private final LongAdder rejectedCount = new LongAdder();
+
+	/**
+	 * @param expectedUserNames
+	 *            - number of user names the filter is sized for
+	 * @param falsePositiveRate
+	 *            - share of unknown user names that pass the filter, at the
+	 *            expected number of user names
+	 */
+	public UserNameFilter(long expectedUserNames, double falsePositiveRate) {
+		if (expectedUserNames <= 0 || falsePositiveRate <= 0
+				|| falsePositiveRate >= 1) {
+			throw new IllegalArgumentException(
+					"Invalid user name filter size: " + expectedUserNames
+							+ ", false positive rate: " + falsePositiveRate);
+		}
+		double bits = -expectedUserNames * Math.log(falsePositiveRate)
+				/ (Math.log(2) * Math.log(2));
+		long words = Math.max(1, (long) Math.ceil(bits / COUNTERS_PER_WORD));
+		if (words > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException(
+					"User name filter too large for " + expectedUserNames
+							+ " user names");
+		}
+		this.counters = new AtomicLongArray((int) words);
+		this.counterCount = words * COUNTERS_PER_WORD;
+		this.hashCount = Math.max(1,
+				(int) Math.round(counterCount / (double) expectedUserNames * Math.log(2)));
+	}
+
+	/**
+	 * Method to create a filter of the user names of all stored accounts
+	 *
+	 * @param accountStoreDao
+	 *            - repository to read the accounts from
+	 * @param expectedUserNames
+	 *            - number of user names the filter is sized for
+	 * @param falsePositiveRate
+	 *            - share of unknown user names that pass the filter
+	 * @return UserNameFilter
+	 *            - filter that contains the stored user names
+	 */
+	public static UserNameFilter load(AccountStoreDao accountStoreDao,
+			long expectedUserNames, double falsePositiveRate) {
+		UserNameFilter filter = new UserNameFilter(expectedUserNames,
+				falsePositiveRate);
+		for (Account account : accountStoreDao.findAll()) {
+			filter.add(account.getUserName());
+		}
+		return filter;
+	}
+
+	/**
+	 * Method to add a user name
+	 *
+	 * @param userName
+	 *            - Name of the user
+	 */
+	public void add(String userName) {
+		long hash = hash(userName);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			increment(position(first + i * second));
+		}
+	}
+
+	/**
+	 * Method to remove a user name that was added before
+	 *
+	 * @param userName
+	 *            - Name of the user
+	 */
+	public void remove(String userName) {
+		long hash = hash(userName);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			decrement(position(first + i * second));
+		}
+	}
+
+	/**
+	 * Method to check whether a user name might have been added, before it is
+	 * looked up. A user name that has certainly not been added is counted as
+	 * rejected.
+	 *
+	 * @param userName
+	 *            - Name of the user
+	 * @return boolean
+	 *            - false if the user name has certainly not been added
+	 */
+	public boolean mightContain(String userName) {
+		if (mightBeTaken(userName)) {
+			return true;
+		}
+		rejectedCount.increment();
+		return false;
+	}
+
+	/**
+	 * Method to check whether a new user name might be taken already, without
+	 * counting it as rejected
+	 *
+	 * @param userName
+	 *            - Name of the user
+	 * @return boolean
+	 *            - false if the user name has certainly not been added
+	 */
+	public boolean mightBeTaken(String userName) {
+		long hash = hash(userName);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			if (counter(position(first + i * second)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return long
+	 *            - number of user names of lookups rejected by the filter
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	/**
+	 * @return int
+	 *            - number of counters each user name sets
+	 */
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/**
+	 * @return long
+	 *            - number of counters of the filter
+	 */
+	public long getCounterCount() {
+		return counterCount;
+	}
+
+	private long position(int hash) {
+		return (hash & 0xFFFFFFFFL) % counterCount;
+	}
+
+	private long counter(long position) {
+		long word = counters.get((int) (position / COUNTERS_PER_WORD));
+		return (word >>> shift(position)) & COUNTER_MAX;
+	}
+
+	private void increment(long position) {
+		int index = (int) (position / COUNTERS_PER_WORD);
+		int shift = shift(position);
+		long word;
+		do {
+			word = counters.get(index);
+			if (((word >>> shift) & COUNTER_MAX) == COUNTER_MAX) {
+				return;
+			}
+		} while (!counters.compareAndSet(index, word, word + (1L << shift)));
+	}
+
+	private void decrement(long position) {
+		int index = (int) (position / COUNTERS_PER_WORD);
+		int shift = shift(position);
+		long word;
+		do {
+			word = counters.get(index);
+			long counter = (word >>> shift) & COUNTER_MAX;
+			// a saturated counter may be shared by more names than it counts
+			if (counter == 0 || counter == COUNTER_MAX) {
+				return;
+			}
+		} while (!counters.compareAndSet(index, word, word - (1L << shift)));
+	}
+
+	private static int shift(long position) {
+		return (int) (position % COUNTERS_PER_WORD) * COUNTER_BITS;
+	}
+
+	/**
+	 * 64 bit FNV-1a of the characters, mixed with the MurmurHash3 finalizer.
+	 * The two halves serve as the two hashes the positions are derived from.
+	 */
+	private static long hash(String userName) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < userName.length(); i++) {
+			hash = (hash ^ userName.charAt(i)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.booxware.common;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for RingBufferAppender
+ */
+public class RingBufferAppenderTest {
+
+	private final List<LoggingEvent> received = Collections
+			.synchronizedList(new ArrayList<LoggingEvent>());
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private boolean blocking;
+
+	RingBufferAppender appender = null;
+	Logger logger = Logger.getLogger(RingBufferAppenderTest.class.getName());
+
+	@Before
+	public void setUp() {
+		logger.setAdditivity(false);
+		logger.setLevel(Level.ALL);
+		appender = open(16);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		logger.removeAppender(appender);
+		appender.close();
+	}
+
+	private RingBufferAppender open(int bufferSize) {
+		RingBufferAppender opened = new RingBufferAppender();
+		opened.setName("test");
+		opened.setBufferSize(bufferSize);
+		opened.addAppender(new AppenderSkeleton() {
+			protected void append(LoggingEvent event) {
+				if (blocking) {
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				received.add(event);
+			}
+
+			public void close() {
+			}
+
+			public boolean requiresLayout() {
+				return false;
+			}
+		});
+		opened.activateOptions();
+		logger.addAppender(opened);
+		return opened;
+	}
+
+	/**
+	 * Method to test that the events of several threads are all dispatched,
+	 * in order per thread and with the name of the logging thread
+	 */
+	@Test
+	public void testEventsOfAllThreadsAreDispatched() throws Exception {
+		final int perThread = 1000;
+		logger.removeAppender(appender);
+		appender.close();
+		appender = open(4 * perThread);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int number = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						logger.info(number + ":" + i);
+					}
+				}
+			}, "logger-" + t);
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		appender.close();
+		assertEquals(threads.length * perThread, received.size());
+		int[] next = new int[threads.length];
+		for (LoggingEvent event : received) {
+			String[] parts = ((String) event.getMessage()).split(":");
+			int number = Integer.parseInt(parts[0]);
+			assertEquals("logger-" + number, event.getThreadName());
+			assertEquals(next[number]++, Integer.parseInt(parts[1]));
+		}
+		assertEquals(0, appender.getDroppedCount());
+	}
+
+	/**
+	 * Method to test that events are dropped instead of blocking when the
+	 * buffer is full, and that the drops are reported
+	 */
+	@Test
+	public void testFullBufferDropsEvents() throws Exception {
+		blocking = true;
+		for (int i = 0; i < 100; i++) {
+			logger.info("event " + i);
+		}
+		assertTrue(appender.getDroppedCount() > 0);
+		release.countDown();
+		appender.close();
+		// reported after the event that was being dispatched
+		LoggingEvent report = received.get(1);
+		assertEquals(Level.WARN, report.getLevel());
+		assertEquals(appender.getDroppedCount() + " log events dropped, buffer size 16",
+				report.getRenderedMessage());
+		assertEquals(100 - appender.getDroppedCount() + 1, received.size());
+	}
+
+	/**
+	 * Method to test that passwords in messages are masked
+	 */
+	@Test
+	public void testCredentialsAreRedacted() {
+		assertEquals("PUT request for [/update/Alex/****]",
+				RingBufferAppender.redact("PUT request for [/update/Alex/secret]"));
+		assertEquals("GET /create/Alex/****/alex@gmail.com",
+				RingBufferAppender.redact("GET /create/Alex/secret/alex@gmail.com"));
+		assertEquals("user=Alex&password=****&email=alex@gmail.com",
+				RingBufferAppender.redact("user=Alex&password=secret&email=alex@gmail.com"));
+		String unchanged = "Password is invalid";
+		assertSame(unchanged, RingBufferAppender.redact(unchanged));
+
+		logger.info("GET /create/Alex/secret/alex@gmail.com");
+		appender.close();
+		assertEquals("GET /create/Alex/****/alex@gmail.com", received.get(0)
+				.getRenderedMessage());
+	}
+
+}
@@ -0,0 +1,193 @@
+package com.booxware.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test class for RequestExecutorFilter
+ */
+public class RequestExecutorFilterTest {
+
+	private final HttpServletResponse response = mock(HttpServletResponse.class);
+
+	private final AsyncContext async = mock(AsyncContext.class);
+
+	private HttpServletRequest request(String servletPath) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+		when(request.isAsyncSupported()).thenReturn(true);
+		when(request.getServletPath()).thenReturn(servletPath);
+		when(request.startAsync(request, response)).thenReturn(async);
+		return request;
+	}
+
+	/**
+	 * Method to test that the requests run on the calling thread in the
+	 * servlet mode
+	 */
+	@Test
+	public void testServletMode() throws Exception {
+		RequestExecutorFilter filter = new RequestExecutorFilter(
+				ExecutionMode.of("servlet"), 1, 1, 1000);
+		HttpServletRequest request = request("/accounts");
+		FilterChain chain = mock(FilterChain.class);
+
+		filter.doFilter(request, response, chain);
+
+		verify(chain).doFilter(request, response);
+		verify(request, never()).startAsync(request, response);
+		filter.close();
+	}
+
+	/**
+	 * Method to test that the chain runs on a platform thread of the filter,
+	 * with the paths the request had when it came in
+	 */
+	@Test
+	public void testPlatformMode() throws Exception {
+		RequestExecutorFilter filter = new RequestExecutorFilter(
+				ExecutionMode.of("Platform"), 1, 1, 1000);
+		HttpServletRequest request = request("/accounts");
+		final AtomicReference<String> servletPath = new AtomicReference<String>();
+		final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+		FilterChain chain = new FilterChain() {
+			public void doFilter(ServletRequest request, ServletResponse response) {
+				servletPath.set(((HttpServletRequest) request).getServletPath());
+				thread.set(Thread.currentThread());
+			}
+		};
+
+		filter.doFilter(request, response, chain);
+		// the container resets the paths once the filter returns
+		when(request.getServletPath()).thenReturn(null);
+
+		verify(async, timeout(5000)).complete();
+		verify(async).setTimeout(1000);
+		assertEquals("/accounts", servletPath.get());
+		assertNotSame(Thread.currentThread(), thread.get());
+		filter.close();
+	}
+
+	/**
+	 * Method to test that a request is rejected with 503 while the platform
+	 * threads and their queue are full
+	 */
+	@Test
+	public void testPlatformModeRejects() throws Exception {
+		RequestExecutorFilter filter = new RequestExecutorFilter(
+				ExecutionMode.PLATFORM, 1, 1, 0);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		FilterChain chain = mock(FilterChain.class);
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return null;
+			}
+		}).when(chain).doFilter(any(ServletRequest.class),
+				any(ServletResponse.class));
+
+		filter.doFilter(request("/a"), response, chain);
+		started.await(5, TimeUnit.SECONDS);
+		filter.doFilter(request("/b"), response, chain);
+		filter.doFilter(request("/c"), response, chain);
+
+		verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		release.countDown();
+		verify(async, timeout(5000).times(3)).complete();
+		filter.close();
+	}
+
+	/**
+	 * Method to test that the virtual mode needs a JDK with virtual threads
+	 */
+	@Test
+	public void testVirtualMode() throws Exception {
+		boolean virtualThreads;
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			virtualThreads = true;
+		} catch (NoSuchMethodException e) {
+			virtualThreads = false;
+		}
+		try {
+			RequestExecutorFilter filter = new RequestExecutorFilter(
+					ExecutionMode.VIRTUAL, 1, 1, 1000);
+			assertTrue(virtualThreads);
+			filter.close();
+		} catch (IllegalStateException e) {
+			assertFalse(virtualThreads);
+		}
+	}
+
+	/**
+	 * Method to test that an unknown mode is a configuration error
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testUnknownMode() {
+		ExecutionMode.of("reactive");
+	}
+
+	/**
+	 * Method to test that the chain takes over the asynchronous processing
+	 * of the filter, and that its dispatch waits until the chain returns
+	 */
+	@Test
+	public void testPlatformModeHandsOverAsync() throws Exception {
+		RequestExecutorFilter filter = new RequestExecutorFilter(
+				ExecutionMode.PLATFORM, 1, 1, 1000);
+		final AtomicBoolean dispatched = new AtomicBoolean();
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				dispatched.set(true);
+				return null;
+			}
+		}).when(async).dispatch();
+		final AtomicBoolean startedInChain = new AtomicBoolean();
+		final AtomicBoolean dispatchedInChain = new AtomicBoolean(true);
+		FilterChain chain = new FilterChain() {
+			public void doFilter(ServletRequest request, ServletResponse response) {
+				request.startAsync(request, response).dispatch();
+				startedInChain.set(request.isAsyncStarted());
+				dispatchedInChain.set(dispatched.get());
+			}
+		};
+
+		filter.doFilter(request("/accounts"), response, chain);
+
+		verify(async, timeout(5000)).dispatch();
+		verify(async, never()).complete();
+		assertTrue(startedInChain.get());
+		assertFalse(dispatchedInChain.get());
+		filter.close();
+	}
+
+}
@@ -5,9 +5,26 @@ package com.booxware.controller;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -16,10 +33,20 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import com.booxware.common.AccountStoreException;
 import com.booxware.dto.Account;
+import com.booxware.dto.AccountRequest;
+import com.booxware.dto.BatchRequest;
+import com.booxware.dto.BatchResponse;
+import com.booxware.dto.BatchResult;
+import com.booxware.metrics.Operation;
+import com.booxware.metrics.OperationMetrics;
+import com.booxware.metrics.Outcome;
+import com.booxware.service.AccountFormat;
 import com.booxware.service.AccountStoreService;
+import com.booxware.service.AccountTransfer;
 
 /**
  * Test for AccountStoreController
@@ -30,6 +57,9 @@ public class AccountStoreControllerTest {
 	@Mock
 	AccountStoreService acctStoreServiceMock;
 
+	@Mock
+	AccountTransfer accountTransferMock;
+
 	@InjectMocks
 	AccountStoreController accountStoreController;
 	
@@ -51,10 +81,11 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testSuccessCreateAccount() throws AccountStoreException {
 		when(
-				acctStoreServiceMock.createAccount(anyString(), anyString(),
-						anyString())).thenReturn(accountMock);
-		ResponseEntity<String> response = accountStoreController.createAccount(
-				"Alex", "secretpass", "alex@gmail.com");
+				acctStoreServiceMock.createAccountAsync(anyString(), anyString(),
+						anyString())).thenReturn(
+				CompletableFuture.completedFuture(accountMock));
+		ResponseEntity<?> response = response(accountStoreController.createAccount(
+				"Alex", "secretpass", "alex@gmail.com"));
 		assertEquals("Account ID:" + 1000, response.getBody());
 	}
 
@@ -63,8 +94,8 @@ public class AccountStoreControllerTest {
 	 */
 	public final void testCreateAccountWithNullUserName()
 			 {
-		ResponseEntity<String> response = accountStoreController.createAccount(null, "secretpass",
-				"alex@gmail.com");
+		ResponseEntity<?> response = response(accountStoreController.createAccount(null, "secretpass",
+				"alex@gmail.com"));
 		assertEquals("Username, email and password fields are mandatory to create an account", response.getBody());
 		
 	}
@@ -75,8 +106,8 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testCreateAccountWithEmptyUserName()
 			throws AccountStoreException {
-		ResponseEntity<String> response = accountStoreController
-				.createAccount("", "secretpass", "alex@gmail.com");
+		ResponseEntity<?> response = response(accountStoreController
+				.createAccount("", "secretpass", "alex@gmail.com"));
 		assertEquals(
 				"Username, email and password fields are mandatory to create an account",
 				response.getBody());
@@ -88,7 +119,7 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testCreateAccountWithNullPassword()
 			throws AccountStoreException {
-		ResponseEntity<String> response = accountStoreController.createAccount("Alex", null, "alex@gmail.com");
+		ResponseEntity<?> response = response(accountStoreController.createAccount("Alex", null, "alex@gmail.com"));
 		assertEquals(
 				"Username, email and password fields are mandatory to create an account",
 				response.getBody());
@@ -100,7 +131,7 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testCreateAccountWithEmptyPassword()
 			throws AccountStoreException {
-		ResponseEntity<String> response = accountStoreController.createAccount("Alex", "", "alex@gmail.com");
+		ResponseEntity<?> response = response(accountStoreController.createAccount("Alex", "", "alex@gmail.com"));
 		assertEquals(
 				"Username, email and password fields are mandatory to create an account",
 				response.getBody());
@@ -112,7 +143,7 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testCreateAccountWithNullEmail()
 			throws AccountStoreException {
-		ResponseEntity<String> response = accountStoreController.createAccount("Alex", "secretpass", null);
+		ResponseEntity<?> response = response(accountStoreController.createAccount("Alex", "secretpass", null));
 		assertEquals(
 				"Username, email and password fields are mandatory to create an account",
 				response.getBody());
@@ -124,7 +155,7 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testCreateAccountWithEmptyEmail()
 			throws AccountStoreException {
-		ResponseEntity<String> response = accountStoreController.createAccount("Alex", "secretpass", "");
+		ResponseEntity<?> response = response(accountStoreController.createAccount("Alex", "secretpass", ""));
 		assertEquals(
 				"Username, email and password fields are mandatory to create an account",
 				response.getBody());
@@ -135,10 +166,10 @@ public class AccountStoreControllerTest {
 	 */
 	@Test
 	public final void testSuccessUpdateAccount() throws AccountStoreException {
-		when(acctStoreServiceMock.updateAccount(anyString(), anyString()))
-				.thenReturn(accountMock);
-		ResponseEntity<String> response = accountStoreController.updateAccount(
-				"Alex", "secretpass");
+		when(acctStoreServiceMock.updateAccountAsync(anyString(), anyString()))
+				.thenReturn(CompletableFuture.completedFuture(accountMock));
+		ResponseEntity<?> response = response(accountStoreController.updateAccount(
+				"Alex", "secretpass"));
 		assertEquals("Account updated time:" + accountMock.getLastLogin(),
 				response.getBody());
 
@@ -148,7 +179,7 @@ public class AccountStoreControllerTest {
 	 * Test method for failure scenario of UpdateAccount when user name is null
 	 */
 	public final void testUpdateAccountWithNullUserName(){			 
-		ResponseEntity<String> response = accountStoreController.updateAccount(null, "secretpass");
+		ResponseEntity<?> response = response(accountStoreController.updateAccount(null, "secretpass"));
 		assertEquals("Username and password are mandatory to update an account", response.getBody());
 	}
 
@@ -157,7 +188,7 @@ public class AccountStoreControllerTest {
 	 */
 	@Test
 	public final void testUpdateAccountWithEmptyUserName(){
-		ResponseEntity<String> response = accountStoreController.updateAccount("", "secretpass");
+		ResponseEntity<?> response = response(accountStoreController.updateAccount("", "secretpass"));
 		assertEquals("Username and password are mandatory to update an account", response.getBody());
 	}
 
@@ -167,7 +198,7 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testUpdateAccountWithNullPassword()
 			throws AccountStoreException {
-		ResponseEntity<String> response = accountStoreController.updateAccount("Alex", null);
+		ResponseEntity<?> response = response(accountStoreController.updateAccount("Alex", null));
 		assertEquals("Username and password are mandatory to update an account", response.getBody());
 	}
 
@@ -177,7 +208,7 @@ public class AccountStoreControllerTest {
 	@Test
 	public final void testUpdateAccountWithEmptyPassword()
 			throws AccountStoreException {
-		ResponseEntity<String> response = accountStoreController.updateAccount("Alex", "");
+		ResponseEntity<?> response = response(accountStoreController.updateAccount("Alex", ""));
 		assertEquals("Username and password are mandatory to update an account", response.getBody());
 	}
 
@@ -186,7 +217,9 @@ public class AccountStoreControllerTest {
 	 */
 	@Test
 	public final void testDeleteAccount() {
-		ResponseEntity<String> response = accountStoreController.deleteAccount("Alex");
+		when(acctStoreServiceMock.deleteAccountAsync("Alex")).thenReturn(
+				CompletableFuture.<Void> completedFuture(null));
+		ResponseEntity<?> response = response(accountStoreController.deleteAccount("Alex"));
 		assertEquals("Account deleted Successfully", response.getBody());
 	}
 	
@@ -194,7 +227,7 @@ public class AccountStoreControllerTest {
 	 * Test method for failure scenario of delete account when user name is null
 	 */
 	public final void testDeleteAccountWithNullUserName(){			 
-		ResponseEntity<String> response = accountStoreController.deleteAccount(null);
+		ResponseEntity<?> response = response(accountStoreController.deleteAccount(null));
 		assertEquals("Username is mandatory to delete an account", response.getBody());
 	}
 
@@ -203,7 +236,7 @@ public class AccountStoreControllerTest {
 	 */
 	@Test
 	public final void testDeleteAccountWithEmptyUserName(){
-		ResponseEntity<String> response = accountStoreController.deleteAccount("");
+		ResponseEntity<?> response = response(accountStoreController.deleteAccount(""));
 		assertEquals("Username is mandatory to delete an account", response.getBody());
 	}
 
@@ -214,10 +247,10 @@ public class AccountStoreControllerTest {
 	public final void testSuccessHasLoggedInSince()
 			throws AccountStoreException {
 		Date date = new Date();
-		when(acctStoreServiceMock.hasLoggedInSince("Alex", date))
-				.thenReturn(true);
-		ResponseEntity<String> response = accountStoreController
-				.hasLoggedInSince("Alex", date);
+		when(acctStoreServiceMock.hasLoggedInSinceAsync("Alex", date))
+				.thenReturn(CompletableFuture.completedFuture(true));
+		ResponseEntity<?> response = response(accountStoreController
+				.hasLoggedInSince("Alex", date));
 		assertEquals("User login status since" + date + ":" + true,
 				response.getBody());
 	}
@@ -226,7 +259,7 @@ public class AccountStoreControllerTest {
 	 * Test method for failure scenario of HasLoggedInSince when user name is null
 	 */
 	public final void testHasLoggedInSinceWithNullUserName(){			 
-		ResponseEntity<String> response = accountStoreController.hasLoggedInSince(null, new Date());
+		ResponseEntity<?> response = response(accountStoreController.hasLoggedInSince(null, new Date()));
 		assertEquals("Username and Date is mandatory to verify the last login", response.getBody());
 	}
 
@@ -235,8 +268,274 @@ public class AccountStoreControllerTest {
 	 */
 	@Test
 	public final void testHasLoggedInSinceWithEmptyUserName(){
-		ResponseEntity<String> response = accountStoreController.hasLoggedInSince("", new Date());
+		ResponseEntity<?> response = response(accountStoreController.hasLoggedInSince("", new Date()));
 		assertEquals("Username and Date is mandatory to verify the last login", response.getBody());
 	}
 	
+	/**
+	 * Test method for failure scenario of Update Account when the password
+	 * is invalid, which completes the result with the error message
+	 */
+	@Test
+	public final void testUpdateAccountWithInvalidPassword() {
+		AccountStoreException invalidPassword = new AccountStoreException(
+				"Password is invalid");
+		CompletableFuture<Account> failed = new CompletableFuture<Account>();
+		failed.completeExceptionally(new CompletionException(invalidPassword));
+		when(acctStoreServiceMock.updateAccountAsync("Alex", "wrongpass"))
+				.thenReturn(failed);
+		ResponseEntity<?> response = response(accountStoreController
+				.updateAccount("Alex", "wrongpass"));
+		assertEquals(invalidPassword.toString(), response.getBody());
+	}
+
+	/**
+	 * Test method for the result of Create Account, which is set only once
+	 * the service completes it
+	 */
+	@Test
+	public final void testCreateAccountCompletesLater() {
+		CompletableFuture<Account> created = new CompletableFuture<Account>();
+		when(
+				acctStoreServiceMock.createAccountAsync("Alex",
+						"alex@gmail.com", "secretpass")).thenReturn(created);
+		DeferredResult<ResponseEntity<String>> result = accountStoreController
+				.createAccount("Alex", "secretpass", "alex@gmail.com");
+		assertFalse(result.hasResult());
+		created.complete(accountMock);
+		assertEquals("Account ID:" + 1000, response(result).getBody());
+	}
+
+	/**
+	 * Test method for an unexpected failure of Delete Account, which is
+	 * handed to Spring as the error result
+	 */
+	@Test
+	public final void testDeleteAccountWithUnexpectedFailure() {
+		IllegalStateException failure = new IllegalStateException("disk full");
+		CompletableFuture<Void> failed = new CompletableFuture<Void>();
+		failed.completeExceptionally(new CompletionException(failure));
+		when(acctStoreServiceMock.deleteAccountAsync("Alex")).thenReturn(failed);
+		assertSame(failure, accountStoreController.deleteAccount("Alex")
+				.getResult());
+	}
+
+	private static ResponseEntity<?> response(
+			DeferredResult<ResponseEntity<String>> result) {
+		assertTrue(result.hasResult());
+		return (ResponseEntity<?>) result.getResult();
+	}
+
+	/**
+	 * Test method for the account listing, streamed in batches with the
+	 * cursor of the next page
+	 */
+	@Test
+	public final void testListAccounts() throws Exception {
+		List<Account> first = new ArrayList<Account>();
+		for (int i = 0; i < AccountStoreController.LIST_BATCH_SIZE; i++) {
+			Account account = new Account("Alex" + (1000 + i), new byte[0],
+					"alex@gmail.com", null);
+			account.setId(i);
+			first.add(account);
+		}
+		when(acctStoreServiceMock.findByPrefix("Alex",
+				AccountStoreController.LIST_BATCH_SIZE, null)).thenReturn(first);
+		when(acctStoreServiceMock.findByPrefix("Alex", 4, "Alex1255"))
+				.thenReturn(Arrays.asList(accountMock));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		accountStoreController.listAccounts("Alex",
+				AccountStoreController.LIST_BATCH_SIZE + 4, null, response);
+
+		verify(response).setContentType("application/json;charset=UTF-8");
+		String json = body.toString("UTF-8");
+		assertTrue(json.startsWith("{\"accounts\":[{\"id\":0,\"userName\":\"Alex1000\","
+				+ "\"email\":\"alex@gmail.com\",\"lastLogin\":null},"));
+		assertTrue(json.endsWith(",{\"id\":1000,\"userName\":\"Alex\",\"email\":\"alex@gmail.com\","
+				+ "\"lastLogin\":" + accountMock.getLastLoginTime() + "}],\"nextCursor\":null}"));
+		assertFalse(json.contains("secretpass"));
+	}
+
+	/**
+	 * Test method for the account listing when the page is full
+	 */
+	@Test
+	public final void testListAccountsFullPage() throws Exception {
+		when(acctStoreServiceMock.findByPrefix("", 1, "Adam")).thenReturn(
+				Arrays.asList(accountMock));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		accountStoreController.listAccounts("", 1, "Adam", mockResponse(body));
+
+		assertTrue(body.toString("UTF-8").endsWith("],\"nextCursor\":\"Alex\"}"));
+	}
+
+	/**
+	 * Test method for the account listing with an empty result
+	 */
+	@Test
+	public final void testListAccountsEmpty() throws Exception {
+		when(acctStoreServiceMock.findByPrefix("Zed", 100, null)).thenReturn(
+				Collections.<Account> emptyList());
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		accountStoreController.listAccounts("Zed", 100, null, mockResponse(body));
+
+		assertEquals("{\"accounts\":[],\"nextCursor\":null}",
+				body.toString("UTF-8"));
+	}
+
+	/**
+	 * Test method for the account listing with a limit out of range
+	 */
+	@Test
+	public final void testListAccountsWithInvalidLimit() throws Exception {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter body = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+		accountStoreController.listAccounts("", 0, null, response);
+
+		assertEquals("Limit must be between 1 and "
+				+ AccountStoreController.MAX_LIST_LIMIT, body.toString());
+	}
+
+	private static HttpServletResponse mockResponse(
+			final ByteArrayOutputStream body) throws IOException {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			public void write(int b) {
+				body.write(b);
+			}
+		});
+		return response;
+	}
+
+	/**
+	 * Test method for the count and list of dormant accounts
+	 */
+	@Test
+	public final void testListDormantAccounts() throws Exception {
+		Date since = new Date(1000);
+		when(acctStoreServiceMock.countDormantSince(since)).thenReturn(3L);
+		when(acctStoreServiceMock.findDormantSince(since)).thenReturn(
+				Arrays.asList("Alex", "Bob", "Carl"));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		accountStoreController.listDormantAccounts(1000, 2, mockResponse(body));
+
+		assertEquals("{\"since\":1000,\"count\":3,\"userNames\":[\"Alex\",\"Bob\"]}",
+				body.toString("UTF-8"));
+	}
+
+	/**
+	 * Test method for a bulk request with creates, deletes and login checks
+	 */
+	@Test
+	public final void testBatch() {
+		List<AccountRequest> create = Arrays.asList(new AccountRequest("Alex",
+				"alex@gmail.com", "secretpass"));
+		List<BatchResult> created = Arrays.asList(BatchResult
+				.created(accountMock));
+		List<BatchResult> deleted = Arrays.asList(BatchResult.deleted("Bob"));
+		List<BatchResult> checked = Arrays.asList(BatchResult.loggedIn("Alex",
+				true));
+		when(acctStoreServiceMock.createAccounts(create)).thenReturn(created);
+		when(acctStoreServiceMock.deleteAccounts(Arrays.asList("Bob")))
+				.thenReturn(deleted);
+		when(
+				acctStoreServiceMock.hasLoggedInSince(Arrays.asList("Alex"),
+						new Date(1000))).thenReturn(checked);
+		BatchRequest request = new BatchRequest();
+		request.setCreate(create);
+		request.setDelete(Arrays.asList("Bob"));
+		request.setLoginCheck(Arrays.asList("Alex"));
+		request.setSince(1000L);
+		BatchResponse response = accountStoreController.batch(request)
+				.getBody();
+		assertNull(response.getMessage());
+		assertEquals(created, response.getCreated());
+		assertEquals(deleted, response.getDeleted());
+		assertEquals(checked, response.getLoginChecked());
+	}
+
+	/**
+	 * Test method for a bulk request that is too large or lacks the time of
+	 * its login checks
+	 */
+	@Test
+	public final void testBatchRejected() {
+		BatchRequest request = new BatchRequest();
+		request.setDelete(Collections.nCopies(
+				AccountStoreController.MAX_BATCH_SIZE + 1, "Bob"));
+		assertEquals("Batch must not have more than "
+				+ AccountStoreController.MAX_BATCH_SIZE + " items",
+				accountStoreController.batch(request).getBody().getMessage());
+		request.setDelete(null);
+		request.setLoginCheck(Arrays.asList("Alex"));
+		assertEquals("Since is mandatory to check logins",
+				accountStoreController.batch(request).getBody().getMessage());
+		verifyZeroInteractions(acctStoreServiceMock);
+	}
+
+	/**
+	 * Test method for the export of accounts as CSV
+	 */
+	@Test
+	public final void testExportAccounts() throws Exception {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		accountStoreController.exportAccounts("CSV", response);
+
+		verify(response).setContentType("text/csv;charset=UTF-8");
+		verify(accountTransferMock).exportAccounts(response.getOutputStream(),
+				AccountFormat.CSV);
+	}
+
+	/**
+	 * Test method for an import and an export in an unknown format
+	 */
+	@Test
+	public final void testTransferWithInvalidFormat() throws Exception {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter body = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+		accountStoreController.exportAccounts("xml", response);
+
+		assertEquals("Format must be ndjson or csv", body.toString());
+		assertEquals("Format must be ndjson or csv", accountStoreController
+				.importAccounts("xml", mock(HttpServletRequest.class)).getBody()
+				.getMessage());
+		verifyZeroInteractions(accountTransferMock);
+	}
+
+	/**
+	 * Test method for the metrics in the Prometheus text format, and without
+	 * metrics
+	 */
+	@Test
+	public final void testMetrics() throws Exception {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter body = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+		accountStoreController.metrics(response);
+
+		assertEquals("Metrics are not enabled", body.toString());
+
+		accountStoreController.operationMetrics = new OperationMetrics();
+		accountStoreController.operationMetrics.record(Operation.LOGIN,
+				Outcome.SUCCESS, System.nanoTime());
+		body.getBuffer().setLength(0);
+
+		accountStoreController.metrics(response);
+
+		verify(response).setContentType(OperationMetrics.PROMETHEUS_CONTENT_TYPE);
+		assertTrue(body.toString().contains(
+				"accountstore_operations_total{operation=\"login\",outcome=\"success\"} 1\n"));
+	}
 }
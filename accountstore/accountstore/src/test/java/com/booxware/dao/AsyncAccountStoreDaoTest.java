@@ -0,0 +1,81 @@
+package com.booxware.dao;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.booxware.dto.Account;
+
+/**
+ * Test class for AsyncAccountStoreDao
+ */
+public class AsyncAccountStoreDaoTest {
+
+	AccountStoreDao delegate = null;
+	AsyncAccountStoreDao daoImpl = null;
+	Account acct = null;
+
+	@Before
+	public void setUp() {
+		delegate = spy(new ConcurrentAccountStoreDaoImpl());
+		daoImpl = new AsyncAccountStoreDao(delegate, 2);
+		byte[] encryptedPassword = new String("secretpass").getBytes();
+		acct = new Account("Alex", encryptedPassword, "alex@gmail.com",
+				new Date());
+	}
+
+	@After
+	public void tearDown() {
+		daoImpl.close();
+	}
+
+	/**
+	 * Method to test that the calls reach the store on the threads of the
+	 * AsyncAccountStoreDao
+	 */
+	@Test
+	public void testCallsOnThreads() throws Exception {
+		final String[] thread = new String[1];
+		doAnswer(new Answer<Account>() {
+			public Account answer(InvocationOnMock invocation) throws Throwable {
+				thread[0] = Thread.currentThread().getName();
+				return (Account) invocation.callRealMethod();
+			}
+		}).when(delegate).findByName("Alex");
+		assertSame(acct, daoImpl.saveIfAbsent(acct).get());
+		assertNull(daoImpl.saveIfAbsent(acct).get());
+		assertSame(acct, daoImpl.findByName("Alex").get());
+		assertTrue(thread[0].startsWith("account-store-io-"));
+		daoImpl.updateLastLogin(acct, 1000L).get();
+		verify(delegate).updateLastLogin(acct, 1000L);
+		assertTrue(daoImpl.delete(acct).get());
+		assertNull(daoImpl.findByName("Alex").get());
+	}
+
+	/**
+	 * Method to test that a failure of the store, called on the calling
+	 * thread, completes the future exceptionally
+	 */
+	@Test
+	public void testFailureOnCallingThread() throws InterruptedException {
+		AsyncAccountStoreDao inline = new AsyncAccountStoreDao(delegate, 0);
+		IllegalStateException failure = new IllegalStateException("disk full");
+		doThrow(failure).when(delegate).delete(acct);
+		try {
+			inline.delete(acct).get();
+			fail("Failure of the store not reported");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+		inline.close();
+	}
+
+}
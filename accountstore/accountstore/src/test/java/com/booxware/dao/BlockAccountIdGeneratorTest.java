@@ -0,0 +1,88 @@
+package com.booxware.dao;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test class for BlockAccountIdGenerator
+ */
+public class BlockAccountIdGeneratorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Method to test that ids start at the initial id
+	 */
+	@Test
+	public void testInitialId() {
+		BlockAccountIdGenerator generator = new BlockAccountIdGenerator(1000);
+		assertEquals(1000, generator.nextId());
+		assertEquals(1001, generator.nextId());
+	}
+
+	/**
+	 * Method to test that ids generated by concurrent threads are unique
+	 */
+	@Test
+	public void testConcurrentIdsAreUnique() throws InterruptedException {
+		final BlockAccountIdGenerator generator = new BlockAccountIdGenerator(
+				1000, 16, null);
+		final Set<Long> ids = ConcurrentHashMap.<Long> newKeySet();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						assertTrue("Duplicate account id",
+								ids.add(generator.nextId()));
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(80000, ids.size());
+	}
+
+	/**
+	 * Method to test that ids are not reused after a restart
+	 */
+	@Test
+	public void testIdsNotReusedAfterRestart() throws Exception {
+		File file = new File(folder.getRoot(), "accountid.reservation");
+		BlockAccountIdGenerator generator = new BlockAccountIdGenerator(1000,
+				16, file);
+		long lastId = 0;
+		for (int i = 0; i < 100; i++) {
+			lastId = generator.nextId();
+		}
+		assertTrue("Reservation file not written", file.exists());
+		BlockAccountIdGenerator restarted = new BlockAccountIdGenerator(1000,
+				16, file);
+		assertTrue("Account id reused after restart",
+				restarted.nextId() > lastId);
+	}
+
+	/**
+	 * Method to test that advancing the generator skips ids already in use
+	 */
+	@Test
+	public void testAdvanceTo() {
+		BlockAccountIdGenerator generator = new BlockAccountIdGenerator(1000);
+		generator.nextId();
+		generator.advanceTo(5000);
+		assertEquals(5001, generator.nextId());
+	}
+
+}
@@ -0,0 +1,212 @@
+package com.booxware.dao;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.booxware.dao.wal.SyncPolicy;
+import com.booxware.dto.Account;
+
+/**
+ * Test class for CachingAccountStoreDao
+ */
+public class CachingAccountStoreDaoTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	AccountStoreDao delegate = null;
+	CachingAccountStoreDao daoImpl = null;
+	Account acct = null;
+
+	@Before
+	public void setUp() {
+		delegate = spy(new ConcurrentAccountStoreDaoImpl());
+		daoImpl = new CachingAccountStoreDao(delegate, 3, 0);
+		byte[] encryptedPassword = new String("secretpass").getBytes();
+		acct = new Account("Alex", encryptedPassword, "alex@gmail.com",
+				new Date());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daoImpl.close();
+	}
+
+	/**
+	 * Method to test that saved and loaded accounts are read from the cache
+	 * and deleted accounts are not
+	 */
+	@Test
+	public void testReadThroughAndInvalidate() {
+		daoImpl.save(acct);
+		assertSame(acct, daoImpl.findByName("Alex"));
+		verify(delegate, never()).findByName("Alex");
+
+		Account bob = delegate.save(new Account("Bob", null, null, null));
+		assertSame(bob, daoImpl.findByName("Bob"));
+		assertSame(bob, daoImpl.findByName("Bob"));
+		verify(delegate, times(1)).findByName("Bob");
+		assertEquals(2, daoImpl.getHitCount());
+		assertEquals(1, daoImpl.getMissCount());
+
+		daoImpl.delete(acct);
+		assertNull("Deleted account cached", daoImpl.findByName("Alex"));
+	}
+
+	/**
+	 * Method to test that accounts read twice survive a scan of accounts that
+	 * are read once
+	 */
+	@Test
+	public void testEvictionKeepsFrequentAccounts() {
+		daoImpl.save(acct);
+		daoImpl.findByName("Alex");
+		for (int i = 0; i < 10; i++) {
+			daoImpl.save(new Account("user" + i, null, null, null));
+		}
+		assertEquals(3, daoImpl.size());
+		assertEquals(8, daoImpl.getEvictionCount());
+		daoImpl.findByName("Alex");
+		verify(delegate, never()).findByName("Alex");
+	}
+
+	/**
+	 * Method to test that concurrent misses for a user name load it once
+	 */
+	@Test
+	public void testConcurrentMissesAreCoalesced() throws Exception {
+		final Account stored = delegate.save(acct);
+		final CountDownLatch loadStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<Account>() {
+			public Account answer(InvocationOnMock invocation)
+					throws InterruptedException {
+				loadStarted.countDown();
+				release.await();
+				return stored;
+			}
+		}).when(delegate).findByName("Alex");
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Account>> results = new ArrayList<Future<Account>>();
+		for (int i = 0; i < 4; i++) {
+			results.add(executor.submit(new Callable<Account>() {
+				public Account call() {
+					return daoImpl.findByName("Alex");
+				}
+			}));
+			if (i == 0) {
+				assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+			}
+		}
+		while (daoImpl.getCoalescedCount() < 3) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+		for (Future<Account> result : results) {
+			assertSame(stored, result.get(10, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+		verify(delegate, times(1)).findByName("Alex");
+	}
+
+	/**
+	 * Method to test that logins are written to the store once per flush
+	 */
+	@Test
+	public void testLoginsAreWrittenBehind() throws Exception {
+		CachingAccountStoreDao writeBehind = new CachingAccountStoreDao(
+				delegate, 3, 60000);
+		try {
+			writeBehind.save(acct);
+			long login = acct.getLastLoginTime();
+			for (int i = 1; i <= 5; i++) {
+				writeBehind.updateLastLogin(acct, login + i);
+			}
+			assertEquals(login + 5, writeBehind.findByName("Alex")
+					.getLastLoginTime());
+			verify(delegate, never()).updateLastLogin(any(Account.class),
+					anyLong());
+			assertEquals(1, writeBehind.getPendingLoginCount());
+			writeBehind.flushLogins();
+			verify(delegate, times(1)).updateLastLogin(acct, login + 5);
+			assertEquals(1, writeBehind.getLoginWriteCount());
+		} finally {
+			writeBehind.close();
+		}
+	}
+
+	/**
+	 * Method to test that logins written behind to a durable store survive
+	 * its restart, although the store hands out the instance the cache holds
+	 */
+	@Test
+	public void testLoginsAreDurableBehindWal() throws Exception {
+		CachingAccountStoreDao writeBehind = new CachingAccountStoreDao(
+				openWal(), 100, 60000);
+		Account saved = writeBehind.save(new Account("Alex", new byte[] { 1 },
+				"alex@gmail.com", new Date(1000)));
+		writeBehind.updateLastLogin(saved, 5000000);
+		writeBehind.flushLogins();
+		assertEquals(1, writeBehind.getLoginWriteCount());
+		writeBehind.close();
+
+		WalAccountStoreDaoImpl reopened = openWal();
+		try {
+			assertEquals(5000000, reopened.findByName("Alex").getLastLoginTime());
+		} finally {
+			reopened.close();
+		}
+	}
+
+	private WalAccountStoreDaoImpl openWal() throws IOException {
+		return new WalAccountStoreDaoImpl(folder.getRoot(),
+				SyncPolicy.GROUP_COMMIT, 200, 0, new BlockAccountIdGenerator(1000));
+	}
+
+	/**
+	 * Method to test that an account deleted while it is loaded is not
+	 * cached
+	 */
+	@Test
+	public void testDeleteDuringLoadIsNotCached() throws Exception {
+		final Account stored = delegate.save(acct);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		doAnswer(new Answer<Account>() {
+			public Account answer(InvocationOnMock invocation) throws Exception {
+				// the delete runs on another thread while the load is in flight
+				executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						return daoImpl.delete(stored);
+					}
+				}).get(10, TimeUnit.SECONDS);
+				return stored;
+			}
+		}).doCallRealMethod().when(delegate).findByName("Alex");
+
+		assertSame(stored, daoImpl.findByName("Alex"));
+		executor.shutdown();
+		assertEquals(0, daoImpl.size());
+		assertNull("Deleted account cached", daoImpl.findByName("Alex"));
+	}
+
+}
@@ -0,0 +1,281 @@
+package com.booxware.dao;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.booxware.dto.Account;
+
+/**
+ * Test class for ConcurrentAccountStoreDaoImpl
+ */
+public class ConcurrentAccountStoreDaoImplTest {
+
+	ConcurrentAccountStoreDaoImpl daoImpl = new ConcurrentAccountStoreDaoImpl();
+	Account acct = null;
+
+	@Before
+	public void setUp() {
+		byte[] encryptedPassword = new String("secretpass").getBytes();
+		acct = new Account("Alex", encryptedPassword, "alex@gmail.com",
+				new Date());
+	}
+
+	/**
+	 * Method to test save, find and delete of an account
+	 */
+	@Test
+	public void testSaveFindAndDelete() {
+		Account account = daoImpl.save(acct);
+		assertTrue("Account not created", account.getId() != 0);
+		assertSame("Account could not be found with username", acct,
+				daoImpl.findByName("Alex"));
+		assertNull("Account found with incorrect username",
+				daoImpl.findByName("Alex1"));
+		daoImpl.delete(acct);
+		assertNull("Account deletion failed", daoImpl.findByName("Alex"));
+	}
+
+	/**
+	 * Method to test that deleting a stale account keeps the account that
+	 * replaced it
+	 */
+	@Test
+	public void testDeleteStaleAccount() {
+		daoImpl.save(acct);
+		Account replacement = new Account("Alex", acct.getEncryptedPassword(),
+				"alex@gmail.com", new Date());
+		daoImpl.save(replacement);
+		daoImpl.delete(acct);
+		assertSame("Replaced account was deleted", replacement,
+				daoImpl.findByName("Alex"));
+	}
+
+	/**
+	 * Method to test that only the first of two accounts with the same user
+	 * name is saved
+	 */
+	@Test
+	public void testSaveIfAbsent() {
+		assertSame("Account not created", acct, daoImpl.saveIfAbsent(acct));
+		Account duplicate = new Account("Alex", acct.getEncryptedPassword(),
+				"alex@gmail.com", new Date());
+		assertNull("Duplicate account created", daoImpl.saveIfAbsent(duplicate));
+		assertSame("Existing account replaced", acct, daoImpl.findByName("Alex"));
+	}
+
+	/**
+	 * Method to test that concurrent logins leave the latest one and that an
+	 * earlier login does not move the last login back
+	 */
+	@Test
+	public void testUpdateLastLoginKeepsLatest() throws InterruptedException {
+		daoImpl.save(acct);
+		final long start = acct.getLastLoginTime();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				public void run() {
+					for (int i = thread; i < 1000; i += 4) {
+						daoImpl.updateLastLogin(acct, start + i);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(start + 999, daoImpl.findByName("Alex").getLastLoginTime());
+		daoImpl.updateLastLogin(acct, start);
+		assertEquals(start + 999, daoImpl.findByName("Alex").getLastLoginTime());
+	}
+
+	/**
+	 * Method to test that exactly one of many concurrent registrations of the
+	 * same user name succeeds
+	 */
+	@Test
+	public void testConcurrentSaveIfAbsent() throws InterruptedException {
+		final int threads = 8;
+		final AtomicInteger created = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (null != daoImpl.saveIfAbsent(new Account("Alex",
+							new byte[0], "alex@gmail.com", new Date()))) {
+						created.incrementAndGet();
+					}
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals("Duplicate registration succeeded", 1, created.get());
+	}
+
+	/**
+	 * Method to test that concurrent saves keep every account and hand out
+	 * unique account ids
+	 */
+	@Test
+	public void testConcurrentSave() throws InterruptedException {
+		final int threads = 8;
+		final int accountsPerThread = 1000;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < accountsPerThread; i++) {
+						daoImpl.save(new Account("user" + thread + "_" + i,
+								new byte[0], "user@gmail.com", new Date()));
+					}
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(threads * accountsPerThread,
+				daoImpl.accountRepository.size());
+		Set<Long> ids = new HashSet<Long>();
+		for (Account account : daoImpl.accountRepository.values()) {
+			assertTrue("Duplicate account id", ids.add(account.getId()));
+		}
+	}
+
+	/**
+	 * Method to test that a prefix listing is paged in user name order and
+	 * skips deleted accounts
+	 */
+	@Test
+	public void testFindByPrefix() {
+		for (String userName : new String[] { "bob", "alice", "al", "alex",
+				"albert", "alf", "ala", "amy" }) {
+			daoImpl.save(new Account(userName, new byte[0], "user@gmail.com",
+					new Date()));
+		}
+		daoImpl.delete(daoImpl.findByName("alf"));
+
+		List<Account> page = daoImpl.findByPrefix("al", 3, null);
+		assertEquals(3, page.size());
+		assertEquals("al", page.get(0).getUserName());
+		assertEquals("ala", page.get(1).getUserName());
+		assertEquals("albert", page.get(2).getUserName());
+
+		page = daoImpl.findByPrefix("al", 3, "albert");
+		assertEquals(2, page.size());
+		assertEquals("alex", page.get(0).getUserName());
+		assertEquals("alice", page.get(1).getUserName());
+
+		assertTrue(daoImpl.findByPrefix("al", 3, "alice").isEmpty());
+		assertEquals(7, daoImpl.findByPrefix("", 10, null).size());
+		// a cursor before the prefix starts at the prefix
+		assertEquals("al", daoImpl.findByPrefix("al", 1, "a").get(0)
+				.getUserName());
+		assertTrue(daoImpl.findByPrefix("al", 0, null).isEmpty());
+		assertTrue(daoImpl.findByPrefix("al", -1, null).isEmpty());
+	}
+
+	/**
+	 * Method to test the lookup by email, ignoring case and surrounding
+	 * blanks, and that it follows saves and deletes
+	 */
+	@Test
+	public void testFindByEmail() {
+		daoImpl.save(acct);
+		assertSame(acct, daoImpl.findByEmail(" Alex@Gmail.COM"));
+		assertNull(daoImpl.findByEmail("bob@gmail.com"));
+		assertNull(daoImpl.findByEmail(null));
+
+		Account replacement = daoImpl.save(new Account("Alex", new byte[0],
+				"alex@yahoo.com", new Date()));
+		assertNull("Replaced email found", daoImpl.findByEmail("alex@gmail.com"));
+		assertSame(replacement, daoImpl.findByEmail("alex@yahoo.com"));
+
+		daoImpl.delete(replacement);
+		assertNull("Deleted account found", daoImpl.findByEmail("alex@yahoo.com"));
+	}
+
+	/**
+	 * Method to test that an account is only saved with a user name and an
+	 * email that are not in use
+	 */
+	@Test
+	public void testSaveIfUnique() {
+		assertSame(acct, daoImpl.saveIfUnique(acct));
+		assertNull("Duplicate email saved", daoImpl.saveIfUnique(new Account(
+				"Bob", new byte[0], "ALEX@gmail.com", new Date())));
+		assertNull("Duplicate user name saved", daoImpl.saveIfUnique(new Account(
+				"Alex", new byte[0], "other@gmail.com", new Date())));
+		assertNull(daoImpl.findByEmail("other@gmail.com"));
+		assertSame(acct, daoImpl.findByEmail("alex@gmail.com"));
+
+		// the email of a deleted account can be used again
+		daoImpl.delete(acct);
+		Account bob = new Account("Bob", new byte[0], "alex@gmail.com",
+				new Date());
+		assertSame(bob, daoImpl.saveIfUnique(bob));
+		assertSame(bob, daoImpl.findByEmail("alex@gmail.com"));
+	}
+
+	/**
+	 * Method to test that of concurrent saves with the same email only one
+	 * succeeds
+	 */
+	@Test
+	public void testConcurrentSaveIfUnique() throws InterruptedException {
+		final int threads = 8;
+		final AtomicInteger created = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (null != daoImpl.saveIfUnique(new Account("user" + thread,
+							new byte[0], "user@gmail.com", new Date()))) {
+						created.incrementAndGet();
+					}
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(1, created.get());
+		assertEquals(1, daoImpl.accountRepository.size());
+		assertNotNull(daoImpl.findByEmail("user@gmail.com"));
+	}
+
+}
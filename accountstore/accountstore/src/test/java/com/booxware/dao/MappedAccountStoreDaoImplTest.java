@@ -0,0 +1,210 @@
+package com.booxware.dao;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.booxware.dto.Account;
+
+/**
+ * Test class for MappedAccountStoreDaoImpl
+ */
+public class MappedAccountStoreDaoImplTest {
+
+	//small regions, so that the tests cross region boundaries
+	private static final int REGION_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	MappedAccountStoreDaoImpl daoImpl = null;
+	Account acct = null;
+
+	@Before
+	public void setUp() throws IOException {
+		daoImpl = open();
+		byte[] encryptedPassword = new String("secretpass").getBytes();
+		acct = new Account("Alex", encryptedPassword, "alex@gmail.com",
+				new Date());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		daoImpl.close();
+	}
+
+	/**
+	 * Method to test save, find, update and delete of an account
+	 */
+	@Test
+	public void testSaveFindUpdateAndDelete() {
+		assertSame("Account not created", acct, daoImpl.saveIfAbsent(acct));
+		assertNull("Duplicate account created",
+				daoImpl.saveIfAbsent(new Account("Alex", null, null, null)));
+		Account found = daoImpl.findByName("Alex");
+		assertEquals(acct.getId(), found.getId());
+		assertArrayEquals(acct.getEncryptedPassword(),
+				found.getEncryptedPassword());
+		assertEquals("alex@gmail.com", found.getEmail());
+		Date lastLogin = new Date(acct.getLastLogin().getTime() + 1000);
+		daoImpl.updateLastLogin(found, lastLogin.getTime());
+		assertEquals(lastLogin, daoImpl.findByName("Alex").getLastLogin());
+		daoImpl.delete(found);
+		assertNull("Account deletion failed", daoImpl.findByName("Alex"));
+	}
+
+	/**
+	 * Method to test that a replaced password keeps the id and last login
+	 * of the account and survives a restart
+	 */
+	@Test
+	public void testUpdatePassword() throws IOException {
+		daoImpl.save(acct);
+		daoImpl.updatePassword(daoImpl.findByName("Alex"), new byte[] { 1, 2, 3 });
+		daoImpl.close();
+		daoImpl = open();
+		Account found = daoImpl.findByName("Alex");
+		assertEquals(acct.getId(), found.getId());
+		assertEquals(acct.getLastLogin(), found.getLastLogin());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, found.getEncryptedPassword());
+		assertEquals(1, daoImpl.size());
+	}
+
+	/**
+	 * Method to test that accounts, replacements and deletions survive a
+	 * clean restart
+	 */
+	@Test
+	public void testReopenAfterClose() throws IOException {
+		saveAccounts(500);
+		daoImpl.close();
+		daoImpl = open();
+		assertAccounts(500);
+		Account created = daoImpl.save(new Account("Carl", null, null, null));
+		assertTrue("Account id reused", created.getId() > acct.getId());
+	}
+
+	/**
+	 * Method to test that the index is rebuilt when the store was not closed
+	 * and a torn record at the end is dropped
+	 */
+	@Test
+	public void testRebuildAfterCrash() throws IOException {
+		saveAccounts(500);
+		daoImpl.flush();
+		File records = new File(folder.getRoot(), "records.dat");
+		try (RandomAccessFile file = new RandomAccessFile(records, "rw")) {
+			// a record whose length was written before the rest of it
+			long end = file.length() - REGION_SIZE;
+			while (end < file.length() && readLong(file, end) != 0) {
+				end += 8;
+			}
+			file.seek(end);
+			file.writeInt(64);
+		}
+		// the store is opened again without being closed
+		MappedAccountStoreDaoImpl crashed = daoImpl;
+		daoImpl = open();
+		assertAccounts(500);
+		assertNotNull(daoImpl.save(new Account("Carl", null, null, null)));
+		crashed.flush();
+	}
+
+	private void saveAccounts(int count) {
+		daoImpl.save(acct);
+		for (int i = 0; i < count; i++) {
+			daoImpl.save(new Account("user" + i, new byte[] { 1, 2, 3 },
+					"user" + i + "@gmail.com", null));
+		}
+		for (int i = 0; i < count; i += 2) {
+			daoImpl.save(new Account("user" + i, null, "new" + i
+					+ "@gmail.com", null));
+		}
+		for (int i = 0; i < count; i += 5) {
+			daoImpl.delete(daoImpl.findByName("user" + i));
+		}
+		daoImpl.updateLastLogin(acct, acct.getLastLoginTime() + 1000);
+	}
+
+	private void assertAccounts(int count) {
+		assertEquals(acct.getLastLogin(), daoImpl.findByName("Alex").getLastLogin());
+		int listed = 0;
+		for (Account account : daoImpl.findAll()) {
+			assertEquals(account.getEmail(), daoImpl.findByName(
+					account.getUserName()).getEmail());
+			listed++;
+		}
+		assertEquals(daoImpl.size(), listed);
+		for (int i = 0; i < count; i++) {
+			Account found = daoImpl.findByName("user" + i);
+			if (i % 5 == 0) {
+				assertNull("Deleted account found", found);
+			} else if (i % 2 == 0) {
+				assertEquals("new" + i + "@gmail.com", found.getEmail());
+			} else {
+				assertEquals("user" + i + "@gmail.com", found.getEmail());
+			}
+		}
+		assertEquals(count - count / 5 + 1, daoImpl.size());
+	}
+
+	private static long readLong(RandomAccessFile file, long position)
+			throws IOException {
+		file.seek(position);
+		return file.readLong();
+	}
+
+	private MappedAccountStoreDaoImpl open() throws IOException {
+		return new MappedAccountStoreDaoImpl(folder.getRoot(), REGION_SIZE,
+				false, new BlockAccountIdGenerator(1000));
+	}
+
+	/**
+	 * Method to test that the email index is rebuilt when the store is opened
+	 */
+	@Test
+	public void testFindByEmailAfterReopen() throws IOException {
+		daoImpl.save(acct);
+		daoImpl.close();
+		daoImpl = open();
+		assertEquals(acct.getId(), daoImpl.findByEmail("alex@gmail.com").getId());
+		assertNull("Duplicate email saved", daoImpl.saveIfUnique(new Account(
+				"Bob", null, "ALEX@gmail.com", null)));
+		daoImpl.delete(daoImpl.findByName("Alex"));
+		assertNull(daoImpl.findByEmail("alex@gmail.com"));
+	}
+
+	/**
+	 * Method to test that a store opened without an email index finds the
+	 * accounts by email with a scan and refuses unique emails
+	 */
+	@Test
+	public void testFindByEmailWithoutIndex() throws IOException {
+		daoImpl.save(acct);
+		daoImpl.close();
+		daoImpl = new MappedAccountStoreDaoImpl(folder.getRoot(), REGION_SIZE,
+				false, false, new BlockAccountIdGenerator(1000));
+		assertEquals(acct.getId(), daoImpl.findByEmail(" ALEX@gmail.com")
+				.getId());
+		assertNull(daoImpl.findByEmail("bob@gmail.com"));
+		try {
+			daoImpl.saveIfUnique(new Account("Bob", null, "bob@gmail.com",
+					null));
+			fail("Unique email saved without the email index");
+		} catch (IllegalStateException e) {
+			assertNull(daoImpl.findByName("Bob"));
+		}
+		daoImpl.delete(daoImpl.findByName("Alex"));
+		assertNull(daoImpl.findByEmail("alex@gmail.com"));
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.booxware.dao;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.booxware.dto.Account;
+
+/**
+ * Test class for OffHeapAccountStoreDaoImpl
+ */
+public class OffHeapAccountStoreDaoImplTest {
+
+	OffHeapAccountStoreDaoImpl daoImpl = new OffHeapAccountStoreDaoImpl(16,
+			new BlockAccountIdGenerator(1000));
+	Account acct = null;
+
+	@Before
+	public void setUp() {
+		byte[] encryptedPassword = new String("secretpass").getBytes();
+		acct = new Account("Alex", encryptedPassword, "alex@gmail.com",
+				new Date());
+	}
+
+	/**
+	 * Method to test save, find and delete of an account
+	 */
+	@Test
+	public void testSaveFindAndDelete() {
+		Account account = daoImpl.save(acct);
+		assertTrue("Account not created", account.getId() != 0);
+		Account found = daoImpl.findByName("Alex");
+		assertEquals(acct.getId(), found.getId());
+		assertEquals("Alex", found.getUserName());
+		assertArrayEquals(acct.getEncryptedPassword(),
+				found.getEncryptedPassword());
+		assertEquals("alex@gmail.com", found.getEmail());
+		assertEquals(acct.getLastLogin(), found.getLastLogin());
+		assertNull("Account found with incorrect username",
+				daoImpl.findByName("Alex1"));
+		daoImpl.delete(found);
+		assertNull("Account deletion failed", daoImpl.findByName("Alex"));
+		assertEquals(0, daoImpl.size());
+	}
+
+	/**
+	 * Method to test that only the first of two accounts with the same user
+	 * name is saved, and that a stale account is not deleted
+	 */
+	@Test
+	public void testSaveIfAbsentAndDeleteStaleAccount() {
+		assertSame("Account not created", acct, daoImpl.saveIfAbsent(acct));
+		Account duplicate = new Account("Alex", null, null, null);
+		assertNull("Duplicate account created", daoImpl.saveIfAbsent(duplicate));
+		Account replacement = daoImpl.save(new Account("Alex", null, null,
+				null));
+		assertFalse("Stale account deleted", daoImpl.delete(acct));
+		Account found = daoImpl.findByName("Alex");
+		assertEquals("Replaced account was deleted", replacement.getId(),
+				found.getId());
+		assertNull(found.getEncryptedPassword());
+		assertNull(found.getEmail());
+		assertNull(found.getLastLogin());
+	}
+
+	/**
+	 * Method to test that the last login is updated in the stored record
+	 */
+	@Test
+	public void testUpdateLastLogin() {
+		daoImpl.save(acct);
+		Date lastLogin = new Date(acct.getLastLogin().getTime() + 1000);
+		daoImpl.updateLastLogin(daoImpl.findByName("Alex"), lastLogin.getTime());
+		assertEquals(lastLogin, daoImpl.findByName("Alex").getLastLogin());
+	}
+
+	/**
+	 * Method to test that a replaced password keeps the id and last login of
+	 * the account
+	 */
+	@Test
+	public void testUpdatePassword() {
+		daoImpl.save(acct);
+		daoImpl.updatePassword(daoImpl.findByName("Alex"), new byte[] { 1, 2, 3 });
+		Account found = daoImpl.findByName("Alex");
+		assertEquals(acct.getId(), found.getId());
+		assertEquals(acct.getLastLogin(), found.getLastLogin());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, found.getEncryptedPassword());
+	}
+
+	/**
+	 * Method to test many accounts with non ASCII names, which grows the index
+	 * and compacts the records after deletions
+	 */
+	@Test
+	public void testManyAccounts() {
+		int count = 20000;
+		byte[] password = new byte[512];
+		for (int i = 0; i < count; i++) {
+			daoImpl.save(new Account("user\u00e9\u4e2d" + i, password, "user"
+					+ i + "@example.com", null));
+		}
+		assertEquals(count, daoImpl.size());
+		for (int i = 0; i < count; i++) {
+			if (i % 3 != 0) {
+				daoImpl.delete(daoImpl.findByName("user\u00e9\u4e2d" + i));
+			}
+		}
+		assertEquals((count + 2) / 3, daoImpl.size());
+		int listed = 0;
+		for (Account account : daoImpl.findAll()) {
+			assertEquals(0, Integer.parseInt(account.getUserName().substring(6)) % 3);
+			listed++;
+		}
+		assertEquals(daoImpl.size(), listed);
+		for (int i = 0; i < count; i++) {
+			Account found = daoImpl.findByName("user\u00e9\u4e2d" + i);
+			if (i % 3 != 0) {
+				assertNull("Deleted account found", found);
+			} else {
+				assertEquals("user" + i + "@example.com", found.getEmail());
+			}
+		}
+	}
+
+	/**
+	 * Method to test that a prefix listing over the unordered segments is
+	 * paged in user name order
+	 */
+	@Test
+	public void testFindByPrefix() {
+		for (String userName : new String[] { "bob", "alice", "al", "alex",
+				"albert", "ala", "amy" }) {
+			daoImpl.save(new Account(userName, null, null, null));
+		}
+		List<Account> page = daoImpl.findByPrefix("al", 2, null);
+		assertEquals(2, page.size());
+		assertEquals("al", page.get(0).getUserName());
+		assertEquals("ala", page.get(1).getUserName());
+		page = daoImpl.findByPrefix("al", 2, "ala");
+		assertEquals("albert", page.get(0).getUserName());
+		assertEquals("alex", page.get(1).getUserName());
+		page = daoImpl.findByPrefix("al", 2, "alex");
+		assertEquals(1, page.size());
+		assertEquals("alice", page.get(0).getUserName());
+		assertTrue(daoImpl.findByPrefix("al", 0, null).isEmpty());
+		assertTrue(daoImpl.findByPrefix("al", -1, null).isEmpty());
+	}
+
+}
@@ -0,0 +1,228 @@
+package com.booxware.dao;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.booxware.dao.wal.SyncPolicy;
+import com.booxware.dto.Account;
+
+/**
+ * Test class for WalAccountStoreDaoImpl
+ */
+public class WalAccountStoreDaoImplTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	WalAccountStoreDaoImpl daoImpl = null;
+	Account acct = null;
+
+	@Before
+	public void setUp() throws IOException {
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		byte[] encryptedPassword = new String("secretpass").getBytes();
+		acct = new Account("Alex", encryptedPassword, "alex@gmail.com",
+				new Date());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		daoImpl.close();
+	}
+
+	/**
+	 * Method to test that saved accounts and login dates survive a restart
+	 */
+	@Test
+	public void testReplayAfterRestart() throws IOException {
+		daoImpl.save(acct);
+		Date login = new Date(acct.getLastLogin().getTime() + 1000);
+		daoImpl.updateLastLogin(acct, login.getTime());
+		daoImpl.save(new Account("Bob", new byte[] { 1, 2 }, "bob@gmail.com",
+				new Date()));
+		daoImpl.close();
+
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		Account replayed = daoImpl.findByName("Alex");
+		assertNotNull("Account not replayed", replayed);
+		assertEquals(acct.getId(), replayed.getId());
+		assertEquals("alex@gmail.com", replayed.getEmail());
+		assertArrayEquals(acct.getEncryptedPassword(),
+				replayed.getEncryptedPassword());
+		assertEquals(login, replayed.getLastLogin());
+		assertNotNull("Account not replayed", daoImpl.findByName("Bob"));
+	}
+
+	/**
+	 * Method to test that deleted accounts stay deleted after a restart and
+	 * that account ids are not reused
+	 */
+	@Test
+	public void testDeleteAfterRestart() throws IOException {
+		daoImpl.save(acct);
+		daoImpl.delete(acct);
+		daoImpl.close();
+
+		daoImpl = open(SyncPolicy.PER_WRITE);
+		assertNull("Deleted account replayed", daoImpl.findByName("Alex"));
+		Account account = daoImpl.save(new Account("Alex", new byte[0],
+				"alex@gmail.com", new Date()));
+		assertTrue("Account id reused", account.getId() > acct.getId());
+	}
+
+	/**
+	 * Method to test that a replaced password is replayed after a restart
+	 */
+	@Test
+	public void testUpdatePasswordAfterRestart() throws IOException {
+		daoImpl.save(acct);
+		daoImpl.updatePassword(acct, new byte[] { 1, 2, 3 });
+		assertArrayEquals(new byte[] { 1, 2, 3 }, acct.getEncryptedPassword());
+		daoImpl.close();
+
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		Account replayed = daoImpl.findByName("Alex");
+		assertEquals(acct.getId(), replayed.getId());
+		assertArrayEquals(new byte[] { 1, 2, 3 },
+				replayed.getEncryptedPassword());
+		assertEquals("alex@gmail.com", replayed.getEmail());
+		assertEquals(acct.getLastLogin(), replayed.getLastLogin());
+	}
+
+	/**
+	 * Method to test that saveIfAbsent does not log a duplicate user name
+	 */
+	@Test
+	public void testSaveIfAbsent() throws IOException {
+		assertNotNull(daoImpl.saveIfAbsent(acct));
+		assertNull(daoImpl.saveIfAbsent(new Account("Alex", new byte[0],
+				"other@gmail.com", new Date())));
+		daoImpl.close();
+
+		daoImpl = open(SyncPolicy.ASYNC);
+		assertEquals("alex@gmail.com", daoImpl.findByName("Alex").getEmail());
+	}
+
+	/**
+	 * Method to test that concurrent writers sharing group commits are all
+	 * replayed
+	 */
+	@Test
+	public void testConcurrentGroupCommit() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						daoImpl.save(new Account("user" + thread + "_" + i,
+								new byte[0], "user@gmail.com", new Date()));
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+		daoImpl.close();
+
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		assertEquals(1600, daoImpl.accountRepository.size());
+	}
+
+	/**
+	 * Method to test that a restart loads the snapshot and replays only the
+	 * log written after it
+	 */
+	@Test
+	public void testSnapshotAndLogTail() throws IOException {
+		daoImpl.save(acct);
+		Account bob = daoImpl.save(new Account("Bob", new byte[0],
+				"bob@gmail.com", new Date()));
+		daoImpl.snapshot();
+		daoImpl.delete(bob);
+		Date login = new Date(acct.getLastLogin().getTime() + 1000);
+		daoImpl.updateLastLogin(acct, login.getTime());
+		daoImpl.save(new Account("Carl", new byte[0], "carl@gmail.com",
+				new Date()));
+		daoImpl.close();
+
+		File[] segments = new File(folder.getRoot(), "wal").listFiles();
+		assertEquals("Log not truncated", 1, segments.length);
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		assertEquals(login, daoImpl.findByName("Alex").getLastLogin());
+		assertNull("Deleted account replayed", daoImpl.findByName("Bob"));
+		assertNotNull("Log tail not replayed", daoImpl.findByName("Carl"));
+		assertEquals(2, daoImpl.accountRepository.size());
+
+		daoImpl.snapshot();
+		daoImpl.close();
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		assertEquals(2, daoImpl.accountRepository.size());
+		Account account = daoImpl.save(new Account("Dave", new byte[0],
+				"dave@gmail.com", new Date()));
+		assertTrue("Account id reused", account.getId() > bob.getId());
+	}
+
+	private WalAccountStoreDaoImpl open(SyncPolicy syncPolicy)
+			throws IOException {
+		return new WalAccountStoreDaoImpl(folder.getRoot(), syncPolicy, 200, 0,
+				new BlockAccountIdGenerator(1000));
+	}
+
+	/**
+	 * Method to test that the email index is rebuilt from the log
+	 */
+	@Test
+	public void testFindByEmailAfterRestart() throws IOException {
+		daoImpl.save(acct);
+		Account bob = daoImpl.save(new Account("Bob", new byte[0],
+				"bob@gmail.com", new Date()));
+		daoImpl.delete(bob);
+		daoImpl.close();
+
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		assertEquals(acct.getId(), daoImpl.findByEmail("alex@gmail.com").getId());
+		assertNull(daoImpl.findByEmail("bob@gmail.com"));
+		assertNull("Duplicate email saved", daoImpl.saveIfUnique(new Account(
+				"Carl", new byte[0], "Alex@gmail.com", new Date())));
+	}
+
+	/**
+	 * Method to test that a batch saves each new user name once and that
+	 * batch saves and deletes are replayed after a restart
+	 */
+	@Test
+	public void testBatchAfterRestart() throws IOException {
+		Account bob = new Account("Bob", new byte[0], "bob@gmail.com",
+				new Date());
+		List<Account> saved = daoImpl.saveAllIfAbsent(Arrays.asList(acct, bob,
+				new Account("Alex", new byte[0], "other@gmail.com", new Date())));
+		assertNotNull(saved.get(0));
+		assertNotNull(saved.get(1));
+		assertNull("Duplicate user name saved", saved.get(2));
+		assertArrayEquals(new boolean[] { true },
+				daoImpl.deleteAll(Arrays.asList(bob)));
+		daoImpl.close();
+
+		daoImpl = open(SyncPolicy.GROUP_COMMIT);
+		assertEquals("alex@gmail.com", daoImpl.findByName("Alex").getEmail());
+		assertNull("Deleted account replayed", daoImpl.findByName("Bob"));
+		assertArrayEquals(new boolean[] { false },
+				daoImpl.deleteAll(Arrays.asList(bob)));
+	}
+
+}
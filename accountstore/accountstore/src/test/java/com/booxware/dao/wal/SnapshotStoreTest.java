@@ -0,0 +1,101 @@
+package com.booxware.dao.wal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.booxware.dto.Account;
+
+/**
+ * Test class for SnapshotStore
+ */
+public class SnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Method to test that a snapshot stays readable when an account changes
+	 * its size while it is written, as a rehash of its password does
+	 */
+	@Test
+	public void testAccountChangesWhileWritten() throws IOException {
+		Account rehashed = new Account("Alex", new byte[] { 1, 2 }, null, null) {
+			private static final long serialVersionUID = 1L;
+
+			private int reads;
+
+			@Override
+			public byte[] getEncryptedPassword() {
+				// the stronger hash replaces the legacy one after the first read
+				return reads++ == 0 ? super.getEncryptedPassword()
+						: new byte[54];
+			}
+		};
+		Account other = new Account("Bob", new byte[] { 3 }, "bob@gmail.com",
+				null);
+		SnapshotStore store = new SnapshotStore(folder.getRoot());
+		assertEquals(2, store.write(7, Arrays.asList(rehashed, other)));
+
+		final List<Account> loaded = new ArrayList<Account>();
+		assertEquals(7, store.loadLatest(new LogRecordHandler() {
+			public void onSave(Account account) {
+				loaded.add(account);
+			}
+
+			public void onDelete(String userName) {
+			}
+
+			public void onLogin(String userName, long lastLogin) {
+			}
+		}));
+		assertEquals(2, loaded.size());
+		assertEquals("Alex", loaded.get(0).getUserName());
+		assertEquals("Bob", loaded.get(1).getUserName());
+		assertEquals("bob@gmail.com", loaded.get(1).getEmail());
+	}
+
+	/**
+	 * Method to test that a record that cannot be decoded is reported as a
+	 * corrupt snapshot
+	 */
+	@Test
+	public void testUndecodableRecord() throws IOException {
+		SnapshotStore store = new SnapshotStore(folder.getRoot());
+		store.write(7, Arrays.asList(new Account("Alex", new byte[] { 1, 2 },
+				"alex@gmail.com", null)));
+		File snapshot = folder.getRoot().listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+			// format version of the first record, after header and length
+			file.seek(16 + 4);
+			file.write(99);
+		}
+		try {
+			store.loadLatest(new LogRecordHandler() {
+				public void onSave(Account account) {
+					fail("Undecodable record loaded");
+				}
+
+				public void onDelete(String userName) {
+				}
+
+				public void onLogin(String userName, long lastLogin) {
+				}
+			});
+			fail("Corrupt snapshot loaded");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Corrupt snapshot record"));
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.booxware.dao.wal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.booxware.dto.Account;
+
+/**
+ * Test class for WriteAheadLog
+ */
+public class WriteAheadLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Method to test that records are replayed in the order they were appended
+	 */
+	@Test
+	public void testReplayInOrder() throws IOException {
+		File directory = folder.getRoot();
+		WriteAheadLog log = new WriteAheadLog(directory, SyncPolicy.PER_WRITE, 0);
+		log.recover(0, new RecordingHandler());
+		Account account = new Account("Alex", new byte[] { 7 }, null, null);
+		account.setId(1000);
+		log.appendSave(account);
+		log.appendLogin("Alex", 42);
+		log.appendDelete("Alex");
+		log.close();
+
+		RecordingHandler handler = new RecordingHandler();
+		log = new WriteAheadLog(directory, SyncPolicy.PER_WRITE, 0);
+		log.recover(0, handler);
+		log.close();
+		assertEquals("[save Alex 1000 null null, login Alex 42, delete Alex]",
+				handler.records.toString());
+	}
+
+	/**
+	 * Method to test that a torn record at the end of the log is dropped and
+	 * overwritten by the next append
+	 */
+	@Test
+	public void testTornRecordIsTruncated() throws IOException {
+		File directory = folder.getRoot();
+		WriteAheadLog log = new WriteAheadLog(directory,
+				SyncPolicy.GROUP_COMMIT, 0);
+		log.recover(0, new RecordingHandler());
+		log.awaitDurable(log.appendLogin("Alex", 1));
+		log.awaitDurable(log.appendLogin("Alex", 2));
+		log.close();
+
+		File segment = directory.listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.setLength(file.length() - 3);
+		}
+		log = new WriteAheadLog(directory, SyncPolicy.GROUP_COMMIT, 0);
+		RecordingHandler handler = new RecordingHandler();
+		log.recover(0, handler);
+		assertEquals("[login Alex 1]", handler.records.toString());
+		log.awaitDurable(log.appendLogin("Alex", 3));
+		log.close();
+
+		handler = new RecordingHandler();
+		log = new WriteAheadLog(directory, SyncPolicy.GROUP_COMMIT, 0);
+		log.recover(0, handler);
+		log.close();
+		assertEquals("[login Alex 1, login Alex 3]", handler.records.toString());
+	}
+
+	/**
+	 * Handler that records the replayed records as strings
+	 */
+	private static class RecordingHandler implements LogRecordHandler {
+
+		final List<String> records = new ArrayList<String>();
+
+		public void onSave(Account account) {
+			Date lastLogin = account.getLastLogin();
+			records.add("save " + account.getUserName() + " " + account.getId()
+					+ " " + account.getEmail() + " "
+					+ (null == lastLogin ? null : lastLogin.getTime()));
+		}
+
+		public void onDelete(String userName) {
+			records.add("delete " + userName);
+		}
+
+		public void onLogin(String userName, long lastLogin) {
+			records.add("login " + userName + " " + lastLogin);
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.booxware.dto;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Test class for AccountCodec
+ */
+public class AccountCodecTest {
+
+	/**
+	 * Method to test that an account is read back as it was written
+	 */
+	@Test
+	public void testRoundTrip() {
+		Account account = new Account("Alex", "secretpass".getBytes(),
+				"alex@gmail.com", new Date());
+		account.setId(1000);
+		Account decoded = roundTrip(account, ByteBuffer.allocate(128));
+		assertAccountEquals(account, decoded);
+	}
+
+	/**
+	 * Method to test null fields and non ASCII strings in a direct buffer
+	 */
+	@Test
+	public void testNullFieldsAndUnicodeInDirectBuffer() {
+		Account account = new Account("J\u00fcrgen \u4e2d \ud83d\ude00",
+				null, null, null);
+		account.setId(Long.MAX_VALUE);
+		Account decoded = roundTrip(account, ByteBuffer.allocateDirect(128));
+		assertAccountEquals(account, decoded);
+	}
+
+	/**
+	 * Method to test that strings are encoded as standard UTF-8
+	 */
+	@Test
+	public void testStringEncodingMatchesUtf8() {
+		String value = "a\u00e9\u4e2d\ud83d\ude00";
+		ByteBuffer buffer = ByteBuffer.allocate(32);
+		AccountCodec.putString(buffer, value);
+		assertEquals(AccountCodec.stringSize(value), buffer.position());
+		buffer.flip();
+		byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+		assertEquals(expected.length, AccountCodec.getVarLong(buffer));
+		byte[] actual = new byte[buffer.remaining()];
+		buffer.get(actual);
+		assertArrayEquals(expected, actual);
+	}
+
+	/**
+	 * Method to test that an unknown format version is rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownVersion() {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		AccountCodec.encode(new Account("Alex", null, null, null), buffer);
+		buffer.put(0, (byte) 99).flip();
+		AccountCodec.decode(buffer);
+	}
+
+	private static Account roundTrip(Account account, ByteBuffer buffer) {
+		AccountCodec.encode(account, buffer);
+		assertEquals("Encoded size does not match",
+				AccountCodec.encodedSize(account), buffer.position());
+		buffer.flip();
+		Account decoded = AccountCodec.decode(buffer);
+		assertFalse("Buffer not fully read", buffer.hasRemaining());
+		return decoded;
+	}
+
+	private static void assertAccountEquals(Account expected, Account actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getUserName(), actual.getUserName());
+		assertArrayEquals(expected.getEncryptedPassword(),
+				actual.getEncryptedPassword());
+		assertEquals(expected.getEmail(), actual.getEmail());
+		assertEquals(expected.getLastLogin(), actual.getLastLogin());
+	}
+
+	/**
+	 * Method to test that corrupt lengths are rejected before anything is
+	 * allocated for them
+	 */
+	@Test
+	public void testCorruptLengths() {
+		long[] lengths = { Integer.MAX_VALUE, -1L, 1L << 40 };
+		for (long length : lengths) {
+			assertCorrupt(ByteBuffer.allocate(64), 1, length);
+			assertCorrupt(ByteBuffer.allocateDirect(64), 0, length);
+		}
+	}
+
+	private static void assertCorrupt(ByteBuffer buffer, int flags, long length) {
+		buffer.put(AccountCodec.VERSION).put((byte) flags);
+		AccountCodec.putVarLong(buffer, 7);
+		AccountCodec.putVarLong(buffer, length);
+		buffer.put((byte) 'A').flip();
+		try {
+			AccountCodec.decode(buffer);
+			fail("Corrupt length " + length + " decoded");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Invalid field length"));
+		}
+	}
+
+}
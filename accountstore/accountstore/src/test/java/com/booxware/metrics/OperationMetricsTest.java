@@ -0,0 +1,201 @@
+package com.booxware.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.booxware.dao.CachingAccountStoreDao;
+import com.booxware.dao.ConcurrentAccountStoreDaoImpl;
+import com.booxware.dto.Account;
+
+/**
+ * Test class for OperationMetrics
+ */
+public class OperationMetricsTest {
+
+	OperationMetrics metrics = new OperationMetrics();
+
+	private void record(Operation operation, Outcome outcome, long micros) {
+		metrics.recordLatency(operation, outcome,
+				TimeUnit.MICROSECONDS.toNanos(micros));
+	}
+
+	/**
+	 * Method to test the bucket of a latency and its upper bound
+	 */
+	@Test
+	public void testBuckets() {
+		assertEquals(0, LatencyHistogram.bucket(0));
+		assertEquals(1, LatencyHistogram.bucket(1));
+		assertEquals(10, LatencyHistogram.bucket(1023));
+		assertEquals(11, LatencyHistogram.bucket(1024));
+		assertEquals(LatencyHistogram.BUCKETS - 1,
+				LatencyHistogram.bucket(Long.MAX_VALUE));
+		assertEquals(1024, LatencyHistogram.upperBoundMicros(10));
+		assertEquals(Long.MAX_VALUE,
+				LatencyHistogram.upperBoundMicros(LatencyHistogram.BUCKETS - 1));
+	}
+
+	/**
+	 * Method to test the counts and percentiles, which are kept apart by
+	 * operation and outcome
+	 */
+	@Test
+	public void testCountsAndPercentiles() {
+		for (int i = 0; i < 98; i++) {
+			record(Operation.LOGIN, Outcome.SUCCESS, 100);
+		}
+		record(Operation.LOGIN, Outcome.SUCCESS, 5000);
+		record(Operation.LOGIN, Outcome.SUCCESS, 100000);
+		record(Operation.LOGIN, Outcome.BAD_PASSWORD, 100);
+
+		assertEquals(100, metrics.getCount(Operation.LOGIN, Outcome.SUCCESS));
+		assertEquals(1, metrics.getCount(Operation.LOGIN, Outcome.BAD_PASSWORD));
+		assertEquals(0, metrics.getCount(Operation.CREATE, Outcome.SUCCESS));
+		// upper bounds of the buckets of the latencies
+		assertEquals(128, metrics.getPercentileMicros(Operation.LOGIN,
+				Outcome.SUCCESS, 50));
+		assertEquals(8192, metrics.getPercentileMicros(Operation.LOGIN,
+				Outcome.SUCCESS, 99));
+		assertEquals(131072, metrics.getPercentileMicros(Operation.LOGIN,
+				Outcome.SUCCESS, 100));
+		assertEquals(0, metrics.getPercentileMicros(Operation.CREATE,
+				Outcome.SUCCESS, 50));
+		double mean = metrics.getMeanMicros(Operation.LOGIN, Outcome.SUCCESS);
+		assertEquals(1148, mean, 0.001);
+	}
+
+	/**
+	 * Method to test the Prometheus text format, with cumulative buckets
+	 */
+	@Test
+	public void testWritePrometheus() throws Exception {
+		record(Operation.DELETE, Outcome.UNKNOWN_USER, 3);
+		record(Operation.DELETE, Outcome.UNKNOWN_USER, 3000);
+		StringWriter writer = new StringWriter();
+
+		metrics.writePrometheus(writer);
+
+		String text = writer.toString();
+		assertTrue(text.contains("# TYPE accountstore_operations_total counter\n"));
+		assertTrue(text.contains("accountstore_operations_total{operation=\"delete\",outcome=\"unknown_user\"} 2\n"));
+		assertTrue(text.contains("accountstore_operations_total{operation=\"create\",outcome=\"success\"} 0\n"));
+		assertTrue(text.contains("# TYPE accountstore_operation_duration_seconds histogram\n"));
+		assertTrue(text.contains("accountstore_operation_duration_seconds_bucket{operation=\"delete\",outcome=\"unknown_user\",le=\"1.0E-6\"} 0\n"));
+		assertTrue(text.contains("accountstore_operation_duration_seconds_bucket{operation=\"delete\",outcome=\"unknown_user\",le=\"0.004096\"} 2\n"));
+		assertTrue(text.contains("accountstore_operation_duration_seconds_bucket{operation=\"delete\",outcome=\"unknown_user\",le=\"+Inf\"} 2\n"));
+		assertTrue(text.contains("accountstore_operation_duration_seconds_count{operation=\"delete\",outcome=\"unknown_user\"} 2\n"));
+		// no histogram of what did not occur
+		assertFalse(text.contains("accountstore_operation_duration_seconds_count{operation=\"create\""));
+	}
+
+	/**
+	 * Method to test the attributes of the MBean and its registration
+	 */
+	@Test
+	public void testJmx() throws Exception {
+		record(Operation.CREATE, Outcome.DUPLICATE, 10);
+		OperationMetricsJmx jmx = new OperationMetricsJmx(metrics);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OperationMetricsJmx.OBJECT_NAME);
+		jmx.register();
+		try {
+			assertEquals(1L, server.getAttribute(name, "create.duplicate.count"));
+			assertEquals(16L,
+					server.getAttribute(name, "create.duplicate.p50Micros"));
+			assertEquals(0L, server.getAttribute(name, "login.success.count"));
+			assertEquals(Operation.values().length * Outcome.values().length * 5,
+					server.getMBeanInfo(name).getAttributes().length);
+		} finally {
+			jmx.close();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+
+	/**
+	 * Method to test that every operation is counted, all those that hash a
+	 * password timed and the others sampled
+	 */
+	@Test
+	public void testSampling() throws Exception {
+		OperationMetrics sampled = new OperationMetrics(1 << 20);
+		for (int i = 0; i < 100; i++) {
+			sampled.record(Operation.LOGIN, Outcome.SUCCESS,
+					sampled.start(Operation.LOGIN));
+			sampled.record(Operation.LOGIN_CHECK, Outcome.SUCCESS,
+					sampled.start(Operation.LOGIN_CHECK));
+		}
+
+		assertEquals(100, sampled.getCount(Operation.LOGIN, Outcome.SUCCESS));
+		assertEquals(100,
+				sampled.getCount(Operation.LOGIN_CHECK, Outcome.SUCCESS));
+		StringWriter writer = new StringWriter();
+		sampled.writePrometheus(writer);
+		assertTrue(writer.toString().contains(
+				"accountstore_operation_duration_seconds_count{operation=\"login\",outcome=\"success\"} 100\n"));
+		assertTrue(OperationMetrics.NOT_TIMED != new OperationMetrics(1)
+				.start(Operation.LOGIN_CHECK));
+	}
+
+	/**
+	 * Method to test that the sample rate must be a power of two
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSampleRate() {
+		new OperationMetrics(10);
+	}
+
+	/**
+	 * Method to test that the statistics of the cache are read through JMX
+	 * and in the Prometheus text format, if the metrics have a cache
+	 */
+	@Test
+	public void testCacheMetrics() throws Exception {
+		CachingAccountStoreDao cache = new CachingAccountStoreDao(
+				new ConcurrentAccountStoreDaoImpl(), 10, 0);
+		cache.save(new Account("Alex", null, "alex@gmail.com", null));
+		cache.findByName("Alex");
+		cache.findByName("Alex");
+		cache.findByName("Bob");
+		metrics.setCache(cache);
+		StringWriter writer = new StringWriter();
+		metrics.writePrometheus(writer);
+		String text = writer.toString();
+		assertTrue(text.contains("# TYPE accountstore_cache_lookups_total counter\n"));
+		assertTrue(text.contains("accountstore_cache_lookups_total{result=\"hit\"} "
+				+ cache.getHitCount() + "\n"));
+		assertTrue(text.contains("accountstore_cache_lookups_total{result=\"miss\"} "
+				+ cache.getMissCount() + "\n"));
+		assertTrue(text.contains("accountstore_cache_hit_ratio "
+				+ cache.getHitRate() + "\n"));
+		assertTrue(text.contains("accountstore_cache_size " + cache.size()
+				+ "\n"));
+
+		OperationMetricsJmx jmx = new OperationMetricsJmx(metrics);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OperationMetricsJmx.OBJECT_NAME);
+		jmx.register();
+		try {
+			assertEquals(cache.getHitRate(),
+					server.getAttribute(name, "cache.hitRate"));
+			assertEquals(cache.getMissCount(),
+					server.getAttribute(name, "cache.missCount"));
+			assertEquals(0, server.getAttribute(name, "cache.pendingLoginCount"));
+			assertEquals(Operation.values().length * Outcome.values().length * 5 + 8,
+					server.getMBeanInfo(name).getAttributes().length);
+		} finally {
+			jmx.close();
+		}
+		assertTrue(cache.getHitCount() > 0);
+	}
+
+}
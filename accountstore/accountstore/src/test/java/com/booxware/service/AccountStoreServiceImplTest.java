@@ -1,23 +1,45 @@
 package com.booxware.service;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.util.Base64Utils;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import com.booxware.common.AccountStoreException;
 import com.booxware.dao.AccountStoreDao;
+import com.booxware.dao.AsyncAccountStoreDao;
 import com.booxware.dto.Account;
+import com.booxware.dto.AccountRequest;
+import com.booxware.dto.BatchResult;
+import com.booxware.metrics.Operation;
+import com.booxware.metrics.OperationMetrics;
+import com.booxware.metrics.Outcome;
 
 /**
  * Test class for AccountStoreServiceImpl
@@ -28,17 +50,31 @@ public class AccountStoreServiceImplTest {
 	@Mock
 	private AccountStoreDao accountStoreDao;
 
+	// few iterations, so that the tests do not spend their time hashing
+	private static final PasswordHasher passwordHasher = new PasswordHasher(
+			1000, 1, 16, 5000);
+
 	@InjectMocks
 	private AccountStoreServiceImpl acctStoreServiceImpl = new AccountStoreServiceImpl();
 
 	// prepare a test account
 	private static final Account accountMock = getMockAccount();
 	
+	@Before
+	public void setUp() {
+		acctStoreServiceImpl.passwordHasher = passwordHasher;
+	}
+
 	/**
 	 * Method to prepare mock account
 	 */
 	public static Account getMockAccount() {
-		byte[] encryptedPassword = AccountStoreServiceImpl.encryptPassword("secretpass");
+		byte[] encryptedPassword;
+		try {
+			encryptedPassword = passwordHasher.hash("secretpass");
+		} catch (AccountStoreException e) {
+			throw new IllegalStateException(e);
+		}
 		Account account = new Account("Alex", encryptedPassword, "alex@gmail.com",
 				new Date());
 		return account;
@@ -49,10 +85,11 @@ public class AccountStoreServiceImplTest {
 	 */
 	@Test
 	public void testSuccessCreateAccount() throws AccountStoreException {
-		when(this.accountStoreDao.findByName("Alex")).thenReturn(null);
+		when(this.accountStoreDao.saveIfAbsent(any(Account.class))).thenReturn(
+				accountMock);
 		try {
-			acctStoreServiceImpl.createAccount("Alex", "secretpass",
-					"alex@gmail.com");
+			acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+					"secretpass");
 		} catch (AccountStoreException e) {
 			assertTrue("Account creation failed", false);
 		}
@@ -64,9 +101,10 @@ public class AccountStoreServiceImplTest {
 	@Test(expected = AccountStoreException.class)
 	public void testCreateAccountWithUserAlreadyExist()
 			throws AccountStoreException {
-		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
-		acctStoreServiceImpl.createAccount("Alex", "secretpass",
-				"alex@gmail.com");
+		when(this.accountStoreDao.saveIfAbsent(any(Account.class))).thenReturn(
+				null);
+		acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+				"secretpass");
 	}
 
 	/**
@@ -79,6 +117,26 @@ public class AccountStoreServiceImplTest {
 		assertNotNull("Account update failed", acct);
 	}
 
+	/**
+	 * To test that a login with a weaker stored password writes back a new
+	 * hash, and a login with a current one does not
+	 */
+	@Test
+	public void testUpdateAccountRehashesWeakPassword()
+			throws AccountStoreException {
+		Account legacy = new Account("Bob", Base64Utils.encode("secretpass"
+				.getBytes()), "bob@gmail.com", new Date());
+		when(this.accountStoreDao.findByName("Bob")).thenReturn(legacy);
+		acctStoreServiceImpl.updateAccount("Bob", "secretpass");
+		verify(this.accountStoreDao, timeout(5000)).updatePassword(eq(legacy),
+				any(byte[].class));
+
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		acctStoreServiceImpl.updateAccount("Alex", "secretpass");
+		verify(this.accountStoreDao, never()).updatePassword(eq(accountMock),
+				any(byte[].class));
+	}
+
 	/**
 	 * To test the failure scenario of update account when provided user does
 	 * not exist
@@ -157,6 +215,117 @@ public class AccountStoreServiceImplTest {
 		acctStoreServiceImpl.hasLoggedInSince("Alex", new Date());
 	}
 
+	/**
+	 * To test that a userName unknown to the filter is rejected without a
+	 * lookup in the repository
+	 */
+	@Test
+	public void testUnknownUserNameRejectedByFilter() {
+		acctStoreServiceImpl.userNameFilter = new UserNameFilter(1000, 0.01);
+		try {
+			acctStoreServiceImpl.updateAccount("Alex", "secretpass");
+			assertTrue("Unknown user logged in", false);
+		} catch (AccountStoreException e) {
+			assertEquals("UserName is invalid", e.getMessage());
+			assertEquals("Stack trace captured", 0, e.getStackTrace().length);
+		}
+		verify(this.accountStoreDao, never()).findByName("Alex");
+	}
+
+	/**
+	 * To test that the filter follows the created and deleted accounts
+	 */
+	@Test
+	public void testFilterFollowsCreateAndDelete() throws AccountStoreException {
+		UserNameFilter filter = new UserNameFilter(1000, 0.01);
+		acctStoreServiceImpl.userNameFilter = filter;
+		when(this.accountStoreDao.saveIfAbsent(any(Account.class)))
+				.thenReturn(null).thenReturn(accountMock);
+		try {
+			acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+					"secretpass");
+			assertTrue("Duplicate account created", false);
+		} catch (AccountStoreException e) {
+			assertFalse(filter.mightContain("Alex"));
+		}
+		acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+				"secretpass");
+		assertTrue(filter.mightContain("Alex"));
+
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		when(this.accountStoreDao.delete(accountMock)).thenReturn(true);
+		acctStoreServiceImpl.deleteAccount("Alex");
+		assertFalse(filter.mightContain("Alex"));
+	}
+
+	/**
+	 * To test that an email of another account is rejected, when unique
+	 * emails are enforced
+	 */
+	@Test
+	public void testCreateAccountWithEmailAlreadyExist()
+			throws AccountStoreException {
+		acctStoreServiceImpl.uniqueEmail = true;
+		when(this.accountStoreDao.saveIfUnique(any(Account.class))).thenReturn(
+				null);
+		try {
+			acctStoreServiceImpl.createAccount("Bob", "alex@gmail.com",
+					"secretpass");
+			assertTrue("Account created with a used email", false);
+		} catch (AccountStoreException e) {
+			assertEquals("Email already exist. Please provide different Email",
+					e.getMessage());
+		}
+		verify(this.accountStoreDao, never()).saveIfAbsent(any(Account.class));
+
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		try {
+			acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+					"secretpass");
+			assertTrue("Duplicate account created", false);
+		} catch (AccountStoreException e) {
+			assertEquals(
+					"UserName already exist. Please provide different UserName",
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * To test that the created account has the given email and password
+	 */
+	@Test
+	public void testCreateAccountKeepsEmailAndPassword()
+			throws AccountStoreException {
+		when(this.accountStoreDao.saveIfAbsent(any(Account.class)))
+				.thenAnswer(new Answer<Account>() {
+					public Account answer(InvocationOnMock invocation) {
+						return (Account) invocation.getArguments()[0];
+					}
+				});
+		Account acct = acctStoreServiceImpl.createAccount("Alex",
+				"alex@gmail.com", "secretpass");
+		assertEquals("alex@gmail.com", acct.getEmail());
+		assertTrue(passwordHasher.verify("secretpass",
+				acct.getEncryptedPassword()));
+	}
+
+	/**
+	 * To test the lookup of an account by email
+	 */
+	@Test
+	public void testFindByEmail() throws AccountStoreException {
+		when(this.accountStoreDao.findByEmail("Alex@Gmail.com")).thenReturn(
+				accountMock);
+		assertEquals(accountMock,
+				acctStoreServiceImpl.findByEmail("Alex@Gmail.com"));
+		try {
+			acctStoreServiceImpl.findByEmail("bob@gmail.com");
+			assertTrue("Account found for unknown email", false);
+		} catch (AccountStoreException e) {
+			assertEquals("Email is invalid", e.getMessage());
+		}
+	}
+
 	/**
 	 * Method to prepare date
 	 */
@@ -170,4 +339,276 @@ public class AccountStoreServiceImplTest {
 	    return date;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * To test that the login index follows the created, logged in and
+	 * deleted accounts
+	 */
+	@Test
+	public void testLoginIndexFollowsAccounts() throws AccountStoreException {
+		LoginIndex index = new LoginIndex(LoginIndex.DEFAULT_BUCKET_MILLIS);
+		acctStoreServiceImpl.loginIndex = index;
+		Account account = new Account("Alex", getMockAccount()
+				.getEncryptedPassword(), "alex@gmail.com", getDate(-200));
+		account.setId(1000);
+		when(this.accountStoreDao.saveIfAbsent(any(Account.class))).thenReturn(
+				account);
+		// not found before it is created
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(null, account);
+		acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+				"secretpass");
+		assertEquals(1, acctStoreServiceImpl.countDormantSince(getDate(-180)));
+
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				((Account) invocation.getArguments()[0])
+						.advanceLastLogin((Long) invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(this.accountStoreDao).updateLastLogin(any(Account.class),
+				anyLong());
+		acctStoreServiceImpl.updateAccount("Alex", "secretpass");
+		assertEquals(0, acctStoreServiceImpl.countDormantSince(getDate(-180)));
+		assertEquals("Alex", acctStoreServiceImpl
+				.findActiveSince(getDate(-1)).iterator().next());
+
+		when(this.accountStoreDao.delete(account)).thenReturn(true);
+		acctStoreServiceImpl.deleteAccount("Alex");
+		assertEquals(0, acctStoreServiceImpl.countActiveSince(getDate(-1)));
+	}
+
+	/**
+	 * To test that a batch create saves the valid accounts in one call and
+	 * reports each failure on its own
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCreateAccounts() {
+		UserNameFilter filter = new UserNameFilter(1000, 0.01);
+		acctStoreServiceImpl.userNameFilter = filter;
+		when(this.accountStoreDao.saveAllIfAbsent(any(List.class)))
+				.thenAnswer(new Answer<List<Account>>() {
+					public List<Account> answer(InvocationOnMock invocation) {
+						List<Account> accounts = (List<Account>) invocation
+								.getArguments()[0];
+						assertEquals(2, accounts.size());
+						return Arrays.asList(accounts.get(0), null);
+					}
+				});
+		List<BatchResult> results = acctStoreServiceImpl.createAccounts(Arrays
+				.asList(new AccountRequest("Alex", "alex@gmail.com",
+						"secretpass"), new AccountRequest("Bob", "", "pass"),
+						new AccountRequest("Carl", "carl@gmail.com", "pass")));
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).isSuccess());
+		assertFalse(results.get(1).isSuccess());
+		assertEquals("UserName already exist. Please provide different UserName",
+				results.get(2).getMessage());
+		assertTrue(filter.mightContain("Alex"));
+		assertFalse(filter.mightContain("Carl"));
+		verify(this.accountStoreDao, never()).saveIfAbsent(any(Account.class));
+	}
+
+	/**
+	 * To test that a batch delete removes the known accounts in one call and
+	 * that a batch login check reports each user
+	 */
+	@Test
+	public void testDeleteAccountsAndHasLoggedInSince() {
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		when(this.accountStoreDao.deleteAll(Arrays.asList(accountMock)))
+				.thenReturn(new boolean[] { true });
+		List<BatchResult> checked = acctStoreServiceImpl.hasLoggedInSince(
+				Arrays.asList("Alex", "Bob"), getDate(-1));
+		assertEquals(Boolean.TRUE, checked.get(0).getLoggedIn());
+		assertEquals("UserName is invalid", checked.get(1).getMessage());
+
+		List<BatchResult> deleted = acctStoreServiceImpl.deleteAccounts(Arrays
+				.asList("Bob", "Alex"));
+		assertFalse(deleted.get(0).isSuccess());
+		assertTrue(deleted.get(1).isSuccess());
+		verify(this.accountStoreDao, never()).delete(any(Account.class));
+	}
+
+	/**
+	 * To test that the operations are recorded in the metrics by outcome
+	 */
+	@Test
+	public void testOperationMetrics() throws AccountStoreException {
+		OperationMetrics metrics = new OperationMetrics();
+		acctStoreServiceImpl.operationMetrics = metrics;
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		acctStoreServiceImpl.updateAccount("Alex", "secretpass");
+		try {
+			acctStoreServiceImpl.updateAccount("Alex", "wrongpass");
+		} catch (AccountStoreException e) {
+			// recorded as a bad password
+		}
+		try {
+			acctStoreServiceImpl.deleteAccount("Bob");
+		} catch (AccountStoreException e) {
+			// recorded as an unknown user
+		}
+		try {
+			acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+					"secretpass");
+		} catch (AccountStoreException e) {
+			// recorded as a duplicate
+		}
+
+		assertEquals(1, metrics.getCount(Operation.LOGIN, Outcome.SUCCESS));
+		assertEquals(1, metrics.getCount(Operation.LOGIN, Outcome.BAD_PASSWORD));
+		assertEquals(1, metrics.getCount(Operation.DELETE, Outcome.UNKNOWN_USER));
+		assertEquals(1, metrics.getCount(Operation.CREATE, Outcome.DUPLICATE));
+		assertEquals(0, metrics.getCount(Operation.CREATE, Outcome.SUCCESS));
+	}
+
+	/**
+	 * To test the successful scenarios of the asynchronous API, which
+	 * complete the futures with what the synchronous one returns
+	 */
+	@Test
+	public void testAsyncOperations() throws Exception {
+		when(this.accountStoreDao.saveIfAbsent(any(Account.class))).thenReturn(
+				accountMock);
+		assertEquals(accountMock, acctStoreServiceImpl.createAccountAsync(
+				"Alex", "alex@gmail.com", "secretpass").get());
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		assertEquals(accountMock,
+				acctStoreServiceImpl.updateAccountAsync("Alex", "secretpass")
+						.get());
+		verify(this.accountStoreDao).updateLastLogin(eq(accountMock), anyLong());
+		assertTrue(acctStoreServiceImpl.hasLoggedInSinceAsync("Alex",
+				getDate(-1)).get());
+		when(this.accountStoreDao.delete(accountMock)).thenReturn(true);
+		acctStoreServiceImpl.deleteAccountAsync("Alex").get();
+		verify(this.accountStoreDao).delete(accountMock);
+	}
+
+	/**
+	 * To test that the asynchronous API completes the futures with the
+	 * AccountStoreException of a failure, and records its outcome
+	 */
+	@Test
+	public void testAsyncOperationsFail() throws InterruptedException {
+		OperationMetrics metrics = new OperationMetrics(1);
+		acctStoreServiceImpl.operationMetrics = metrics;
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		try {
+			acctStoreServiceImpl.updateAccountAsync("Alex", "wrongpass").get();
+			assertTrue("Login with a wrong password succeeded", false);
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof AccountStoreException);
+		}
+		verify(this.accountStoreDao, never()).updateLastLogin(
+				any(Account.class), anyLong());
+		assertEquals(1, metrics.getCount(Operation.LOGIN, Outcome.BAD_PASSWORD));
+		try {
+			acctStoreServiceImpl.deleteAccountAsync("Bob").get();
+			assertTrue("Delete of an unknown user succeeded", false);
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof AccountStoreException);
+		}
+		verify(this.accountStoreDao, never()).delete(any(Account.class));
+		assertEquals(1, metrics.getCount(Operation.DELETE, Outcome.UNKNOWN_USER));
+	}
+
+	/**
+	 * To test that a registration of a taken userName fails before its
+	 * password is hashed
+	 */
+	@Test
+	public void testCreateAccountWithUserAlreadyExistSkipsHash() {
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		long hashes = passwordHasher.getHashCount();
+		try {
+			acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+					"secretpass");
+			assertTrue("Account created for a taken userName", false);
+		} catch (AccountStoreException e) {
+			assertEquals("UserName already exist. Please provide different UserName",
+					e.getMessage());
+		}
+		assertTrue(acctStoreServiceImpl.createAccountAsync("Alex",
+				"alex@gmail.com", "secretpass").isCompletedExceptionally());
+		assertEquals(hashes, passwordHasher.getHashCount());
+		verify(this.accountStoreDao, never()).saveIfAbsent(any(Account.class));
+	}
+
+	/**
+	 * To test that the expected failures of the asynchronous API reach the
+	 * caller without a stack trace, also after later stages pass them on
+	 */
+	@Test
+	public void testAsyncFailuresWithoutStackTrace() {
+		acctStoreServiceImpl.operationMetrics = new OperationMetrics(1);
+		when(this.accountStoreDao.findByName("Alex")).thenReturn(accountMock);
+		List<CompletableFuture<?>> failed = Arrays.<CompletableFuture<?>> asList(
+				acctStoreServiceImpl.updateAccountAsync("Alex", "wrongpass"),
+				acctStoreServiceImpl.deleteAccountAsync("Bob"),
+				acctStoreServiceImpl.hasLoggedInSinceAsync("Bob", getDate(-1)),
+				acctStoreServiceImpl.createAccountAsync("Alex",
+						"alex@gmail.com", "secretpass"));
+		for (CompletableFuture<?> future : failed) {
+			try {
+				future.join();
+				assertTrue("Asynchronous operation succeeded", false);
+			} catch (CompletionException e) {
+				assertTrue(e.getCause() instanceof AccountStoreException);
+				assertEquals(0, e.getStackTrace().length);
+				assertEquals(0, e.getCause().getStackTrace().length);
+			}
+		}
+	}
+
+	/**
+	 * To test that registrations of new userNames are not counted as
+	 * rejected by the filter, but lookups of unknown userNames are
+	 */
+	@Test
+	public void testFilterCountsOnlyRejectedLookups()
+			throws AccountStoreException {
+		UserNameFilter filter = new UserNameFilter(1000, 0.01);
+		acctStoreServiceImpl.userNameFilter = filter;
+		when(this.accountStoreDao.saveIfAbsent(any(Account.class))).thenReturn(
+				accountMock);
+		acctStoreServiceImpl.createAccount("Alex", "alex@gmail.com",
+				"secretpass");
+		assertEquals(0, filter.getRejectedCount());
+		try {
+			acctStoreServiceImpl.updateAccount("Bob", "secretpass");
+			assertTrue("Login of an unknown user succeeded", false);
+		} catch (AccountStoreException e) {
+			assertEquals(1, filter.getRejectedCount());
+		}
+	}
+
+	/**
+	 * To test that the asynchronous registration looks up a taken userName
+	 * on the threads of the AsyncAccountStoreDao, not on the calling thread
+	 */
+	@Test
+	public void testCreateAccountAsyncLooksUpOffCallingThread()
+			throws InterruptedException {
+		final String[] thread = new String[1];
+		doAnswer(new Answer<Account>() {
+			public Account answer(InvocationOnMock invocation) {
+				thread[0] = Thread.currentThread().getName();
+				return accountMock;
+			}
+		}).when(this.accountStoreDao).findByName("Alex");
+		AsyncAccountStoreDao asyncDao = new AsyncAccountStoreDao(
+				this.accountStoreDao, 1);
+		acctStoreServiceImpl.asyncAccountStoreDao = asyncDao;
+		try {
+			acctStoreServiceImpl.createAccountAsync("Alex", "alex@gmail.com",
+					"secretpass").get();
+			assertTrue("Account created for a taken userName", false);
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof AccountStoreException);
+		} finally {
+			asyncDao.close();
+		}
+		assertTrue(thread[0].startsWith("account-store-io-"));
+	}
+
+}
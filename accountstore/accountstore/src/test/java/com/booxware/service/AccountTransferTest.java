@@ -0,0 +1,167 @@
+package com.booxware.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dto.Account;
+import com.booxware.dto.AccountRequest;
+import com.booxware.dto.BatchResult;
+import com.booxware.dto.ImportResult;
+
+/**
+ * Test class for AccountTransfer
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AccountTransferTest {
+
+	@Mock
+	AccountStoreService acctStoreService;
+
+	@Mock
+	AccountStoreDao accountStoreDao;
+
+	@InjectMocks
+	AccountTransfer accountTransfer = new AccountTransfer();
+
+	//requests of all createAccounts calls, in order
+	List<AccountRequest> imported = new ArrayList<AccountRequest>();
+
+	@Before
+	public void setUp() {
+		accountTransfer.batchSize = 2;
+		when(acctStoreService.createAccounts(anyListOf(AccountRequest.class)))
+				.thenAnswer(new Answer<List<BatchResult>>() {
+					public List<BatchResult> answer(InvocationOnMock invocation) {
+						@SuppressWarnings("unchecked")
+						List<AccountRequest> batch = (List<AccountRequest>) invocation
+								.getArguments()[0];
+						List<BatchResult> results = new ArrayList<BatchResult>();
+						for (AccountRequest request : batch) {
+							imported.add(request);
+							// accounts without email fail, the others succeed
+							results.add(null == request.getEmail() ? BatchResult
+									.failed(request.getUserName(), "failed")
+									: BatchResult.deleted(request.getUserName()));
+						}
+						return results;
+					}
+				});
+	}
+
+	/**
+	 * Method to test that NDJSON records are imported in batches and that
+	 * failures are reported by record
+	 */
+	@Test
+	public void testImportNdjson() {
+		ImportResult result = accountTransfer.importAccounts(
+				input("{\"userName\":\"Alex\",\"email\":\"alex@gmail.com\",\"password\":\"secretpass\",\"id\":7}\n"
+						+ "{\"userName\":\"Bob\",\"password\":\"pass\"}\n"
+						+ "{\"userName\":\"Carl\",\"email\":\"carl@gmail.com\",\"password\":\"pass\",\"tags\":[1]}\n"),
+				AccountFormat.NDJSON);
+		assertNull(result.getMessage());
+		assertEquals(3, result.getRead());
+		assertEquals(2, result.getCreated());
+		assertEquals(1, result.getFailed());
+		assertEquals("Record 2 (Bob): failed", result.getErrors().get(0));
+		assertEquals("secretpass", imported.get(0).getPassword());
+		assertEquals("Carl", imported.get(2).getUserName());
+		verify(acctStoreService, times(2)).createAccounts(
+				anyListOf(AccountRequest.class));
+	}
+
+	/**
+	 * Method to test that quoted CSV fields are read by the columns of the
+	 * header
+	 */
+	@Test
+	public void testImportCsv() {
+		ImportResult result = accountTransfer.importAccounts(
+				input("password,UserName,email\r\n"
+						+ "\"secret,\"\"pass\"\"\",Alex,alex@gmail.com\r\n"
+						+ "\r\n" + "pass,\"Bob\nSmith\",bob@gmail.com\n"),
+				AccountFormat.CSV);
+		assertEquals(2, result.getCreated());
+		assertEquals("secret,\"pass\"", imported.get(0).getPassword());
+		assertEquals("Alex", imported.get(0).getUserName());
+		assertEquals("Bob\nSmith", imported.get(1).getUserName());
+	}
+
+	/**
+	 * Method to test that malformed input stops the import after the records
+	 * before it are created
+	 */
+	@Test
+	public void testImportStopsAtMalformedInput() {
+		ImportResult result = accountTransfer.importAccounts(
+				input("{\"userName\":\"Alex\",\"email\":\"alex@gmail.com\"}\n[1]\n"),
+				AccountFormat.NDJSON);
+		assertEquals(1, result.getCreated());
+		assertTrue(result.getMessage(),
+				result.getMessage().startsWith("Import stopped after record 1"));
+
+		result = accountTransfer.importAccounts(input("email\r\nalex@gmail.com"),
+				AccountFormat.CSV);
+		assertEquals(0, result.getRead());
+		assertEquals(
+				"Import stopped after record 0: CSV header must name a userName column",
+				result.getMessage());
+	}
+
+	/**
+	 * Method to test the export as NDJSON and CSV
+	 */
+	@Test
+	public void testExport() throws IOException {
+		Account alex = new Account("Alex", new byte[0], "alex@gmail.com",
+				new Date(1000));
+		alex.setId(1000);
+		Account bob = new Account("Bob", new byte[0], "bob,\"smith\"@gmail.com",
+				null);
+		bob.setId(1001);
+		List<Account> accounts = new ArrayList<Account>();
+		accounts.add(alex);
+		accounts.add(bob);
+		when(accountStoreDao.findAll()).thenReturn(accounts);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(2, accountTransfer.exportAccounts(out, AccountFormat.NDJSON));
+		assertEquals(
+				"{\"id\":1000,\"userName\":\"Alex\",\"email\":\"alex@gmail.com\",\"lastLogin\":1000}\n"
+						+ "{\"id\":1001,\"userName\":\"Bob\",\"email\":\"bob,\\\"smith\\\"@gmail.com\",\"lastLogin\":null}\n",
+				new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		out = new ByteArrayOutputStream();
+		accountTransfer.exportAccounts(out, AccountFormat.CSV);
+		assertEquals("id,userName,email,lastLogin\r\n"
+				+ "1000,Alex,alex@gmail.com,1000\r\n"
+				+ "1001,Bob,\"bob,\"\"smith\"\"@gmail.com\",\r\n",
+				new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private static ByteArrayInputStream input(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
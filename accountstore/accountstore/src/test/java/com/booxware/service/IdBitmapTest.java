@@ -0,0 +1,53 @@
+package com.booxware.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Test class for IdBitmap
+ */
+public class IdBitmapTest {
+
+	/**
+	 * Method to test that the bitmap holds the same ids as a set, while its
+	 * containers change between arrays and bitmaps
+	 */
+	@Test
+	public void testAddAndRemove() {
+		IdBitmap bitmap = new IdBitmap();
+		TreeSet<Long> expected = new TreeSet<Long>();
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			// dense ids in the first container, sparse ones elsewhere
+			long id = i % 2 == 0 ? random.nextInt(65536) : random
+					.nextInt(Integer.MAX_VALUE);
+			assertEquals(expected.add(id), bitmap.add(id));
+		}
+		assertEquals(expected.size(), bitmap.size());
+		assertSorted(expected, bitmap);
+		for (Long id : expected.toArray(new Long[0])) {
+			if (id % 3 != 0) {
+				assertTrue(bitmap.remove(id));
+				expected.remove(id);
+			}
+		}
+		assertFalse(bitmap.remove(3L));
+		assertEquals(expected.size(), bitmap.size());
+		assertSorted(expected, bitmap);
+	}
+
+	private static void assertSorted(TreeSet<Long> expected, IdBitmap bitmap) {
+		long[] ids = bitmap.toArray();
+		Arrays.sort(ids);
+		int i = 0;
+		for (Long id : expected) {
+			assertEquals(id.longValue(), ids[i++]);
+		}
+	}
+
+}
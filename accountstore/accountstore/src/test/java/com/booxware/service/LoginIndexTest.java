@@ -0,0 +1,140 @@
+package com.booxware.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.booxware.dao.ConcurrentAccountStoreDaoImpl;
+import com.booxware.dto.Account;
+
+/**
+ * Test class for LoginIndex
+ */
+public class LoginIndexTest {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	LoginIndex index = new LoginIndex(HOUR);
+
+	private static Account account(String userName, long id, long lastLogin) {
+		Account account = new Account(userName, new byte[0], userName
+				+ "@gmail.com", new Date(lastLogin));
+		account.setId(id);
+		return account;
+	}
+
+	private static List<String> list(Iterable<String> userNames) {
+		List<String> list = new ArrayList<String>();
+		for (String userName : userNames) {
+			list.add(userName);
+		}
+		return list;
+	}
+
+	/**
+	 * Method to test the counts and lists on both sides of a time, also
+	 * within the bucket that contains it
+	 */
+	@Test
+	public void testActiveAndDormant() {
+		index.add(account("Alex", 1, 10 * HOUR + 100));
+		index.add(account("Bob", 2, 10 * HOUR + 200));
+		index.add(account("Carl", 3, 2 * HOUR));
+		index.add(account("Dora", 4, 20 * HOUR));
+		index.add(new Account("Eve", new byte[0], "eve@gmail.com", null));
+
+		long since = 10 * HOUR + 100;
+		assertEquals(2, index.countActiveSince(since));
+		assertEquals(3, index.countDormantSince(since));
+		assertEquals(Arrays.asList("Dora", "Bob"),
+				list(index.findActiveSince(since)));
+		assertEquals(Arrays.asList("Eve", "Carl", "Alex"),
+				list(index.findDormantSince(since)));
+		assertEquals(4, index.countActiveSince(0));
+		assertEquals(0, index.countActiveSince(21 * HOUR));
+	}
+
+	/**
+	 * Method to test that a login moves an account forward only and that a
+	 * deleted account is not added again by a late login
+	 */
+	@Test
+	public void testLoginAndRemove() {
+		Account alex = account("Alex", 1, 2 * HOUR);
+		index.add(alex);
+		alex.advanceLastLogin(30 * HOUR);
+		index.recordLogin(alex);
+		assertEquals(1, index.countActiveSince(29 * HOUR));
+		assertEquals(1, index.getBucketCount());
+
+		index.recordLogin(account("Alex", 1, 5 * HOUR));
+		assertEquals(0, index.countDormantSince(29 * HOUR));
+
+		index.remove(alex);
+		alex.advanceLastLogin(31 * HOUR);
+		index.recordLogin(alex);
+		assertEquals(0, index.size());
+		assertEquals(0, index.getBucketCount());
+		assertTrue(list(index.findActiveSince(0)).isEmpty());
+	}
+
+	/**
+	 * Method to test that concurrent logins leave every account in the
+	 * bucket of its last login
+	 */
+	@Test
+	public void testConcurrentLogins() throws InterruptedException {
+		final List<Account> accounts = new ArrayList<Account>();
+		for (int i = 0; i < 1000; i++) {
+			Account account = account("user" + i, 1000 + i, 0);
+			accounts.add(account);
+			index.add(account);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				public void run() {
+					for (int hour = 1; hour <= 50; hour++) {
+						for (Account account : accounts) {
+							account.advanceLastLogin(hour * HOUR + thread);
+							index.recordLogin(account);
+						}
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(1000, index.countActiveSince(50 * HOUR - 1));
+		assertEquals(0, index.countDormantSince(50 * HOUR - 1));
+		assertEquals(1000, new HashSet<String>(list(index
+				.findActiveSince(50 * HOUR - 1))).size());
+		assertEquals(1, index.getBucketCount());
+	}
+
+	/**
+	 * Method to test that the index is loaded from the stored accounts
+	 */
+	@Test
+	public void testLoad() {
+		ConcurrentAccountStoreDaoImpl dao = new ConcurrentAccountStoreDaoImpl();
+		dao.save(new Account("Alex", new byte[0], "alex@gmail.com", new Date(
+				5 * HOUR)));
+		dao.save(new Account("Bob", new byte[0], "bob@gmail.com", new Date()));
+		LoginIndex loaded = LoginIndex.load(dao, HOUR);
+		assertEquals(2, loaded.size());
+		assertEquals(Arrays.asList("Alex"),
+				list(loaded.findDormantSince(6 * HOUR)));
+	}
+
+}
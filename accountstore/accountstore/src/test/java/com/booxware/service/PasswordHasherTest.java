@@ -0,0 +1,183 @@
+package com.booxware.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.util.Base64Utils;
+
+import com.booxware.common.AccountStoreException;
+
+/**
+ * Test class for PasswordHasher
+ */
+public class PasswordHasherTest {
+
+	PasswordHasher hasher = new PasswordHasher(1000, 1, 1, 60000);
+
+	@After
+	public void tearDown() {
+		hasher.close();
+	}
+
+	/**
+	 * Method to test that a hashed password is verified and salted
+	 */
+	@Test
+	public void testHashAndVerify() throws AccountStoreException {
+		byte[] stored = hasher.hash("secretpass");
+		assertTrue("Password not verified", hasher.verify("secretpass", stored));
+		assertFalse("Wrong password verified", hasher.verify("wrongpass", stored));
+		assertFalse("Hash is not salted",
+				Arrays.equals(stored, hasher.hash("secretpass")));
+		assertEquals(4, hasher.getHashCount());
+	}
+
+	/**
+	 * Method to test that a hash keeps its iterations when the hasher changes
+	 * and that passwords stored as Base64 are verified
+	 */
+	@Test
+	public void testVerifyOlderPasswords() throws AccountStoreException {
+		byte[] stored = hasher.hash("secretpass");
+		PasswordHasher stronger = new PasswordHasher(2000, 1, 1, 60000);
+		try {
+			assertTrue(stronger.verify("secretpass", stored));
+			assertTrue(stronger.verify("secretpass",
+					Base64Utils.encode("secretpass".getBytes())));
+			assertFalse(stronger.verify("wrongpass",
+					Base64Utils.encode("secretpass".getBytes())));
+		} finally {
+			stronger.close();
+		}
+	}
+
+	/**
+	 * Method to test that weaker passwords are hashed again in the background
+	 */
+	@Test
+	public void testRehash() throws Exception {
+		PasswordHasher weaker = new PasswordHasher(500, 1, 1, 60000);
+		byte[] weak;
+		try {
+			weak = weaker.hash("secretpass");
+		} finally {
+			weaker.close();
+		}
+		assertTrue(hasher.needsRehash(weak));
+		assertTrue(hasher.needsRehash(Base64Utils.encode("secretpass"
+				.getBytes())));
+		assertFalse(hasher.needsRehash(hasher.hash("secretpass")));
+
+		final BlockingQueue<byte[]> rehashed = new ArrayBlockingQueue<byte[]>(1);
+		assertTrue("Rehash skipped", hasher.rehash("secretpass",
+				new PasswordHasher.RehashCallback() {
+					public void onRehash(byte[] stored) {
+						rehashed.add(stored);
+					}
+				}));
+		byte[] stored = rehashed.poll(60, TimeUnit.SECONDS);
+		assertFalse(hasher.needsRehash(stored));
+		assertTrue(hasher.verify("secretpass", stored));
+		assertEquals(1, hasher.getRehashCount());
+	}
+
+	/**
+	 * Method to test that hashes are rejected once the thread and the queue
+	 * are busy
+	 */
+	@Test
+	public void testRejectWhenQueueIsFull() throws InterruptedException {
+		final PasswordHasher slow = new PasswordHasher(2000000, 1, 1, 60000);
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < 4; i++) {
+				results.add(callers.submit(new Callable<byte[]>() {
+					public byte[] call() throws AccountStoreException {
+						return slow.hash("secretpass");
+					}
+				}));
+			}
+			int rejected = 0;
+			for (Future<byte[]> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof AccountStoreException);
+					rejected++;
+				}
+			}
+			assertTrue("No hash rejected", rejected > 0);
+			assertEquals(rejected, slow.getRejectedCount());
+		} finally {
+			callers.shutdownNow();
+			slow.close();
+		}
+	}
+
+	/**
+	 * Method to test that hashAll hashes more passwords than the queue holds
+	 */
+	@Test
+	public void testHashAll() throws AccountStoreException {
+		List<byte[]> stored = hasher.hashAll(Arrays.asList("first", "second",
+				"third"));
+		assertEquals(3, stored.size());
+		assertTrue(hasher.verify("first", stored.get(0)));
+		assertTrue(hasher.verify("second", stored.get(1)));
+		assertTrue(hasher.verify("third", stored.get(2)));
+	}
+
+	/**
+	 * Method to test that the asynchronous hash and check agree with the
+	 * synchronous ones
+	 */
+	@Test
+	public void testHashAndVerifyAsync() throws Exception {
+		byte[] stored = hasher.hashAsync("secretpass").get();
+		assertTrue(hasher.verify("secretpass", stored));
+		assertTrue(hasher.verifyAsync("secretpass", stored).get());
+		assertFalse(hasher.verifyAsync("wrongpass", stored).get());
+		assertTrue(hasher.verifyAsync("secretpass",
+				Base64Utils.encode("secretpass".getBytes())).get());
+	}
+
+	/**
+	 * Method to test that an asynchronous hash the queue cannot take fails
+	 * right away
+	 */
+	@Test
+	public void testRejectAsyncWhenQueueIsFull() throws InterruptedException {
+		PasswordHasher slow = new PasswordHasher(2000000, 1, 1, 60000);
+		try {
+			slow.hashAsync("first");
+			slow.hashAsync("second");
+			CompletableFuture<byte[]> rejected = slow.hashAsync("third");
+			assertTrue(rejected.isCompletedExceptionally());
+			try {
+				rejected.get();
+				fail("Hash not rejected");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof AccountStoreException);
+			}
+			assertEquals(1, slow.getRejectedCount());
+		} finally {
+			slow.close();
+		}
+	}
+
+}
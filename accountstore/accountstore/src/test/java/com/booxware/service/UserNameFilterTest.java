@@ -0,0 +1,87 @@
+package com.booxware.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.booxware.dao.AccountStoreDao;
+import com.booxware.dao.ConcurrentAccountStoreDaoImpl;
+import com.booxware.dto.Account;
+
+/**
+ * Test class for UserNameFilter
+ */
+public class UserNameFilterTest {
+
+	/**
+	 * Method to test that added user names are found and removed ones are not
+	 */
+	@Test
+	public void testAddAndRemove() {
+		UserNameFilter filter = new UserNameFilter(1000, 0.01);
+		assertFalse(filter.mightContain("Alex"));
+		filter.add("Alex");
+		filter.add("Bob");
+		assertTrue(filter.mightContain("Alex"));
+		filter.remove("Alex");
+		assertFalse(filter.mightContain("Alex"));
+		assertTrue(filter.mightContain("Bob"));
+		assertEquals(2, filter.getRejectedCount());
+		assertFalse(filter.mightBeTaken("Alex"));
+		assertTrue(filter.mightBeTaken("Bob"));
+		assertEquals(2, filter.getRejectedCount());
+	}
+
+	/**
+	 * Method to test that no added user name is missed and few unknown ones
+	 * pass the filter
+	 */
+	@Test
+	public void testFalsePositiveRate() {
+		UserNameFilter filter = new UserNameFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add("user" + i);
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertTrue("Added user name missed", filter.mightContain("user" + i));
+		}
+		int passed = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain("unknown" + i)) {
+				passed++;
+			}
+		}
+		assertTrue("Too many false positives: " + passed, passed < 300);
+	}
+
+	/**
+	 * Method to test that removing user names never hides one that shares a
+	 * saturated counter
+	 */
+	@Test
+	public void testSaturatedCountersAreKept() {
+		UserNameFilter filter = new UserNameFilter(1, 0.5);
+		for (int i = 0; i < 100; i++) {
+			filter.add("user" + i);
+		}
+		for (int i = 1; i < 100; i++) {
+			filter.remove("user" + i);
+		}
+		assertTrue(filter.mightContain("user0"));
+	}
+
+	/**
+	 * Method to test that a loaded filter contains the stored user names
+	 */
+	@Test
+	public void testLoad() {
+		AccountStoreDao dao = new ConcurrentAccountStoreDaoImpl();
+		dao.save(new Account("Alex", null, null, null));
+		dao.save(new Account("Bob", null, null, null));
+		UserNameFilter filter = UserNameFilter.load(dao, 1000, 0.01);
+		assertTrue(filter.mightContain("Alex"));
+		assertTrue(filter.mightContain("Bob"));
+		assertFalse(filter.mightContain("Carl"));
+	}
+
+}